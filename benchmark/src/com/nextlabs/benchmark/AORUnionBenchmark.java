@@ -0,0 +1,102 @@
+package com.nextlabs.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nextlabs.common.SAPObject;
+import com.nextlabs.common.SortedCodeSets;
+
+/**
+ * Union of one AOR attribute over all the AORs of a user, as done by
+ * getSAPData: concatenation of the value lists (previous behaviour), hash set
+ * deduplication, and the merge of the encoded value sets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AORUnionBenchmark {
+
+	private static final String ATTRIBUTE = "sloc";
+
+	@Param({ "1", "10", "50", "100" })
+	public int aorCount;
+
+	@Param({ "10" })
+	public int valuesPerAOR;
+
+	// number of distinct values shared by all AORs, drives the duplicate ratio
+	@Param({ "200" })
+	public int distinctValues;
+
+	private List<SAPObject> aors;
+
+	// value lists as held by SAPObject before the values were encoded
+	private List<List<String>> valueLists;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		aors = new ArrayList<SAPObject>(aorCount);
+		valueLists = new ArrayList<List<String>>(aorCount);
+
+		for (int i = 0; i < aorCount; i++) {
+			SAPObject aor = new SAPObject("AOR" + i);
+			List<String> values = new ArrayList<String>(valuesPerAOR);
+			for (int j = 0; j < valuesPerAOR; j++) {
+				values.add("SLOC" + random.nextInt(distinctValues));
+			}
+			aor.addAttribute(ATTRIBUTE, values);
+			aors.add(aor);
+			valueLists.add(values);
+		}
+	}
+
+	@Benchmark
+	public List<String> concatenate() {
+		List<String> returnList = new ArrayList<String>();
+		for (List<String> result : valueLists) {
+			returnList.addAll(result);
+		}
+		return returnList;
+	}
+
+	@Benchmark
+	public List<String> hashSetUnion() {
+		Set<String> values = new LinkedHashSet<String>();
+		for (List<String> result : valueLists) {
+			values.addAll(result);
+		}
+		return new ArrayList<String>(values);
+	}
+
+	@Benchmark
+	public List<String> encodedUnion() {
+		List<int[]> sets = new ArrayList<int[]>(aors.size());
+		for (SAPObject aor : aors) {
+			int[] codes = aor.getAttributeCodes(ATTRIBUTE);
+			if (codes != null) {
+				sets.add(codes);
+			}
+		}
+		return SortedCodeSets.decode(SortedCodeSets.union(sets), SAPObject.getCodeTable());
+	}
+}
@@ -0,0 +1,174 @@
+package com.nextlabs.benchmark;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import com.nextlabs.common.Constants;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+
+/**
+ * In-memory directory (UnboundID) listening on a free local port, seeded with
+ * the users of a synthetic population and with groups of these users, so
+ * LdapProvider can be measured without a live directory. The directory
+ * supports the paged results control and keeps modifyTimestamp, like AD.
+ *
+ * Users are inetOrgPerson entries under ou=people with the attributes of
+ * {@link SyntheticPopulation#userEntry(int)}, ammoArea being multi-valued.
+ * Groups are groupOfNames entries under ou=groups, keyed by mail.
+ */
+public class EmbeddedDirectory {
+
+	public static final String BASE_DN = "o=" + SyntheticPopulation.DOMAIN;
+	public static final String USER_BASE_DN = "ou=people," + BASE_DN;
+	public static final String GROUP_BASE_DN = "ou=groups," + BASE_DN;
+
+	private final SyntheticPopulation population;
+	private final int groups;
+	private final int membersPerGroup;
+	private InMemoryDirectoryServer server;
+
+	/**
+	 * @param groups
+	 *            number of groups, 0 for none
+	 * @param membersPerGroup
+	 *            number of users member of every group
+	 */
+	public EmbeddedDirectory(SyntheticPopulation population, int groups, int membersPerGroup) {
+		this.population = population;
+		this.groups = groups;
+		this.membersPerGroup = membersPerGroup;
+	}
+
+	/**
+	 * Seeds the directory and starts listening.
+	 */
+	public void start() throws LDAPException {
+		InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
+		// ammoArea and the other custom attributes are not part of the standard schema
+		config.setSchema(null);
+		config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("benchmark", 0));
+
+		server = new InMemoryDirectoryServer(config);
+
+		server.add(new Entry(BASE_DN, new Attribute("objectClass", "top", "organization"),
+				new Attribute("o", SyntheticPopulation.DOMAIN)));
+		server.add(new Entry(USER_BASE_DN, new Attribute("objectClass", "top", "organizationalUnit"),
+				new Attribute("ou", "people")));
+		server.add(new Entry(GROUP_BASE_DN, new Attribute("objectClass", "top", "organizationalUnit"),
+				new Attribute("ou", "groups")));
+
+		for (int i = 0; i < population.getUserCount(); i++) {
+			server.add(userEntry(i));
+		}
+
+		for (int i = 0; i < groups; i++) {
+			server.add(groupEntry(i));
+		}
+
+		server.startListening();
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.shutDown(true);
+			server = null;
+		}
+	}
+
+	public int getPort() {
+		return server.getListenPort();
+	}
+
+	public int getEntryCount() {
+		return population.getUserCount() + groups;
+	}
+
+	public String userDN(int index) {
+		return "uid=" + population.employeeNumber(index) + "," + USER_BASE_DN;
+	}
+
+	/**
+	 * Returns the properties of a single domain profile (DOMAIN_1) reading
+	 * the directory, with the common LDAP properties.
+	 *
+	 * @param pageSize
+	 *            paging_size of the refresh
+	 */
+	public Properties ldapProperties(int pageSize) {
+		Properties props = new Properties();
+
+		props.setProperty("paging_size", String.valueOf(pageSize));
+		// a failed refresh fails the measurement instead of being retried in the background
+		props.setProperty("number_of_retries", "0");
+
+		props.setProperty("DOMAIN_1_host", "localhost");
+		props.setProperty("DOMAIN_1_port", String.valueOf(getPort()));
+		props.setProperty("DOMAIN_1_ssl", "false");
+		props.setProperty("DOMAIN_1_authentication", "none");
+		// the directory has no userAccountControl
+		props.setProperty("DOMAIN_1_get_disabled_accounts", "true");
+
+		props.setProperty("DOMAIN_1_user_search_base", USER_BASE_DN);
+		props.setProperty("DOMAIN_1_user_filter", "objectClass=inetOrgPerson");
+		props.setProperty("DOMAIN_1_user_key_attributes", "cs:employeeNumber");
+		StringBuilder attributes = new StringBuilder("multi:ammoArea");
+		for (String attribute : SyntheticPopulation.USER_ATTRIBUTES) {
+			attributes.append(",single:").append(attribute);
+		}
+		props.setProperty("DOMAIN_1_user_attributes_to_pull", attributes.toString());
+
+		if (groups > 0) {
+			props.setProperty("DOMAIN_1_group_search_base", GROUP_BASE_DN);
+			props.setProperty("DOMAIN_1_group_filter", "objectClass=groupOfNames");
+			props.setProperty("DOMAIN_1_group_key_attributes", "ci:mail");
+			props.setProperty("DOMAIN_1_group_attributes_to_pull", "multi:member");
+		}
+
+		return props;
+	}
+
+	private Entry userEntry(int index) {
+		String employeeNumber = population.employeeNumber(index);
+		Entry entry = new Entry(userDN(index),
+				new Attribute("objectClass", "top", "person", "organizationalPerson", "inetOrgPerson"),
+				new Attribute("uid", employeeNumber), new Attribute("cn", employeeNumber),
+				new Attribute("sn", employeeNumber));
+
+		for (Map.Entry<String, List<String>> attribute : population.userEntry(index).entrySet()) {
+			String name = attribute.getKey().equals(Constants.LDAP_ATTRIBUTE_AOR_KEY) ? "ammoArea"
+					: attribute.getKey();
+			if (!attribute.getValue().isEmpty()) {
+				entry.addAttribute(new Attribute(name, attribute.getValue()));
+			}
+		}
+		return entry;
+	}
+
+	private Entry groupEntry(int index) {
+		Random random = new Random(index);
+		String name = String.format("GROUP%05d", index);
+
+		Set<String> members = new LinkedHashSet<String>();
+		while (members.size() < Math.min(membersPerGroup, population.getUserCount())) {
+			members.add(userDN(random.nextInt(population.getUserCount())));
+		}
+		if (members.isEmpty()) {
+			// groupOfNames requires a member
+			members.add(BASE_DN);
+		}
+
+		return new Entry("cn=" + name + "," + GROUP_BASE_DN,
+				new Attribute("objectClass", "top", "groupOfNames"), new Attribute("cn", name),
+				new Attribute("mail", name.toLowerCase() + "@" + SyntheticPopulation.DOMAIN),
+				new Attribute("member", members));
+	}
+}
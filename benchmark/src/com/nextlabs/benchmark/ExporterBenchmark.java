@@ -0,0 +1,170 @@
+package com.nextlabs.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nextlabs.cache.CacheEngine;
+import com.nextlabs.common.Constants;
+import com.nextlabs.common.SAPObject;
+import com.nextlabs.nxljco.sap.JCoFunctionHandler;
+import com.nextlabs.nxljco.sap.SAPProvider;
+import com.nextlabs.nxljco.sap.exporter.FieldExporter;
+import com.nextlabs.nxljco.sap.exporter.ParameterExporter;
+import com.nextlabs.nxljco.sap.exporter.TableExporter;
+import com.nextlabs.nxljco.sap.importer.ParameterImporter;
+import com.nextlabs.nxljco.sap.simulator.SyntheticJCo;
+import com.sap.conn.jco.JCoField;
+import com.sap.conn.jco.JCoFieldIterator;
+import com.sap.conn.jco.JCoFunction;
+import com.sap.conn.jco.JCoParameterList;
+import com.sap.conn.jco.JCoTable;
+
+/**
+ * Cost of turning an ET_AOR_DETAILS response of 1k to 1M rows into objects:
+ * <ul>
+ * <li>tableExporter: the rows exported by TableExporter</li>
+ * <li>fieldExporter: the table field exported by FieldExporter</li>
+ * <li>parameterExporter: the export parameters exported by
+ * ParameterExporter, the XML of the payload is only rendered when a capture
+ * is requested, so it is not part of the score</li>
+ * <li>parameterImporter: the imports of a lookup of 100 AORs</li>
+ * <li>extractData: a lookup through SAPProvider, from the imports to the
+ * AORs written to the cache</li>
+ * </ul>
+ * The response is held by synthetic JCo tables, so the SAP call itself costs
+ * nothing. Scores are per response, divide them by the number of rows for
+ * the time per row. The allocation per response is reported by the gc
+ * profiler, with -Dbenchmark_args="-prof gc".
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g",
+		"-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.NoOpLog" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ExporterBenchmark {
+
+	private static final int LOOKUP_SIZE = 100;
+
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int rows;
+
+	@Param({ "10" })
+	public int valuesPerAOR;
+
+	@Param({ "200" })
+	public int distinctValues;
+
+	private JCoParameterList exports;
+	private JCoParameterList imports;
+	private List<String> lookup;
+	private SAPProvider sapProvider;
+
+	@Setup
+	public void setup() {
+		int rowsPerAOR = SyntheticPopulation.AOR_ATTRIBUTES.size() * valuesPerAOR;
+		SyntheticPopulation population = new SyntheticPopulation(0, rows / rowsPerAOR + 1, 0, valuesPerAOR,
+				distinctValues);
+
+		List<Object[]> detailRows = new ArrayList<Object[]>(rows);
+		for (int i = 0; detailRows.size() < rows; i++) {
+			for (Object[] row : population.aorDetailRows(population.aorId(i))) {
+				if (detailRows.size() < rows) {
+					detailRows.add(row);
+				}
+			}
+		}
+
+		lookup = new ArrayList<String>(LOOKUP_SIZE);
+		for (int i = 0; i < LOOKUP_SIZE; i++) {
+			lookup.add(population.aorId(i % population.getAORCount()));
+		}
+
+		JCoFunction function = SyntheticJCo.aorFunction(detailRows);
+		exports = function.getExportParameterList();
+		imports = function.getImportParameterList();
+
+		Properties props = new Properties();
+		props.setProperty("cache_heap_in_mb", "1024");
+		props.setProperty("sap_server_prefix", "BENCHMARK");
+		props.setProperty("sap_handler", function.getName());
+		props.setProperty("aor_attributes_to_pull", "multi:sloc,multi:whnum,multi:bizpn,multi:shippt,multi:fe");
+
+		// extractData writes the AORs to the shared cache engine
+		CacheEngine.getInstance().initializeCache(props);
+
+		JCoFunctionHandler handler = new JCoFunctionHandler("BENCHMARK");
+		handler.setFunction(function);
+
+		sapProvider = new SAPProvider();
+		sapProvider.setCommonProperties(props);
+		sapProvider.setIsSingleProfile(true);
+		sapProvider.loadSingleProfile(props);
+		sapProvider.setFunctionHandler(handler);
+	}
+
+	@Benchmark
+	public List<Object> tableExporter() {
+		return new TableExporter().export(field());
+	}
+
+	@Benchmark
+	public Object fieldExporter() {
+		return new FieldExporter().export(field());
+	}
+
+	@Benchmark
+	public Map<String, Object> parameterExporter() {
+		return new ParameterExporter().exportParameter(exports);
+	}
+
+	@Benchmark
+	public JCoParameterList parameterImporter() {
+		JCoTable aorTable = imports.getTable(Constants.IMPORT_AOR_ID);
+		aorTable.clear();
+		for (String aor : lookup) {
+			aorTable.appendRow();
+			aorTable.setValue(0, aor);
+		}
+
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put(Constants.IMPORT_AOR_ID, aorTable);
+		parameters.put(Constants.IMPORT_AOR_GET_ALL, Constants.IMPORT_AOR_GET_ALL_NO);
+
+		new ParameterImporter().importParameter(parameters, imports);
+		return imports;
+	}
+
+	@Benchmark
+	public List<SAPObject> extractData() {
+		return sapProvider.getSAPObject(lookup, null);
+	}
+
+	private JCoField field() {
+		JCoFieldIterator iterator = exports.getFieldIterator();
+		while (iterator.hasNextField()) {
+			JCoField field = iterator.nextField();
+			if (field.getName().equals(Constants.EXPORT_AOR_DETAILS)) {
+				return field;
+			}
+		}
+		throw new IllegalStateException(Constants.EXPORT_AOR_DETAILS + " is not exported");
+	}
+}
@@ -0,0 +1,165 @@
+package com.nextlabs.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.bluejungle.pf.domain.destiny.serviceprovider.ServiceProviderException;
+import com.bluejungle.pf.domain.destiny.subject.IDSubject;
+import com.nextlabs.cache.CacheEngine;
+import com.nextlabs.common.Constants;
+import com.nextlabs.common.SAPObject;
+import com.nextlabs.common.UserObject;
+import com.nextlabs.provider.UserAttributeProvider;
+
+/**
+ * Throughput and latency of UserAttributeProvider.getAttribute against the
+ * stand-in providers:
+ * <ul>
+ * <li>ldapAttributeHit: cached user, LDAP attribute</li>
+ * <li>aorAttributeHit: cached user and AORs, AOR attribute</li>
+ * <li>userMiss: user not cached, looked up from the LDAP stand-in</li>
+ * <li>aorMiss: cached user, AORs not cached, looked up from the SAP
+ * stand-in</li>
+ * </ul>
+ * The subject cache is disabled so every AOR request goes through getSAPData.
+ * Logging is disabled in the forked JVM, the request path only builds its
+ * messages when the level is enabled, so none are formatted here.
+ *
+ * Run with scripts/build_benchmark.xml, the thread counts are set by
+ * benchmark_threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.NoOpLog" })
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+public class GetAttributeBenchmark {
+
+	@Param({ "1", "10", "50", "100" })
+	public int aorsPerUser;
+
+	// users of the population, the first half is cached, the second half is missed
+	@Param({ "10000" })
+	public int users;
+
+	@Param({ "5000" })
+	public int aors;
+
+	@Param({ "10" })
+	public int valuesPerAOR;
+
+	@Param({ "200" })
+	public int distinctValues;
+
+	// users and AORs cached
+	private UserAttributeProvider warm;
+
+	// users cached, AOR cache empty
+	private UserAttributeProvider aorCold;
+
+	private IDSubject[] subjects;
+	private int cachedUsers;
+
+	@Setup
+	public void setup() {
+		SyntheticPopulation population = new SyntheticPopulation(users, aors, aorsPerUser, valuesPerAOR,
+				distinctValues);
+
+		cachedUsers = users / 2;
+		subjects = new IDSubject[users];
+		for (int i = 0; i < users; i++) {
+			String employeeNumber = population.employeeNumber(i);
+			subjects[i] = StandInSubjects.create("SAP" + employeeNumber, employeeNumber);
+		}
+
+		CacheEngine warmEngine = createEngine();
+		loadUsers(warmEngine, population);
+		loadAORs(warmEngine, population);
+
+		CacheEngine coldEngine = createEngine();
+		loadUsers(coldEngine, population);
+
+		warm = new UserAttributeProvider(warmEngine, new StandInLdapProvider(population),
+				new StandInSAPProvider(population));
+		aorCold = new UserAttributeProvider(coldEngine, new StandInLdapProvider(population),
+				new StandInSAPProvider(population));
+	}
+
+	@Benchmark
+	public IEvalValue ldapAttributeHit() throws ServiceProviderException {
+		return warm.getAttribute(cachedSubject(), "department");
+	}
+
+	@Benchmark
+	public IEvalValue aorAttributeHit() throws ServiceProviderException {
+		return warm.getAttribute(cachedSubject(), "sloc");
+	}
+
+	@Benchmark
+	public IEvalValue userMiss() throws ServiceProviderException {
+		int index = cachedUsers + ThreadLocalRandom.current().nextInt(users - cachedUsers);
+		return warm.getAttribute(subjects[index], "department");
+	}
+
+	@Benchmark
+	public IEvalValue aorMiss() throws ServiceProviderException {
+		return aorCold.getAttribute(cachedSubject(), "sloc");
+	}
+
+	private IDSubject cachedSubject() {
+		return subjects[ThreadLocalRandom.current().nextInt(cachedUsers)];
+	}
+
+	private static CacheEngine createEngine() {
+		Properties props = new Properties();
+		props.setProperty("cache_heap_in_mb", "512");
+		props.setProperty("subject_cache_max_entries", "0");
+
+		CacheEngine engine = new CacheEngine();
+		engine.initializeCache(props);
+		return engine;
+	}
+
+	private void loadUsers(CacheEngine engine, SyntheticPopulation population) {
+		List<UserObject> batch = new ArrayList<UserObject>(cachedUsers);
+		Map<String, String> identifiers = new HashMap<String, String>();
+
+		for (int i = 0; i < cachedUsers; i++) {
+			UserObject user = population.user(i);
+			batch.add(user);
+			identifiers.put((String) user.getAttribute(Constants.REQUEST_KEY_EMPLOYEE_NO).getValue(), user.getId());
+		}
+
+		engine.writeAllToUserCache(batch, false);
+		engine.addIdentifiers(identifiers);
+	}
+
+	private static void loadAORs(CacheEngine engine, SyntheticPopulation population) {
+		List<SAPObject> batch = new ArrayList<SAPObject>(population.getAORCount());
+
+		for (int i = 0; i < population.getAORCount(); i++) {
+			batch.add(population.aor(population.aorId(i)));
+		}
+
+		engine.writeAllToAORCache(batch);
+	}
+}
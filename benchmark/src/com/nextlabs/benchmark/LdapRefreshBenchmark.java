@@ -0,0 +1,148 @@
+package com.nextlabs.benchmark;
+
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.NamingException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nextlabs.cache.CacheEngine;
+import com.nextlabs.common.Constants;
+import com.nextlabs.common.UserObject;
+import com.nextlabs.ldap.LdapProvider;
+import com.unboundid.ldap.sdk.LDAPException;
+
+/**
+ * LdapProvider against an embedded in-memory directory:
+ * <ul>
+ * <li>refresh: full refresh of the users and groups into the cache, read in
+ * pages of pageSize entries, 0 reading the whole directory in a single
+ * page</li>
+ * <li>onDemandLookup: query of a random user, as done on a cache miss</li>
+ * </ul>
+ * The refresh runs against a cache loaded by the previous refresh, as the
+ * periodic refresh does. Divide the number of entries by the score of
+ * refresh for the entries per second. The heap growth of a refresh is
+ * reported by LdapRefreshHarness.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g",
+		"-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.NoOpLog" })
+public class LdapRefreshBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Directory {
+
+		@Param({ "10000", "100000" })
+		public int users;
+
+		@Param({ "5000" })
+		public int aors;
+
+		@Param({ "10" })
+		public int aorsPerUser;
+
+		@Param({ "100" })
+		public int groups;
+
+		@Param({ "50" })
+		public int membersPerGroup;
+
+		private SyntheticPopulation population;
+		private EmbeddedDirectory directory;
+
+		@Setup(Level.Trial)
+		public void start() throws LDAPException {
+			population = new SyntheticPopulation(users, aors, aorsPerUser, 0, 1);
+			directory = new EmbeddedDirectory(population, groups, membersPerGroup);
+			directory.start();
+		}
+
+		@TearDown(Level.Trial)
+		public void stop() {
+			directory.stop();
+		}
+
+		private LdapProvider createProvider(int pageSize) {
+			Properties props = directory.ldapProperties((pageSize == 0) ? directory.getEntryCount() : pageSize);
+			props.setProperty("cache_heap_in_mb", "2048");
+
+			CacheEngine.getInstance().initializeCache(props);
+
+			LdapProvider provider = new LdapProvider();
+			provider.setCommonProperties(props);
+			provider.setIsSingleProfile(true);
+			provider.loadSingleProfile(props);
+			return provider;
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Refresh {
+
+		@Param({ "0", "100", "1000" })
+		public int pageSize;
+
+		private LdapProvider provider;
+		private int entries;
+
+		@Setup(Level.Trial)
+		public void setup(Directory directory) {
+			provider = directory.createProvider(pageSize);
+			entries = directory.directory.getEntryCount();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Lookup {
+
+		private LdapProvider provider;
+		private SyntheticPopulation population;
+
+		@Setup(Level.Trial)
+		public void setup(Directory directory) {
+			provider = directory.createProvider(1000);
+			population = directory.population;
+		}
+	}
+
+	@Benchmark
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public int refresh(Refresh state) {
+		state.provider.refreshCache();
+
+		int refreshed = state.provider.getRefreshedCount();
+		if (refreshed != state.entries) {
+			throw new IllegalStateException(String.format("Refresh failed, [%d] of [%d] entries refreshed",
+					refreshed, state.entries));
+		}
+		return refreshed;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 5, time = 1)
+	@Measurement(iterations = 5, time = 2)
+	public UserObject onDemandLookup(Lookup state) throws NamingException {
+		int index = ThreadLocalRandom.current().nextInt(state.population.getUserCount());
+		return state.provider.getUserObject(state.population.employeeNumber(index),
+				Constants.REQUEST_KEY_EMPLOYEE_NO);
+	}
+}
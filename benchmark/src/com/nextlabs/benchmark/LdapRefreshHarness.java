@@ -0,0 +1,126 @@
+package com.nextlabs.benchmark;
+
+import java.util.Properties;
+import java.util.Random;
+
+import com.nextlabs.cache.CacheEngine;
+import com.nextlabs.common.Constants;
+import com.nextlabs.common.LatencyHistogram;
+import com.nextlabs.ldap.LdapProvider;
+
+/**
+ * Runs LdapProvider against an embedded in-memory directory and reports, for
+ * the initial load of the cache and for a refresh per page size, the entries
+ * refreshed per second and the heap growth, then the latency percentiles of
+ * on-demand lookups.
+ *
+ * Arguments: users, AORs per user, groups, page sizes separated by commas (0
+ * reads the whole directory in a single page) and number of lookups, e.g.
+ * <code>100000 10 100 0,100,1000 10000</code>
+ */
+public class LdapRefreshHarness {
+
+	private static final int AORS = 5000;
+	private static final int MEMBERS_PER_GROUP = 50;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 5) {
+			System.err.println("Usage: LdapRefreshHarness <users> <aorsPerUser> <groups> <pageSizes> <lookups>");
+			System.exit(1);
+		}
+
+		int users = Integer.parseInt(args[0]);
+		int aorsPerUser = Integer.parseInt(args[1]);
+		int groups = Integer.parseInt(args[2]);
+		String[] pageSizes = args[3].split(",");
+		int lookups = Integer.parseInt(args[4]);
+
+		SyntheticPopulation population = new SyntheticPopulation(users, AORS, aorsPerUser, 0, 1);
+		EmbeddedDirectory directory = new EmbeddedDirectory(population, groups, MEMBERS_PER_GROUP);
+
+		long seedStart = System.nanoTime();
+		directory.start();
+		System.out.println(String.format("Directory of [%d] entries seeded in %dms, listening on port [%d]",
+				directory.getEntryCount(), (System.nanoTime() - seedStart) / 1000000, directory.getPort()));
+
+		try {
+			Properties props = directory.ldapProperties(Integer.parseInt(pageSizes[0].trim()));
+			props.setProperty("cache_heap_in_mb", "2048");
+			CacheEngine.getInstance().initializeCache(props);
+
+			boolean initialLoad = true;
+			for (String pageSize : pageSizes) {
+				int size = Integer.parseInt(pageSize.trim());
+				String label = (size == 0) ? "single page" : String.format("pages of %d", size);
+
+				refresh(directory, props, (size == 0) ? directory.getEntryCount() : size,
+						initialLoad ? "Initial load, " + label : "Refresh, " + label);
+				initialLoad = false;
+			}
+
+			lookup(directory, population, props, lookups);
+		} finally {
+			directory.stop();
+		}
+	}
+
+	private static void refresh(EmbeddedDirectory directory, Properties props, int pageSize, String label) {
+		props.setProperty("paging_size", String.valueOf(pageSize));
+		LdapProvider provider = createProvider(props);
+
+		long heapBefore = usedHeap();
+		long start = System.nanoTime();
+
+		provider.refreshCache();
+
+		long elapsed = System.nanoTime() - start;
+		long heapAfter = usedHeap();
+		int refreshed = provider.getRefreshedCount();
+
+		System.out.println(String.format("%s: [%d] of [%d] entries in %dms, %.0f entries/s, heap growth %.1fMB",
+				label, refreshed, directory.getEntryCount(), elapsed / 1000000, refreshed * 1e9 / elapsed,
+				(heapAfter - heapBefore) / (1024.0 * 1024.0)));
+	}
+
+	private static void lookup(EmbeddedDirectory directory, SyntheticPopulation population, Properties props,
+			int lookups) throws Exception {
+		LdapProvider provider = createProvider(props);
+		LatencyHistogram histogram = new LatencyHistogram();
+		Random random = new Random(0);
+		int missing = 0;
+
+		for (int i = 0; i < lookups; i++) {
+			String employeeNumber = population.employeeNumber(random.nextInt(population.getUserCount()));
+
+			long start = System.nanoTime();
+			if (provider.getUserObject(employeeNumber, Constants.REQUEST_KEY_EMPLOYEE_NO) == null) {
+				missing++;
+			}
+			histogram.recordSince(start);
+		}
+
+		System.out.println(String.format("On-demand lookups: %s, [%d] not found", histogram, missing));
+	}
+
+	private static LdapProvider createProvider(Properties props) {
+		LdapProvider provider = new LdapProvider();
+		provider.setCommonProperties(props);
+		provider.setIsSingleProfile(true);
+		provider.loadSingleProfile(props);
+		return provider;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,148 @@
+package com.nextlabs.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.nextlabs.common.RequestCapture;
+
+/**
+ * Reads the requests logged by UserAttributeProvider at INFO level:
+ * <code>Incoming request from SAP with sapID [...] and employeeNumber [...] for attribute [...]</code>.
+ * In logs written before the attribute was part of that line, the attribute
+ * is read from the next line naming it (Attribute [...] is needed from ...,
+ * Getting attribute [...] for ... or Unknow attribute [...]), the requests
+ * being served one at a time. The time of a request is the first timestamp of
+ * its line (yyyy-MM-dd HH:mm:ss with optional fractions of a second), or the
+ * time of the previous request if the line has none.
+ */
+public class RequestLogParser {
+
+	private static final Pattern INCOMING = Pattern.compile(
+			"Incoming request from SAP with sapID \\[(.*?)\\] and employeeNumber \\[(.*?)\\](?: for attribute \\[(.*?)\\])?");
+	private static final Pattern ATTRIBUTE = Pattern.compile(
+			"(?:Attribute \\[(.*?)\\] is needed from|Getting attribute \\[(.*?)\\] for|Unknow attribute \\[(.*?)\\])");
+	private static final Pattern TIMESTAMP = Pattern.compile(
+			"(\\d{4})-(\\d{2})-(\\d{2})[ T](\\d{2}):(\\d{2}):(\\d{2})(?:[.,](\\d{1,9}))?");
+
+	private final List<RequestCapture.Request> requests;
+	private long firstNanos;
+	private long lastNanos;
+	// a timestamp was read, the offsets are relative to the first one
+	private boolean timed;
+	private boolean started;
+
+	// request waiting for its attribute
+	private String pendingSapId;
+	private String pendingEmployeeNumber;
+	private long pendingNanos;
+	private boolean pending;
+
+	private long lines;
+
+	public RequestLogParser() {
+		requests = new ArrayList<RequestCapture.Request>();
+	}
+
+	/**
+	 * Reads a log, the logs of a rotation being read oldest first.
+	 */
+	public void parse(Reader log) throws IOException {
+		BufferedReader reader = new BufferedReader(log);
+		String line;
+
+		while ((line = reader.readLine()) != null) {
+			lines++;
+
+			Matcher incoming = INCOMING.matcher(line);
+			if (incoming.find()) {
+				complete(null);
+
+				long nanos = timestamp(line);
+				String sapId = incoming.group(1);
+				String employeeNumber = incoming.group(2);
+
+				if (incoming.group(3) != null) {
+					add(nanos, sapId, employeeNumber, incoming.group(3));
+				} else {
+					pendingSapId = sapId;
+					pendingEmployeeNumber = employeeNumber;
+					pendingNanos = nanos;
+					pending = true;
+				}
+				continue;
+			}
+
+			if (pending) {
+				Matcher attribute = ATTRIBUTE.matcher(line);
+				if (attribute.find()) {
+					for (int i = 1; i <= attribute.groupCount(); i++) {
+						if (attribute.group(i) != null) {
+							complete(attribute.group(i));
+							break;
+						}
+					}
+				}
+			}
+		}
+
+		complete(null);
+	}
+
+	/**
+	 * Returns the requests read, the offsets being relative to the first one.
+	 */
+	public List<RequestCapture.Request> getRequests() {
+		return requests;
+	}
+
+	public long getLineCount() {
+		return lines;
+	}
+
+	private void complete(String attribute) {
+		if (pending) {
+			pending = false;
+			add(pendingNanos, pendingSapId, pendingEmployeeNumber, attribute);
+		}
+	}
+
+	private void add(long nanos, String sapId, String employeeNumber, String attribute) {
+		if (timed && !started) {
+			firstNanos = nanos;
+			started = true;
+		}
+
+		// a request logged out of order is replayed at the time of the previous one
+		long offset = Math.max(started ? nanos - firstNanos : 0, requests.isEmpty() ? 0
+				: requests.get(requests.size() - 1).getOffsetNanos());
+
+		requests.add(new RequestCapture.Request(offset, sapId.isEmpty() ? null : sapId,
+				employeeNumber.isEmpty() || employeeNumber.equals("null") ? null : employeeNumber, attribute));
+	}
+
+	private long timestamp(String line) {
+		Matcher matcher = TIMESTAMP.matcher(line);
+
+		if (!matcher.find()) {
+			return timed ? lastNanos : 0;
+		}
+
+		String fraction = (matcher.group(7) == null) ? "0" : matcher.group(7);
+		int nanoOfSecond = Integer.parseInt((fraction + "000000000").substring(0, 9));
+
+		LocalDateTime time = LocalDateTime.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)),
+				Integer.parseInt(matcher.group(3)), Integer.parseInt(matcher.group(4)),
+				Integer.parseInt(matcher.group(5)), Integer.parseInt(matcher.group(6)), nanoOfSecond);
+
+		timed = true;
+		lastNanos = time.toEpochSecond(ZoneOffset.UTC) * 1000000000L + nanoOfSecond;
+		return lastNanos;
+	}
+}
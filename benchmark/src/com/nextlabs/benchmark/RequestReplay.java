@@ -0,0 +1,362 @@
+package com.nextlabs.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.bluejungle.pf.domain.destiny.serviceprovider.ServiceProviderException;
+import com.bluejungle.pf.domain.destiny.subject.IDSubject;
+import com.nextlabs.common.LatencyHistogram;
+import com.nextlabs.common.RequestCapture;
+
+/**
+ * Replays production requests against the plugin with the simulated backends
+ * (see SimulatedPlugin), in the order and at the times they were received,
+ * and reports the cache hit ratios and the latency percentiles, to evaluate
+ * a cache configuration on the real traffic.
+ *
+ * The requests are read from captures written by the plugin
+ * (request_capture_file) or from the plugin logs, see RequestLogParser.
+ * Every distinct employee number is replaced by a user of the synthetic
+ * population, so the users keep their share of the requests. The AOR
+ * attributes are replayed as they are, the other attributes are replaced by
+ * an LDAP attribute of the population.
+ *
+ * Arguments: a properties file with the plugin properties and the replay_*
+ * properties, followed by the captures or by the logs, oldest first:
+ * <ul>
+ * <li>replay_speed: 1 replays at the original pace, 2 twice as fast, 0 as
+ * fast as the threads allow</li>
+ * <li>replay_threads: requests served at the same time</li>
+ * <li>replay_aors_per_user: AORs in the ammoArea of every user</li>
+ * <li>replay_ldap_latency_ms: time taken by the LDAP lookup of a user
+ * missing from the cache</li>
+ * <li>replay_preload: load every user and AOR in the cache first, as the
+ * initial refresh does</li>
+ * <li>replay_report_seconds: interval of the progress reports</li>
+ * </ul>
+ * With a speed, the latency of a request is measured from the time it was
+ * due, including the time it waited for a thread.
+ */
+public class RequestReplay {
+
+	private final SimulatedPlugin plugin;
+	private final List<RequestCapture.Request> requests;
+	private final int[] users;
+	private final String[] attributes;
+	private final boolean[] aorAttributes;
+
+	private final double speed;
+	private final int threads;
+	private final long reportNanos;
+
+	private final LatencyHistogram intervalLatency;
+	private final LatencyHistogram ldapLatency;
+	private final LatencyHistogram aorLatency;
+	private final AtomicLong userRequests;
+	private final AtomicLong aorRequests;
+	private final AtomicLong nullValues;
+
+	public RequestReplay(Properties props, List<RequestCapture.Request> requests) {
+		this.requests = requests;
+
+		// a user of the population per employee number, in the order of the first request
+		Map<String, Integer> userIndexes = new HashMap<String, Integer>();
+		users = new int[requests.size()];
+		for (int i = 0; i < requests.size(); i++) {
+			String employeeNumber = requests.get(i).getEmployeeNumber();
+
+			if (employeeNumber == null) {
+				users[i] = -1;
+				continue;
+			}
+
+			Integer index = userIndexes.get(employeeNumber);
+			if (index == null) {
+				index = userIndexes.size();
+				userIndexes.put(employeeNumber, index);
+			}
+			users[i] = index;
+		}
+
+		plugin = new SimulatedPlugin(props, Math.max(1, userIndexes.size()),
+				SimulatedPlugin.getInt(props, "replay_aors_per_user", 10),
+				(long) (SimulatedPlugin.getDouble(props, "replay_ldap_latency_ms", 5) * 1000000));
+
+		Set<String> aorNames = new HashSet<String>(plugin.getAORAttributes());
+		List<String> ldapNames = plugin.getUserAttributes();
+		attributes = new String[requests.size()];
+		aorAttributes = new boolean[requests.size()];
+
+		for (int i = 0; i < requests.size(); i++) {
+			String attribute = requests.get(i).getAttribute();
+			String name = (attribute == null) ? "" : attribute.toLowerCase();
+
+			if (aorNames.contains(name)) {
+				attributes[i] = name;
+				aorAttributes[i] = true;
+			} else if (ldapNames.contains(name)) {
+				attributes[i] = name;
+			} else {
+				attributes[i] = ldapNames.get((name.hashCode() & Integer.MAX_VALUE) % ldapNames.size());
+			}
+		}
+
+		speed = SimulatedPlugin.getDouble(props, "replay_speed", 1);
+		threads = Math.max(1, SimulatedPlugin.getInt(props, "replay_threads", 16));
+		reportNanos = TimeUnit.SECONDS.toNanos(Math.max(1, SimulatedPlugin.getInt(props, "replay_report_seconds", 5)));
+
+		if (plugin.getProperties().getProperty("replay_preload", "true").equalsIgnoreCase("true")) {
+			plugin.preload();
+		}
+
+		intervalLatency = new LatencyHistogram();
+		ldapLatency = new LatencyHistogram();
+		aorLatency = new LatencyHistogram();
+		userRequests = new AtomicLong();
+		aorRequests = new AtomicLong();
+		nullValues = new AtomicLong();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: RequestReplay <replay.properties> <capture or log>...");
+			System.exit(1);
+		}
+
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(args[0]);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+
+		List<RequestCapture.Request> requests = new ArrayList<RequestCapture.Request>();
+		boolean captures = isCapture(args[1]);
+
+		if (captures) {
+			for (int i = 1; i < args.length; i++) {
+				requests.addAll(readCapture(args[i], requests.isEmpty() ? 0
+						: requests.get(requests.size() - 1).getOffsetNanos()));
+			}
+		} else {
+			// the logs of a rotation are read as one
+			RequestLogParser parser = new RequestLogParser();
+			for (int i = 1; i < args.length; i++) {
+				InputStreamReader log = new InputStreamReader(new FileInputStream(args[i]), StandardCharsets.UTF_8);
+				try {
+					parser.parse(log);
+				} finally {
+					log.close();
+				}
+			}
+			requests.addAll(parser.getRequests());
+			System.out.println(String.format("[%d] requests read from [%d] log lines", requests.size(),
+					parser.getLineCount()));
+		}
+
+		if (requests.isEmpty()) {
+			System.err.println("No request found");
+			System.exit(1);
+		}
+
+		new RequestReplay(props, requests).run();
+		System.exit(0);
+	}
+
+	public void run() throws InterruptedException {
+		long span = requests.get(requests.size() - 1).getOffsetNanos();
+		System.out.println(String.format("Replaying [%d] requests of [%d] users over %ds, %s, [%d] threads",
+				requests.size(), plugin.getPopulation().getUserCount(), TimeUnit.NANOSECONDS.toSeconds(span),
+				(speed > 0) ? String.format("speed x%.1f", speed) : "as fast as possible", threads));
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		Semaphore permits = new Semaphore(threads);
+
+		long start = System.nanoTime();
+		long nextReport = start + reportNanos;
+		long lastReport = start;
+		long lastRequests = 0;
+		long lastUserRequests = 0;
+		long lastLookups = 0;
+		long lastCalls = 0;
+		long lastAORRequests = 0;
+		long maxLagNanos = 0;
+
+		for (int i = 0; i < requests.size(); i++) {
+			long due = (speed > 0) ? start + (long) (requests.get(i).getOffsetNanos() / speed) : 0;
+			long now = System.nanoTime();
+
+			while (due > now || now >= nextReport) {
+				if (now >= nextReport) {
+					long served = ldapLatency.getCount() + aorLatency.getCount();
+					long withUser = userRequests.get();
+					long aors = aorRequests.get();
+					long lookups = plugin.getUserLookupCount();
+					long calls = plugin.getRFCCallCount();
+
+					LatencyHistogram interval = new LatencyHistogram();
+					interval.add(intervalLatency);
+					intervalLatency.reset();
+
+					System.out.println(String.format("[%4ds] request [%d] of [%d], %8.0f requests/s, %s, %s",
+							TimeUnit.NANOSECONDS.toSeconds(now - start), i, requests.size(),
+							(served - lastRequests) * 1e9 / (now - lastReport),
+							hitRatios(withUser - lastUserRequests, lookups - lastLookups, aors - lastAORRequests,
+									calls - lastCalls), interval));
+
+					lastReport = now;
+					lastRequests = served;
+					lastUserRequests = withUser;
+					lastLookups = lookups;
+					lastCalls = calls;
+					lastAORRequests = aors;
+					nextReport += reportNanos;
+				} else {
+					LockSupport.parkNanos(Math.min(due, nextReport) - now);
+				}
+				now = System.nanoTime();
+			}
+
+			permits.acquire();
+			long dispatched = System.nanoTime();
+			if (due > 0) {
+				maxLagNanos = Math.max(maxLagNanos, dispatched - due);
+			}
+			executor.execute(new Replayed(i, (due > 0) ? due : dispatched, permits));
+		}
+
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.HOURS);
+
+		report(System.nanoTime() - start, maxLagNanos);
+	}
+
+	private void report(long elapsedNanos, long maxLagNanos) {
+		LatencyHistogram all = new LatencyHistogram();
+		all.add(ldapLatency);
+		all.add(aorLatency);
+
+		System.out.println(String.format(
+				"Total: [%d] requests in %ds, %.0f requests/s, [%d] null values, dispatched up to %dms late",
+				all.getCount(), TimeUnit.NANOSECONDS.toSeconds(elapsedNanos), all.getCount() * 1e9 / elapsedNanos,
+				nullValues.get(), TimeUnit.NANOSECONDS.toMillis(maxLagNanos)));
+		System.out.println(String.format("  %s, [%d] user misses, [%d] RFC calls",
+				hitRatios(userRequests.get(), plugin.getUserLookupCount(), aorRequests.get(),
+						plugin.getRFCCallCount()),
+				plugin.getUserLookupCount(), plugin.getRFCCallCount()));
+		System.out.println(String.format("  all:            %s", all));
+		System.out.println(String.format("  LDAP attribute: %s", ldapLatency));
+		System.out.println(String.format("  AOR attribute:  %s", aorLatency));
+	}
+
+	/**
+	 * The user cache hit ratio is the share of the requests not looked up
+	 * from LDAP, the AOR hit ratio the share of the AOR requests answered
+	 * without an RFC call, a request making at most one.
+	 */
+	private static String hitRatios(long requests, long lookups, long aorRequests, long calls) {
+		return String.format("user cache hits %.1f%%, AOR hits %.1f%%", ratio(requests - lookups, requests),
+				ratio(aorRequests - calls, aorRequests));
+	}
+
+	private static double ratio(long hits, long total) {
+		return (total == 0) ? 100 : Math.max(0, hits) * 100.0 / total;
+	}
+
+	private class Replayed implements Runnable {
+
+		private final int index;
+		private final long due;
+		private final Semaphore permits;
+
+		Replayed(int index, long due, Semaphore permits) {
+			this.index = index;
+			this.due = due;
+			this.permits = permits;
+		}
+
+		@Override
+		public void run() {
+			try {
+				RequestCapture.Request request = requests.get(index);
+				String employeeNumber = (users[index] < 0) ? null
+						: plugin.getPopulation().employeeNumber(users[index]);
+				IDSubject subject = StandInSubjects.create(
+						(request.getSapId() == null) ? "SAP" + employeeNumber : request.getSapId(), employeeNumber);
+
+				IEvalValue value;
+				try {
+					value = plugin.getProvider().getAttribute(subject, attributes[index]);
+				} catch (ServiceProviderException e) {
+					value = null;
+				}
+
+				long elapsed = System.nanoTime() - due;
+				intervalLatency.record(elapsed);
+				(aorAttributes[index] ? aorLatency : ldapLatency).record(elapsed);
+
+				if (employeeNumber != null) {
+					userRequests.incrementAndGet();
+					if (aorAttributes[index]) {
+						aorRequests.incrementAndGet();
+					}
+				}
+				if (value == null || value.getValue() == null) {
+					nullValues.incrementAndGet();
+				}
+			} finally {
+				permits.release();
+			}
+		}
+	}
+
+	private static boolean isCapture(String file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return in.readInt() == RequestCapture.MAGIC;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a capture, the requests following those already read.
+	 */
+	private static List<RequestCapture.Request> readCapture(String file, long offsetNanos) throws IOException {
+		List<RequestCapture.Request> requests = new ArrayList<RequestCapture.Request>();
+		RequestCapture.Reader reader = new RequestCapture.Reader(new BufferedInputStream(new FileInputStream(file)));
+
+		try {
+			RequestCapture.Request request;
+			while ((request = reader.next()) != null) {
+				requests.add(new RequestCapture.Request(offsetNanos + request.getOffsetNanos(), request.getSapId(),
+						request.getEmployeeNumber(), request.getAttribute()));
+			}
+		} finally {
+			reader.close();
+		}
+		return requests;
+	}
+}
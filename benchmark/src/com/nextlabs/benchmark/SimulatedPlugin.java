@@ -0,0 +1,218 @@
+package com.nextlabs.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.nextlabs.cache.CacheEngine;
+import com.nextlabs.common.Constants;
+import com.nextlabs.common.SAPObject;
+import com.nextlabs.common.UserObject;
+import com.nextlabs.nxljco.sap.SAPProvider;
+import com.nextlabs.nxljco.sap.simulator.SimulatedAORMaster;
+import com.nextlabs.nxljco.sap.simulator.SimulatedJCoFunctionHandler;
+import com.nextlabs.provider.UserAttributeProvider;
+
+/**
+ * The plugin on the real cache, configured by the plugin properties, with the
+ * simulated SAP backend and an LDAP stand-in writing the users looked up to
+ * the cache after a latency, as LdapProvider does on a miss. The users and
+ * their AORs are those of a synthetic population, the AOR master of the
+ * population being configured by the sap_simulator_* properties. Used by the
+ * load tools.
+ */
+public class SimulatedPlugin {
+
+	private final Properties props;
+	private final SyntheticPopulation population;
+	private final CacheEngine engine;
+	private final StandInLdapProvider ldapProvider;
+	private final CountingFunctionHandler functionHandler;
+	private final UserAttributeProvider provider;
+	private final List<String> userAttributes;
+	private final List<String> aorAttributes;
+
+	/**
+	 * @param users
+	 *            number of users of the population
+	 * @param aorsPerUser
+	 *            number of AORs in the ammoArea of every user
+	 * @param ldapLatencyNanos
+	 *            time taken by the LDAP lookup of a user missing from the
+	 *            cache
+	 */
+	public SimulatedPlugin(Properties props, int users, int aorsPerUser, long ldapLatencyNanos) {
+		this.props = withDefaults(props);
+
+		population = new SyntheticPopulation(users, getInt(this.props, "sap_simulator_aors", 10000), aorsPerUser,
+				getInt(this.props, "sap_simulator_values_per_aor", 5),
+				getInt(this.props, "sap_simulator_distinct_values", 200));
+
+		engine = CacheEngine.getInstance();
+		engine.initializeCache(this.props);
+
+		ldapProvider = new StandInLdapProvider(population, engine, ldapLatencyNanos);
+
+		SimulatedJCoFunctionHandler.Settings settings = SimulatedJCoFunctionHandler.fromProperties(this.props)
+				.getSettings();
+		functionHandler = new CountingFunctionHandler(population.getAORMaster(), settings);
+
+		SAPProvider sapProvider = new SAPProvider();
+		sapProvider.setCommonProperties(this.props);
+		sapProvider.setIsSingleProfile(true);
+		sapProvider.loadSingleProfile(this.props);
+		sapProvider.setFunctionHandler(functionHandler);
+		if (sapProvider.getProfile() == null) {
+			throw new IllegalArgumentException(
+					"Invalid SAP profile, check sap_server_prefix, sap_handler and aor_attributes_to_pull");
+		}
+		engine.getAorAttributeView().setAttributes(sapProvider.getProfile().getAORAttributesToPull());
+
+		provider = new UserAttributeProvider(engine, ldapProvider, sapProvider);
+
+		userAttributes = new ArrayList<String>(ldapProvider.getProfile().getUserAttributesToPull());
+		aorAttributes = new ArrayList<String>(sapProvider.getProfile().getAORAttributesToPull());
+	}
+
+	public Properties getProperties() {
+		return props;
+	}
+
+	public SyntheticPopulation getPopulation() {
+		return population;
+	}
+
+	public CacheEngine getEngine() {
+		return engine;
+	}
+
+	public UserAttributeProvider getProvider() {
+		return provider;
+	}
+
+	public List<String> getUserAttributes() {
+		return userAttributes;
+	}
+
+	public List<String> getAORAttributes() {
+		return aorAttributes;
+	}
+
+	/**
+	 * Returns the number of users looked up from the LDAP stand-in, i.e. the
+	 * user cache misses.
+	 */
+	public long getUserLookupCount() {
+		return ldapProvider.getLookupCount();
+	}
+
+	/**
+	 * Returns the number of RFC calls to the simulated SAP backend.
+	 */
+	public long getRFCCallCount() {
+		return functionHandler.getCallCount();
+	}
+
+	/**
+	 * Loads every user and AOR in the cache, as the initial refresh does.
+	 */
+	public void preload() {
+		long start = System.nanoTime();
+
+		List<UserObject> batch = new ArrayList<UserObject>(population.getUserCount());
+		Map<String, String> identifiers = new HashMap<String, String>();
+
+		for (int i = 0; i < population.getUserCount(); i++) {
+			UserObject user = population.user(i);
+			batch.add(user);
+			identifiers.put(population.employeeNumber(i), user.getId());
+		}
+
+		engine.writeAllToUserCache(batch, false);
+		engine.addIdentifiers(identifiers);
+
+		List<SAPObject> aors = new ArrayList<SAPObject>(population.getAORCount());
+		for (int i = 0; i < population.getAORCount(); i++) {
+			aors.add(population.aor(population.aorId(i)));
+		}
+		engine.writeAllToAORCache(aors);
+
+		System.out.println(String.format("Cache loaded with [%d] users and [%d] AORs in %dms",
+				population.getUserCount(), population.getAORCount(),
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+	}
+
+	public static int getInt(Properties props, String name, int defaultValue) {
+		try {
+			return Integer.parseInt(props.getProperty(name, String.valueOf(defaultValue)).trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(String.format("%s is not a number", name));
+		}
+	}
+
+	public static double getDouble(Properties props, String name, double defaultValue) {
+		try {
+			return Double.parseDouble(props.getProperty(name, String.valueOf(defaultValue)).trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(String.format("%s is not a number", name));
+		}
+	}
+
+	/**
+	 * Simulated SAP backend counting the RFC calls.
+	 */
+	private static class CountingFunctionHandler extends SimulatedJCoFunctionHandler {
+
+		private final AtomicLong calls = new AtomicLong();
+
+		CountingFunctionHandler(SimulatedAORMaster aorMaster, Settings settings) {
+			super(aorMaster, settings);
+		}
+
+		@Override
+		public Map<String, Object> callFunction(String handler, Map<String, Object> parameters)
+				throws IOException, IllegalArgumentException {
+			calls.incrementAndGet();
+			return super.callFunction(handler, parameters);
+		}
+
+		long getCallCount() {
+			return calls.get();
+		}
+	}
+
+	/**
+	 * The plugin properties needed to run against the simulated SAP backend,
+	 * unless set.
+	 */
+	private static Properties withDefaults(Properties props) {
+		Properties result = new Properties();
+		result.putAll(props);
+
+		setDefault(result, "sap_backend", "simulator");
+		setDefault(result, "sap_server_prefix", "SIMULATOR");
+		setDefault(result, "sap_handler", Constants.DEFAULT_HANDLER);
+
+		StringBuilder aorAttributes = new StringBuilder();
+		for (String attribute : SimulatedAORMaster.ATTRIBUTES) {
+			if (aorAttributes.length() > 0) {
+				aorAttributes.append(',');
+			}
+			aorAttributes.append("multi:").append(attribute);
+		}
+		setDefault(result, "aor_attributes_to_pull", aorAttributes.toString());
+
+		return result;
+	}
+
+	private static void setDefault(Properties props, String name, String value) {
+		if (props.getProperty(name) == null) {
+			props.setProperty(name, value);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.nextlabs.benchmark;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.nextlabs.cache.CacheEngine;
+import com.nextlabs.common.Profile;
+import com.nextlabs.common.Provider;
+import com.nextlabs.common.SAPObject;
+import com.nextlabs.common.UserObject;
+
+/**
+ * In-memory stand-in for the LDAP provider, answering on-demand lookups from
+ * the synthetic population without a directory. By default, unlike the LDAP
+ * provider, looked up users are not written to the cache, so a user which is
+ * not cached stays a miss.
+ */
+public class StandInLdapProvider implements Provider {
+
+	private final SyntheticPopulation population;
+	private final Profile profile;
+	private final AtomicLong lookups;
+	private final CacheEngine engine;
+	private final long latencyNanos;
+
+	public StandInLdapProvider(SyntheticPopulation population) {
+		this(population, null, 0);
+	}
+
+	/**
+	 * Creates a stand-in behaving as the LDAP provider on a cache miss: every
+	 * lookup takes the latency of a directory query, and the user found is
+	 * written to the cache with its employee number as identifier.
+	 * 
+	 * @param engine
+	 *            cache the users looked up are written to, null to leave the
+	 *            cache unchanged
+	 * @param latencyNanos
+	 *            time taken by a lookup
+	 */
+	public StandInLdapProvider(SyntheticPopulation population, CacheEngine engine, long latencyNanos) {
+		this.population = population;
+		this.engine = engine;
+		this.latencyNanos = latencyNanos;
+		profile = new StandInProfile("LDAP stand-in");
+		lookups = new AtomicLong();
+	}
+
+	@Override
+	public void setCommonProperties(Properties props) {
+	}
+
+	@Override
+	public UserObject getUserObject(String id, String attributeToSearch) {
+		lookups.incrementAndGet();
+
+		if (latencyNanos > 0) {
+			LockSupport.parkNanos(latencyNanos);
+		}
+
+		int index = population.userIndex(id);
+
+		if (index < 0) {
+			return null;
+		}
+
+		UserObject user = population.user(index);
+
+		if (engine != null) {
+			engine.writeObjectToUserCache(user);
+			engine.addIdentifier(id, user.getId());
+		}
+		return user;
+	}
+
+	@Override
+	public List<SAPObject> getSAPObject(List<String> aorId, String attributeToSearch) {
+		return null;
+	}
+
+	@Override
+	public boolean refreshCache() {
+		return true;
+	}
+
+	@Override
+	public void loadProfiles(Properties props) {
+	}
+
+	@Override
+	public void loadSingleProfile(Properties props) {
+	}
+
+	@Override
+	public void setIsSingleProfile(Boolean isSingleProfile) {
+	}
+
+	@Override
+	public String getPDPObjectType(String id) {
+		return "user";
+	}
+
+	@Override
+	public Boolean isRefreshing() {
+		return false;
+	}
+
+	@Override
+	public long getNextRetryTime() {
+		return 0;
+	}
+
+	@Override
+	public Profile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Returns the number of on-demand lookups answered.
+	 */
+	public long getLookupCount() {
+		return lookups.get();
+	}
+}
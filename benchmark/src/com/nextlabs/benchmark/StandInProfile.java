@@ -0,0 +1,33 @@
+package com.nextlabs.benchmark;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.nextlabs.common.Profile;
+
+/**
+ * Profile of the stand-in providers, with the attributes of the synthetic
+ * population.
+ */
+public class StandInProfile extends Profile {
+
+	private final Set<String> userAttributes;
+	private final Set<String> aorAttributes;
+
+	public StandInProfile(String name) {
+		super(name);
+		userAttributes = Collections.unmodifiableSet(new LinkedHashSet<String>(SyntheticPopulation.USER_ATTRIBUTES));
+		aorAttributes = Collections.unmodifiableSet(new LinkedHashSet<String>(SyntheticPopulation.AOR_ATTRIBUTES));
+	}
+
+	@Override
+	public Set<String> getUserAttributesToPull() {
+		return userAttributes;
+	}
+
+	@Override
+	public Set<String> getAORAttributesToPull() {
+		return aorAttributes;
+	}
+}
@@ -0,0 +1,96 @@
+package com.nextlabs.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.nextlabs.common.Profile;
+import com.nextlabs.common.Provider;
+import com.nextlabs.common.SAPObject;
+import com.nextlabs.common.UserObject;
+
+/**
+ * In-memory stand-in for the SAP provider, answering AOR lookups from the
+ * synthetic population without an RFC. Looked up AORs are not written to the
+ * cache, so an AOR which is not cached stays a miss.
+ */
+public class StandInSAPProvider implements Provider {
+
+	private final SyntheticPopulation population;
+	private final Profile profile;
+	private final AtomicLong lookups;
+
+	public StandInSAPProvider(SyntheticPopulation population) {
+		this.population = population;
+		profile = new StandInProfile("SAP stand-in");
+		lookups = new AtomicLong();
+	}
+
+	@Override
+	public void setCommonProperties(Properties props) {
+	}
+
+	@Override
+	public UserObject getUserObject(String id, String attributeToSearch) {
+		return null;
+	}
+
+	@Override
+	public List<SAPObject> getSAPObject(List<String> aorId, String attributeToSearch) {
+		lookups.incrementAndGet();
+		List<SAPObject> objects = new ArrayList<SAPObject>(aorId.size());
+
+		for (String id : aorId) {
+			SAPObject aor = population.aor(id);
+			if (aor != null) {
+				objects.add(aor);
+			}
+		}
+		return objects;
+	}
+
+	@Override
+	public boolean refreshCache() {
+		return true;
+	}
+
+	@Override
+	public void loadProfiles(Properties props) {
+	}
+
+	@Override
+	public void loadSingleProfile(Properties props) {
+	}
+
+	@Override
+	public void setIsSingleProfile(Boolean isSingleProfile) {
+	}
+
+	@Override
+	public String getPDPObjectType(String id) {
+		return null;
+	}
+
+	@Override
+	public Boolean isRefreshing() {
+		return false;
+	}
+
+	@Override
+	public long getNextRetryTime() {
+		return 0;
+	}
+
+	@Override
+	public Profile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Returns the number of RFC calls the stand-in answered.
+	 */
+	public long getLookupCount() {
+		return lookups.get();
+	}
+}
@@ -0,0 +1,58 @@
+package com.nextlabs.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import com.bluejungle.framework.expressions.EvalValue;
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.bluejungle.pf.domain.destiny.subject.IDSubject;
+import com.nextlabs.common.Constants;
+
+/**
+ * Subjects of the requests sent by the PEP, as seen by getAttribute: a SAP id
+ * and the employee number attribute.
+ */
+public final class StandInSubjects {
+
+	private StandInSubjects() {
+	}
+
+	/**
+	 * Creates a subject. Only getUid and getAttribute are answered, the other
+	 * methods of IDSubject return null, false or 0.
+	 */
+	public static IDSubject create(final String sapId, String employeeNumber) {
+		final IEvalValue employeeNumberValue = (employeeNumber == null) ? null : EvalValue.build(employeeNumber);
+
+		return (IDSubject) Proxy.newProxyInstance(IDSubject.class.getClassLoader(),
+				new Class<?>[] { IDSubject.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+
+						if (name.equals("getUid") || name.equals("getName") || name.equals("getUniqueName")) {
+							return sapId;
+						} else if (name.equals("getAttribute")) {
+							return Constants.REQUEST_KEY_EMPLOYEE_NO.equals(args[0]) ? employeeNumberValue : null;
+						} else if (name.equals("hashCode")) {
+							return System.identityHashCode(proxy);
+						} else if (name.equals("equals")) {
+							return proxy == args[0];
+						} else if (name.equals("toString")) {
+							return sapId;
+						}
+
+						Class<?> type = method.getReturnType();
+						if (type == boolean.class) {
+							return false;
+						} else if (type == long.class) {
+							return 0L;
+						} else if (type == int.class) {
+							return 0;
+						}
+						return null;
+					}
+				});
+	}
+}
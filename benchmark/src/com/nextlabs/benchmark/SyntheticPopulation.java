@@ -0,0 +1,168 @@
+package com.nextlabs.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.bluejungle.framework.expressions.EvalValue;
+import com.bluejungle.framework.expressions.Multivalue;
+import com.nextlabs.common.Constants;
+import com.nextlabs.common.SAPObject;
+import com.nextlabs.common.UserObject;
+import com.nextlabs.nxljco.sap.simulator.SimulatedAORMaster;
+
+/**
+ * Deterministic set of users and AORs used by the benchmarks in place of the
+ * directory and the AOR master. The same index always produces the same
+ * object, so no data has to be kept besides what the benchmark caches.
+ */
+public class SyntheticPopulation {
+
+	public static final String DOMAIN = "benchmark";
+
+	public static final List<String> USER_ATTRIBUTES = Collections
+			.unmodifiableList(Arrays.asList("department", "title", "company"));
+
+	public static final List<String> AOR_ATTRIBUTES = SimulatedAORMaster.ATTRIBUTES;
+
+	private final int users;
+	private final int aors;
+	private final int aorsPerUser;
+	private final SimulatedAORMaster aorMaster;
+
+	/**
+	 * @param users
+	 *            number of users
+	 * @param aors
+	 *            number of AORs of the AOR master
+	 * @param aorsPerUser
+	 *            number of AORs in the ammoArea of every user
+	 * @param valuesPerAOR
+	 *            number of values of every AOR attribute
+	 * @param distinctValues
+	 *            number of distinct values of an AOR attribute across all
+	 *            AORs, drives the duplicate ratio
+	 */
+	public SyntheticPopulation(int users, int aors, int aorsPerUser, int valuesPerAOR, int distinctValues) {
+		this.users = users;
+		this.aors = aors;
+		this.aorsPerUser = aorsPerUser;
+		aorMaster = new SimulatedAORMaster(aors, valuesPerAOR, distinctValues);
+	}
+
+	public int getUserCount() {
+		return users;
+	}
+
+	public int getAORCount() {
+		return aors;
+	}
+
+	public String employeeNumber(int index) {
+		return String.format("E%07d", index);
+	}
+
+	public String aorId(int index) {
+		return aorMaster.aorId(index);
+	}
+
+	/**
+	 * Returns the AOR master the AORs of the users are drawn from, as served
+	 * by the simulated SAP backend configured with the same sizes.
+	 */
+	public SimulatedAORMaster getAORMaster() {
+		return aorMaster;
+	}
+
+	/**
+	 * Returns the index of the user with the employee number, or -1 if the
+	 * employee number is not part of the population.
+	 */
+	public int userIndex(String employeeNumber) {
+		return parseIndex(employeeNumber, "E", users);
+	}
+
+	public UserObject user(int index) {
+		UserObject user = new UserObject(DOMAIN, "CN=" + employeeNumber(index) + ",DC=" + DOMAIN, "user");
+
+		for (Map.Entry<String, List<String>> attribute : userEntry(index).entrySet()) {
+			if (attribute.getKey().equals(Constants.LDAP_ATTRIBUTE_AOR_KEY)) {
+				user.addAttribute(attribute.getKey(), EvalValue.build(Multivalue.create(attribute.getValue())));
+			} else {
+				user.addAttribute(attribute.getKey(), EvalValue.build(attribute.getValue().get(0)));
+			}
+		}
+
+		return user;
+	}
+
+	/**
+	 * Returns the attributes of the user as they are stored in the directory:
+	 * employeenumber, the user attributes and ammoarea, which has a value per
+	 * AOR of the user.
+	 */
+	public Map<String, List<String>> userEntry(int index) {
+		Random random = new Random(index);
+		Map<String, List<String>> entry = new LinkedHashMap<String, List<String>>();
+
+		entry.put(Constants.REQUEST_KEY_EMPLOYEE_NO, Collections.singletonList(employeeNumber(index)));
+		entry.put("department", Collections.singletonList("DEPT" + random.nextInt(50)));
+		entry.put("title", Collections.singletonList("TITLE" + random.nextInt(20)));
+		entry.put("company", Collections.singletonList("COMPANY" + random.nextInt(5)));
+
+		Set<String> ammoArea = new LinkedHashSet<String>();
+		while (ammoArea.size() < Math.min(aorsPerUser, aors)) {
+			ammoArea.add(aorId(random.nextInt(aors)));
+		}
+		entry.put(Constants.LDAP_ATTRIBUTE_AOR_KEY, new ArrayList<String>(ammoArea));
+
+		return entry;
+	}
+
+	/**
+	 * Returns the AOR with the identifier, or null if it is not part of the
+	 * AOR master.
+	 */
+	public SAPObject aor(String id) {
+		Map<String, List<String>> attributes = aorMaster.attributes(id);
+
+		if (attributes == null) {
+			return null;
+		}
+
+		SAPObject aor = new SAPObject(id);
+		for (Map.Entry<String, List<String>> attribute : attributes.entrySet()) {
+			aor.addAttribute(attribute.getKey(), attribute.getValue());
+		}
+		return aor;
+	}
+
+	/**
+	 * Returns the rows of ET_AOR_DETAILS describing the AOR (AOR_ID, KEY,
+	 * VALUE), one row per attribute value.
+	 */
+	public List<Object[]> aorDetailRows(String id) {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		aorMaster.addRows(id, rows);
+		return rows;
+	}
+
+	private static int parseIndex(String id, String prefix, int bound) {
+		if (id == null || !id.startsWith(prefix)) {
+			return -1;
+		}
+
+		try {
+			int index = Integer.parseInt(id.substring(prefix.length()));
+			return (index < bound) ? index : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
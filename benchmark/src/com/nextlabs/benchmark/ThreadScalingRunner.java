@@ -0,0 +1,43 @@
+package com.nextlabs.benchmark;
+
+import java.util.Arrays;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks once per thread count, writing the results of
+ * every thread count as JSON to &lt;result prefix&gt;-t&lt;threads&gt;.json
+ *
+ * Arguments: thread counts separated by commas (e.g. 1,2,4,8), the result
+ * prefix, then the usual JMH arguments (e.g. the benchmarks to run).
+ */
+public final class ThreadScalingRunner {
+
+	private ThreadScalingRunner() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: ThreadScalingRunner <thread counts> <result prefix> [JMH arguments]");
+			System.exit(1);
+		}
+
+		Options parent = new CommandLineOptions(Arrays.copyOfRange(args, 2, args.length));
+
+		for (String count : args[0].split(",")) {
+			int threads = Integer.parseInt(count.trim());
+			String result = String.format("%s-t%d.json", args[1], threads);
+
+			Options options = new OptionsBuilder().parent(parent).threads(threads)
+					.resultFormat(ResultFormatType.JSON).result(result).build();
+
+			new Runner(options).run();
+
+			System.out.println(String.format("INFO: Results of [%d] threads written to %s", threads, result));
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package com.nextlabs.benchmark;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.bluejungle.pf.domain.destiny.serviceprovider.ServiceProviderException;
+import com.nextlabs.cache.CacheEngine;
+import com.nextlabs.common.LatencyHistogram;
+import com.nextlabs.provider.UserAttributeProvider;
+
+/**
+ * Sends PEP-like traffic to UserAttributeProvider.getAttribute from a number
+ * of threads and reports the throughput and the latency percentiles, to size
+ * cache_heap_in_mb, cache_max_object and the TTLs before a rollout, and to
+ * reproduce miss storms.
+ * <ul>
+ * <li>the users of the requests follow a Zipf distribution, a few users
+ * sending most of the requests</li>
+ * <li>a share of the requests ask for an AOR attribute, the others for an
+ * LDAP attribute</li>
+ * <li>at an interval, a share of the users are removed from the user cache
+ * and the AOR cache is purged, as when entries loaded together expire
+ * together, so the following requests miss</li>
+ * </ul>
+ * The plugin runs on the real cache with the simulated SAP backend and an
+ * LDAP stand-in, see SimulatedPlugin. With a request rate, the latency is
+ * measured from the time a request was due, so a stall is not hidden by the
+ * requests it delays.
+ *
+ * Argument: a properties file with the plugin properties (cache, SAP
+ * simulator, ...) and the traffic_* properties, see benchmark/traffic.properties.
+ */
+public class TrafficGenerator {
+
+	private final SimulatedPlugin plugin;
+	private final SyntheticPopulation population;
+	private final ZipfDistribution users;
+	private final CacheEngine engine;
+	private final UserAttributeProvider provider;
+	private final Properties props;
+
+	private final int threads;
+	private final double ratePerSecond;
+	private final double aorAttributeRatio;
+	private final long expiryIntervalNanos;
+	private final double expiryFraction;
+	private final boolean expireAORs;
+
+	private final List<String> userAttributes;
+	private final List<String> aorAttributes;
+
+	// shared by the workers, the interval one is reset at every report
+	private final LatencyHistogram intervalLatency;
+	private final LatencyHistogram ldapLatency;
+	private final LatencyHistogram aorLatency;
+	private final AtomicLong nullValues;
+
+	private volatile boolean running;
+	// counts at the end of the warm-up
+	private long warmUpLookups;
+	private long warmUpCalls;
+
+	public TrafficGenerator(Properties properties) {
+		plugin = new SimulatedPlugin(properties, SimulatedPlugin.getInt(properties, "traffic_users", 100000),
+				SimulatedPlugin.getInt(properties, "traffic_aors_per_user", 10),
+				(long) (SimulatedPlugin.getDouble(properties, "traffic_ldap_latency_ms", 5) * 1000000));
+		props = plugin.getProperties();
+		population = plugin.getPopulation();
+		engine = plugin.getEngine();
+		provider = plugin.getProvider();
+		userAttributes = plugin.getUserAttributes();
+		aorAttributes = plugin.getAORAttributes();
+
+		users = new ZipfDistribution(population.getUserCount(), getDouble("traffic_zipf_exponent", 1.0));
+		threads = getInt("traffic_threads", 16);
+		ratePerSecond = getDouble("traffic_rate_per_second", 0);
+		aorAttributeRatio = getDouble("traffic_aor_attribute_ratio", 0.5);
+		expiryIntervalNanos = TimeUnit.SECONDS.toNanos(getInt("traffic_expiry_interval_seconds", 30));
+		expiryFraction = getDouble("traffic_expiry_fraction", 0.2);
+		expireAORs = props.getProperty("traffic_expiry_aors", "true").equalsIgnoreCase("true");
+
+		intervalLatency = new LatencyHistogram();
+		ldapLatency = new LatencyHistogram();
+		aorLatency = new LatencyHistogram();
+		nullValues = new AtomicLong();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 1) {
+			System.err.println("Usage: TrafficGenerator [<traffic.properties>]");
+			System.exit(1);
+		}
+
+		Properties props = new Properties();
+		if (args.length == 1) {
+			InputStream in = new FileInputStream(args[0]);
+			try {
+				props.load(in);
+			} finally {
+				in.close();
+			}
+		}
+
+		TrafficGenerator generator = new TrafficGenerator(props);
+		generator.run();
+		System.exit(0);
+	}
+
+	public void run() throws InterruptedException {
+		int hotUsers = Math.max(1, population.getUserCount() / 100);
+		System.out.println(String.format(
+				"[%d] users, [%d] AORs, [%d] threads, %s, the hottest 1%% of the users send %.1f%% of the requests",
+				population.getUserCount(), population.getAORCount(), threads,
+				(ratePerSecond > 0) ? String.format("[%.0f] requests/s", ratePerSecond) : "closed loop",
+				users.cumulativeProbability(hotUsers) * 100));
+
+		if (props.getProperty("traffic_preload", "true").equalsIgnoreCase("true")) {
+			plugin.preload();
+		}
+
+		long warmUpNanos = TimeUnit.SECONDS.toNanos(getInt("traffic_warmup_seconds", 10));
+		long durationNanos = TimeUnit.SECONDS.toNanos(getInt("traffic_duration_seconds", 60));
+		long reportNanos = TimeUnit.SECONDS.toNanos(Math.max(1, getInt("traffic_report_seconds", 5)));
+
+		running = true;
+		List<Thread> workers = new ArrayList<Thread>(threads);
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread(new Worker(), "traffic-" + i);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+
+		long start = System.nanoTime();
+		long measureStart = start + warmUpNanos;
+		long end = measureStart + durationNanos;
+		long nextReport = start + reportNanos;
+		long nextExpiry = (expiryIntervalNanos > 0 && expiryFraction > 0) ? start + expiryIntervalNanos : Long.MAX_VALUE;
+		boolean measuring = warmUpNanos == 0;
+
+		long lastReport = start;
+		long lastLookups = 0;
+		long lastCalls = 0;
+
+		while (System.nanoTime() < end) {
+			long now = System.nanoTime();
+			long next = Math.min(Math.min(nextReport, nextExpiry), measuring ? end : measureStart);
+
+			if (next > now) {
+				LockSupport.parkNanos(next - now);
+				continue;
+			}
+
+			if (!measuring && now >= measureStart) {
+				// the warm-up is not part of the results
+				ldapLatency.reset();
+				aorLatency.reset();
+				nullValues.set(0);
+				warmUpLookups = plugin.getUserLookupCount();
+				warmUpCalls = plugin.getRFCCallCount();
+				measuring = true;
+				System.out.println("Warm-up completed");
+			}
+
+			if (now >= nextExpiry) {
+				expire();
+				nextExpiry += expiryIntervalNanos;
+			}
+
+			if (now >= nextReport) {
+				LatencyHistogram interval = new LatencyHistogram();
+				interval.add(intervalLatency);
+				intervalLatency.reset();
+
+				long lookups = plugin.getUserLookupCount();
+				long calls = plugin.getRFCCallCount();
+
+				System.out.println(String.format("[%4ds] %8.0f requests/s, user misses [%d], RFC calls [%d], %s",
+						TimeUnit.NANOSECONDS.toSeconds(now - start), interval.getCount() * 1e9 / (now - lastReport),
+						lookups - lastLookups, calls - lastCalls, interval));
+
+				lastReport = now;
+				lastLookups = lookups;
+				lastCalls = calls;
+				nextReport += reportNanos;
+			}
+		}
+
+		running = false;
+		for (Thread worker : workers) {
+			worker.join(TimeUnit.SECONDS.toMillis(10));
+		}
+
+		report(durationNanos);
+	}
+
+	private void report(long durationNanos) {
+		LatencyHistogram all = new LatencyHistogram();
+		all.add(ldapLatency);
+		all.add(aorLatency);
+
+		System.out.println(String.format("Total: %.0f requests/s, [%d] null values, [%d] user misses, [%d] RFC calls",
+				all.getCount() * 1e9 / durationNanos, nullValues.get(), plugin.getUserLookupCount() - warmUpLookups,
+				plugin.getRFCCallCount() - warmUpCalls));
+		System.out.println(String.format("  all:            %s", all));
+		System.out.println(String.format("  LDAP attribute: %s", ldapLatency));
+		System.out.println(String.format("  AOR attribute:  %s", aorLatency));
+	}
+
+	/**
+	 * Removes a random share of the users from the user cache and, if
+	 * configured, purges the AOR cache.
+	 */
+	private void expire() {
+		Random random = ThreadLocalRandom.current();
+		int count = (int) (population.getUserCount() * Math.min(1, expiryFraction));
+		List<String> expired = new ArrayList<String>(count);
+
+		for (int i = 0; i < count; i++) {
+			expired.add(population.employeeNumber(random.nextInt(population.getUserCount())));
+		}
+
+		engine.removeAllFromUserCache(expired);
+		if (expireAORs) {
+			engine.purgeAORCache();
+		}
+
+		System.out.println(String.format("Expired [%d] users%s", count, expireAORs ? " and the AOR cache" : ""));
+	}
+
+	private class Worker implements Runnable {
+
+		@Override
+		public void run() {
+			Random random = ThreadLocalRandom.current();
+			long pace = (ratePerSecond > 0) ? (long) (threads * 1e9 / ratePerSecond) : 0;
+			long due = System.nanoTime();
+
+			while (running) {
+				long start;
+
+				if (pace > 0) {
+					long now = System.nanoTime();
+					if (due > now) {
+						LockSupport.parkNanos(due - now);
+					}
+					start = due;
+					due += pace;
+				} else {
+					start = System.nanoTime();
+				}
+
+				boolean aor = random.nextDouble() < aorAttributeRatio;
+				List<String> attributes = aor ? aorAttributes : userAttributes;
+				String attribute = attributes.get(random.nextInt(attributes.size()));
+				String employeeNumber = population.employeeNumber(users.sample(random));
+
+				IEvalValue value;
+				try {
+					value = provider.getAttribute(StandInSubjects.create("SAP" + employeeNumber, employeeNumber),
+							attribute);
+				} catch (ServiceProviderException e) {
+					value = null;
+				}
+
+				long elapsed = System.nanoTime() - start;
+				intervalLatency.record(elapsed);
+				(aor ? aorLatency : ldapLatency).record(elapsed);
+
+				if (value == null || value.getValue() == null) {
+					nullValues.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	private int getInt(String name, int defaultValue) {
+		return SimulatedPlugin.getInt(props, name, defaultValue);
+	}
+
+	private double getDouble(String name, double defaultValue) {
+		return SimulatedPlugin.getDouble(props, name, defaultValue);
+	}
+}
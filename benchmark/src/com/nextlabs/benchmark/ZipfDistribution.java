@@ -0,0 +1,53 @@
+package com.nextlabs.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Zipf distribution over the ranks 0 to n - 1: the probability of rank k is
+ * proportional to 1 / (k + 1)^exponent, so a few users send most of the
+ * requests, as the PEP traffic does. An exponent of 0 is uniform, around 1 is
+ * the usual skew of user traffic.
+ *
+ * The cumulative distribution is computed once, a sample is a binary search.
+ * Samples can be drawn concurrently.
+ */
+public class ZipfDistribution {
+
+	private final double[] cumulative;
+
+	public ZipfDistribution(int n, double exponent) {
+		if (n < 1) {
+			throw new IllegalArgumentException("n must be positive");
+		}
+
+		cumulative = new double[n];
+
+		double sum = 0;
+		for (int k = 0; k < n; k++) {
+			sum += 1 / Math.pow(k + 1, exponent);
+			cumulative[k] = sum;
+		}
+		for (int k = 0; k < n; k++) {
+			cumulative[k] /= sum;
+		}
+		cumulative[n - 1] = 1;
+	}
+
+	public int getSize() {
+		return cumulative.length;
+	}
+
+	/**
+	 * Returns the probability of the ranks below the given rank, e.g. the
+	 * share of the requests sent by the hottest users.
+	 */
+	public double cumulativeProbability(int rank) {
+		return (rank <= 0) ? 0 : cumulative[Math.min(rank, cumulative.length) - 1];
+	}
+
+	public int sample(Random random) {
+		int index = Arrays.binarySearch(cumulative, random.nextDouble());
+		return (index >= 0) ? index : Math.min(-index - 1, cumulative.length - 1);
+	}
+}
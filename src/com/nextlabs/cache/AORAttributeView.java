@@ -0,0 +1,385 @@
+package com.nextlabs.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.nextlabs.common.SAPObject;
+import com.nextlabs.common.UserObject;
+
+/**
+ * Materialized view holding, for every cached user, the AOR attributes
+ * resolved over all the AORs referenced by the user's ammoArea. Values are
+ * deduplicated and shared through the AOR value dictionary, so serving an AOR
+ * attribute only takes a single lookup.
+ *
+ * A user is only materialized when all of its AORs are in the AOR cache. When
+ * a user or one of its AORs changes, its view is dropped at once and rebuilt
+ * in the background, so that requests never wait for a materialization. The
+ * view is rebuilt entirely after a bulk AOR load.
+ *
+ * A view is not served past the time to live of the oldest AOR it was built
+ * from, since the AOR cache only reports an expiry once the AOR is accessed.
+ */
+public class AORAttributeView {
+
+	private static final Log LOG = LogFactory.getLog(AORAttributeView.class);
+
+	private final CacheEngine engine;
+	private final Executor materializer;
+	// user id -> materialized AOR attributes
+	private final Map<String, Materialized> views;
+	// AOR id (lower case) -> ids of the users referencing it
+	private final Map<String, Set<String>> usersByAOR;
+	// user id -> AOR ids referenced by the user
+	private final Map<String, List<String>> aorsByUser;
+	// ids of the users to materialize in the background
+	private final Set<String> pending;
+	private Set<String> attributes;
+	private volatile boolean enabled;
+	private volatile long timeToLive;
+	private boolean suspended;
+	private boolean draining;
+
+	public AORAttributeView(CacheEngine engine) {
+		this(engine, Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "UAP-AorAttributeView");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}));
+	}
+
+	/**
+	 * @param materializer
+	 *            executor materializing the changed users
+	 */
+	public AORAttributeView(CacheEngine engine, Executor materializer) {
+		this.engine = engine;
+		this.materializer = materializer;
+		views = new ConcurrentHashMap<String, Materialized>();
+		usersByAOR = new HashMap<String, Set<String>>();
+		aorsByUser = new HashMap<String, List<String>>();
+		pending = new LinkedHashSet<String>();
+		attributes = Collections.emptySet();
+		timeToLive = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the resolved AOR attributes of the user, or null if the user is
+	 * not materialized. An attribute missing from the returned map has no
+	 * value. Attributes are keyed in lower case.
+	 */
+	public Map<String, IEvalValue> getView(String userId) {
+		if (!enabled || userId == null) {
+			return null;
+		}
+
+		Materialized view = views.get(userId);
+
+		if (view == null) {
+			return null;
+		}
+
+		if (view.expiresAt != Long.MAX_VALUE && System.nanoTime() - view.expiresAt >= 0) {
+			// rebuilt from the cache, which drops the expired AORs
+			synchronized (this) {
+				if (views.get(userId) == view) {
+					schedule(userId);
+				}
+			}
+			return null;
+		}
+
+		return view.values;
+	}
+
+	public synchronized void userChanged(UserObject user) {
+		if (!enabled) {
+			return;
+		}
+
+		unindex(user.getId());
+
+		List<String> aorIds = ReferencedAORTracker.getAORIds(user);
+
+		if (aorIds.isEmpty()) {
+			views.remove(user.getId());
+			pending.remove(user.getId());
+			return;
+		}
+
+		aorsByUser.put(user.getId(), aorIds);
+
+		for (String aorId : aorIds) {
+			String key = aorId.toLowerCase();
+			Set<String> users = usersByAOR.get(key);
+			if (users == null) {
+				users = new HashSet<String>();
+				usersByAOR.put(key, users);
+			}
+			users.add(user.getId());
+		}
+
+		if (!suspended) {
+			schedule(user.getId());
+		}
+	}
+
+	public synchronized void userRemoved(String userId) {
+		if (!enabled) {
+			return;
+		}
+		unindex(userId);
+		views.remove(userId);
+		pending.remove(userId);
+	}
+
+	/**
+	 * Rebuilds the users referencing an AOR which was written, removed,
+	 * expired or evicted.
+	 */
+	public synchronized void aorChanged(String aorId) {
+		if (!enabled || suspended || aorId == null) {
+			return;
+		}
+
+		Set<String> users = usersByAOR.get(aorId.toLowerCase());
+
+		if (users == null) {
+			return;
+		}
+
+		for (String userId : users) {
+			schedule(userId);
+		}
+	}
+
+	/**
+	 * Stops incremental rebuilds, typically before a bulk load of the AOR
+	 * cache. Existing materializations are dropped since the AORs they were
+	 * built from are about to be replaced.
+	 */
+	public synchronized void suspend() {
+		suspended = true;
+		views.clear();
+		pending.clear();
+	}
+
+	/**
+	 * Resumes incremental rebuilds and rebuilds every user of the view in the
+	 * background.
+	 */
+	public synchronized void resume() {
+		suspended = false;
+		rebuildAll();
+	}
+
+	public synchronized void invalidateAll() {
+		views.clear();
+	}
+
+	/**
+	 * Rebuilds every user of the view in the background, one at a time like
+	 * the incremental rebuilds, so requests changing the view do not wait for
+	 * the whole rebuild.
+	 */
+	public synchronized void rebuildAll() {
+		if (!enabled) {
+			return;
+		}
+
+		for (String userId : aorsByUser.keySet()) {
+			schedule(userId);
+		}
+
+		LOG.info(String.format("AOR attribute view rebuild of [%d] users scheduled", aorsByUser.size()));
+	}
+
+	public synchronized void clear() {
+		views.clear();
+		usersByAOR.clear();
+		aorsByUser.clear();
+		pending.clear();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public synchronized void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+
+		if (!enabled) {
+			clear();
+		}
+	}
+
+	public synchronized void setAttributes(Set<String> attributes) {
+		Set<String> lowerCased = new HashSet<String>();
+		if (attributes != null) {
+			for (String attribute : attributes) {
+				lowerCased.add(attribute.toLowerCase());
+			}
+		}
+		this.attributes = lowerCased;
+		views.clear();
+	}
+
+	/**
+	 * @param timeToLive
+	 *            time to live of the AORs in nanoseconds, Long.MAX_VALUE if
+	 *            they do not expire
+	 */
+	public void setTimeToLive(long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	public int size() {
+		return views.size();
+	}
+
+	/**
+	 * Returns the number of users waiting to be materialized.
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Returns the cached AOR, looked up as referenced then in lower case.
+	 */
+	protected SAPObject lookupAor(String aorId) {
+		SAPObject aor = engine.getAorObjectFromCache(aorId);
+
+		if (aor == null) {
+			aor = engine.getAorObjectFromCache(aorId.toLowerCase());
+		}
+		return aor;
+	}
+
+	private void schedule(String userId) {
+		views.remove(userId);
+		pending.add(userId);
+
+		if (!draining) {
+			draining = true;
+			materializer.execute(new Runnable() {
+				@Override
+				public void run() {
+					drain();
+				}
+			});
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			// one user at a time, the requests changing the view only wait for a single materialization
+			synchronized (this) {
+				Iterator<String> it = pending.iterator();
+
+				if (!it.hasNext()) {
+					draining = false;
+					return;
+				}
+
+				String userId = it.next();
+				it.remove();
+
+				if (enabled && !suspended) {
+					materialize(userId, aorsByUser.get(userId));
+				}
+			}
+		}
+	}
+
+	private void materialize(String userId, List<String> aorIds) {
+		if (aorIds == null) {
+			views.remove(userId);
+			return;
+		}
+
+		List<SAPObject> aors = new ArrayList<SAPObject>(aorIds.size());
+		long oldest = Long.MAX_VALUE;
+
+		for (String aorId : aorIds) {
+			SAPObject aor = lookupAor(aorId);
+
+			// cannot be resolved without calling SAP, leave it to the request path
+			if (aor == null) {
+				views.remove(userId);
+				return;
+			}
+
+			if (oldest == Long.MAX_VALUE || aor.getCachedAt() - oldest < 0) {
+				oldest = aor.getCachedAt();
+			}
+			aors.add(aor);
+		}
+
+		ValueDictionary dictionary = engine.getAorValueDictionary();
+		Map<String, IEvalValue> view = new HashMap<String, IEvalValue>();
+
+		List<int[]> sets = new ArrayList<int[]>(aors.size());
+
+		for (String attribute : attributes) {
+			List<String> union = SAPObject.union(aors, attribute, sets);
+
+			if (!union.isEmpty()) {
+				view.put(attribute, dictionary.internMultivalue(union));
+			}
+		}
+
+		long ttl = timeToLive;
+		long expiresAt = (ttl == Long.MAX_VALUE || oldest == Long.MAX_VALUE) ? Long.MAX_VALUE : oldest + ttl;
+
+		views.put(userId, new Materialized(Collections.unmodifiableMap(view), expiresAt));
+	}
+
+	private void unindex(String userId) {
+		List<String> previous = aorsByUser.remove(userId);
+
+		if (previous == null) {
+			return;
+		}
+
+		for (String aorId : previous) {
+			String key = aorId.toLowerCase();
+			Set<String> users = usersByAOR.get(key);
+			if (users != null) {
+				users.remove(userId);
+				if (users.isEmpty()) {
+					usersByAOR.remove(key);
+				}
+			}
+		}
+	}
+
+	private static final class Materialized {
+		private final Map<String, IEvalValue> values;
+		// System.nanoTime() from which the view is no longer served, Long.MAX_VALUE if never
+		private final long expiresAt;
+
+		private Materialized(Map<String, IEvalValue> values, long expiresAt) {
+			this.values = values;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.nextlabs.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hit, miss, eviction and expiration counters of a cache region, counted by
+ * CacheEngine as Ehcache 3.0 has no statistics API. A lookup is counted once,
+ * a case insensitive retry being part of the same lookup.
+ */
+public class CacheCounters {
+
+	private final String name;
+	private final LongAdder hits;
+	private final LongAdder misses;
+	private final LongAdder evictions;
+	private final LongAdder expirations;
+
+	public CacheCounters(String name) {
+		this.name = name;
+		hits = new LongAdder();
+		misses = new LongAdder();
+		evictions = new LongAdder();
+		expirations = new LongAdder();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void hit() {
+		hits.increment();
+	}
+
+	public void miss() {
+		misses.increment();
+	}
+
+	/**
+	 * Counts the outcome of a bulk lookup.
+	 */
+	public void lookedUp(int found, int requested) {
+		hits.add(found);
+		misses.add(Math.max(0, requested - found));
+	}
+
+	public void evicted() {
+		evictions.increment();
+	}
+
+	public void expired() {
+		expirations.increment();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public long getExpirations() {
+		return expirations.sum();
+	}
+
+	/**
+	 * Returns the share of the lookups which were hits, between 0 and 1, or 0
+	 * if nothing was looked up.
+	 */
+	public double getHitRatio() {
+		long found = hits.sum();
+		long total = found + misses.sum();
+		return (total == 0) ? 0 : (double) found / total;
+	}
+
+	public void reset() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+		expirations.reset();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: [%d] hits, [%d] misses, hit ratio [%.1f%%], [%d] evictions, [%d] expirations", name,
+				getHits(), getMisses(), getHitRatio() * 100, getEvictions(), getExpirations());
+	}
+}
@@ -1,13 +1,19 @@
 package com.nextlabs.cache;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 import org.ehcache.Cache;
 import org.ehcache.Cache.Entry;
 import org.ehcache.CacheManager;
@@ -15,17 +21,26 @@ import org.ehcache.config.builders.CacheConfigurationBuilder;
 import org.ehcache.config.builders.CacheManagerBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.CacheEventListener;
+import org.ehcache.event.EventFiring;
+import org.ehcache.event.EventOrdering;
+import org.ehcache.event.EventType;
 import org.ehcache.expiry.Duration;
 import org.ehcache.expiry.Expirations;
 
 import com.nextlabs.common.UserObject;
+import com.nextlabs.common.ProviderLog;
 import com.nextlabs.common.SAPObject;
+import com.nextlabs.common.ValueCodeTable;
+import com.nextlabs.jfr.BackendEvents;
 
 public class CacheEngine {
 
 	public static final String USER_CACHE_NAME = "UserAttributeProviderCache";
 	public static final String AOR_CACHE_NAME = "AORAttributeProviderCache";
-	private static final Log LOG = LogFactory.getLog(CacheEngine.class);
+	private static final ProviderLog LOG = ProviderLog.getLog(CacheEngine.class);
+	private static final int DEFAULT_EXPECTED_USERS = 10000;
 	private static CacheEngine engine;
 	private CacheManager userCacheManager;
 	private Cache<String, UserObject> userObjectCache;
@@ -33,8 +48,27 @@ public class CacheEngine {
 	private CacheManager aorCacheManager;
 	private Cache<String, SAPObject> aorObjectCache;
 	private Map<String, String> identifierMap;
+	private ValueDictionary userValueDictionary;
+	private ValueDictionary aorValueDictionary;
+	private AORAttributeView aorAttributeView;
+	private ReferencedAORTracker referencedAORTracker;
+	private SubjectAttributeCache subjectAttributeCache;
+	private UserNearCache userNearCache;
+	private UserCachePolicy userCachePolicy;
+	private boolean changeDetection = true;
+	private final CacheCounters userCounters;
+	private final CacheCounters aorCounters;
 
 	public CacheEngine() {
+		userValueDictionary = new ValueDictionary(USER_CACHE_NAME);
+		aorValueDictionary = new ValueDictionary(AOR_CACHE_NAME);
+		aorAttributeView = new AORAttributeView(this);
+		referencedAORTracker = new ReferencedAORTracker();
+		subjectAttributeCache = new SubjectAttributeCache();
+		userNearCache = new UserNearCache();
+		userCachePolicy = new UserCachePolicy(0, DEFAULT_EXPECTED_USERS);
+		userCounters = new CacheCounters(USER_CACHE_NAME);
+		aorCounters = new CacheCounters(AOR_CACHE_NAME);
 	}
 
 	public static CacheEngine getInstance() {
@@ -45,37 +79,400 @@ public class CacheEngine {
 	}
 
 	public void writeObjectToUserCache(UserObject obj) {
+		writeObjectToUserCache(obj, true);
+	}
+
+	/**
+	 * Writes a user to the cache, subject to the admission policy.
+	 * 
+	 * @param onRequest
+	 *            true if the user is loaded for a request, false if it is
+	 *            loaded by a refresh
+	 */
+	public void writeObjectToUserCache(UserObject obj, boolean onRequest) {
 		if (userObjectCache == null) {
 			LOG.error("Cache has not been initialized");
 			return;
 		}
+
+		if (onRequest) {
+			userCachePolicy.recordAccess(obj.getId());
+		}
+
+		String victim = userCachePolicy.admit(obj.getId(), onRequest);
+
+		if (obj.getId().equals(victim)) {
+			LOG.debug("Object [%s] is not requested often enough to be admitted to user cache", obj.getId());
+			return;
+		}
+
+		if (victim != null) {
+			LOG.debug("Evicting object [%s] from user cache to admit [%s]", victim, obj.getId());
+			userObjectCache.remove(victim);
+			userRemoved(victim);
+		}
+
 		userObjectCache.put(obj.getId(), obj);
+		aorAttributeView.userChanged(obj);
+		referencedAORTracker.userChanged(obj);
+		subjectAttributeCache.invalidate(obj.getId());
 	}
 	
+	/**
+	 * Writes users to the cache in a single bulk operation, subject to the
+	 * admission policy.
+	 * 
+	 * @param onRequest
+	 *            true if the users are loaded for a request, false if they are
+	 *            loaded by a refresh
+	 */
+	public void writeAllToUserCache(Collection<UserObject> objs, boolean onRequest) {
+		if (userObjectCache == null) {
+			LOG.error("Cache has not been initialized");
+			return;
+		}
+
+		Map<String, UserObject> admitted = new HashMap<String, UserObject>();
+		Set<String> victims = new HashSet<String>();
+
+		for (UserObject obj : objs) {
+			if (onRequest) {
+				userCachePolicy.recordAccess(obj.getId());
+			}
+
+			String victim = userCachePolicy.admit(obj.getId(), onRequest);
+
+			if (obj.getId().equals(victim)) {
+				continue;
+			}
+
+			if (victim != null) {
+				victims.add(victim);
+				admitted.remove(victim);
+			}
+
+			admitted.put(obj.getId(), obj);
+		}
+
+		if (objs.size() > admitted.size()) {
+			LOG.debug("[%d] of [%d] objects admitted to user cache", admitted.size(), objs.size());
+		}
+
+		if (!victims.isEmpty()) {
+			userObjectCache.removeAll(victims);
+			for (String victim : victims) {
+				userRemoved(victim);
+			}
+		}
+
+		userObjectCache.putAll(admitted);
+
+		for (UserObject obj : admitted.values()) {
+			aorAttributeView.userChanged(obj);
+			referencedAORTracker.userChanged(obj);
+			subjectAttributeCache.invalidate(obj.getId());
+		}
+	}
+
+	/**
+	 * Writes users loaded by a refresh, comparing their content hash with the
+	 * cached users. Unchanged users are put back as the same instance, which
+	 * only renews their time to live. Only added and changed users go through
+	 * the admission policy and are propagated as changes.
+	 */
+	public void refreshAllInUserCache(Collection<UserObject> objs, RefreshSummary summary) {
+		if (userObjectCache == null) {
+			LOG.error("Cache has not been initialized");
+			return;
+		}
+
+		Set<String> ids = new HashSet<String>();
+		for (UserObject obj : objs) {
+			ids.add(obj.getId());
+			summary.seen(obj.getId());
+		}
+
+		Map<String, UserObject> existing = userObjectCache.getAll(ids);
+		Map<String, UserObject> renewed = new HashMap<String, UserObject>();
+		List<UserObject> modified = new ArrayList<UserObject>();
+
+		for (UserObject obj : objs) {
+			UserObject cached = existing.get(obj.getId());
+
+			if (cached == null) {
+				summary.added();
+				modified.add(obj);
+			} else if (cached.getContentHash() == obj.getContentHash()) {
+				summary.unchanged();
+				renewed.put(obj.getId(), cached);
+			} else {
+				summary.changed();
+				modified.add(obj);
+			}
+		}
+
+		if (!renewed.isEmpty()) {
+			userObjectCache.putAll(renewed);
+		}
+
+		if (!modified.isEmpty()) {
+			writeAllToUserCache(modified, false);
+		}
+	}
+
+	/**
+	 * Removes the users of the refreshed domains which were not seen by a
+	 * complete refresh.
+	 */
+	public void removeUnseenFromUserCache(RefreshSummary summary) {
+		if (userObjectCache == null || !summary.isComplete()) {
+			return;
+		}
+
+		Set<String> unseen = new HashSet<String>();
+
+		Iterator<Entry<String, UserObject>> it = userObjectCache.iterator();
+		while (it.hasNext()) {
+			Entry<String, UserObject> entry = it.next();
+			if (summary.hasSource(entry.getValue().getDomain()) && !summary.isSeen(entry.getKey())) {
+				unseen.add(entry.getKey());
+			}
+		}
+
+		if (unseen.isEmpty()) {
+			return;
+		}
+
+		userObjectCache.removeAll(unseen);
+
+		for (String id : unseen) {
+			userCachePolicy.removed(id);
+			userRemoved(id);
+		}
+
+		summary.removed(unseen.size());
+	}
+
+	/**
+	 * Removes users from the cache in a single bulk operation.
+	 * 
+	 * @param objIds
+	 *            identifiers as received in the requests
+	 */
+	public void removeAllFromUserCache(Collection<String> objIds) {
+		Set<String> ids = new HashSet<String>();
+
+		for (String objId : objIds) {
+			String id = identifierMap.get(objId);
+			if (id != null) {
+				ids.add(id);
+			} else {
+				LOG.warn(String.format("Object [%s] is not in cache. Purge skipped", objId));
+			}
+		}
+
+		if (ids.isEmpty()) {
+			return;
+		}
+
+		userObjectCache.removeAll(ids);
+
+		for (String id : ids) {
+			userCachePolicy.removed(id);
+			userRemoved(id);
+		}
+
+		LOG.debug("[%d] objects removed from user cache", ids.size());
+	}
+
+	private void userRemoved(String id) {
+		aorAttributeView.userRemoved(id);
+		referencedAORTracker.userRemoved(id);
+		subjectAttributeCache.invalidate(id);
+	}
+
 	public void writeObjectToAORCache(SAPObject obj) {
 		if (aorObjectCache == null) {
 			LOG.error("AOR Cache has not been initialized");
 			return;
 		}
+		obj.setCachedAt(System.nanoTime());
 		aorObjectCache.put(obj.getId(), obj);
+		aorAttributeView.aorChanged(obj.getId());
 	}
 
 	public void removeObjectFromUserCache(String objId) {
 		String id = identifierMap.get(objId);
 		if (id != null) {
-			LOG.debug(String.format("Removing object [%s] from user cache", objId));
+			LOG.debug("Removing object [%s] from user cache", objId);
 			userObjectCache.remove(id);
-			LOG.debug(String.format("Object [%s] removed from user cache", objId));
+			userCachePolicy.removed(id);
+			userRemoved(id);
+			LOG.debug("Object [%s] removed from user cache", objId);
 		} else {
 			LOG.warn(String.format("Object [%s] is not in cache. Purge skipped", objId));
 		}
 	}
 	
+	/**
+	 * Writes AORs to the cache in a single bulk operation.
+	 */
+	public void writeAllToAORCache(Collection<SAPObject> objs) {
+		if (aorObjectCache == null) {
+			LOG.error("AOR Cache has not been initialized");
+			return;
+		}
+
+		Map<String, SAPObject> entries = new HashMap<String, SAPObject>();
+		long now = System.nanoTime();
+		for (SAPObject obj : objs) {
+			obj.setCachedAt(now);
+			entries.put(obj.getId(), obj);
+		}
+
+		aorObjectCache.putAll(entries);
+
+		for (String id : entries.keySet()) {
+			aorAttributeView.aorChanged(id);
+		}
+	}
+
+	/**
+	 * Writes AORs loaded by a refresh, comparing their content hash with the
+	 * cached AORs. Unchanged AORs are put back as the same instance, which
+	 * only renews their time to live, unless the code table was replaced
+	 * since they were loaded. Only added and changed AORs are propagated as
+	 * changes.
+	 */
+	public void refreshAllInAORCache(Collection<SAPObject> objs, RefreshSummary summary) {
+		if (aorObjectCache == null) {
+			LOG.error("AOR Cache has not been initialized");
+			return;
+		}
+
+		Set<String> ids = new HashSet<String>();
+		for (SAPObject obj : objs) {
+			ids.add(obj.getId());
+			summary.seen(obj.getId());
+		}
+
+		Map<String, SAPObject> existing = aorObjectCache.getAll(ids);
+		Map<String, SAPObject> renewed = new HashMap<String, SAPObject>();
+		List<SAPObject> modified = new ArrayList<SAPObject>();
+
+		long now = System.nanoTime();
+
+		for (SAPObject obj : objs) {
+			SAPObject cached = existing.get(obj.getId());
+
+			if (cached == null) {
+				summary.added();
+				modified.add(obj);
+			} else if (cached.getContentHash() == obj.getContentHash()) {
+				summary.unchanged();
+				// the loaded AOR replaces one encoded against a previous code table
+				SAPObject kept = (cached.getEncodingTable() == obj.getEncodingTable()) ? cached : obj;
+				kept.setCachedAt(now);
+				renewed.put(obj.getId(), kept);
+			} else {
+				summary.changed();
+				modified.add(obj);
+			}
+		}
+
+		if (!renewed.isEmpty()) {
+			aorObjectCache.putAll(renewed);
+		}
+
+		if (!modified.isEmpty()) {
+			writeAllToAORCache(modified);
+			subjectAttributeCache.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of distinct values of the cached AORs encoded against
+	 * the given code table.
+	 */
+	public int countAORValues(ValueCodeTable table) {
+		if (aorObjectCache == null) {
+			return 0;
+		}
+
+		BitSet used = new BitSet();
+		Iterator<Entry<String, SAPObject>> it = aorObjectCache.iterator();
+
+		while (it.hasNext()) {
+			SAPObject aor = it.next().getValue();
+
+			if (aor.getEncodingTable() != table) {
+				continue;
+			}
+
+			for (String key : aor.getAttributeKeys()) {
+				int[] codes = aor.getAttributeCodes(key);
+				if (codes != null) {
+					for (int code : codes) {
+						used.set(code);
+					}
+				}
+			}
+		}
+
+		used.clear(ValueCodeTable.NULL_CODE);
+		return used.cardinality();
+	}
+
+	/**
+	 * Removes the AORs which were not seen by a complete refresh.
+	 */
+	public void removeUnseenFromAORCache(RefreshSummary summary) {
+		if (aorObjectCache == null || !summary.isComplete()) {
+			return;
+		}
+
+		Set<String> unseen = new HashSet<String>();
+
+		Iterator<Entry<String, SAPObject>> it = aorObjectCache.iterator();
+		while (it.hasNext()) {
+			Entry<String, SAPObject> entry = it.next();
+			if (!summary.isSeen(entry.getKey())) {
+				unseen.add(entry.getKey());
+			}
+		}
+
+		if (!unseen.isEmpty()) {
+			removeAllFromAORCache(unseen);
+			summary.removed(unseen.size());
+		}
+	}
+
+	/**
+	 * Removes AORs from the cache in a single bulk operation.
+	 */
+	public void removeAllFromAORCache(Collection<String> objIds) {
+		if (aorObjectCache == null) {
+			LOG.error("AOR Cache has not been initialized");
+			return;
+		}
+
+		aorObjectCache.removeAll(new HashSet<String>(objIds));
+
+		for (String objId : objIds) {
+			aorAttributeView.aorChanged(objId);
+		}
+		subjectAttributeCache.clear();
+
+		LOG.debug("[%d] objects removed from aor cache", objIds.size());
+	}
+
 	public void removeObjectFromAORCache(String objId) {
 		if (objId != null) {
-			LOG.debug(String.format("Removing object [%s] from aor cache", objId));
+			LOG.debug("Removing object [%s] from aor cache", objId);
 			aorObjectCache.remove(objId);
-			LOG.debug(String.format("Object [%s] removed from aor cache", objId));
+			aorAttributeView.aorChanged(objId);
+			subjectAttributeCache.clear();
+			LOG.debug("Object [%s] removed from aor cache", objId);
 		} else {
 			LOG.warn(String.format("Object [%s] is not in aor cache. Purge skipped", objId));
 		}
@@ -89,6 +486,10 @@ public class CacheEngine {
 		}
 		LOG.info("Purging all cache data in AOR");
 		aorObjectCache.clear();
+		aorValueDictionary.clear();
+		SAPObject.startCodeTable();
+		aorAttributeView.invalidateAll();
+		subjectAttributeCache.clear();
 		LOG.info("All data in AOR purged!");
 		printCache();
 	}
@@ -120,6 +521,18 @@ public class CacheEngine {
 		
 		LOG.info(String.format("cache_max_object will be set to [%s]", lCache_max_object));	
 
+		// Number of users, limited separately from the heap size
+		String cacheMaxEntries = props.getProperty("cache_max_entries", "0");
+		int iCacheMaxEntries = 0;
+		try {
+			iCacheMaxEntries = Integer.parseInt(cacheMaxEntries);
+		} catch (Exception ex) {
+			LOG.error("Not able to read cache_max_entries, hard set to 0 (no limit)");
+		}
+		userCachePolicy = new UserCachePolicy(iCacheMaxEntries,
+				(iCacheMaxEntries > 0) ? iCacheMaxEntries : DEFAULT_EXPECTED_USERS);
+		LOG.info(String.format("cache_max_entries will be set to [%d]", iCacheMaxEntries));
+
 		String timeToLive = props.getProperty("user_time_to_live", "1_DAYS");
 		
 		Duration duration = getTimeToLive(timeToLive);
@@ -127,13 +540,26 @@ public class CacheEngine {
 		//User Cache region
 		CacheConfigurationBuilder<String, UserObject> userCacheConfigurationBuilder = CacheConfigurationBuilder
 				.newCacheConfigurationBuilder(String.class, UserObject.class, resourceBuilder)
-				.withExpiry(Expirations.timeToLiveExpiration(duration)).withSizeOfMaxObjectGraph(lCache_max_object);
+				.withExpiry(Expirations.timeToLiveExpiration(duration)).withSizeOfMaxObjectGraph(lCache_max_object)
+				.withEvictionAdvisor(userCachePolicy);
 
 		CacheManagerBuilder<CacheManager> cacheManagerBuilder = CacheManagerBuilder.newCacheManagerBuilder();
 		cacheManagerBuilder = cacheManagerBuilder.withCache(USER_CACHE_NAME, userCacheConfigurationBuilder);
 		userCacheManager = cacheManagerBuilder.build(true);
 
 		userObjectCache = userCacheManager.getCache(USER_CACHE_NAME, String.class, UserObject.class);
+		userCachePolicy.setResidency(new UserCachePolicy.Residency() {
+			@Override
+			public boolean isCached(String key) {
+				return userObjectCache.containsKey(key);
+			}
+		});
+		userObjectCache.getRuntimeConfiguration().registerCacheEventListener(new UserCacheListener(),
+				EventOrdering.UNORDERED, EventFiring.ASYNCHRONOUS, EnumSet.of(EventType.EXPIRED, EventType.EVICTED));
+		// the near cache must not serve an entry once it is gone from the user cache
+		userObjectCache.getRuntimeConfiguration().registerCacheEventListener(new NearCacheListener(),
+				EventOrdering.UNORDERED, EventFiring.SYNCHRONOUS,
+				EnumSet.of(EventType.UPDATED, EventType.REMOVED, EventType.EXPIRED, EventType.EVICTED));
 		
 		//AOR Cache region
 		String aorMode = props.getProperty("aor_expired_mode", "purge");
@@ -156,9 +582,70 @@ public class CacheEngine {
 		aorCacheManager = aorCacheManagerBuilder.build(true);
 
 		aorObjectCache = aorCacheManager.getCache(AOR_CACHE_NAME, String.class, SAPObject.class);
+		aorAttributeView.setTimeToLive(aorDuration.isInfinite() ? Long.MAX_VALUE
+				: aorDuration.getTimeUnit().toNanos(aorDuration.getLength()));
+		aorObjectCache.getRuntimeConfiguration().registerCacheEventListener(new AorCacheListener(),
+				EventOrdering.UNORDERED, EventFiring.ASYNCHRONOUS, EnumSet.of(EventType.EXPIRED, EventType.EVICTED));
 
 		// identifierMap can be modified concurrently by different requests
 		identifierMap = new ConcurrentHashMap<String, String>();
+
+		// Repeated attribute values are shared between cached objects
+		boolean dictionaryEnabled = props.getProperty("value_dictionary_enabled", "true").equalsIgnoreCase("true");
+		userValueDictionary.setEnabled(dictionaryEnabled);
+		aorValueDictionary.setEnabled(dictionaryEnabled);
+		LOG.info(String.format("value_dictionary_enabled will be set to [%s]", dictionaryEnabled));
+
+		// Values of the users loaded on demand are interned with no refresh to purge them
+		String dictionaryMaxEntries = props.getProperty("value_dictionary_max_entries",
+				String.valueOf(ValueDictionary.DEFAULT_MAX_ENTRIES));
+		int iDictionaryMaxEntries = ValueDictionary.DEFAULT_MAX_ENTRIES;
+		try {
+			iDictionaryMaxEntries = Integer.parseInt(dictionaryMaxEntries);
+		} catch (Exception ex) {
+			LOG.error(String.format("Not able to read value_dictionary_max_entries, hard set to %d",
+					ValueDictionary.DEFAULT_MAX_ENTRIES));
+		}
+		userValueDictionary.setMaxEntries(iDictionaryMaxEntries);
+		aorValueDictionary.setMaxEntries(iDictionaryMaxEntries);
+		LOG.info(String.format("value_dictionary_max_entries will be set to [%d]", iDictionaryMaxEntries));
+
+		// Per user AOR attributes resolved ahead of the requests
+		boolean viewEnabled = props.getProperty("aor_materialized_view", "false").equalsIgnoreCase("true");
+		aorAttributeView.setEnabled(viewEnabled);
+		LOG.info(String.format("aor_materialized_view will be set to [%s]", viewEnabled));
+
+		// AOR attributes resolved together for the requests of the same evaluation
+		String subjectCacheSize = props.getProperty("subject_cache_max_entries", "1000");
+		int iSubjectCacheSize = 1000;
+		try {
+			iSubjectCacheSize = Integer.parseInt(subjectCacheSize);
+		} catch (Exception ex) {
+			LOG.error("Not able to read subject_cache_max_entries, hard set to 1000");
+		}
+		Duration subjectDuration = getTimeToLive(props.getProperty("subject_cache_time_to_live", "2_SECS"));
+		long subjectTimeToLive = subjectDuration.isInfinite() ? Long.MAX_VALUE
+				: subjectDuration.getTimeUnit().toNanos(subjectDuration.getLength());
+		subjectAttributeCache.configure(iSubjectCacheSize, subjectTimeToLive);
+		LOG.info(String.format("subject_cache_max_entries will be set to [%d]", iSubjectCacheSize));
+
+		// Hot users served without going through the identifier map and the user cache
+		String nearCacheSize = props.getProperty("user_near_cache_size", "1024");
+		int iNearCacheSize = 1024;
+		try {
+			iNearCacheSize = Integer.parseInt(nearCacheSize);
+		} catch (Exception ex) {
+			LOG.error("Not able to read user_near_cache_size, hard set to 1024");
+		}
+		Duration nearDuration = getTimeToLive(props.getProperty("user_near_cache_time_to_live", "1_MINS"));
+		long nearTimeToLive = nearDuration.isInfinite() ? Long.MAX_VALUE
+				: nearDuration.getTimeUnit().toNanos(nearDuration.getLength());
+		userNearCache.configure(iNearCacheSize, nearTimeToLive);
+		LOG.info(String.format("user_near_cache_size will be set to [%d]", iNearCacheSize));
+
+		// Refreshes compare the loaded objects with the cached ones instead of purging the cache first
+		changeDetection = props.getProperty("refresh_change_detection", "true").equalsIgnoreCase("true");
+		LOG.info(String.format("refresh_change_detection will be set to [%s]", changeDetection));
 	}
 	
 	private Duration getTimeToLive(String timeToLive) {
@@ -217,9 +704,61 @@ public class CacheEngine {
 			return null;
 		}
 
-		return (identifierMap.get(id) == null) ? null : userObjectCache.get(identifierMap.get(id));
+		String combinedId = identifierMap.get(id);
+
+		if (combinedId == null) {
+			return null;
+		}
+
+		UserObject user = userObjectCache.get(combinedId);
+
+		if (user != null) {
+			userCachePolicy.recordAccess(combinedId);
+		}
+
+		return user;
 	}
 	
+	/**
+	 * Looks up the user of a request, first in the near cache then in the user
+	 * cache, with the identifier as received and in lower case. A user found
+	 * in the user cache is added to the near cache under the identifier as
+	 * received.
+	 */
+	public UserObject lookupUserObject(String requestId) {
+		UserObject user = userNearCache.get(requestId);
+
+		if (user != null) {
+			userCachePolicy.recordAccess(user.getId());
+			userCounters.hit();
+			return user;
+		}
+
+		user = getUserObjectFromCache(requestId);
+
+		// try again with case insensitive
+		if (user == null) {
+			user = getUserObjectFromCache(requestId.toLowerCase());
+		}
+
+		if (user == null) {
+			userCounters.miss();
+			return null;
+		}
+		userCounters.hit();
+
+		if (userNearCache.isEnabled()) {
+			userNearCache.put(requestId, user);
+
+			// the user may have been replaced while it was added, an event could have been missed
+			if (userObjectCache.get(user.getId()) != user) {
+				userNearCache.invalidateKey(requestId);
+			}
+		}
+
+		return user;
+	}
+
 	public SAPObject getAorObjectFromCache(String id) {
 		if (aorObjectCache == null) {
 			LOG.error("AOR Cache has not been initialized");
@@ -228,6 +767,93 @@ public class CacheEngine {
 		return (aorObjectCache.get(id));
 	}
 
+	/**
+	 * Looks the AORs of a request up, in a single bulk operation with the
+	 * identifiers as received then in lower case for the missing ones.
+	 * 
+	 * @return the AORs found, by identifier as received. Identifiers not in
+	 *         the cache are not in the map.
+	 */
+	public Map<String, SAPObject> lookupAorObjects(Collection<String> ids) {
+		Map<String, SAPObject> found = getAllAorObjectsFromCache(ids);
+
+		if (found.size() < ids.size()) {
+			Map<String, String> lowerCaseIds = new HashMap<String, String>();
+			for (String id : ids) {
+				if (!found.containsKey(id)) {
+					lowerCaseIds.put(id.toLowerCase(), id);
+				}
+			}
+
+			for (Map.Entry<String, SAPObject> entry : getAllAorObjectsFromCache(lowerCaseIds.keySet()).entrySet()) {
+				found.put(lowerCaseIds.get(entry.getKey()), entry.getValue());
+			}
+		}
+
+		aorCounters.lookedUp(found.size(), new HashSet<String>(ids).size());
+		return found;
+	}
+
+	/**
+	 * Looks AORs up in a single bulk operation.
+	 * 
+	 * @return the AORs found, by identifier. Identifiers not in the cache are
+	 *         not in the map.
+	 */
+	public Map<String, SAPObject> getAllAorObjectsFromCache(Collection<String> ids) {
+		Map<String, SAPObject> found = new HashMap<String, SAPObject>();
+
+		if (aorObjectCache == null) {
+			LOG.error("AOR Cache has not been initialized");
+			return found;
+		}
+
+		for (Map.Entry<String, SAPObject> entry : aorObjectCache.getAll(new HashSet<String>(ids)).entrySet()) {
+			if (entry.getValue() != null) {
+				found.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Looks users up in a single bulk operation.
+	 * 
+	 * @param ids
+	 *            identifiers as received in the requests
+	 * @return the users found, by identifier. Identifiers not in the cache are
+	 *         not in the map.
+	 */
+	public Map<String, UserObject> getAllUserObjectsFromCache(Collection<String> ids) {
+		Map<String, UserObject> found = new HashMap<String, UserObject>();
+
+		if (userObjectCache == null) {
+			LOG.error("User Cache has not been initialized");
+			return found;
+		}
+
+		Map<String, String> combinedIds = new HashMap<String, String>();
+		for (String id : ids) {
+			String combinedId = identifierMap.get(id);
+			if (combinedId != null) {
+				combinedIds.put(id, combinedId);
+			}
+		}
+
+		Map<String, UserObject> users = userObjectCache.getAll(new HashSet<String>(combinedIds.values()));
+
+		for (Map.Entry<String, String> entry : combinedIds.entrySet()) {
+			UserObject user = users.get(entry.getValue());
+			if (user != null) {
+				userCachePolicy.recordAccess(entry.getValue());
+				found.put(entry.getKey(), user);
+			}
+		}
+
+		userCounters.lookedUp(found.size(), new HashSet<String>(ids).size());
+		return found;
+	}
+
 	public void printCache() {
 		
 		//User Cache
@@ -271,11 +897,126 @@ public class CacheEngine {
 		}
 	}
 
+	public AORAttributeView getAorAttributeView() {
+		return aorAttributeView;
+	}
+
+	public ReferencedAORTracker getReferencedAORTracker() {
+		return referencedAORTracker;
+	}
+
+	public boolean isChangeDetection() {
+		return changeDetection;
+	}
+
+	public SubjectAttributeCache getSubjectAttributeCache() {
+		return subjectAttributeCache;
+	}
+
+	public UserCachePolicy getUserCachePolicy() {
+		return userCachePolicy;
+	}
+
+	public UserNearCache getUserNearCache() {
+		return userNearCache;
+	}
+
+	public ValueDictionary getUserValueDictionary() {
+		return userValueDictionary;
+	}
+
+	public ValueDictionary getAorValueDictionary() {
+		return aorValueDictionary;
+	}
+
+	/**
+	 * Returns the counters of the user cache region.
+	 */
+	public CacheCounters getUserCounters() {
+		return userCounters;
+	}
+
+	/**
+	 * Returns the counters of the AOR cache region.
+	 */
+	public CacheCounters getAorCounters() {
+		return aorCounters;
+	}
+
 	public void addIdentifier(String id, String combinedId) {
 		if (identifierMap == null) {
 			LOG.error("Cache has not been initialized");
 			return;
 		}
 		identifierMap.put(id, combinedId);
+		userNearCache.invalidateKey(id);
+	}
+
+	/**
+	 * Adds identifiers in a single bulk operation.
+	 * 
+	 * @param identifiers
+	 *            cache identifier by identifier as received in the requests
+	 */
+	public void addIdentifiers(Map<String, String> identifiers) {
+		if (identifierMap == null) {
+			LOG.error("Cache has not been initialized");
+			return;
+		}
+		identifierMap.putAll(identifiers);
+		for (String id : identifiers.keySet()) {
+			userNearCache.invalidateKey(id);
+		}
+	}
+
+	private class UserCacheListener implements CacheEventListener<String, UserObject> {
+
+		@Override
+		public void onEvent(CacheEvent<String, UserObject> event) {
+			BackendEvents.getInstance().cacheRemoved(USER_CACHE_NAME, event.getKey(), event.getType().name());
+
+			if (event.getType() == EventType.EVICTED) {
+				userCounters.evicted();
+			} else {
+				userCounters.expired();
+			}
+
+			// events are delivered asynchronously, the user may have been put again since
+			UserObject current = userObjectCache.get(event.getKey());
+			if (current != null && current != event.getOldValue()) {
+				return;
+			}
+
+			// the admission policy finds the user gone by itself, a late event must not drop a user admitted again
+			userRemoved(event.getKey());
+		}
+	}
+
+	private class AorCacheListener implements CacheEventListener<String, SAPObject> {
+
+		@Override
+		public void onEvent(CacheEvent<String, SAPObject> event) {
+			BackendEvents.getInstance().cacheRemoved(AOR_CACHE_NAME, event.getKey(), event.getType().name());
+
+			if (event.getType() == EventType.EVICTED) {
+				aorCounters.evicted();
+			} else {
+				aorCounters.expired();
+			}
+
+			aorAttributeView.aorChanged(event.getKey());
+		}
+	}
+
+	private class NearCacheListener implements CacheEventListener<String, UserObject> {
+
+		@Override
+		public void onEvent(CacheEvent<String, UserObject> event) {
+			// an unchanged user put back by a refresh is still valid
+			if (event.getType() == EventType.UPDATED && event.getOldValue() == event.getNewValue()) {
+				return;
+			}
+			userNearCache.invalidateUser(event.getKey());
+		}
 	}
 }
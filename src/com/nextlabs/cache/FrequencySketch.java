@@ -0,0 +1,98 @@
+package com.nextlabs.cache;
+
+/**
+ * Compact, approximate access frequency counter (count-min sketch with 4 bit
+ * counters). Each key is counted in 4 counters, its frequency is the lowest
+ * of them, up to 15.
+ *
+ * Once the number of recorded accesses reaches ten times the expected number
+ * of entries, every counter is halved so the frequencies follow the recent
+ * access pattern.
+ */
+public class FrequencySketch {
+
+	public static final int MAX_FREQUENCY = 15;
+
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+			0xcbf29ce484222325L };
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final long ONE_MASK = 0x1111111111111111L;
+
+	// every long holds 16 counters of 4 bits
+	private final long[] table;
+	private final int tableMask;
+	private final int sampleSize;
+	private int size;
+
+	public FrequencySketch(int expectedEntries) {
+		int length = 16;
+		while (length < expectedEntries && length < (1 << 30)) {
+			length <<= 1;
+		}
+
+		table = new long[length];
+		tableMask = length - 1;
+		sampleSize = (int) Math.min(10L * Math.max(expectedEntries, 1), Integer.MAX_VALUE);
+	}
+
+	public synchronized int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+		int frequency = MAX_FREQUENCY;
+
+		for (int i = 0; i < 4; i++) {
+			int offset = (start + i) << 2;
+			int count = (int) ((table[indexOf(hash, i)] >>> offset) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	public synchronized void increment(Object key) {
+		int hash = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+		boolean added = false;
+
+		for (int i = 0; i < 4; i++) {
+			added |= incrementAt(indexOf(hash, i), start + i);
+		}
+
+		if (added && ++size == sampleSize) {
+			reset();
+		}
+	}
+
+	private boolean incrementAt(int index, int counter) {
+		int offset = counter << 2;
+		long mask = 0xfL << offset;
+
+		if ((table[index] & mask) != mask) {
+			table[index] += 1L << offset;
+			return true;
+		}
+		return false;
+	}
+
+	private void reset() {
+		int odd = 0;
+
+		for (int i = 0; i < table.length; i++) {
+			odd += Long.bitCount(table[i] & ONE_MASK);
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+
+		size = (size - (odd >>> 2)) >>> 1;
+	}
+
+	private int indexOf(int hash, int depth) {
+		long h = (hash + SEEDS[depth]) * SEEDS[depth];
+		h += (h >>> 32);
+		return ((int) h) & tableMask;
+	}
+
+	private static int spread(int x) {
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		return (x >>> 16) ^ x;
+	}
+}
@@ -0,0 +1,140 @@
+package com.nextlabs.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.bluejungle.framework.expressions.IMultivalue;
+import com.nextlabs.common.Constants;
+import com.nextlabs.common.UserObject;
+
+/**
+ * Keeps track of the AOR ids referenced by the ammoArea of the cached users.
+ * Only those AORs are ever looked up, so a targeted refresh can fetch them
+ * instead of the whole AOR master.
+ *
+ * Every AOR id is reference counted, it stops being tracked once no cached
+ * user references it anymore.
+ */
+public class ReferencedAORTracker {
+
+	// AOR id -> number of cached users referencing it
+	private final Map<String, Integer> references;
+	// user id -> AOR ids referenced by the user
+	private final Map<String, List<String>> aorsByUser;
+	// AOR ids which became referenced since they were last taken
+	private final Set<String> newlyReferenced;
+
+	public ReferencedAORTracker() {
+		references = new HashMap<String, Integer>();
+		aorsByUser = new HashMap<String, List<String>>();
+		newlyReferenced = new LinkedHashSet<String>();
+	}
+
+	public synchronized void userChanged(UserObject user) {
+		List<String> aorIds = getAORIds(user);
+
+		unindex(user.getId());
+
+		if (aorIds.isEmpty()) {
+			return;
+		}
+
+		aorsByUser.put(user.getId(), aorIds);
+
+		for (String aorId : aorIds) {
+			Integer count = references.get(aorId);
+			if (count == null) {
+				references.put(aorId, 1);
+				newlyReferenced.add(aorId);
+			} else {
+				references.put(aorId, count + 1);
+			}
+		}
+	}
+
+	public synchronized void userRemoved(String userId) {
+		unindex(userId);
+	}
+
+	/**
+	 * Returns a snapshot of the referenced AOR ids and resets the newly
+	 * referenced AORs, the snapshot covers them.
+	 */
+	public synchronized List<String> snapshot() {
+		newlyReferenced.clear();
+		return new ArrayList<String>(references.keySet());
+	}
+
+	/**
+	 * Returns the AOR ids which became referenced since the last
+	 * {@link #snapshot()} or {@link #takeNewlyReferenced()}, and resets them.
+	 */
+	public synchronized List<String> takeNewlyReferenced() {
+		List<String> aorIds = new ArrayList<String>(newlyReferenced);
+		newlyReferenced.clear();
+		return aorIds;
+	}
+
+	/**
+	 * Returns the number of AOR ids which became referenced since the last
+	 * {@link #snapshot()} or {@link #takeNewlyReferenced()}.
+	 */
+	public synchronized int getNewlyReferenced() {
+		return newlyReferenced.size();
+	}
+
+	public synchronized int size() {
+		return references.size();
+	}
+
+	public synchronized void clear() {
+		references.clear();
+		aorsByUser.clear();
+		newlyReferenced.clear();
+	}
+
+	private void unindex(String userId) {
+		List<String> previous = aorsByUser.remove(userId);
+
+		if (previous == null) {
+			return;
+		}
+
+		for (String aorId : previous) {
+			Integer count = references.get(aorId);
+			if (count == null || count <= 1) {
+				references.remove(aorId);
+				newlyReferenced.remove(aorId);
+			} else {
+				references.put(aorId, count - 1);
+			}
+		}
+	}
+
+	/**
+	 * Returns the distinct AOR ids of the ammoArea attribute of the user.
+	 */
+	public static List<String> getAORIds(UserObject user) {
+		IEvalValue val = user.getAttribute(Constants.LDAP_ATTRIBUTE_AOR_KEY);
+
+		if (val == null || !(val.getValue() instanceof IMultivalue)) {
+			return Collections.emptyList();
+		}
+
+		List<String> aorIds = new ArrayList<String>();
+
+		for (IEvalValue v : (IMultivalue) val.getValue()) {
+			if (v != null && v.getValue() != null && !aorIds.contains(v.getValue())) {
+				aorIds.add((String) v.getValue());
+			}
+		}
+
+		return aorIds;
+	}
+}
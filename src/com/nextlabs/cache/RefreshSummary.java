@@ -0,0 +1,110 @@
+package com.nextlabs.cache;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Outcome of a refresh: the number of entries added, changed, unchanged and
+ * removed, and the ids of the entries the refresh has seen. Entries not seen
+ * by a complete refresh no longer exist at the source and are removed.
+ */
+public class RefreshSummary {
+
+	private static final Log LOG = LogFactory.getLog(RefreshSummary.class);
+
+	private final String name;
+	private final AtomicInteger added;
+	private final AtomicInteger changed;
+	private final AtomicInteger unchanged;
+	private final AtomicInteger removed;
+	private final Set<String> seen;
+	private final Set<String> sources;
+	private volatile boolean complete;
+
+	public RefreshSummary(String name) {
+		this.name = name;
+		added = new AtomicInteger();
+		changed = new AtomicInteger();
+		unchanged = new AtomicInteger();
+		removed = new AtomicInteger();
+		seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		sources = Collections.synchronizedSet(new HashSet<String>());
+		complete = true;
+	}
+
+	public void seen(String id) {
+		seen.add(id);
+	}
+
+	public boolean isSeen(String id) {
+		return seen.contains(id);
+	}
+
+	/**
+	 * Records a source (LDAP domain) fully covered by the refresh. Only
+	 * entries of these sources are candidates for removal.
+	 */
+	public void addSource(String source) {
+		sources.add(source);
+	}
+
+	public boolean hasSource(String source) {
+		return sources.contains(source);
+	}
+
+	/**
+	 * Marks the refresh as incomplete, some entries may be missing because of
+	 * a failure so nothing is removed.
+	 */
+	public void setIncomplete() {
+		complete = false;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public void added() {
+		added.incrementAndGet();
+	}
+
+	public void changed() {
+		changed.incrementAndGet();
+	}
+
+	public void unchanged() {
+		unchanged.incrementAndGet();
+	}
+
+	public void removed(int count) {
+		removed.addAndGet(count);
+	}
+
+	public int getAdded() {
+		return added.get();
+	}
+
+	public int getChanged() {
+		return changed.get();
+	}
+
+	public int getUnchanged() {
+		return unchanged.get();
+	}
+
+	public int getRemoved() {
+		return removed.get();
+	}
+
+	public void log() {
+		LOG.info(String.format("%s refresh summary: added [%d], changed [%d], unchanged [%d], removed [%d]%s", name,
+				added.get(), changed.get(), unchanged.get(), removed.get(),
+				complete ? "" : ", refresh incomplete so nothing was removed"));
+	}
+}
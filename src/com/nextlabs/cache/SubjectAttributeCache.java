@@ -0,0 +1,93 @@
+package com.nextlabs.cache;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.bluejungle.framework.expressions.IEvalValue;
+
+/**
+ * Short lived, bounded cache of the AOR attributes resolved for a subject.
+ * A policy evaluation usually asks for several AOR attributes of the same
+ * subject in a row, the first request resolves all of them and the following
+ * ones are served from here.
+ *
+ * Entries expire after a short time to live and the least recently used
+ * entries are evicted once the maximum number of entries is reached.
+ */
+public class SubjectAttributeCache {
+
+	private final LinkedHashMap<String, Entry> entries;
+	private int maxEntries;
+	private long timeToLiveNanos;
+
+	public SubjectAttributeCache() {
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	public synchronized void configure(int maxEntries, long timeToLiveNanos) {
+		this.maxEntries = maxEntries;
+		this.timeToLiveNanos = timeToLiveNanos;
+		entries.clear();
+	}
+
+	public boolean isEnabled() {
+		return maxEntries > 0 && timeToLiveNanos > 0;
+	}
+
+	/**
+	 * Returns the resolved attributes of the subject, or null if the subject
+	 * is not cached or its entry has expired.
+	 */
+	public synchronized Map<String, IEvalValue> get(String subjectId) {
+		Entry entry = entries.get(subjectId);
+
+		if (entry == null) {
+			return null;
+		}
+
+		if (System.nanoTime() - entry.created > timeToLiveNanos) {
+			entries.remove(subjectId);
+			return null;
+		}
+
+		return entry.attributes;
+	}
+
+	public synchronized void put(String subjectId, Map<String, IEvalValue> attributes) {
+		if (!isEnabled()) {
+			return;
+		}
+		entries.put(subjectId, new Entry(Collections.unmodifiableMap(attributes)));
+	}
+
+	public synchronized void invalidate(String subjectId) {
+		entries.remove(subjectId);
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private static final class Entry {
+		private final Map<String, IEvalValue> attributes;
+		private final long created;
+
+		private Entry(Map<String, IEvalValue> attributes) {
+			this.attributes = attributes;
+			this.created = System.nanoTime();
+		}
+	}
+}
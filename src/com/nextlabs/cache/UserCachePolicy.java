@@ -0,0 +1,267 @@
+package com.nextlabs.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.ehcache.config.EvictionAdvisor;
+
+import com.nextlabs.common.UserObject;
+
+/**
+ * Admission and eviction policy of the user cache, based on how often the
+ * users are requested.
+ *
+ * The number of entries is capped separately from the heap size of the
+ * cache. When the cap is reached, the least frequently requested of a few
+ * sampled users makes room for the new one. Users loaded on request are
+ * always admitted, while users loaded by a refresh are only admitted when
+ * they are requested more often than the user they would replace, so a bulk
+ * refresh does not push the hot users out.
+ *
+ * The policy also advises the heap store against evicting frequently
+ * requested users when the byte limit is reached.
+ *
+ * Accesses are recorded without locking into a small buffer, drained into the
+ * frequency sketch by whichever thread fills it. Accesses offered while the
+ * buffer is full are dropped, the frequencies are approximate anyway.
+ *
+ * The resident keys are only updated by the threads writing to the cache.
+ * Users leaving the cache on their own (expired or evicted) are found out
+ * when sampled, by checking the cache itself, so late removal events cannot
+ * drop a user which was cached again meanwhile.
+ */
+public class UserCachePolicy implements EvictionAdvisor<String, UserObject> {
+
+	public static final int HOT_FREQUENCY = 4;
+
+	private static final int SAMPLE_SIZE = 8;
+	private static final int BUFFER_SIZE = 128;
+	private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+	private static final int DRAIN_THRESHOLD = BUFFER_SIZE / 2;
+
+	/**
+	 * Tells whether a key is still in the cache.
+	 */
+	public interface Residency {
+		boolean isCached(String key);
+	}
+
+	private final FrequencySketch sketch;
+	private final int maxEntries;
+	private final Random random;
+	// resident keys, indexed so they can be sampled and removed in constant time
+	private final List<String> residents;
+	private final Map<String, Integer> positions;
+	// accesses not yet recorded in the sketch
+	private final AtomicReferenceArray<String> buffer;
+	private final AtomicLong writeCount;
+	private volatile long readCount;
+	private final ReentrantLock drainLock;
+	private volatile Residency residency;
+	private long rejected;
+
+	/**
+	 * @param maxEntries
+	 *            maximum number of entries, 0 for no limit
+	 * @param expectedEntries
+	 *            number of distinct users the frequencies are tracked for
+	 */
+	public UserCachePolicy(int maxEntries, int expectedEntries) {
+		this.maxEntries = maxEntries;
+		sketch = new FrequencySketch(expectedEntries);
+		random = new Random();
+		residents = new ArrayList<String>();
+		positions = new HashMap<String, Integer>();
+		buffer = new AtomicReferenceArray<String>(BUFFER_SIZE);
+		writeCount = new AtomicLong();
+		drainLock = new ReentrantLock();
+	}
+
+	/**
+	 * Sets the view of the cache the resident keys are checked against.
+	 */
+	public void setResidency(Residency residency) {
+		this.residency = residency;
+	}
+
+	/**
+	 * Records an access without waiting, the access is dropped if the buffer
+	 * is full.
+	 */
+	public void recordAccess(String key) {
+		long head = readCount;
+		long tail = writeCount.get();
+
+		if (tail - head >= BUFFER_SIZE || !writeCount.compareAndSet(tail, tail + 1)) {
+			return;
+		}
+
+		buffer.lazySet((int) (tail & BUFFER_MASK), key);
+
+		if (tail + 1 - head >= DRAIN_THRESHOLD && drainLock.tryLock()) {
+			try {
+				drain();
+			} finally {
+				drainLock.unlock();
+			}
+		}
+	}
+
+	public int frequency(String key) {
+		drainBuffer();
+		return sketch.frequency(key);
+	}
+
+	/**
+	 * Decides whether the key can be written to the cache.
+	 *
+	 * @param key
+	 *            key to write
+	 * @param onRequest
+	 *            true if the entry is loaded for a request, false if it is
+	 *            loaded by a refresh
+	 * @return the key of the entry to remove to make room, null if there is no
+	 *         entry to remove, or the key itself if it is rejected
+	 */
+	public synchronized String admit(String key, boolean onRequest) {
+		drainBuffer();
+
+		if (positions.containsKey(key)) {
+			return null;
+		}
+
+		if (maxEntries <= 0 || residents.size() < maxEntries) {
+			add(key);
+			return null;
+		}
+
+		String victim = sampleVictim();
+		Residency current = residency;
+		boolean cached = current == null || current.isCached(victim);
+
+		if (cached && !onRequest && sketch.frequency(key) <= sketch.frequency(victim)) {
+			rejected++;
+			return key;
+		}
+
+		remove(victim);
+		add(key);
+		return victim;
+	}
+
+	public synchronized void removed(String key) {
+		remove(key);
+	}
+
+	public synchronized void clear() {
+		residents.clear();
+		positions.clear();
+	}
+
+	public synchronized int size() {
+		return residents.size();
+	}
+
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	@Override
+	public boolean adviseAgainstEviction(String key, UserObject value) {
+		return frequency(key) >= HOT_FREQUENCY;
+	}
+
+	/**
+	 * Records the buffered accesses in the sketch.
+	 */
+	public void drainBuffer() {
+		if (writeCount.get() == readCount) {
+			return;
+		}
+
+		drainLock.lock();
+		try {
+			drain();
+		} finally {
+			drainLock.unlock();
+		}
+	}
+
+	private void drain() {
+		long head = readCount;
+		long tail = writeCount.get();
+
+		for (; head < tail; head++) {
+			int index = (int) (head & BUFFER_MASK);
+			String key = buffer.get(index);
+
+			// claimed but not written yet, left for the next drain
+			if (key == null) {
+				break;
+			}
+
+			buffer.lazySet(index, null);
+			sketch.increment(key);
+		}
+
+		readCount = head;
+	}
+
+	private String sampleVictim() {
+		String victim = null;
+		int victimFrequency = Integer.MAX_VALUE;
+		Residency current = residency;
+
+		int count = residents.size();
+		int start = random.nextInt(count);
+
+		// consecutive keys from a random position, every key is sampled in small caches
+		for (int i = 0; i < Math.min(SAMPLE_SIZE, count); i++) {
+			String candidate = residents.get((start + i) % count);
+
+			// left the cache on its own, makes room without evicting anyone
+			if (current != null && !current.isCached(candidate)) {
+				return candidate;
+			}
+
+			int frequency = sketch.frequency(candidate);
+
+			if (frequency < victimFrequency) {
+				victim = candidate;
+				victimFrequency = frequency;
+			}
+		}
+		return victim;
+	}
+
+	private void add(String key) {
+		positions.put(key, residents.size());
+		residents.add(key);
+	}
+
+	private void remove(String key) {
+		Integer position = positions.remove(key);
+
+		if (position == null) {
+			return;
+		}
+
+		// move the last key into the freed position
+		String last = residents.remove(residents.size() - 1);
+
+		if (position < residents.size()) {
+			residents.set(position, last);
+			positions.put(last, position);
+		}
+	}
+}
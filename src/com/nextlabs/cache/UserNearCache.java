@@ -0,0 +1,301 @@
+package com.nextlabs.cache;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.nextlabs.common.UserObject;
+
+/**
+ * Small lock free cache sitting in front of the user cache, keyed directly by
+ * the identifier received in the request. A hit costs a single hash and at
+ * most {@link #WAYS} reference comparisons, without allocating.
+ *
+ * Slots are grouped in sets of {@link #WAYS}. Every hit increments an
+ * approximate frequency counter, and a new key replaces the least frequently
+ * used slot of its set, so the hot employees stay in while occasional ones
+ * pass through. Counters of the set are halved on every replacement so past
+ * popularity fades out.
+ *
+ * The near cache never loads anything by itself. Entries are invalidated
+ * from the events of the user cache. Since the user cache only notices an
+ * expiry when the entry is accessed, near cache entries also have their own
+ * time to live after which the lookup goes back to the user cache.
+ *
+ * Keys are hashed ignoring case, so every case of a request identifier lands
+ * in the same set and is invalidated together, while a hit still needs the
+ * exact key. The request keys of every user are indexed, so invalidating a
+ * user does not scan the slots.
+ */
+public class UserNearCache {
+
+	public static final int WAYS = 4;
+
+	private volatile AtomicReferenceArray<Node> slots;
+	private volatile long timeToLiveNanos;
+	// user cache id -> request keys the user is cached under
+	private final ConcurrentHashMap<String, Set<String>> keysByUser;
+
+	public UserNearCache() {
+		keysByUser = new ConcurrentHashMap<String, Set<String>>();
+		configure(0, 0);
+	}
+
+	/**
+	 * Sets the number of slots, rounded up to a power of two, and the time to
+	 * live of the entries. A capacity of 0 disables the near cache. Existing
+	 * entries are dropped.
+	 */
+	public void configure(int capacity, long timeToLiveNanos) {
+		this.timeToLiveNanos = timeToLiveNanos;
+		keysByUser.clear();
+
+		if (capacity <= 0) {
+			slots = null;
+			return;
+		}
+
+		int size = WAYS;
+		while (size < capacity) {
+			size <<= 1;
+		}
+
+		slots = new AtomicReferenceArray<Node>(size);
+	}
+
+	public boolean isEnabled() {
+		return slots != null;
+	}
+
+	public UserObject get(String key) {
+		AtomicReferenceArray<Node> current = slots;
+
+		if (current == null || key == null) {
+			return null;
+		}
+
+		int base = indexFor(key, current);
+
+		for (int i = 0; i < WAYS; i++) {
+			Node node = current.get(base + i);
+			if (node != null && node.key.equals(key)) {
+				if (System.nanoTime() - node.created > timeToLiveNanos) {
+					return null;
+				}
+				// racy increment, an approximate count is good enough
+				node.frequency++;
+				return node.value;
+			}
+		}
+
+		return null;
+	}
+
+	public void put(String key, UserObject value) {
+		AtomicReferenceArray<Node> current = slots;
+
+		if (current == null || key == null || value == null) {
+			return;
+		}
+
+		// indexed first, an invalidation of the user running meanwhile removes the entry
+		index(value.getId(), key);
+
+		int base = indexFor(key, current);
+		int victim = base;
+		int minFrequency = Integer.MAX_VALUE;
+
+		for (int i = base; i < base + WAYS; i++) {
+			Node node = current.get(i);
+
+			if (node == null || node.key.equals(key)) {
+				replace(current, i, node, new Node(key, value));
+				return;
+			}
+
+			if (node.frequency < minFrequency) {
+				minFrequency = node.frequency;
+				victim = i;
+			}
+		}
+
+		for (int i = base; i < base + WAYS; i++) {
+			Node node = current.get(i);
+			if (node != null) {
+				node.frequency >>>= 1;
+			}
+		}
+
+		replace(current, victim, current.get(victim), new Node(key, value));
+	}
+
+	/**
+	 * Removes the entries of the given request key, in any case.
+	 */
+	public void invalidateKey(String key) {
+		AtomicReferenceArray<Node> current = slots;
+
+		if (current == null || key == null) {
+			return;
+		}
+
+		int base = indexFor(key, current);
+
+		for (int i = base; i < base + WAYS; i++) {
+			Node node = current.get(i);
+			if (node != null && node.key.equalsIgnoreCase(key)) {
+				replace(current, i, node, null);
+			}
+		}
+	}
+
+	/**
+	 * Removes every entry holding the user with the given cache id, whatever
+	 * the request key it was cached under.
+	 */
+	public void invalidateUser(String userId) {
+		AtomicReferenceArray<Node> current = slots;
+
+		if (current == null || userId == null) {
+			return;
+		}
+
+		Set<String> indexed = keysByUser.remove(userId);
+
+		if (indexed == null) {
+			return;
+		}
+
+		List<String> keys;
+		synchronized (indexed) {
+			keys = new ArrayList<String>(indexed);
+		}
+
+		for (String key : keys) {
+			int base = indexFor(key, current);
+
+			for (int i = base; i < base + WAYS; i++) {
+				Node node = current.get(i);
+				if (node != null && node.key.equals(key) && userId.equals(node.value.getId())) {
+					current.compareAndSet(i, node, null);
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		AtomicReferenceArray<Node> current = slots;
+
+		if (current == null) {
+			return;
+		}
+
+		for (int i = 0; i < current.length(); i++) {
+			current.set(i, null);
+		}
+		keysByUser.clear();
+	}
+
+	public int size() {
+		AtomicReferenceArray<Node> current = slots;
+		int size = 0;
+
+		if (current != null) {
+			for (int i = 0; i < current.length(); i++) {
+				if (current.get(i) != null) {
+					size++;
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the number of users indexed.
+	 */
+	public int getIndexedUserCount() {
+		return keysByUser.size();
+	}
+
+	/**
+	 * Sets a slot, keeping the index of the request keys in line.
+	 */
+	private void replace(AtomicReferenceArray<Node> current, int i, Node node, Node replacement) {
+		if (replacement == null) {
+			if (node == null || !current.compareAndSet(i, node, null)) {
+				return;
+			}
+		} else {
+			current.set(i, replacement);
+		}
+
+		if (node != null && !(replacement != null && replacement.key.equals(node.key)
+				&& replacement.value.getId().equals(node.value.getId()))) {
+			unindex(node.value.getId(), node.key);
+		}
+	}
+
+	private void index(String userId, String key) {
+		while (true) {
+			Set<String> keys = keysByUser.get(userId);
+
+			if (keys == null) {
+				Set<String> created = new HashSet<String>();
+				keys = keysByUser.putIfAbsent(userId, created);
+				if (keys == null) {
+					keys = created;
+				}
+			}
+
+			synchronized (keys) {
+				// an emptied set may have been removed meanwhile
+				if (keysByUser.get(userId) == keys) {
+					keys.add(key);
+					return;
+				}
+			}
+		}
+	}
+
+	private void unindex(String userId, String key) {
+		Set<String> keys = keysByUser.get(userId);
+
+		if (keys == null) {
+			return;
+		}
+
+		synchronized (keys) {
+			keys.remove(key);
+			if (keys.isEmpty()) {
+				keysByUser.remove(userId, keys);
+			}
+		}
+	}
+
+	private static int indexFor(String key, AtomicReferenceArray<Node> current) {
+		// case insensitive, without allocating a lower case copy
+		int h = 0;
+		for (int i = 0; i < key.length(); i++) {
+			h = 31 * h + Character.toLowerCase(key.charAt(i));
+		}
+		h ^= (h >>> 16);
+		// first slot of the set, sets are WAYS aligned
+		return (h * WAYS) & (current.length() - WAYS);
+	}
+
+	private static final class Node {
+		private final String key;
+		private final UserObject value;
+		private final long created;
+		private int frequency;
+
+		private Node(String key, UserObject value) {
+			this.key = key;
+			this.value = value;
+			this.created = System.nanoTime();
+		}
+	}
+}
@@ -0,0 +1,312 @@
+package com.nextlabs.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.bluejungle.framework.expressions.EvalValue;
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.bluejungle.framework.expressions.Multivalue;
+
+/**
+ * Interns attribute values so that repeated values (clearance codes, storage
+ * locations, warehouse numbers...) are shared between cached objects instead
+ * of being held as separate instances. Interned values can also be compared by
+ * reference.
+ *
+ * Entries are tagged with the generation in which they were last used. A
+ * refresh starts a new generation and purges the entries that were not used
+ * during it once it completes. Purging never affects objects already in the
+ * cache, they simply stop sharing with newly produced ones.
+ *
+ * Values produced on demand are interned between refreshes, possibly with no
+ * refresh at all, so the number of entries is also capped. Reaching the cap
+ * removes the entries not looked up again since the previous time it was
+ * reached, or all of them if most are still in use.
+ */
+public class ValueDictionary {
+
+	private static final Log LOG = LogFactory.getLog(ValueDictionary.class);
+
+	public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+	private final String name;
+	private final ConcurrentHashMap<String, Entry<String>> strings;
+	private final ConcurrentHashMap<String, Entry<IEvalValue>> singleValues;
+	private final ConcurrentHashMap<List<String>, Entry<IEvalValue>> multiValues;
+	private final ConcurrentHashMap<List<String>, Entry<List<String>>> lists;
+	private final AtomicInteger generation;
+	private volatile boolean enabled;
+	private volatile int maxEntries;
+
+	public ValueDictionary(String name) {
+		this.name = name;
+		strings = new ConcurrentHashMap<String, Entry<String>>();
+		singleValues = new ConcurrentHashMap<String, Entry<IEvalValue>>();
+		multiValues = new ConcurrentHashMap<List<String>, Entry<IEvalValue>>();
+		lists = new ConcurrentHashMap<List<String>, Entry<List<String>>>();
+		generation = new AtomicInteger();
+		enabled = true;
+		maxEntries = DEFAULT_MAX_ENTRIES;
+	}
+
+	/**
+	 * Returns the shared instance of the given string.
+	 */
+	public String intern(String value) {
+		if (!enabled || value == null) {
+			return value;
+		}
+
+		Entry<String> entry = strings.get(value);
+
+		if (entry == null) {
+			return putIfAbsent(strings, value, value).touch(generation.get());
+		}
+
+		return entry.hit(generation.get());
+	}
+
+	/**
+	 * Returns a shared single value {@link IEvalValue} for the given string.
+	 * A null string is mapped to {@link EvalValue#NULL}.
+	 */
+	public IEvalValue internValue(String value) {
+		if (value == null) {
+			return EvalValue.NULL;
+		}
+
+		if (!enabled) {
+			return EvalValue.build(value);
+		}
+
+		Entry<IEvalValue> entry = singleValues.get(value);
+
+		if (entry == null) {
+			String key = intern(value);
+			return putIfAbsent(singleValues, key, EvalValue.build(key)).touch(generation.get());
+		}
+
+		return entry.hit(generation.get());
+	}
+
+	/**
+	 * Returns a shared multi value {@link IEvalValue} for the given values. The
+	 * order of the values is preserved. The list passed in is not retained and
+	 * can be reused by the caller.
+	 */
+	public IEvalValue internMultivalue(List<String> values) {
+		if (!enabled) {
+			return (values == null || values.isEmpty()) ? EvalValue.build(Multivalue.EMPTY)
+					: EvalValue.build(Multivalue.create(values));
+		}
+
+		if (values == null) {
+			values = Collections.emptyList();
+		}
+
+		Entry<IEvalValue> entry = multiValues.get(values);
+
+		if (entry == null) {
+			List<String> key = copyOf(values);
+			return putIfAbsent(multiValues, key,
+					key.isEmpty() ? EvalValue.build(Multivalue.EMPTY) : EvalValue.build(Multivalue.create(key)))
+							.touch(generation.get());
+		}
+
+		return entry.hit(generation.get());
+	}
+
+	/**
+	 * Returns a shared, unmodifiable list holding the given values in iteration
+	 * order.
+	 */
+	public List<String> internList(Collection<String> values) {
+		if (!enabled) {
+			return (values == null) ? new ArrayList<String>() : new ArrayList<String>(values);
+		}
+
+		List<String> key = (values == null) ? Collections.<String> emptyList() : copyOf(values);
+
+		Entry<List<String>> entry = lists.get(key);
+
+		if (entry == null) {
+			return putIfAbsent(lists, key, key).touch(generation.get());
+		}
+
+		return entry.hit(generation.get());
+	}
+
+	/**
+	 * Starts a new generation. Should be called before a refresh starts
+	 * producing objects.
+	 *
+	 * @return the generation to pass to {@link #purge(int)} once the refresh
+	 *         has completed
+	 */
+	public int startGeneration() {
+		int current = generation.incrementAndGet();
+		LOG.debug(String.format("Dictionary [%s] started generation [%d]", name, current));
+		return current;
+	}
+
+	/**
+	 * Removes the entries which have not been used since the given generation
+	 * started.
+	 */
+	public void purge(int fromGeneration) {
+		if (!enabled) {
+			return;
+		}
+
+		int removed = purge(strings, fromGeneration) + purge(singleValues, fromGeneration)
+				+ purge(multiValues, fromGeneration) + purge(lists, fromGeneration);
+
+		LOG.info(String.format("Dictionary [%s] purged [%d] unused entries, [%d] entries remaining", name, removed,
+				size()));
+	}
+
+	/**
+	 * Removes the entries not looked up again since the cap was last reached.
+	 * All entries are removed if more than half of the cap would remain, so
+	 * that the cap is not reached again right away.
+	 */
+	private synchronized void compact() {
+		if (size() < maxEntries) {
+			return;
+		}
+
+		int removed = compact(strings) + compact(singleValues) + compact(multiValues) + compact(lists);
+
+		if (size() > maxEntries / 2) {
+			removed += size();
+			clear();
+		}
+
+		LOG.info(String.format("Dictionary [%s] reached [%d] entries, [%d] entries removed", name, maxEntries,
+				removed));
+	}
+
+	public void clear() {
+		strings.clear();
+		singleValues.clear();
+		multiValues.clear();
+		lists.clear();
+	}
+
+	public int size() {
+		return strings.size() + singleValues.size() + multiValues.size() + lists.size();
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @param maxEntries
+	 *            number of entries from which unused entries are removed, 0 for
+	 *            no limit
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = Math.max(0, maxEntries);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+
+		if (!enabled) {
+			clear();
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	private <K, V> Entry<V> putIfAbsent(ConcurrentHashMap<K, Entry<V>> map, K key, V value) {
+		if (maxEntries > 0 && size() >= maxEntries) {
+			compact();
+		}
+
+		Entry<V> entry = new Entry<V>(value);
+		Entry<V> existing = map.putIfAbsent(key, entry);
+		return (existing == null) ? entry : existing;
+	}
+
+	private static <K, V> int purge(Map<K, Entry<V>> map, int fromGeneration) {
+		int removed = 0;
+		Iterator<Map.Entry<K, Entry<V>>> it = map.entrySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().getValue().generation < fromGeneration) {
+				it.remove();
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	private static <K, V> int compact(Map<K, Entry<V>> map) {
+		int removed = 0;
+		Iterator<Map.Entry<K, Entry<V>>> it = map.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry<V> entry = it.next().getValue();
+			if (entry.used) {
+				entry.used = false;
+			} else {
+				it.remove();
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	private List<String> copyOf(Collection<String> values) {
+		if (values.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		List<String> copy = new ArrayList<String>(values.size());
+		for (String value : values) {
+			copy.add(intern(value));
+		}
+		return Collections.unmodifiableList(copy);
+	}
+
+	private static final class Entry<V> {
+		private final V value;
+		private volatile int generation;
+		// looked up since it was added or since the cap was last reached
+		private volatile boolean used;
+
+		private Entry(V value) {
+			this.value = value;
+		}
+
+		private V touch(int current) {
+			// avoid a volatile write on every hit
+			if (generation != current) {
+				generation = current;
+			}
+			return value;
+		}
+
+		private V hit(int current) {
+			if (!used) {
+				used = true;
+			}
+			return touch(current);
+		}
+	}
+}
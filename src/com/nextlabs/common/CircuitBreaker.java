@@ -0,0 +1,177 @@
+package com.nextlabs.common;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Circuit breaker of a backend (SAP or an LDAP domain). After a number of
+ * consecutive failures the breaker opens and calls are rejected without
+ * reaching the backend, so requests fail fast instead of each waiting for a
+ * timeout. Once the open time has elapsed a single probe call is let through
+ * (half open): its success closes the breaker, its failure opens it again.
+ * A probe without outcome is replaced by a new one after the open time.
+ *
+ * A failure threshold of 0 disables the breaker.
+ */
+public class CircuitBreaker {
+
+	private static final Log LOG = LogFactory.getLog(CircuitBreaker.class);
+
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	public static final int DEFAULT_OPEN_SECONDS = 30;
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String name;
+	private final int failureThreshold;
+	private final long openNanos;
+
+	private State state;
+	private int consecutiveFailures;
+	private long openedAt;
+	private long probeStartedAt;
+	private long openedCount;
+	private long rejectedCount;
+	private long successCount;
+	private long failureCount;
+
+	public CircuitBreaker(String name, int failureThreshold, long openTime, TimeUnit unit) {
+		this.name = name;
+		this.failureThreshold = failureThreshold;
+		this.openNanos = unit.toNanos(openTime);
+		state = State.CLOSED;
+	}
+
+	/**
+	 * Creates a breaker configured by circuit_breaker_failure_threshold and
+	 * circuit_breaker_open_seconds.
+	 */
+	public static CircuitBreaker fromProperties(String name, Properties props) {
+		int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+		int openSeconds = DEFAULT_OPEN_SECONDS;
+
+		try {
+			failureThreshold = Integer.parseInt(props.getProperty("circuit_breaker_failure_threshold",
+					String.valueOf(DEFAULT_FAILURE_THRESHOLD)).trim());
+		} catch (NumberFormatException e) {
+			LOG.error(String.format("Not able to read circuit_breaker_failure_threshold, hard set to %d",
+					DEFAULT_FAILURE_THRESHOLD));
+		}
+
+		try {
+			openSeconds = Integer.parseInt(
+					props.getProperty("circuit_breaker_open_seconds", String.valueOf(DEFAULT_OPEN_SECONDS)).trim());
+		} catch (NumberFormatException e) {
+			LOG.error(String.format("Not able to read circuit_breaker_open_seconds, hard set to %d",
+					DEFAULT_OPEN_SECONDS));
+		}
+
+		return new CircuitBreaker(name, failureThreshold, openSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Returns true if the call can go to the backend, false if it must fail
+	 * fast.
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+		case OPEN:
+			if (nanoTime() - openedAt >= openNanos) {
+				probeStartedAt = nanoTime();
+				transition(State.HALF_OPEN);
+				return true;
+			}
+			rejectedCount++;
+			return false;
+		case HALF_OPEN:
+			// only the probe goes through until its outcome is known
+			if (nanoTime() - probeStartedAt >= openNanos) {
+				probeStartedAt = nanoTime();
+				return true;
+			}
+			rejectedCount++;
+			return false;
+		default:
+			return true;
+		}
+	}
+
+	public synchronized void recordSuccess() {
+		successCount++;
+		consecutiveFailures = 0;
+
+		if (state != State.CLOSED) {
+			transition(State.CLOSED);
+		}
+	}
+
+	public synchronized void recordFailure() {
+		failureCount++;
+		consecutiveFailures++;
+
+		if (failureThreshold <= 0) {
+			return;
+		}
+
+		if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+			openedAt = nanoTime();
+			openedCount++;
+			transition(State.OPEN);
+		}
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public synchronized boolean isOpen() {
+		return state == State.OPEN;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized long getOpenedCount() {
+		return openedCount;
+	}
+
+	public synchronized long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	public synchronized long getSuccessCount() {
+		return successCount;
+	}
+
+	public synchronized long getFailureCount() {
+		return failureCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("Circuit breaker [%s]: state [%s], opened [%d] times, [%d] calls rejected, [%d] succeeded, [%d] failed",
+				name, state, openedCount, rejectedCount, successCount, failureCount);
+	}
+
+	protected long nanoTime() {
+		return System.nanoTime();
+	}
+
+	private void transition(State next) {
+		String message = String.format("Circuit breaker [%s] changed from [%s] to [%s] after [%d] consecutive failures",
+				name, state, next, consecutiveFailures);
+
+		if (next == State.OPEN) {
+			LOG.warn(message);
+		} else {
+			LOG.info(message);
+		}
+		state = next;
+	}
+}
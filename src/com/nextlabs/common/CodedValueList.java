@@ -0,0 +1,58 @@
+package com.nextlabs.common;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * Unmodifiable list of attribute values held as codes of a
+ * {@link ValueCodeTable}, in the order they were given. The distinct values
+ * are also available as sorted codes, the form merged by
+ * {@link SortedCodeSets}, sharing the same array when the values were already
+ * in code order.
+ */
+public class CodedValueList extends AbstractList<String> implements RandomAccess {
+
+	// a handle rather than the table, the list is part of cached AORs
+	private final ValueCodeTable.Handle table;
+	private final int[] codes;
+	private final int[] sortedCodes;
+
+	public CodedValueList(Collection<String> values, ValueCodeTable.Handle table) {
+		this.table = table;
+
+		if (values == null || values.isEmpty()) {
+			codes = SortedCodeSets.EMPTY;
+		} else {
+			ValueCodeTable encoding = table.getTable();
+			codes = new int[values.size()];
+			int i = 0;
+			for (String value : values) {
+				codes[i++] = encoding.encode(value);
+			}
+		}
+
+		sortedCodes = SortedCodeSets.toSet(codes);
+	}
+
+	@Override
+	public String get(int index) {
+		return table.getTable().decode(codes[index]);
+	}
+
+	@Override
+	public int size() {
+		return codes.length;
+	}
+
+	/**
+	 * Returns the distinct values as sorted codes, not to be modified.
+	 */
+	public int[] getSortedCodes() {
+		return sortedCodes;
+	}
+
+	public ValueCodeTable getCodeTable() {
+		return table.getTable();
+	}
+}
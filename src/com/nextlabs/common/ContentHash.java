@@ -0,0 +1,127 @@
+package com.nextlabs.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.bluejungle.framework.expressions.IMultivalue;
+
+/**
+ * Computes a 64 bit FNV-1a hash of the content of cached objects, used by the
+ * refresh to tell unchanged entries from changed ones without comparing them
+ * value by value. Attributes are hashed in key order so the hash does not
+ * depend on the order they were added in.
+ */
+public class ContentHash {
+
+	private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long PRIME = 0x100000001b3L;
+
+	// separate keys from values and values from each other, so "ab"+"c" and "a"+"bc" differ
+	private static final int SEPARATOR = 0x1f;
+	private static final int NULL_MARKER = 0x00;
+
+	private static final Comparator<String> NULLS_FIRST = new Comparator<String>() {
+		@Override
+		public int compare(String a, String b) {
+			if (a == null || b == null) {
+				return (a == null) ? ((b == null) ? 0 : -1) : 1;
+			}
+			return a.compareTo(b);
+		}
+	};
+
+	private ContentHash() {
+	}
+
+	public static long of(UserObject user) {
+		long hash = mix(OFFSET_BASIS, user.getId());
+		Map<String, IEvalValue> attributes = user.getAttributes();
+
+		for (String key : sortedKeys(attributes)) {
+			hash = mix(hash, key);
+			hash = mix(hash, attributes.get(key));
+		}
+		return hash;
+	}
+
+	public static long of(SAPObject aor) {
+		long hash = mix(OFFSET_BASIS, aor.getId());
+
+		for (String key : sortedKeys(aor.getAttributeKeys())) {
+			hash = mix(hash, key);
+
+			int[] codes = aor.getAttributeCodes(key);
+
+			if (codes == null) {
+				hash = mixInt(hash, NULL_MARKER);
+			} else {
+				// values rather than codes, AORs loaded around a refresh are encoded against different tables
+				ValueCodeTable table = aor.getEncodingTable();
+				List<String> values = new ArrayList<String>(codes.length);
+				for (int code : codes) {
+					values.add(table.decode(code));
+				}
+				Collections.sort(values, NULLS_FIRST);
+
+				for (String value : values) {
+					hash = mix(hash, value);
+				}
+			}
+			hash = mixInt(hash, SEPARATOR);
+		}
+		return hash;
+	}
+
+	private static long mix(long hash, IEvalValue value) {
+		if (value == null || value.getValue() == null) {
+			return mixInt(hash, NULL_MARKER);
+		}
+
+		if (value.getValue() instanceof IMultivalue) {
+			for (IEvalValue v : (IMultivalue) value.getValue()) {
+				hash = (v == null) ? mixInt(hash, NULL_MARKER) : mix(hash, String.valueOf(v.getValue()));
+			}
+			return mixInt(hash, SEPARATOR);
+		}
+
+		return mix(hash, String.valueOf(value.getValue()));
+	}
+
+	private static long mix(long hash, String value) {
+		if (value == null) {
+			return mixInt(hash, NULL_MARKER);
+		}
+
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= PRIME;
+		}
+		hash ^= SEPARATOR;
+		return hash * PRIME;
+	}
+
+	private static long mixInt(long hash, int value) {
+		for (int i = 0; i < 4; i++) {
+			hash ^= (value >>> (i * 8)) & 0xff;
+			hash *= PRIME;
+		}
+		return hash;
+	}
+
+	private static List<String> sortedKeys(Map<String, ?> map) {
+		return sortedKeys(map.keySet());
+	}
+
+	private static List<String> sortedKeys(Iterable<String> keys) {
+		List<String> sorted = new ArrayList<String>();
+		for (String key : keys) {
+			sorted.add(key);
+		}
+		Collections.sort(sorted);
+		return sorted;
+	}
+}
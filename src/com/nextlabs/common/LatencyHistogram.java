@@ -0,0 +1,153 @@
+package com.nextlabs.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds, in the manner of HdrHistogram: the
+ * values below 128 have a bucket each, above that every power of two is split
+ * into 64 buckets, so a percentile is within 1.6% of the recorded value
+ * whatever its magnitude. The buckets are fixed, recording is a couple of
+ * atomic increments and allocates nothing, so it can be shared by the threads
+ * serving requests.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR_COUNT = SUB_BUCKET_HALF_COUNT * 2;
+	private static final int BUCKET_COUNT = SUB_BUCKET_HALF_COUNT * (64 - SUB_BUCKET_BITS) + LINEAR_COUNT;
+
+	private final AtomicLongArray counts;
+	private final AtomicLong totalCount;
+	private final AtomicLong totalNanos;
+	private final AtomicLong maxNanos;
+
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(BUCKET_COUNT);
+		totalCount = new AtomicLong();
+		totalNanos = new AtomicLong();
+		maxNanos = new AtomicLong();
+	}
+
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+
+		counts.incrementAndGet(index(value));
+		totalCount.incrementAndGet();
+		totalNanos.addAndGet(value);
+
+		long max = maxNanos.get();
+		while (value > max && !maxNanos.compareAndSet(max, value)) {
+			max = maxNanos.get();
+		}
+	}
+
+	/**
+	 * Records the time elapsed since the start, as given by System.nanoTime().
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Adds the values recorded by the other histogram to this one.
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			long count = other.counts.get(i);
+			if (count != 0) {
+				counts.addAndGet(i, count);
+			}
+		}
+		totalCount.addAndGet(other.totalCount.get());
+		totalNanos.addAndGet(other.totalNanos.get());
+
+		long otherMax = other.maxNanos.get();
+		long max = maxNanos.get();
+		while (otherMax > max && !maxNanos.compareAndSet(max, otherMax)) {
+			max = maxNanos.get();
+		}
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	public double getMeanNanos() {
+		long count = totalCount.get();
+		return (count == 0) ? 0 : (double) totalNanos.get() / count;
+	}
+
+	/**
+	 * Returns the value below which the percentage of the recorded values
+	 * fall, as the highest value of its bucket, or 0 if nothing is recorded.
+	 *
+	 * @param percentile
+	 *            between 0 and 100, e.g. 99.9
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = totalCount.get();
+
+		if (count == 0) {
+			return 0;
+		}
+
+		long target = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(highestEquivalentValue(i), maxNanos.get());
+			}
+		}
+		return maxNanos.get();
+	}
+
+	/**
+	 * Returns a summary of the latencies in microseconds.
+	 */
+	@Override
+	public String toString() {
+		return String.format("count [%d] mean [%.1fus] p50 [%.1fus] p99 [%.1fus] p99.9 [%.1fus] max [%.1fus]",
+				getCount(), getMeanNanos() / 1000, micros(getValueAtPercentile(50)),
+				micros(getValueAtPercentile(99)), micros(getValueAtPercentile(99.9)), micros(getMaxNanos()));
+	}
+
+	private static double micros(long nanos) {
+		return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+	}
+
+	static int index(long value) {
+		if (value < LINEAR_COUNT) {
+			return (int) value;
+		}
+		// value >>> shift keeps the 7 highest bits, between 64 and 127
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return SUB_BUCKET_HALF_COUNT * shift + (int) (value >>> shift);
+	}
+
+	static long highestEquivalentValue(int index) {
+		if (index < LINEAR_COUNT) {
+			return index;
+		}
+		int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+		long subBucket = index % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
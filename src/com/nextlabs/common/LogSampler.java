@@ -0,0 +1,87 @@
+package com.nextlabs.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which requests have their per-request log lines written: one
+ * request in every sample rate, and at most a maximum number of requests per
+ * second. The requests which are not logged because of the limit are counted
+ * and reported with the next logged request.
+ *
+ * A sample rate of 0 logs no request, a maximum of 0 has no limit.
+ */
+public class LogSampler {
+
+	private static final long SECOND_NANOS = 1000000000L;
+
+	private final int sampleRate;
+	private final int maxPerSecond;
+	private final AtomicLong requests;
+	private final AtomicLong suppressed;
+	private volatile long secondStart;
+	private int loggedInSecond;
+
+	public LogSampler(int sampleRate, int maxPerSecond) {
+		this.sampleRate = Math.max(0, sampleRate);
+		this.maxPerSecond = Math.max(0, maxPerSecond);
+		requests = new AtomicLong();
+		suppressed = new AtomicLong();
+		secondStart = System.nanoTime();
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getMaxPerSecond() {
+		return maxPerSecond;
+	}
+
+	/**
+	 * Returns whether the request received now is logged.
+	 */
+	public boolean sample() {
+		return sample(System.nanoTime());
+	}
+
+	/**
+	 * Returns whether a request received at the given System.nanoTime() is
+	 * logged.
+	 */
+	public boolean sample(long now) {
+		if (sampleRate == 0) {
+			return false;
+		}
+
+		if (sampleRate > 1 && requests.getAndIncrement() % sampleRate != 0) {
+			return false;
+		}
+
+		if (maxPerSecond == 0) {
+			return true;
+		}
+
+		synchronized (this) {
+			if (now - secondStart >= SECOND_NANOS) {
+				secondStart = now;
+				loggedInSecond = 0;
+			}
+
+			if (loggedInSecond < maxPerSecond) {
+				loggedInSecond++;
+				return true;
+			}
+		}
+
+		suppressed.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Returns the number of requests not logged because of the limit since the
+	 * last call, and resets it.
+	 */
+	public long takeSuppressed() {
+		return suppressed.getAndSet(0);
+	}
+}
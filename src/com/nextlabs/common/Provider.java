@@ -11,7 +11,13 @@ public interface Provider {
 	
 	public List<SAPObject> getSAPObject(List<String> aorId, String attributeToSearch);
 
-	public void refreshCache();
+	/**
+	 * Refreshes the cache.
+	 *
+	 * @return true if the refresh succeeded, false if it failed, in which case
+	 *         a retry may be scheduled
+	 */
+	public boolean refreshCache();
 
 	public void loadProfiles(Properties props);
 	
@@ -22,6 +28,12 @@ public interface Provider {
 	public String getPDPObjectType(String id);
 	
 	public Boolean isRefreshing();
+
+	/**
+	 * Returns the time of the next attempt of a failed refresh in milliseconds
+	 * since the epoch, or 0 if no retry is pending.
+	 */
+	public long getNextRetryTime();
 	
 	public Profile getProfile();
 }
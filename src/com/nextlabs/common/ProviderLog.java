@@ -0,0 +1,310 @@
+package com.nextlabs.common;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Logging of the request path, over commons-logging. Messages are patterns
+ * with %s or %d placeholders, rendered only if the level is enabled, so a
+ * disabled log line costs a level check and no formatting. Up to four
+ * arguments are passed without an array.
+ *
+ * Per-request lines (requestInfo, requestDebug) are only written for the
+ * requests sampled by {@link #startRequest()}, see request_log_sample_rate
+ * and request_log_max_per_second.
+ *
+ * Payloads, such as the XML of the RFC parameters, are written to the
+ * com.nextlabs.payload logger when it is enabled at DEBUG, or for the next
+ * payloads requested with {@link #capturePayloads(int)}.
+ */
+public final class ProviderLog {
+
+	private static final Log PAYLOAD_LOG = LogFactory.getLog("com.nextlabs.payload");
+	private static final Log LOG = LogFactory.getLog(ProviderLog.class);
+
+	public static final int DEFAULT_SAMPLE_RATE = 1;
+	public static final int DEFAULT_MAX_PER_SECOND = 100;
+
+	private static volatile LogSampler sampler = new LogSampler(DEFAULT_SAMPLE_RATE, DEFAULT_MAX_PER_SECOND);
+	private static final ThreadLocal<Boolean> REQUEST_LOGGED = new ThreadLocal<Boolean>() {
+		@Override
+		protected Boolean initialValue() {
+			return Boolean.TRUE;
+		}
+	};
+	private static final AtomicInteger PAYLOADS_TO_CAPTURE = new AtomicInteger();
+
+	private final Log log;
+
+	private ProviderLog(Log log) {
+		this.log = log;
+	}
+
+	public static ProviderLog getLog(Class<?> clazz) {
+		return new ProviderLog(LogFactory.getLog(clazz));
+	}
+
+	/**
+	 * Reads request_log_sample_rate and request_log_max_per_second.
+	 */
+	public static void configure(Properties props) {
+		int sampleRate = DEFAULT_SAMPLE_RATE;
+		int maxPerSecond = DEFAULT_MAX_PER_SECOND;
+
+		try {
+			sampleRate = Integer.parseInt(
+					props.getProperty("request_log_sample_rate", String.valueOf(DEFAULT_SAMPLE_RATE)).trim());
+		} catch (NumberFormatException e) {
+			LOG.error(String.format("Not able to read request_log_sample_rate, hard set to %d", DEFAULT_SAMPLE_RATE));
+		}
+
+		try {
+			maxPerSecond = Integer.parseInt(
+					props.getProperty("request_log_max_per_second", String.valueOf(DEFAULT_MAX_PER_SECOND)).trim());
+		} catch (NumberFormatException e) {
+			LOG.error(String.format("Not able to read request_log_max_per_second, hard set to %d",
+					DEFAULT_MAX_PER_SECOND));
+		}
+
+		sampler = new LogSampler(sampleRate, maxPerSecond);
+		LOG.info(String.format("Request logs sampled one in [%d] requests, at most [%d] requests per second",
+				sampleRate, maxPerSecond));
+	}
+
+	/**
+	 * Decides whether the per-request lines of the request starting on the
+	 * current thread are written.
+	 */
+	public static void startRequest() {
+		boolean logged = sampler.sample();
+		REQUEST_LOGGED.set(logged ? Boolean.TRUE : Boolean.FALSE);
+
+		if (logged) {
+			long suppressed = sampler.takeSuppressed();
+			if (suppressed > 0) {
+				LOG.info(String.format("[%d] requests were not logged, over request_log_max_per_second", suppressed));
+			}
+		}
+	}
+
+	/**
+	 * Captures the next payloads, whatever the level of the payload logger.
+	 */
+	public static void capturePayloads(int count) {
+		PAYLOADS_TO_CAPTURE.set(Math.max(0, count));
+	}
+
+	public static int getPayloadsToCapture() {
+		return PAYLOADS_TO_CAPTURE.get();
+	}
+
+	/**
+	 * Returns whether the next payload is to be written, in which case it must
+	 * be written with {@link #payload(String, Object)}.
+	 */
+	public static boolean isPayloadCaptured() {
+		if (PAYLOAD_LOG.isDebugEnabled()) {
+			return true;
+		}
+
+		while (true) {
+			int remaining = PAYLOADS_TO_CAPTURE.get();
+			if (remaining <= 0) {
+				return false;
+			}
+			if (PAYLOADS_TO_CAPTURE.compareAndSet(remaining, remaining - 1)) {
+				return true;
+			}
+		}
+	}
+
+	public static void payload(String label, Object payload) {
+		// a requested capture is written whatever the level
+		PAYLOAD_LOG.info(label + System.lineSeparator() + payload);
+	}
+
+	public Log getDelegate() {
+		return log;
+	}
+
+	public boolean isDebugEnabled() {
+		return log.isDebugEnabled();
+	}
+
+	public boolean isInfoEnabled() {
+		return log.isInfoEnabled();
+	}
+
+	/**
+	 * Returns whether the per-request lines of the current request are
+	 * written at INFO.
+	 */
+	public boolean isRequestInfoEnabled() {
+		return log.isInfoEnabled() && REQUEST_LOGGED.get().booleanValue();
+	}
+
+	public boolean isRequestDebugEnabled() {
+		return log.isDebugEnabled() && REQUEST_LOGGED.get().booleanValue();
+	}
+
+	public void debug(String message) {
+		log.debug(message);
+	}
+
+	public void debug(String pattern, Object arg) {
+		if (log.isDebugEnabled()) {
+			log.debug(format(pattern, 1, arg, null, null, null));
+		}
+	}
+
+	public void debug(String pattern, Object arg1, Object arg2) {
+		if (log.isDebugEnabled()) {
+			log.debug(format(pattern, 2, arg1, arg2, null, null));
+		}
+	}
+
+	public void debug(String pattern, Object arg1, Object arg2, Object arg3) {
+		if (log.isDebugEnabled()) {
+			log.debug(format(pattern, 3, arg1, arg2, arg3, null));
+		}
+	}
+
+	public void info(String message) {
+		log.info(message);
+	}
+
+	public void info(String pattern, Object arg) {
+		if (log.isInfoEnabled()) {
+			log.info(format(pattern, 1, arg, null, null, null));
+		}
+	}
+
+	public void info(String pattern, Object arg1, Object arg2) {
+		if (log.isInfoEnabled()) {
+			log.info(format(pattern, 2, arg1, arg2, null, null));
+		}
+	}
+
+	public void info(String pattern, Object arg1, Object arg2, Object arg3) {
+		if (log.isInfoEnabled()) {
+			log.info(format(pattern, 3, arg1, arg2, arg3, null));
+		}
+	}
+
+	public void info(String pattern, Object arg1, Object arg2, Object arg3, Object arg4) {
+		if (log.isInfoEnabled()) {
+			log.info(format(pattern, 4, arg1, arg2, arg3, arg4));
+		}
+	}
+
+	public void warn(String message) {
+		log.warn(message);
+	}
+
+	public void warn(String message, Throwable t) {
+		log.warn(message, t);
+	}
+
+	public void warn(String pattern, Object arg) {
+		if (log.isWarnEnabled()) {
+			log.warn(format(pattern, 1, arg, null, null, null));
+		}
+	}
+
+	public void warn(String pattern, Object arg1, Object arg2) {
+		if (log.isWarnEnabled()) {
+			log.warn(format(pattern, 2, arg1, arg2, null, null));
+		}
+	}
+
+	public void error(String message) {
+		log.error(message);
+	}
+
+	public void error(String message, Throwable t) {
+		log.error(message, t);
+	}
+
+	public void error(String pattern, Object arg) {
+		if (log.isErrorEnabled()) {
+			log.error(format(pattern, 1, arg, null, null, null));
+		}
+	}
+
+	public void requestInfo(String pattern, Object arg) {
+		if (isRequestInfoEnabled()) {
+			log.info(format(pattern, 1, arg, null, null, null));
+		}
+	}
+
+	public void requestInfo(String pattern, Object arg1, Object arg2) {
+		if (isRequestInfoEnabled()) {
+			log.info(format(pattern, 2, arg1, arg2, null, null));
+		}
+	}
+
+	public void requestInfo(String pattern, Object arg1, Object arg2, Object arg3) {
+		if (isRequestInfoEnabled()) {
+			log.info(format(pattern, 3, arg1, arg2, arg3, null));
+		}
+	}
+
+	public void requestDebug(String pattern, Object arg1, Object arg2) {
+		if (isRequestDebugEnabled()) {
+			log.debug(format(pattern, 2, arg1, arg2, null, null));
+		}
+	}
+
+	public void requestDebug(String pattern, Object arg1, Object arg2, Object arg3) {
+		if (isRequestDebugEnabled()) {
+			log.debug(format(pattern, 3, arg1, arg2, arg3, null));
+		}
+	}
+
+	/**
+	 * Replaces the %s and %d placeholders of the pattern by the arguments, in
+	 * order, and %% by %. Placeholders without argument are left as is.
+	 */
+	public static String format(String pattern, int count, Object arg1, Object arg2, Object arg3, Object arg4) {
+		StringBuilder sb = new StringBuilder(pattern.length() + 16 * count);
+		int next = 0;
+		int length = pattern.length();
+
+		for (int i = 0; i < length; i++) {
+			char c = pattern.charAt(i);
+
+			if (c == '%' && i + 1 < length) {
+				char type = pattern.charAt(i + 1);
+
+				if (type == '%') {
+					sb.append('%');
+					i++;
+					continue;
+				}
+
+				if ((type == 's' || type == 'd') && next < count) {
+					switch (next++) {
+					case 0:
+						sb.append(arg1);
+						break;
+					case 1:
+						sb.append(arg2);
+						break;
+					case 2:
+						sb.append(arg3);
+						break;
+					default:
+						sb.append(arg4);
+					}
+					i++;
+					continue;
+				}
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+}
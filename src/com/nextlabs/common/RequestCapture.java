@@ -0,0 +1,267 @@
+package com.nextlabs.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Compact binary capture of the requests received by the plugin, to replay
+ * the production traffic against a test setup. A capture starts with a
+ * header (magic, version, start time in epoch milliseconds), followed by a
+ * record per request:
+ * <ul>
+ * <li>microseconds since the previous request (0 for the first one), as a
+ * variable length integer</li>
+ * <li>SAP id and employee number, in modified UTF-8</li>
+ * <li>attribute, as the variable length index of the attribute in the order
+ * of first appearance, followed by its name in modified UTF-8 the first
+ * time</li>
+ * </ul>
+ * A request takes around 20 bytes. Once the capture reaches its maximum size,
+ * the following requests are dropped.
+ */
+public class RequestCapture implements Closeable {
+
+	private static final Log LOG = LogFactory.getLog(RequestCapture.class);
+
+	public static final int MAGIC = 0x55415043;
+	public static final int VERSION = 1;
+
+	private final DataOutputStream out;
+	private final long maxBytes;
+	private final List<String> attributes;
+	private long firstNanos;
+	private long lastNanos;
+	private long recorded;
+	private boolean full;
+
+	/**
+	 * @param maxBytes
+	 *            size after which the requests are dropped, 0 for no limit
+	 */
+	public RequestCapture(OutputStream out, long maxBytes) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(out, 65536));
+		this.maxBytes = maxBytes;
+		attributes = new ArrayList<String>();
+
+		this.out.writeInt(MAGIC);
+		this.out.writeShort(VERSION);
+		this.out.writeLong(System.currentTimeMillis());
+	}
+
+	/**
+	 * Records a request received now.
+	 */
+	public synchronized void record(String sapId, String employeeNumber, String attribute) {
+		record(System.nanoTime(), sapId, employeeNumber, attribute);
+	}
+
+	/**
+	 * Records a request received at the given System.nanoTime().
+	 */
+	public synchronized void record(long nanos, String sapId, String employeeNumber, String attribute) {
+		if (full) {
+			return;
+		}
+
+		if (maxBytes > 0 && out.size() >= maxBytes) {
+			full = true;
+			LOG.warn(String.format(
+					"Request capture reached [%d] bytes after [%d] requests, the following requests are not captured",
+					out.size(), recorded));
+			flush();
+			return;
+		}
+
+		try {
+			if (recorded == 0) {
+				firstNanos = nanos;
+				lastNanos = nanos;
+			}
+
+			// requests recorded out of order are replayed at the time of the previous one
+			long delta = Math.max(0, nanos - lastNanos) / 1000;
+			lastNanos += delta * 1000;
+
+			writeVarLong(delta);
+			out.writeUTF((sapId == null) ? "" : sapId);
+			out.writeUTF((employeeNumber == null) ? "" : employeeNumber);
+
+			int index = attributes.indexOf(attribute);
+			if (index < 0) {
+				writeVarLong(attributes.size());
+				out.writeUTF(attribute);
+				attributes.add(attribute);
+			} else {
+				writeVarLong(index);
+			}
+			recorded++;
+		} catch (IOException e) {
+			full = true;
+			LOG.error("Not able to write the request capture, the following requests are not captured", e);
+		}
+	}
+
+	public synchronized long getRecordedCount() {
+		return recorded;
+	}
+
+	public synchronized void flush() {
+		try {
+			out.flush();
+		} catch (IOException e) {
+			LOG.error("Not able to flush the request capture", e);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		full = true;
+		out.close();
+		LOG.info(String.format("Request capture closed after [%d] requests in [%d] seconds", recorded,
+				(lastNanos - firstNanos) / 1000000000L));
+	}
+
+	private void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	/**
+	 * A captured request.
+	 */
+	public static class Request {
+		private final long offsetNanos;
+		private final String sapId;
+		private final String employeeNumber;
+		private final String attribute;
+
+		public Request(long offsetNanos, String sapId, String employeeNumber, String attribute) {
+			this.offsetNanos = offsetNanos;
+			this.sapId = sapId;
+			this.employeeNumber = employeeNumber;
+			this.attribute = attribute;
+		}
+
+		/**
+		 * Returns the time the request was received, relative to the first
+		 * request of the capture.
+		 */
+		public long getOffsetNanos() {
+			return offsetNanos;
+		}
+
+		public String getSapId() {
+			return sapId;
+		}
+
+		public String getEmployeeNumber() {
+			return employeeNumber;
+		}
+
+		public String getAttribute() {
+			return attribute;
+		}
+	}
+
+	/**
+	 * Reads the requests of a capture, in the order they were received.
+	 */
+	public static class Reader implements Closeable {
+
+		private final DataInputStream in;
+		private final List<String> attributes;
+		private final long startMillis;
+		private long offsetMicros;
+		private boolean first;
+
+		public Reader(InputStream in) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(in, 65536));
+			attributes = new ArrayList<String>();
+			first = true;
+
+			if (this.in.readInt() != MAGIC) {
+				throw new IOException("Not a request capture");
+			}
+
+			int version = this.in.readShort();
+			if (version != VERSION) {
+				throw new IOException(String.format("Unsupported request capture version [%d]", version));
+			}
+
+			startMillis = this.in.readLong();
+		}
+
+		/**
+		 * Returns the time the capture was started, in epoch milliseconds.
+		 */
+		public long getStartMillis() {
+			return startMillis;
+		}
+
+		/**
+		 * Returns the next request, or null at the end of the capture. A
+		 * request cut by the end of the capture is ignored.
+		 */
+		public Request next() throws IOException {
+			try {
+				long delta = readVarLong();
+
+				// offsets are relative to the first request
+				offsetMicros = first ? 0 : offsetMicros + delta;
+				first = false;
+
+				String sapId = in.readUTF();
+				String employeeNumber = in.readUTF();
+
+				int index = (int) readVarLong();
+				if (index == attributes.size()) {
+					attributes.add(in.readUTF());
+				} else if (index > attributes.size()) {
+					throw new IOException(String.format("Invalid attribute index [%d] in request capture", index));
+				}
+
+				return new Request(offsetMicros * 1000, sapId.isEmpty() ? null : sapId,
+						employeeNumber.isEmpty() ? null : employeeNumber, attributes.get(index));
+			} catch (EOFException e) {
+				return null;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+
+		private long readVarLong() throws IOException {
+			long value = 0;
+			int shift = 0;
+			int b;
+
+			do {
+				if (shift > 63) {
+					throw new IOException("Invalid variable length integer in request capture");
+				}
+				b = in.readUnsignedByte();
+				value |= (long) (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+
+			return value;
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package com.nextlabs.common;
+
+/**
+ * Latency histograms of the stages of a request, recorded on every request
+ * and read through JMX. Every stage has a histogram since the start, or the
+ * last reset, and a recent one covering the last one to two windows, so the
+ * percentiles read follow the current traffic.
+ *
+ * Recording is a call to System.nanoTime() and a couple of atomic increments,
+ * nothing is recorded when disabled.
+ */
+public class RequestMetrics {
+
+	public enum Stage {
+		/** lookup of the user in the user cache */
+		USER_CACHE("UserCache"),
+		/** lookup of a user missing from the cache in LDAP */
+		LDAP_QUERY("LdapQuery"),
+		/** lookup of the AORs of the user in the AOR cache */
+		AOR_CACHE("AorCache"),
+		/** RFC call for the AORs missing from the cache */
+		RFC_CALL("RfcCall"),
+		/** union of the AOR values into the result */
+		ASSEMBLY("Assembly"),
+		/** whole request */
+		TOTAL("Total");
+
+		private final String label;
+
+		private Stage(String label) {
+			this.label = label;
+		}
+
+		/**
+		 * Returns the name of the stage in the JMX attributes.
+		 */
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	public static final long DEFAULT_WINDOW_NANOS = 60 * 1000000000L;
+
+	private static final int STAGES = Stage.values().length;
+
+	private final boolean enabled;
+	private final long windowNanos;
+	private final LatencyHistogram[] cumulative;
+	private volatile LatencyHistogram[] current;
+	private volatile LatencyHistogram[] previous;
+	private volatile long windowEnd;
+
+	public RequestMetrics(boolean enabled, long windowNanos) {
+		this.enabled = enabled;
+		this.windowNanos = windowNanos;
+		cumulative = newHistograms();
+		current = newHistograms();
+		previous = newHistograms();
+		windowEnd = System.nanoTime() + windowNanos;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public long getWindowNanos() {
+		return windowNanos;
+	}
+
+	/**
+	 * Returns the current time to measure a stage from, 0 when disabled.
+	 */
+	public long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records a stage which started at the given time, as returned by start()
+	 * or by the previous stage.
+	 *
+	 * @return the current time, the start of the next stage
+	 */
+	public long stage(Stage stage, long startNanos) {
+		if (!enabled) {
+			return 0;
+		}
+
+		long now = System.nanoTime();
+		record(stage, now - startNanos, now);
+		return now;
+	}
+
+	public void record(Stage stage, long nanos) {
+		if (enabled) {
+			record(stage, nanos, System.nanoTime());
+		}
+	}
+
+	private void record(Stage stage, long nanos, long now) {
+		if (now - windowEnd >= 0) {
+			rotate(now);
+		}
+
+		cumulative[stage.ordinal()].record(nanos);
+		current[stage.ordinal()].record(nanos);
+	}
+
+	/**
+	 * Returns the latencies of the stage since the start or the last reset.
+	 */
+	public LatencyHistogram getCumulative(Stage stage) {
+		return cumulative[stage.ordinal()];
+	}
+
+	/**
+	 * Returns a copy of the latencies of the stage over the last one to two
+	 * windows.
+	 */
+	public LatencyHistogram getRecent(Stage stage) {
+		long now = System.nanoTime();
+		if (now - windowEnd >= 0) {
+			rotate(now);
+		}
+
+		LatencyHistogram recent = new LatencyHistogram();
+		recent.add(previous[stage.ordinal()]);
+		recent.add(current[stage.ordinal()]);
+		return recent;
+	}
+
+	public synchronized void reset() {
+		for (int i = 0; i < STAGES; i++) {
+			cumulative[i].reset();
+			current[i].reset();
+			previous[i].reset();
+		}
+		windowEnd = System.nanoTime() + windowNanos;
+	}
+
+	// values recorded concurrently with a rotation may be counted in the previous window
+	private synchronized void rotate(long now) {
+		if (now - windowEnd < 0) {
+			return;
+		}
+
+		LatencyHistogram[] recycled = previous;
+		for (LatencyHistogram histogram : recycled) {
+			histogram.reset();
+		}
+
+		// more than a window without a request, the current window is stale as well
+		if (now - windowEnd >= windowNanos) {
+			for (LatencyHistogram histogram : current) {
+				histogram.reset();
+			}
+		}
+
+		previous = current;
+		current = recycled;
+		windowEnd = now + windowNanos;
+	}
+
+	private static LatencyHistogram[] newHistograms() {
+		LatencyHistogram[] histograms = new LatencyHistogram[STAGES];
+		for (int i = 0; i < STAGES; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+		return histograms;
+	}
+}
@@ -1,41 +1,172 @@
 package com.nextlabs.common;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class SAPObject {
+	// AOR attribute values are encoded against the table current when the AOR is created
+	private static volatile ValueCodeTable.Handle codeTable = ValueCodeTable.newHandle();
+
 	private String id;
-	private Map<String, List<String>> attributes;
+	// a handle rather than the table, sizing a cached AOR must not walk the table
+	private final ValueCodeTable.Handle table;
+	private Map<String, CodedValueList> attributes;
+	private volatile long cachedAt;
+	// computed on first use, reset when the content changes
+	private volatile Long contentHash;
 
 	public SAPObject(String id) {
 		this.id = id;
-		attributes = new HashMap<String, List<String>>();
+		table = codeTable;
+		attributes = new HashMap<String, CodedValueList>();
+		cachedAt = System.nanoTime();
+	}
+
+	/**
+	 * Returns the code table the AORs created from now on are encoded against.
+	 */
+	public static ValueCodeTable getCodeTable() {
+		return codeTable.getTable();
+	}
+
+	/**
+	 * Starts a new code table for the AORs created from now on, so that the
+	 * values no longer used do not stay in the table. AORs already created
+	 * keep decoding against theirs, which is dropped once none of them is
+	 * referenced.
+	 */
+	public static void startCodeTable() {
+		codeTable = ValueCodeTable.newHandle();
+	}
+
+	/**
+	 * Returns the distinct values of the attribute over the given AORs. The
+	 * sets are merged as codes when the AORs share a code table, which is the
+	 * case outside of a refresh, and by value otherwise.
+	 *
+	 * @param sets
+	 *            scratch list, cleared before use
+	 */
+	public static List<String> union(List<SAPObject> aors, String key, List<int[]> sets) {
+		sets.clear();
+		ValueCodeTable.Handle shared = null;
+		boolean mixed = false;
+
+		for (SAPObject aor : aors) {
+			CodedValueList values = aor.attributes.get(key);
+
+			if (values != null && !values.isEmpty()) {
+				if (shared == null) {
+					shared = aor.table;
+				} else if (shared != aor.table) {
+					mixed = true;
+				}
+				sets.add(values.getSortedCodes());
+			}
+		}
+
+		if (shared == null) {
+			return new ArrayList<String>();
+		}
+
+		if (!mixed) {
+			return SortedCodeSets.decode(SortedCodeSets.union(sets), shared.getTable());
+		}
+
+		Set<String> merged = new LinkedHashSet<String>();
+		for (SAPObject aor : aors) {
+			List<String> values = aor.attributes.get(key);
+			if (values != null) {
+				merged.addAll(values);
+			}
+		}
+		return new ArrayList<String>(merged);
 	}
 
 	public void addAttribute(String key, List<String> value) {
-		attributes.put(key, value);
+		attributes.put(key, (value == null) ? null : new CodedValueList(value, table));
+		contentHash = null;
 	}
 
-		
+	/**
+	 * Returns the values of the attribute in the order they were added, as an
+	 * unmodifiable list, or null if the attribute has no value list.
+	 */
 	public List<String> getAttributeAsList(String key) {
 		return attributes.get(key);
 	}
 
+	/**
+	 * Returns the distinct values of the attribute as sorted codes of
+	 * {@link #getEncodingTable()}, or null if the attribute has no value list.
+	 */
+	public int[] getAttributeCodes(String key) {
+		CodedValueList values = attributes.get(key);
+		return (values == null) ? null : values.getSortedCodes();
+	}
+
+	/**
+	 * Returns the code table the values of this AOR are encoded against.
+	 */
+	public ValueCodeTable getEncodingTable() {
+		return table.getTable();
+	}
+
+	public Set<String> getAttributeKeys() {
+		return Collections.unmodifiableSet(attributes.keySet());
+	}
+
+	/**
+	 * Returns a hash of the id and attribute values, equal for AORs with the
+	 * same content. The hash is computed once, a refresh compares it with
+	 * the cached AORs many times.
+	 */
+	public long getContentHash() {
+		Long hash = contentHash;
+
+		if (hash == null) {
+			hash = ContentHash.of(this);
+			contentHash = hash;
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the System.nanoTime() at which the AOR was last written to the
+	 * cache, from which its time to live counts.
+	 */
+	public long getCachedAt() {
+		return cachedAt;
+	}
+
+	public void setCachedAt(long cachedAt) {
+		this.cachedAt = cachedAt;
+	}
+
 	public String getId() {
 		return id;
 	}
 
 	public void setId(String id) {
 		this.id = id;
+		contentHash = null;
 	}
 
 	public Map<String, List<String>> getAttributes() {
-		return attributes;
+		return Collections.<String, List<String>> unmodifiableMap(attributes);
 	}
 
 	public void setAttributes(Map<String, List<String>> attributes) {
-		this.attributes = attributes;
+		this.attributes = new HashMap<String, CodedValueList>();
+		for (Map.Entry<String, List<String>> entry : attributes.entrySet()) {
+			addAttribute(entry.getKey(), entry.getValue());
+		}
+		contentHash = null;
 	}
 
 }
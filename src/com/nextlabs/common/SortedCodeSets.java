@@ -0,0 +1,212 @@
+package com.nextlabs.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Operations on value sets encoded as sorted, duplicate free arrays of
+ * {@link ValueCodeTable} codes.
+ */
+public class SortedCodeSets {
+
+	public static final int[] EMPTY = new int[0];
+
+	private SortedCodeSets() {
+	}
+
+	public static int[] encode(Collection<String> values, ValueCodeTable table) {
+		if (values == null || values.isEmpty()) {
+			return EMPTY;
+		}
+
+		int[] codes = new int[values.size()];
+		int i = 0;
+		for (String value : values) {
+			codes[i++] = table.encode(value);
+		}
+
+		Arrays.sort(codes);
+		return distinct(codes);
+	}
+
+	/**
+	 * Returns the given codes as a sorted, duplicate free set, the array
+	 * itself if it already is one.
+	 */
+	public static int[] toSet(int[] codes) {
+		for (int i = 1; i < codes.length; i++) {
+			if (codes[i - 1] >= codes[i]) {
+				int[] sorted = Arrays.copyOf(codes, codes.length);
+				Arrays.sort(sorted);
+				return distinct(sorted);
+			}
+		}
+		return codes;
+	}
+
+	public static List<String> decode(int[] codes, ValueCodeTable table) {
+		List<String> values = new ArrayList<String>(codes.length);
+		for (int code : codes) {
+			values.add(table.decode(code));
+		}
+		return values;
+	}
+
+	/**
+	 * Computes the union of the given sets. Uses a bitset when the codes are
+	 * dense enough compared to the number of values, and a k-way merge
+	 * otherwise.
+	 */
+	public static int[] union(List<int[]> sets) {
+		int count = sets.size();
+
+		if (count == 0) {
+			return EMPTY;
+		}
+
+		if (count == 1) {
+			return sets.get(0);
+		}
+
+		int total = 0;
+		int maxCode = 0;
+		int nonEmpty = 0;
+		int[] last = EMPTY;
+
+		for (int i = 0; i < count; i++) {
+			int[] set = sets.get(i);
+			if (set.length > 0) {
+				total += set.length;
+				maxCode = Math.max(maxCode, set[set.length - 1]);
+				nonEmpty++;
+				last = set;
+			}
+		}
+
+		if (nonEmpty <= 1) {
+			return last;
+		}
+
+		if (maxCode / 64 <= total) {
+			return bitsetUnion(sets, total, maxCode);
+		}
+
+		return mergeUnion(sets, total);
+	}
+
+	private static int[] bitsetUnion(List<int[]> sets, int total, int maxCode) {
+		long[] words = new long[(maxCode >>> 6) + 1];
+
+		for (int i = 0; i < sets.size(); i++) {
+			for (int code : sets.get(i)) {
+				words[code >>> 6] |= 1L << code;
+			}
+		}
+
+		int size = 0;
+		for (long word : words) {
+			size += Long.bitCount(word);
+		}
+
+		int[] result = new int[size];
+		int n = 0;
+		for (int w = 0; w < words.length; w++) {
+			long word = words[w];
+			while (word != 0) {
+				result[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+			}
+		}
+		return result;
+	}
+
+	private static int[] mergeUnion(List<int[]> sets, int total) {
+		int count = sets.size();
+		// binary min heap of set indexes, ordered by the current head of each set
+		int[] heap = new int[count];
+		int[] positions = new int[count];
+		int heapSize = 0;
+
+		for (int i = 0; i < count; i++) {
+			if (sets.get(i).length > 0) {
+				heap[heapSize] = i;
+				siftUp(heap, heapSize++, sets, positions);
+			}
+		}
+
+		int[] result = new int[total];
+		int n = 0;
+
+		while (heapSize > 0) {
+			int top = heap[0];
+			int[] set = sets.get(top);
+			int code = set[positions[top]++];
+
+			if (n == 0 || result[n - 1] != code) {
+				result[n++] = code;
+			}
+
+			if (positions[top] == set.length) {
+				heap[0] = heap[--heapSize];
+			}
+
+			siftDown(heap, heapSize, sets, positions);
+		}
+
+		return (n == total) ? result : Arrays.copyOf(result, n);
+	}
+
+	private static int head(int index, List<int[]> sets, int[] positions) {
+		return sets.get(index)[positions[index]];
+	}
+
+	private static void siftUp(int[] heap, int i, List<int[]> sets, int[] positions) {
+		int item = heap[i];
+		int value = head(item, sets, positions);
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (head(heap[parent], sets, positions) <= value) {
+				break;
+			}
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = item;
+	}
+
+	private static void siftDown(int[] heap, int size, List<int[]> sets, int[] positions) {
+		if (size == 0) {
+			return;
+		}
+		int i = 0;
+		int item = heap[0];
+		int value = head(item, sets, positions);
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && head(heap[child + 1], sets, positions) < head(heap[child], sets, positions)) {
+				child++;
+			}
+			if (value <= head(heap[child], sets, positions)) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = item;
+	}
+
+	private static int[] distinct(int[] sorted) {
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (n == 0 || sorted[n - 1] != sorted[i]) {
+				sorted[n++] = sorted[i];
+			}
+		}
+		return (n == sorted.length) ? sorted : Arrays.copyOf(sorted, n);
+	}
+}
@@ -10,6 +10,8 @@ public class UserObject {
 	private Map<String, IEvalValue> attributes;
 	private String domain;
 	private String type;
+	// computed on first use, reset when the content changes
+	private volatile Long contentHash;
 
 	public UserObject(String domain, String id, String type) {
 		this.id = id;
@@ -20,18 +22,36 @@ public class UserObject {
 
 	public void addAttribute(String key, IEvalValue value) {
 		attributes.put(key, value);
+		contentHash = null;
 	}
 
 	public IEvalValue getAttribute(String key) {
 		return attributes.get(key);
 	}
 
+	/**
+	 * Returns a hash of the id and attribute values, equal for users with the
+	 * same content. The hash is computed once, a refresh compares it with
+	 * the cached users many times. Attributes changed through
+	 * {@link #getAttributes()} are not seen once the hash is computed.
+	 */
+	public long getContentHash() {
+		Long hash = contentHash;
+
+		if (hash == null) {
+			hash = ContentHash.of(this);
+			contentHash = hash;
+		}
+		return hash;
+	}
+
 	public String getId() {
 		return id;
 	}
 
 	public void setId(String id) {
 		this.id = id;
+		contentHash = null;
 	}
 
 	public Map<String, IEvalValue> getAttributes() {
@@ -40,6 +60,7 @@ public class UserObject {
 
 	public void setAttributes(Map<String, IEvalValue> attributes) {
 		this.attributes = attributes;
+		contentHash = null;
 	}
 
 	public String getDomain() {
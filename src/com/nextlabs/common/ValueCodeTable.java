@@ -0,0 +1,140 @@
+package com.nextlabs.common;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Append only dictionary assigning a stable integer code to every distinct
+ * attribute value. Codes are never reused, so an encoded value set stays valid
+ * for as long as it is referenced. Code 0 is reserved for the null value.
+ */
+public class ValueCodeTable {
+
+	public static final int NULL_CODE = 0;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	// tables reachable through a handle, by handle id
+	private static final ConcurrentHashMap<Integer, ValueCodeTable> TABLES =
+			new ConcurrentHashMap<Integer, ValueCodeTable>();
+	// keeps the weak references of the handles until they are enqueued
+	private static final ConcurrentHashMap<Integer, Reference<Handle>> HANDLES =
+			new ConcurrentHashMap<Integer, Reference<Handle>>();
+	private static final ReferenceQueue<Handle> RELEASED = new ReferenceQueue<Handle>();
+	private static final AtomicInteger HANDLE_IDS = new AtomicInteger();
+
+	private final ConcurrentHashMap<String, Integer> codes;
+	private volatile String[] values;
+	private int size;
+
+	public ValueCodeTable() {
+		codes = new ConcurrentHashMap<String, Integer>();
+		values = new String[INITIAL_CAPACITY];
+		size = 1;
+	}
+
+	public int encode(String value) {
+		if (value == null) {
+			return NULL_CODE;
+		}
+
+		Integer code = codes.get(value);
+
+		if (code != null) {
+			return code;
+		}
+
+		return add(value);
+	}
+
+	public String decode(int code) {
+		return values[code];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Creates a table reached through the returned handle. The table is
+	 * dropped once the handle is no longer referenced.
+	 */
+	public static Handle newHandle() {
+		expungeReleased();
+
+		Handle handle = new Handle(HANDLE_IDS.incrementAndGet());
+		TABLES.put(handle.id, new ValueCodeTable());
+		HANDLES.put(handle.id, new HandleReference(handle, RELEASED));
+		return handle;
+	}
+
+	/**
+	 * Returns the number of tables still reachable through a handle.
+	 */
+	public static int getHandleCount() {
+		expungeReleased();
+		return TABLES.size();
+	}
+
+	private static void expungeReleased() {
+		Reference<? extends Handle> released;
+
+		while ((released = RELEASED.poll()) != null) {
+			int id = ((HandleReference) released).id;
+			TABLES.remove(id);
+			HANDLES.remove(id);
+		}
+	}
+
+	private synchronized int add(String value) {
+		Integer code = codes.get(value);
+
+		if (code != null) {
+			return code;
+		}
+
+		String[] current = values;
+
+		if (size == current.length) {
+			String[] grown = new String[current.length * 2];
+			System.arraycopy(current, 0, grown, 0, current.length);
+			current = grown;
+		}
+
+		current[size] = value;
+		// publish the array before the code so readers never see a code they cannot decode
+		values = current;
+		codes.put(value, size);
+
+		return size++;
+	}
+
+	/**
+	 * Small reference to a table, held by the encoded values in place of the
+	 * table itself. The values are kept in caches sized by walking their
+	 * object graph, which must not go through a table shared by all of them.
+	 */
+	public static final class Handle {
+		private final int id;
+
+		private Handle(int id) {
+			this.id = id;
+		}
+
+		public ValueCodeTable getTable() {
+			return TABLES.get(id);
+		}
+	}
+
+	private static final class HandleReference extends WeakReference<Handle> {
+		private final int id;
+
+		private HandleReference(Handle handle, ReferenceQueue<Handle> queue) {
+			super(handle, queue);
+			id = handle.id;
+		}
+	}
+}
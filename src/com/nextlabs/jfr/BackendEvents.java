@@ -0,0 +1,136 @@
+package com.nextlabs.jfr;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.nextlabs.cache.RefreshSummary;
+
+/**
+ * Java Flight Recorder events of the backend work: LDAP searches, pages of
+ * the LDAP refresh, RFC calls, evictions and expirations of the caches and
+ * refreshes. The events are in the NextLabs category of a recording and are
+ * enabled with the recording settings, e.g.
+ *
+ * <pre>
+ * jcmd &lt;pid&gt; JFR.start name=uap settings=profile
+ * </pre>
+ *
+ * The jdk.jfr API only exists from Java 8u262 on, the event classes are only
+ * loaded when it is present. Otherwise, or while no recording enables an
+ * event, begin returns null and end does nothing, so the call sites only pay
+ * for a virtual call.
+ *
+ * Usage:
+ *
+ * <pre>
+ * Object event = BackendEvents.getInstance().beginLdapSearch();
+ * ...
+ * BackendEvents.getInstance().endLdapSearch(event, domain, type, id, found);
+ * </pre>
+ */
+public abstract class BackendEvents {
+
+	private static final Log LOG = LogFactory.getLog(BackendEvents.class);
+
+	private static final BackendEvents INSTANCE = create();
+
+	public static BackendEvents getInstance() {
+		return INSTANCE;
+	}
+
+	private static BackendEvents create() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return (BackendEvents) Class.forName("com.nextlabs.jfr.FlightRecorderEvents").newInstance();
+		} catch (ClassNotFoundException e) {
+			LOG.info("Java Flight Recorder API not available, backend events are disabled");
+		} catch (Exception | LinkageError e) {
+			LOG.warn("Not able to register the backend events, they are disabled", e);
+		}
+		return new BackendEvents() {
+		};
+	}
+
+	/**
+	 * Starts timing a search of a user or a group in LDAP.
+	 *
+	 * @return the event to end, null if it is not recorded
+	 */
+	public Object beginLdapSearch() {
+		return null;
+	}
+
+	/**
+	 * @param type
+	 *            user or group
+	 * @param found
+	 *            whether the user or group was found
+	 */
+	public void endLdapSearch(Object event, String domain, String type, String id, boolean found) {
+	}
+
+	/**
+	 * Starts timing a page of the LDAP refresh, from the search to the last
+	 * result submitted to the refresh pipeline.
+	 */
+	public Object beginLdapPage() {
+		return null;
+	}
+
+	/**
+	 * @param page
+	 *            index of the page in the search base, from 0
+	 * @param rows
+	 *            number of results of the page
+	 */
+	public void endLdapPage(Object event, String domain, String type, String searchBase, int page, int rows) {
+	}
+
+	/**
+	 * Starts timing the execution of a SAP function.
+	 */
+	public Object beginRfcCall() {
+		return null;
+	}
+
+	/**
+	 * @param importRows
+	 *            number of rows of the import tables, e.g. the AORs requested
+	 * @param exportRows
+	 *            number of rows of the export and table parameters returned
+	 */
+	public void endRfcCall(Object event, String serverPrefix, String function, int importRows, int exportRows,
+			boolean succeeded) {
+	}
+
+	/**
+	 * Records the removal of an entry by the cache itself.
+	 *
+	 * @param cause
+	 *            EVICTED or EXPIRED
+	 */
+	public void cacheRemoved(String cache, String key, String cause) {
+	}
+
+	/**
+	 * Starts timing an attempt of a refresh.
+	 */
+	public Object beginRefresh() {
+		return null;
+	}
+
+	/**
+	 * @param attempt
+	 *            0 for the first attempt, the retry otherwise
+	 * @param generation
+	 *            value dictionary generation started by the refresh, 0 if none
+	 * @param objects
+	 *            number of objects written by the refresh
+	 * @param summary
+	 *            added, changed, unchanged and removed counts, null without
+	 *            change detection
+	 */
+	public void endRefresh(Object event, String source, int attempt, int generation, int objects,
+			RefreshSummary summary, boolean succeeded) {
+	}
+}
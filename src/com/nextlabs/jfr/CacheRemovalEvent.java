@@ -0,0 +1,26 @@
+package com.nextlabs.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.nextlabs.CacheRemoval")
+@Label("Cache Eviction")
+@Category({ "NextLabs", "User Attribute Provider" })
+@Description("Entry evicted or expired by the cache, recorded by the asynchronous cache listener")
+@StackTrace(false)
+class CacheRemovalEvent extends Event {
+
+	@Label("Cache")
+	String cache;
+
+	@Label("Key")
+	String key;
+
+	@Label("Cause")
+	@Description("EVICTED or EXPIRED")
+	String cause;
+}
@@ -0,0 +1,144 @@
+package com.nextlabs.jfr;
+
+import com.nextlabs.cache.RefreshSummary;
+
+/**
+ * Backend events recorded with the jdk.jfr API, only loaded when the API is
+ * present. Each event type is checked with a shared instance before an event
+ * is created, so nothing is allocated while no recording enables it.
+ */
+class FlightRecorderEvents extends BackendEvents {
+
+	private final LdapSearchEvent ldapSearch = new LdapSearchEvent();
+	private final LdapPageEvent ldapPage = new LdapPageEvent();
+	private final RfcCallEvent rfcCall = new RfcCallEvent();
+	private final CacheRemovalEvent cacheRemoval = new CacheRemovalEvent();
+	private final RefreshEvent refresh = new RefreshEvent();
+
+	@Override
+	public Object beginLdapSearch() {
+		if (!ldapSearch.isEnabled()) {
+			return null;
+		}
+		LdapSearchEvent event = new LdapSearchEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void endLdapSearch(Object started, String domain, String type, String id, boolean found) {
+		if (started == null) {
+			return;
+		}
+		LdapSearchEvent event = (LdapSearchEvent) started;
+		event.end();
+		if (event.shouldCommit()) {
+			event.domain = domain;
+			event.type = type;
+			event.id = id;
+			event.found = found;
+			event.commit();
+		}
+	}
+
+	@Override
+	public Object beginLdapPage() {
+		if (!ldapPage.isEnabled()) {
+			return null;
+		}
+		LdapPageEvent event = new LdapPageEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void endLdapPage(Object started, String domain, String type, String searchBase, int page, int rows) {
+		if (started == null) {
+			return;
+		}
+		LdapPageEvent event = (LdapPageEvent) started;
+		event.end();
+		if (event.shouldCommit()) {
+			event.domain = domain;
+			event.type = type;
+			event.searchBase = searchBase;
+			event.page = page;
+			event.rows = rows;
+			event.commit();
+		}
+	}
+
+	@Override
+	public Object beginRfcCall() {
+		if (!rfcCall.isEnabled()) {
+			return null;
+		}
+		RfcCallEvent event = new RfcCallEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void endRfcCall(Object started, String serverPrefix, String function, int importRows, int exportRows,
+			boolean succeeded) {
+		if (started == null) {
+			return;
+		}
+		RfcCallEvent event = (RfcCallEvent) started;
+		event.end();
+		if (event.shouldCommit()) {
+			event.serverPrefix = serverPrefix;
+			event.function = function;
+			event.importRows = importRows;
+			event.exportRows = exportRows;
+			event.succeeded = succeeded;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void cacheRemoved(String cache, String key, String cause) {
+		if (!cacheRemoval.isEnabled()) {
+			return;
+		}
+		CacheRemovalEvent event = new CacheRemovalEvent();
+		event.cache = cache;
+		event.key = key;
+		event.cause = cause;
+		event.commit();
+	}
+
+	@Override
+	public Object beginRefresh() {
+		if (!refresh.isEnabled()) {
+			return null;
+		}
+		RefreshEvent event = new RefreshEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void endRefresh(Object started, String source, int attempt, int generation, int objects,
+			RefreshSummary summary, boolean succeeded) {
+		if (started == null) {
+			return;
+		}
+		RefreshEvent event = (RefreshEvent) started;
+		event.end();
+		if (event.shouldCommit()) {
+			event.source = source;
+			event.attempt = attempt;
+			event.generation = generation;
+			event.objects = objects;
+			if (summary != null) {
+				event.added = summary.getAdded();
+				event.changed = summary.getChanged();
+				event.unchanged = summary.getUnchanged();
+				event.removed = summary.getRemoved();
+			}
+			event.succeeded = succeeded;
+			event.commit();
+		}
+	}
+}
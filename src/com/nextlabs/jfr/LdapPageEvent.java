@@ -0,0 +1,33 @@
+package com.nextlabs.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.nextlabs.LdapPage")
+@Label("LDAP Refresh Page")
+@Category({ "NextLabs", "User Attribute Provider" })
+@Description("Page of the LDAP refresh, from the search to the last result handed to the refresh pipeline")
+@StackTrace(false)
+class LdapPageEvent extends Event {
+
+	@Label("Domain")
+	String domain;
+
+	@Label("Type")
+	@Description("user or group")
+	String type;
+
+	@Label("Search Base")
+	String searchBase;
+
+	@Label("Page")
+	@Description("Index of the page in the search base, from 0")
+	int page;
+
+	@Label("Rows")
+	int rows;
+}
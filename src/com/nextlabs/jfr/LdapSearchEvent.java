@@ -0,0 +1,29 @@
+package com.nextlabs.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.nextlabs.LdapSearch")
+@Label("LDAP Search")
+@Category({ "NextLabs", "User Attribute Provider" })
+@Description("Search of a user or a group missing from the cache")
+@StackTrace(false)
+class LdapSearchEvent extends Event {
+
+	@Label("Domain")
+	String domain;
+
+	@Label("Type")
+	@Description("user or group")
+	String type;
+
+	@Label("Id")
+	String id;
+
+	@Label("Found")
+	boolean found;
+}
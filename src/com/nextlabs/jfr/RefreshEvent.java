@@ -0,0 +1,47 @@
+package com.nextlabs.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.nextlabs.Refresh")
+@Label("Cache Refresh")
+@Category({ "NextLabs", "User Attribute Provider" })
+@Description("Attempt of a refresh of the user or AOR cache")
+@StackTrace(false)
+class RefreshEvent extends Event {
+
+	@Label("Source")
+	@Description("LDAP, LDAP delta or AOR")
+	String source;
+
+	@Label("Attempt")
+	@Description("0 for the first attempt, the retry otherwise")
+	int attempt;
+
+	@Label("Generation")
+	@Description("Value dictionary generation started by the refresh, 0 if none")
+	int generation;
+
+	@Label("Objects")
+	@Description("Objects written by the refresh")
+	int objects;
+
+	@Label("Added")
+	int added;
+
+	@Label("Changed")
+	int changed;
+
+	@Label("Unchanged")
+	int unchanged;
+
+	@Label("Removed")
+	int removed;
+
+	@Label("Succeeded")
+	boolean succeeded;
+}
@@ -0,0 +1,33 @@
+package com.nextlabs.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.nextlabs.RfcCall")
+@Label("RFC Call")
+@Category({ "NextLabs", "User Attribute Provider" })
+@Description("Execution of a SAP function, including the import and export of the parameters")
+@StackTrace(false)
+class RfcCallEvent extends Event {
+
+	@Label("Server Prefix")
+	String serverPrefix;
+
+	@Label("Function")
+	String function;
+
+	@Label("Import Rows")
+	@Description("Rows of the import tables, e.g. the AORs requested")
+	int importRows;
+
+	@Label("Export Rows")
+	@Description("Rows of the export and table parameters returned")
+	int exportRows;
+
+	@Label("Succeeded")
+	boolean succeeded;
+}
@@ -1,8 +1,12 @@
 package com.nextlabs.ldap;
 
 import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
@@ -10,10 +14,13 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.naming.Context;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
@@ -28,19 +35,24 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.bluejungle.framework.expressions.EvalValue;
-import com.bluejungle.framework.expressions.Multivalue;
 import com.nextlabs.cache.CacheEngine;
+import com.nextlabs.cache.RefreshSummary;
+import com.nextlabs.cache.ValueDictionary;
+import com.nextlabs.common.CircuitBreaker;
 import com.nextlabs.common.UserObject;
 import com.nextlabs.common.Provider;
 import com.nextlabs.common.SAPObject;
 import com.nextlabs.common.Util;
 import com.nextlabs.exception.InvalidProfileException;
+import com.nextlabs.jfr.BackendEvents;
+import com.nextlabs.task.RefreshRetry;
 	
 public class LdapProvider implements Provider {
 	private static final Log LOG = LogFactory.getLog(LdapProvider.class);
 	private static LdapProvider provider;
 	private Properties poolProps;
 	private int page_size;
+	private int refreshDecodeThreads;
 	private Map<String, LdapProfile> profiles;
 	private LdapProfile singleProfile;
 	private Map<String, List<String>> userAttributeToProfileMap;
@@ -53,6 +65,16 @@ public class LdapProvider implements Provider {
 	private int intervalBetweenRetries;
 	private Boolean isRefreshing;
 	private static Properties commonProp;
+	// one breaker per domain, every domain is a separate backend
+	private final ConcurrentHashMap<String, CircuitBreaker> circuitBreakers;
+	// a full and a delta refresh are retried separately, one does not cancel the retry of the other
+	private final RefreshRetry fullRetry;
+	private final RefreshRetry deltaRetry;
+	// users and groups written by the refresh in progress, or by the last one
+	private final AtomicInteger refreshedCount;
+	// start of the last successful refresh, a delta refresh loads what changed since
+	private volatile long lastRefreshStart;
+	private String modifyTimestampAttribute;
 
 	private final String FILTER_DISABLED_ACCOUNTS = "(!(userAccountControl:1.2.840.113556.1.4.803:=2))";
 
@@ -62,6 +84,13 @@ public class LdapProvider implements Provider {
 		groupAttributeToProfileMap = new HashMap<String, List<String>>();
 		idToObjectTypeMap = new ConcurrentHashMap<String, String>();
 		isRefreshing = false;
+		circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+		ScheduledExecutorService retryExecutor = RefreshRetry.newExecutor("LDAP");
+		fullRetry = new RefreshRetry("LDAP", retryExecutor);
+		deltaRetry = new RefreshRetry("LDAP delta", retryExecutor);
+		refreshedCount = new AtomicInteger();
+		// objects loaded on demand are current as of the start of the plugin
+		lastRefreshStart = System.currentTimeMillis();
 	}
 
 	public static LdapProvider getInstance() {
@@ -129,6 +158,12 @@ public class LdapProvider implements Provider {
 			page_size = 1000;
 		}
 
+		try {
+			refreshDecodeThreads = Integer.parseInt(props.getProperty("refresh_decode_threads", "4"));
+		} catch (NumberFormatException nfe) {
+			refreshDecodeThreads = 4;
+		}
+
 		String keyStoreLocation = props.getProperty("key_store");
 		String keyStorePassword = props.getProperty("key_store_pass");
 		
@@ -162,7 +197,12 @@ public class LdapProvider implements Provider {
 			intervalBetweenRetries = Integer.parseInt(props.getProperty("interval_between_retries", "30"));
 		} catch (NumberFormatException nfe) {
 			numberOfRetries = 3;
+			intervalBetweenRetries = 30;
 		}
+		fullRetry.configure(props, numberOfRetries, intervalBetweenRetries);
+		deltaRetry.configure(props, numberOfRetries, intervalBetweenRetries);
+
+		modifyTimestampAttribute = props.getProperty("ldap_modify_timestamp_attribute", "modifyTimestamp").trim();
 	}
 
 	@Override
@@ -175,7 +215,7 @@ public class LdapProvider implements Provider {
 
 			if (isSingleProfile) {
 				
-				object = queryForUser(singleProfile, id);
+				object = query(singleProfile, id, USER_TYPE);
 
 			} else {
 
@@ -191,7 +231,7 @@ public class LdapProvider implements Provider {
 					LOG.info(String.format("Attribute [%s] should be found in domain [%s]. Attemp to query...",
 							attributeToSearch, ldapProfile.getName()));
 
-					object = queryForUser(ldapProfile, id);
+					object = query(ldapProfile, id, USER_TYPE);
 
 					if (object != null) {
 						break;
@@ -201,7 +241,7 @@ public class LdapProvider implements Provider {
 		} else if (idToObjectTypeMap.get(id) != null && idToObjectTypeMap.get(id).equals(GROUP_TYPE)) {
 			if (isSingleProfile) {
 
-				object = queryForGroup(singleProfile, id);
+				object = query(singleProfile, id, GROUP_TYPE);
 
 			} else {
 
@@ -217,7 +257,7 @@ public class LdapProvider implements Provider {
 					LOG.info(String.format("Attribute [%s] should be found in domain [%s]. Attemp to query...",
 							attributeToSearch, ldapProfile.getName()));
 
-					object = queryForGroup(ldapProfile, id);
+					object = query(ldapProfile, id, GROUP_TYPE);
 
 					if (object != null) {
 						break;
@@ -235,6 +275,48 @@ public class LdapProvider implements Provider {
 		return object;
 	}
 
+	/**
+	 * Queries the domain for a user or a group, unless the circuit breaker of
+	 * the domain is open, in which case null is returned without waiting for
+	 * the domain.
+	 */
+	private UserObject query(LdapProfile ldapProfile, String id, String type) throws NamingException {
+		CircuitBreaker breaker = getCircuitBreaker(ldapProfile.getName());
+
+		if (!breaker.allowRequest()) {
+			LOG.warn(String.format("Domain [%s] is unavailable, skip querying [%s]", ldapProfile.getName(), id));
+			return null;
+		}
+
+		try {
+			UserObject object = type.equals(USER_TYPE) ? queryForUser(ldapProfile, id)
+					: queryForGroup(ldapProfile, id);
+			breaker.recordSuccess();
+			return object;
+		} catch (NamingException e) {
+			breaker.recordFailure();
+			throw e;
+		}
+	}
+
+	public CircuitBreaker getCircuitBreaker(String domain) {
+		CircuitBreaker breaker = circuitBreakers.get(domain);
+
+		if (breaker == null) {
+			breaker = CircuitBreaker.fromProperties("LDAP " + domain,
+					(commonProp == null) ? new Properties() : commonProp);
+			CircuitBreaker existing = circuitBreakers.putIfAbsent(domain, breaker);
+			if (existing != null) {
+				breaker = existing;
+			}
+		}
+		return breaker;
+	}
+
+	public Collection<CircuitBreaker> getCircuitBreakers() {
+		return circuitBreakers.values();
+	}
+
 	private UserObject queryForUser(LdapProfile ldapProfile, String userId) throws NamingException {
 		UserObject user = null;
 
@@ -282,6 +364,7 @@ public class LdapProvider implements Provider {
 		// Search for objects using the filter
 
 		NamingEnumeration<SearchResult> answer = null;
+		Object event = BackendEvents.getInstance().beginLdapSearch();
 		try {
 			for (String searchBase : searchBases) {
 
@@ -316,6 +399,7 @@ public class LdapProvider implements Provider {
 			if (ctx != null) {
 				ctx.close();
 			}
+			BackendEvents.getInstance().endLdapSearch(event, ldapProfile.getName(), USER_TYPE, userId, user != null);
 		}
 
 		long endTime = System.currentTimeMillis();
@@ -376,6 +460,7 @@ public class LdapProvider implements Provider {
 		List<String> searchBases = ldapProfile.getGroupSearchBase();
 
 		long startTime = System.currentTimeMillis();
+		Object event = BackendEvents.getInstance().beginLdapSearch();
 
 		try {
 
@@ -420,6 +505,7 @@ public class LdapProvider implements Provider {
 			if (ctx != null) {
 				ctx.close();
 			}
+			BackendEvents.getInstance().endLdapSearch(event, ldapProfile.getName(), GROUP_TYPE, groupId, group != null);
 		}
 
 		long endTime = System.currentTimeMillis();
@@ -430,61 +516,136 @@ public class LdapProvider implements Provider {
 	}
 
 	@Override
-	public synchronized void refreshCache() {
-		
-		if (!commonProp.getProperty("cache_refresh_period","0").equalsIgnoreCase("0")) {
+	public boolean refreshCache() {
+		return refresh(0, false);
+	}
 
-			isRefreshing = true;
+	/**
+	 * Refreshes the users and groups modified since the last successful
+	 * refresh. A delta refresh cannot see deletions, so it removes nothing
+	 * from the cache.
+	 *
+	 * @return true if the refresh succeeded
+	 */
+	public boolean refreshChangedCache() {
+		return refresh(0, true);
+	}
 
-			long startTime = System.currentTimeMillis();
+	/**
+	 * Runs one attempt of the refresh. A failed attempt schedules the next
+	 * one with a backoff instead of sleeping, so the lock is released between
+	 * attempts.
+	 *
+	 * @return true if the attempt succeeded
+	 */
+	private synchronized boolean refresh(final int retry, final boolean delta) {
+
+		// a new refresh supersedes a pending retry of its kind, a full refresh also covers a delta one
+		if (!delta) {
+			fullRetry.cancel();
+		}
+		deltaRetry.cancel();
 
-			LOG.info(String.format("Page size is %d", page_size));
+		isRefreshing = true;
 
-			int count = 0;
+		if (retry == 0) {
+			refreshedCount.set(0);
+		}
 
-			while (true) {
-				try {
-					if (isSingleProfile) {
-						refreshProfile(singleProfile);
-					} else {
-						for (LdapProfile ldapProfile : profiles.values()) {
-							refreshProfile(ldapProfile);
-						}
-					}
-					break;
+		long startTime = System.currentTimeMillis();
+		Object event = BackendEvents.getInstance().beginRefresh();
 
-				} catch (Exception e) {
+		ValueDictionary dictionary = CacheEngine.getInstance().getUserValueDictionary();
+		int generation = delta ? 0 : dictionary.startGeneration();
+		String changedSince = delta ? formatGeneralizedTime(lastRefreshStart) : null;
 
-					LOG.error("Cache refresh encountered an exception.", e);
+		LOG.info(String.format("Page size is %d", page_size));
 
-					if (count++ == numberOfRetries) {
-						LOG.error(String.format("Attempted [%d] retries without success.", numberOfRetries));
-						break;
-					} else {
-						LOG.debug(String.format("Retrying refreshing cache in [%d] seconds..", intervalBetweenRetries));
-						try {
-							Thread.sleep(intervalBetweenRetries * 1000);
-						} catch (InterruptedException ie) {
-							// IGNORE
-						}
+		if (delta) {
+			LOG.info(String.format("Delta refresh of the objects modified since [%s]", changedSince));
+		}
+
+		// every attempt starts over, so it only removes what it has not seen itself
+		RefreshSummary summary = new RefreshSummary(delta ? "LDAP delta" : "LDAP");
+		boolean succeeded = false;
+
+		try {
+			if (isSingleProfile) {
+				refreshProfile(singleProfile, summary, changedSince);
+			} else {
+				for (LdapProfile ldapProfile : profiles.values()) {
+					try {
+						refreshProfile(ldapProfile, summary, changedSince);
+					} catch (ServiceUnavailableException e) {
+						// a domain known to be down does not keep the others from being refreshed
+						LOG.warn(e.getMessage());
+						summary.setIncomplete();
 					}
 				}
 			}
 
-			long endTime = System.currentTimeMillis();
+			if (!delta && CacheEngine.getInstance().isChangeDetection()) {
+				CacheEngine.getInstance().removeUnseenFromUserCache(summary);
+				summary.log();
+			}
+
+			// a search base which could not be read to the end is retried as well
+			succeeded = summary.isComplete();
 
+		} catch (Exception e) {
+			LOG.error("Cache refresh encountered an exception.", e);
+		} finally {
 			isRefreshing = false;
+		}
 
-			LOG.info("Cache refresh completed");
-			LOG.info("Time Taken: " + Long.toString((endTime - startTime)) + "ms");
+		long endTime = System.currentTimeMillis();
 
+		BackendEvents.getInstance().endRefresh(event, delta ? "LDAP delta" : "LDAP", retry, generation,
+				refreshedCount.get(), summary, succeeded);
+
+		if (succeeded) {
+			if (!delta) {
+				// values still shared by the cached users are only known after a full refresh
+				dictionary.purge(generation);
+			}
+			// the next delta refresh overlaps this one, changes made while it ran are not missed
+			lastRefreshStart = startTime;
+			LOG.info("Cache refresh completed");
+		} else {
+			(delta ? deltaRetry : fullRetry).schedule(retry + 1, new Runnable() {
+				@Override
+				public void run() {
+					refresh(retry + 1, delta);
+				}
+			});
 		}
-		else{
-			LOG.info("Skip reload cache since the cache_refresh_period is 0");
-		}
+		LOG.info("Time Taken: " + Long.toString((endTime - startTime)) + "ms");
+
+		return succeeded;
+	}
+
+	/**
+	 * Returns the number of users and groups written so far by the refresh in
+	 * progress, or by the last refresh.
+	 */
+	public int getRefreshedCount() {
+		return refreshedCount.get();
+	}
+
+	/**
+	 * Formats a time as a LDAP generalized time, e.g. 20190101120000.0Z
+	 */
+	static String formatGeneralizedTime(long time) {
+		return DateTimeFormatter.ofPattern("yyyyMMddHHmmss'.0Z'").withZone(ZoneOffset.UTC)
+				.format(Instant.ofEpochMilli(time));
 	}
 
-	private void refreshProfile(LdapProfile ldapProfile) throws NamingException {
+	/**
+	 * @param changedSince
+	 *            generalized time of a delta refresh, null for a full refresh
+	 */
+	private void refreshProfile(LdapProfile ldapProfile, RefreshSummary summary, String changedSince)
+			throws Exception {
 		LOG.info(String.format("Started refreshing domain [%s]", ldapProfile.getName()));
 
 		if (!ldapProfile.getIsValid()) {
@@ -492,20 +653,41 @@ public class LdapProvider implements Provider {
 			return;
 		}
 
-		LdapContext ctx = getContextFromPool(ldapProfile);
+		CircuitBreaker breaker = getCircuitBreaker(ldapProfile.getName());
+
+		if (!breaker.allowRequest()) {
+			throw new ServiceUnavailableException(
+					String.format("Domain [%s] is unavailable. Skip refreshing.", ldapProfile.getName()));
+		}
+
+		summary.addSource(ldapProfile.getName());
+
+		LdapContext ctx;
+
+		try {
+			ctx = getContextFromPool(ldapProfile);
+		} catch (NamingException e) {
+			breaker.recordFailure();
+			throw e;
+		}
 
 		try {
-			refreshUser(ldapProfile, ctx);
+			refreshUser(ldapProfile, ctx, summary, changedSince);
 
 			if (ldapProfile.getWithGroup()) {
-				refreshGroup(ldapProfile, ctx);
+				refreshGroup(ldapProfile, ctx, summary, changedSince);
 			}
+			breaker.recordSuccess();
+		} catch (NamingException e) {
+			breaker.recordFailure();
+			throw e;
 		} finally {
 			ctx.close();
 		}
 	}
 
-	private void refreshUser(LdapProfile ldapProfile, LdapContext ctx) throws NamingException {
+	private void refreshUser(LdapProfile ldapProfile, LdapContext ctx, RefreshSummary summary, String changedSince)
+			throws Exception {
 
 		NamingEnumeration<SearchResult> answer = null;
 
@@ -529,6 +711,10 @@ public class LdapProvider implements Provider {
 			sbFilter.append(FILTER_DISABLED_ACCOUNTS);
 		}
 
+		if (changedSince != null) {
+			sbFilter.append(modifiedSinceFilter(changedSince));
+		}
+
 		sbFilter.append("))");
 
 		String searchFilter = sbFilter.toString();
@@ -538,47 +724,35 @@ public class LdapProvider implements Provider {
 
 		for (String searchBase : searchBases) {
 
-			int count = 0;
+			AtomicInteger count = new AtomicInteger();
+
+			RefreshPipeline<SearchResult, UserObject> pipeline = createRefreshPipeline(ldapProfile, USER_TYPE, count,
+					summary);
+
+			long pagingStart = System.nanoTime();
 
 			try {
 				byte[] cookie = null;
 				ctx.setRequestControls(new Control[] { new PagedResultsControl(page_size, Control.NONCRITICAL) });
 				int total;
+				int page = 0;
 
 				do {
 					LOG.info("Querying ... ");
 					LOG.debug("Search base--" + searchBase.toString() + " | search filter--" + searchFilter +" | search attributes--" + Arrays.toString(returnedAttrsList.toArray()));
+					Object event = BackendEvents.getInstance().beginLdapPage();
+					int rows = 0;
 					answer = ctx.search(searchBase, searchFilter, searchCtls);
 
+					// users are decoded and written to cache by the pipeline while the next page is fetched
 					while (answer.hasMoreElements()) {
-						SearchResult sr = (SearchResult) answer.next();
-						UserObject user = produceUser(sr, ldapProfile);
-
-						LOG.debug(String.format("Get from domain [%s] user [%s]", ldapProfile.getName(), user.getId()));
-
-						// write user to cache
-						CacheEngine.getInstance().writeObjectToUserCache(user);
-
-						// update identifier map
-						for (String key : ldapProfile.getUserKeyAttributes()) {
-
-							if (user.getAttribute(key.toLowerCase()) != null
-									&& user.getAttribute(key.toLowerCase()).getValue() != null) {
-
-								Object keyAttributeValue = user.getAttribute(key.toLowerCase()).getValue();
-
-								LOG.debug(String.format("Put into identifier map [%s] - [%s]",
-										(String) keyAttributeValue, user.getId()));
-
-								count++;
-
-								CacheEngine.getInstance().addIdentifier((String) keyAttributeValue, user.getId());
-
-								idToObjectTypeMap.put((String) keyAttributeValue, USER_TYPE);
-							}
-						}
+						pipeline.submit((SearchResult) answer.next());
+						rows++;
 					}
 
+					BackendEvents.getInstance().endLdapPage(event, ldapProfile.getName(), USER_TYPE, searchBase, page++,
+							rows);
+
 					// Examine the paged results control response
 					Control[] controls = ctx.getResponseControls();
 					if (controls != null) {
@@ -601,19 +775,23 @@ public class LdapProvider implements Provider {
 							new Control[] { new PagedResultsControl(page_size, cookie, Control.CRITICAL) });
 				} while (cookie != null && cookie.length != 0);
 
-				LOG.info(String.format("User cache count is [%d]", count));
-				System.out.println(String.format("User cache count is [%d]", count));
 			} catch (IOException ie) {
 				LOG.error(ie.getMessage(), ie);
+				// the search base was not read to the end
+				summary.setIncomplete();
 			} finally {
 				if (answer != null) {
 					answer.close();
 				}
+				pipeline.finish(System.nanoTime() - pagingStart);
 			}
+
+			LOG.info(String.format("User cache count is [%d]", count.get()));
 		}
 	}
 
-	private void refreshGroup(LdapProfile ldapProfile, LdapContext ctx) throws NamingException {
+	private void refreshGroup(LdapProfile ldapProfile, LdapContext ctx, RefreshSummary summary, String changedSince)
+			throws Exception {
 
 		NamingEnumeration<SearchResult> answer = null;
 
@@ -637,6 +815,10 @@ public class LdapProvider implements Provider {
 			sbFilter.append(FILTER_DISABLED_ACCOUNTS);
 		}
 
+		if (changedSince != null) {
+			sbFilter.append(modifiedSinceFilter(changedSince));
+		}
+
 		sbFilter.append("))");
 
 		String searchFilter = sbFilter.toString();
@@ -646,48 +828,35 @@ public class LdapProvider implements Provider {
 
 		for (String searchBase : searchBases) {
 
-			int count = 0;
+			AtomicInteger count = new AtomicInteger();
+
+			RefreshPipeline<SearchResult, UserObject> pipeline = createRefreshPipeline(ldapProfile, GROUP_TYPE, count,
+					summary);
+
+			long pagingStart = System.nanoTime();
 
 			try {
 				byte[] cookie = null;
 				ctx.setRequestControls(new Control[] { new PagedResultsControl(page_size, Control.NONCRITICAL) });
 				int total;
+				int page = 0;
 
 				do {
 					LOG.info("Querying ... ");
 					LOG.debug("Search base--" + searchBase.toString() + " | search filter--" + searchFilter +" | search attributes--" + Arrays.toString(returnedAttrsList.toArray()));
+					Object event = BackendEvents.getInstance().beginLdapPage();
+					int rows = 0;
 					answer = ctx.search(searchBase, searchFilter, searchCtls);
 
+					// groups are decoded and written to cache by the pipeline while the next page is fetched
 					while (answer.hasMoreElements()) {
-						SearchResult sr = (SearchResult) answer.next();
-						UserObject group = produceGroup(sr, ldapProfile);
-
-						LOG.debug(
-								String.format("Get from domain [%s] group [%s]", ldapProfile.getName(), group.getId()));
-
-						// write group to cache
-						CacheEngine.getInstance().writeObjectToUserCache(group);
-
-						// update identifier map
-						for (String key : ldapProfile.getGroupKeyAttributes()) {
-
-							if (group.getAttribute(key.toLowerCase()) != null
-									&& group.getAttribute(key.toLowerCase()).getValue() != null) {
-
-								Object keyAttributeValue = group.getAttribute(key.toLowerCase()).getValue();
-
-								LOG.debug(String.format("Put into identifier map [%s] - [%s]",
-										(String) keyAttributeValue, group.getId()));
-
-								count++;
-
-								CacheEngine.getInstance().addIdentifier((String) keyAttributeValue, group.getId());
-
-								idToObjectTypeMap.put((String) keyAttributeValue, GROUP_TYPE);
-							}
-						}
+						pipeline.submit((SearchResult) answer.next());
+						rows++;
 					}
 
+					BackendEvents.getInstance().endLdapPage(event, ldapProfile.getName(), GROUP_TYPE, searchBase, page++,
+							rows);
+
 					// Examine the paged results control response
 					Control[] controls = ctx.getResponseControls();
 					if (controls != null) {
@@ -710,18 +879,88 @@ public class LdapProvider implements Provider {
 							new Control[] { new PagedResultsControl(page_size, cookie, Control.CRITICAL) });
 				} while (cookie != null && cookie.length != 0);
 
-				LOG.info(String.format("Group cache count is [%d]", count));
-				System.out.println(String.format("Group cache count is [%d]", count));
 			} catch (IOException ie) {
 				LOG.error(ie.getMessage(), ie);
+				// the search base was not read to the end
+				summary.setIncomplete();
 			} finally {
 				if (answer != null) {
 					answer.close();
 				}
+				pipeline.finish(System.nanoTime() - pagingStart);
 			}
+
+			LOG.info(String.format("Group cache count is [%d]", count.get()));
 		}
 	}
 
+	private String modifiedSinceFilter(String changedSince) {
+		return "(" + modifyTimestampAttribute + ">=" + changedSince + ")";
+	}
+
+	/**
+	 * Creates the pipeline decoding the search results of a refresh and
+	 * writing them to cache, in batches of the page size.
+	 */
+	private RefreshPipeline<SearchResult, UserObject> createRefreshPipeline(final LdapProfile ldapProfile,
+			final String type, final AtomicInteger count, final RefreshSummary summary) {
+
+		final boolean isUser = type.equals(USER_TYPE);
+		final List<String> keyAttributes = isUser ? ldapProfile.getUserKeyAttributes()
+				: ldapProfile.getGroupKeyAttributes();
+
+		RefreshPipeline.Decoder<SearchResult, UserObject> decoder = new RefreshPipeline.Decoder<SearchResult, UserObject>() {
+			@Override
+			public UserObject decode(SearchResult sr) throws NamingException {
+				UserObject object = isUser ? produceUser(sr, ldapProfile) : produceGroup(sr, ldapProfile);
+
+				LOG.debug(String.format("Get from domain [%s] %s [%s]", ldapProfile.getName(), type, object.getId()));
+
+				return object;
+			}
+		};
+
+		RefreshPipeline.Writer<UserObject> writer = new RefreshPipeline.Writer<UserObject>() {
+			@Override
+			public void write(List<UserObject> batch) {
+				Map<String, String> identifiers = new HashMap<String, String>();
+
+				for (UserObject object : batch) {
+					// update identifier map
+					for (String key : keyAttributes) {
+
+						if (object.getAttribute(key.toLowerCase()) != null
+								&& object.getAttribute(key.toLowerCase()).getValue() != null) {
+
+							Object keyAttributeValue = object.getAttribute(key.toLowerCase()).getValue();
+
+							LOG.debug(String.format("Put into identifier map [%s] - [%s]",
+									(String) keyAttributeValue, object.getId()));
+
+							count.incrementAndGet();
+
+							identifiers.put((String) keyAttributeValue, object.getId());
+
+							idToObjectTypeMap.put((String) keyAttributeValue, type);
+						}
+					}
+				}
+
+				// write the batch to cache, then make it reachable through the identifier map
+				if (CacheEngine.getInstance().isChangeDetection()) {
+					CacheEngine.getInstance().refreshAllInUserCache(batch, summary);
+				} else {
+					CacheEngine.getInstance().writeAllToUserCache(batch, false);
+				}
+				CacheEngine.getInstance().addIdentifiers(identifiers);
+				refreshedCount.addAndGet(batch.size());
+			}
+		};
+
+		return new RefreshPipeline<SearchResult, UserObject>(ldapProfile.getName() + " " + type, decoder, writer,
+				refreshDecodeThreads, page_size * 2, page_size);
+	}
+
 	private UserObject produceUser(SearchResult sr, LdapProfile profile) throws NamingException {
 
 		UserObject user = null;
@@ -757,6 +996,8 @@ public class LdapProvider implements Provider {
 
 		List<String> sValues = new ArrayList<String>();
 
+		ValueDictionary dictionary = CacheEngine.getInstance().getUserValueDictionary();
+
 		// process attributes to pull
 		for (String attributeName: profile.getUserAttributesToPull()) {
 
@@ -764,11 +1005,11 @@ public class LdapProvider implements Provider {
 
 			if (!profile.isUserMultiAttribute(attributeName)) {
 				user.addAttribute(attributeName.toLowerCase(),
-						(temp == null || temp.get() == null) ? EvalValue.NULL : EvalValue.build(temp.get().toString()));
+						(temp == null || temp.get() == null) ? EvalValue.NULL : dictionary.internValue(temp.get().toString()));
 			} else {
 
 				if (temp == null) {
-					user.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
+					user.addAttribute(attributeName.toLowerCase(), dictionary.internMultivalue(null));
 				} else {
 
 					NamingEnumeration<?> values = temp.getAll();
@@ -779,9 +1020,9 @@ public class LdapProvider implements Provider {
 					}
 
 					if (sValues.size() > 0) {
-						user.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.create(sValues)));
+						user.addAttribute(attributeName.toLowerCase(), dictionary.internMultivalue(sValues));
 					} else {
-						user.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
+						user.addAttribute(attributeName.toLowerCase(), dictionary.internMultivalue(null));
 					}
 				}
 			}
@@ -847,6 +1088,8 @@ public class LdapProvider implements Provider {
 
 		List<String> sValues = new ArrayList<String>();
 
+		ValueDictionary dictionary = CacheEngine.getInstance().getUserValueDictionary();
+
 		// process attributes to pull
 		for (int i = 0; i < profile.getGroupAttributesToPull().size(); i++) {
 
@@ -856,11 +1099,11 @@ public class LdapProvider implements Provider {
 
 			if (!profile.isGroupMultiAttribute(attributeName)) {
 				group.addAttribute(attributeName.toLowerCase(),
-						(temp == null || temp.get() == null) ? EvalValue.NULL : EvalValue.build(temp.get().toString()));
+						(temp == null || temp.get() == null) ? EvalValue.NULL : dictionary.internValue(temp.get().toString()));
 			} else {
 
 				if (temp == null) {
-					group.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
+					group.addAttribute(attributeName.toLowerCase(), dictionary.internMultivalue(null));
 				} else {
 
 					NamingEnumeration<?> values = temp.getAll();
@@ -871,9 +1114,9 @@ public class LdapProvider implements Provider {
 					}
 
 					if (sValues.size() > 0) {
-						group.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.create(sValues)));
+						group.addAttribute(attributeName.toLowerCase(), dictionary.internMultivalue(sValues));
 					} else {
-						group.addAttribute(attributeName.toLowerCase(), EvalValue.build(Multivalue.EMPTY));
+						group.addAttribute(attributeName.toLowerCase(), dictionary.internMultivalue(null));
 					}
 				}
 			}
@@ -1032,6 +1275,13 @@ public class LdapProvider implements Provider {
 		return isRefreshing;
 	}
 
+	@Override
+	public long getNextRetryTime() {
+		long full = fullRetry.getNextAttemptTime();
+		long changed = deltaRetry.getNextAttemptTime();
+		return (full == 0 || (changed != 0 && changed < full)) ? changed : full;
+	}
+
 	@Override
 	public List<SAPObject> getSAPObject(List<String> aorId, String attributeToSearch) {
 		// TODO Auto-generated method stub
@@ -0,0 +1,274 @@
+package com.nextlabs.ldap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Three stage pipeline used by the refresh: the calling thread pages through
+ * the search results, a pool of threads decodes them into objects, and a
+ * single thread writes the objects to the cache in batches. Stages are
+ * connected by bounded queues, a stage which cannot keep up blocks the one
+ * feeding it.
+ *
+ * Every stage records the time it spent working and the time it spent
+ * blocked on its queues, which shows which stage is the bottleneck.
+ */
+public class RefreshPipeline<I, O> {
+
+	private static final Log LOG = LogFactory.getLog(RefreshPipeline.class);
+
+	private static final Object END = new Object();
+
+	private static final long POLL_MILLIS = 100;
+
+	public interface Decoder<I, O> {
+		O decode(I input) throws Exception;
+	}
+
+	public interface Writer<O> {
+		void write(List<O> batch) throws Exception;
+	}
+
+	private final String name;
+	private final Decoder<I, O> decoder;
+	private final Writer<O> writer;
+	private final int writeBatchSize;
+	private final BlockingQueue<Object> decodeQueue;
+	private final BlockingQueue<Object> writeQueue;
+	private final ExecutorService executor;
+	private final AtomicInteger runningDecoders;
+	private final Stage paging;
+	private final Stage decoding;
+	private final Stage writing;
+	private final long startTime;
+	private volatile Throwable failure;
+
+	public RefreshPipeline(String name, Decoder<I, O> decoder, Writer<O> writer, int decodeThreads,
+			int queueCapacity, int writeBatchSize) {
+		this.name = name;
+		this.decoder = decoder;
+		this.writer = writer;
+		this.writeBatchSize = writeBatchSize;
+		decodeQueue = new ArrayBlockingQueue<Object>(queueCapacity);
+		writeQueue = new ArrayBlockingQueue<Object>(queueCapacity);
+		runningDecoders = new AtomicInteger(decodeThreads);
+		paging = new Stage("paging");
+		decoding = new Stage("decoding");
+		writing = new Stage("writing");
+		startTime = System.nanoTime();
+
+		executor = Executors.newFixedThreadPool(decodeThreads + 1);
+
+		for (int i = 0; i < decodeThreads; i++) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					decode();
+				}
+			});
+		}
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		});
+	}
+
+	/**
+	 * Hands a search result over to the decoding stage, waiting for room in
+	 * the queue if the decoding stage is behind.
+	 */
+	public void submit(I input) throws InterruptedException {
+		long blockedStart = System.nanoTime();
+		put(decodeQueue, input);
+		paging.blocked(System.nanoTime() - blockedStart);
+		paging.items.incrementAndGet();
+	}
+
+	/**
+	 * Waits until every submitted result has been written, then logs the
+	 * throughput of every stage.
+	 *
+	 * @param pagingNanos
+	 *            time the caller spent paging, including the time blocked in
+	 *            {@link #submit(Object)}
+	 * @throws Exception
+	 *             the first failure of the decoding or writing stage
+	 */
+	public void finish(long pagingNanos) throws Exception {
+		try {
+			paging.busy(pagingNanos - paging.blockedNanos.get());
+
+			try {
+				put(decodeQueue, END);
+			} catch (IllegalStateException e) {
+				// a stage has failed and the others are stopping, the failure is thrown below
+			}
+
+			executor.shutdown();
+			while (!executor.awaitTermination(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				// keep waiting, the stages stop on their own or on failure
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		LOG.info(String.format("Refresh pipeline [%s] completed in %dms", name,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+		paging.log();
+		decoding.log();
+		writing.log();
+
+		if (failure instanceof Exception) {
+			throw (Exception) failure;
+		} else if (failure != null) {
+			throw new IllegalStateException(failure);
+		}
+	}
+
+	public long getWritten() {
+		return writing.items.get();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void decode() {
+		try {
+			while (true) {
+				long waitStart = System.nanoTime();
+				Object item = take(decodeQueue);
+				long workStart = System.nanoTime();
+
+				if (item == END) {
+					// let the other decoders see the end as well
+					put(decodeQueue, END);
+					break;
+				}
+
+				O output = decoder.decode((I) item);
+				long workEnd = System.nanoTime();
+
+				if (output != null) {
+					put(writeQueue, output);
+				}
+
+				decoding.busy(workEnd - workStart);
+				decoding.blocked((workStart - waitStart) + (System.nanoTime() - workEnd));
+				decoding.items.incrementAndGet();
+			}
+		} catch (Throwable e) {
+			fail(e);
+		} finally {
+			if (runningDecoders.decrementAndGet() == 0) {
+				try {
+					put(writeQueue, END);
+				} catch (Throwable e) {
+					fail(e);
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void write() {
+		List<Object> drained = new ArrayList<Object>(writeBatchSize);
+		List<O> batch = new ArrayList<O>(writeBatchSize);
+		boolean ended = false;
+
+		try {
+			while (!ended) {
+				long waitStart = System.nanoTime();
+				drained.clear();
+				drained.add(take(writeQueue));
+				writeQueue.drainTo(drained, writeBatchSize - 1);
+				long workStart = System.nanoTime();
+
+				batch.clear();
+				for (Object item : drained) {
+					if (item == END) {
+						ended = true;
+					} else {
+						batch.add((O) item);
+					}
+				}
+
+				if (!batch.isEmpty()) {
+					writer.write(batch);
+				}
+
+				writing.busy(System.nanoTime() - workStart);
+				writing.blocked(workStart - waitStart);
+				writing.items.addAndGet(batch.size());
+			}
+		} catch (Throwable e) {
+			fail(e);
+		}
+	}
+
+	private void fail(Throwable e) {
+		if (failure == null) {
+			failure = e;
+			LOG.error(String.format("Refresh pipeline [%s] failed", name), e);
+		}
+	}
+
+	// queue operations give up as soon as another stage has failed, so no stage waits forever
+	private void put(BlockingQueue<Object> queue, Object item) throws InterruptedException {
+		while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+			checkFailure();
+		}
+	}
+
+	private Object take(BlockingQueue<Object> queue) throws InterruptedException {
+		Object item;
+		while ((item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+			checkFailure();
+		}
+		return item;
+	}
+
+	private void checkFailure() {
+		if (failure != null) {
+			throw new IllegalStateException(String.format("Refresh pipeline [%s] aborted", name), failure);
+		}
+	}
+
+	private final class Stage {
+		private final String stageName;
+		private final AtomicLong items = new AtomicLong();
+		private final AtomicLong busyNanos = new AtomicLong();
+		private final AtomicLong blockedNanos = new AtomicLong();
+
+		private Stage(String stageName) {
+			this.stageName = stageName;
+		}
+
+		private void busy(long nanos) {
+			busyNanos.addAndGet(nanos);
+		}
+
+		private void blocked(long nanos) {
+			blockedNanos.addAndGet(nanos);
+		}
+
+		private void log() {
+			long busyMillis = TimeUnit.NANOSECONDS.toMillis(busyNanos.get());
+			double rate = (busyNanos.get() == 0) ? 0 : items.get() * 1e9 / busyNanos.get();
+
+			LOG.info(String.format("Refresh pipeline [%s] stage [%s]: [%d] items, busy %dms (%.0f items/s), blocked %dms",
+					name, stageName, items.get(), busyMillis, rate,
+					TimeUnit.NANOSECONDS.toMillis(blockedNanos.get())));
+		}
+	}
+}
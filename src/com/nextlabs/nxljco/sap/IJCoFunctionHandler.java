@@ -100,4 +100,14 @@ public interface IJCoFunctionHandler {
 	public Map<String, Object> getRfcTable();
 	
 	public JCoFunction getFunction(String handler) throws JCoException;
+
+	/**
+	 * Resolves the destination, repository and function metadata ahead of the
+	 * first call, so the call does not wait for them.
+	 * 
+	 * @param handler
+	 *            RFC handler (function name).
+	 * @return true if the function is ready to be called.
+	 */
+	public boolean warmUp(String handler);
 }
@@ -1,22 +1,25 @@
 package com.nextlabs.nxljco.sap;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.nextlabs.jfr.BackendEvents;
 import com.nextlabs.nxljco.sap.exporter.IParameterExporter;
 import com.nextlabs.nxljco.sap.exporter.ParameterExporter;
 import com.nextlabs.nxljco.sap.importer.IParameterImporter;
 import com.nextlabs.nxljco.sap.importer.ParameterImporter;
 import com.sap.conn.jco.JCoDestination;
-import com.sap.conn.jco.JCoDestinationManager;
 import com.sap.conn.jco.JCoException;
 import com.sap.conn.jco.JCoFunction;
+import com.sap.conn.jco.JCoFunctionTemplate;
 import com.sap.conn.jco.JCoParameterList;
 import com.sap.conn.jco.JCoRepository;
+import com.sap.conn.jco.JCoTable;
 
 public class JCoFunctionHandler implements IJCoFunctionHandler {
 	private final String NO_JCO_PARAMETERS = "No JcoParameters";
@@ -32,6 +35,9 @@ public class JCoFunctionHandler implements IJCoFunctionHandler {
 	private JCoDestination destination;
 	private JCoRepository repository;
 	private JCoFunction function;
+	// template the function was created from, null if the function was set
+	private JCoFunctionTemplate template;
+	private JCoMetadataCache metadataCache;
 	private AttributeExtractor attributeExtractor;
 
 	private IParameterImporter importer;
@@ -41,25 +47,59 @@ public class JCoFunctionHandler implements IJCoFunctionHandler {
 
 	private JCoDestination getDestination() throws JCoException {
 		if (this.destination == null) {
-			this.destination = JCoDestinationManager.getDestination(serverPrefix);
+			this.destination = getMetadataCache().getDestination(serverPrefix);
 		}
 		return destination;
 	}
 
-	private JCoRepository getRepository() throws JCoException {
-		if (this.repository == null) {
-			this.repository = getDestination().getRepository();
+	/**
+	 * Returns the function, created from the shared template without fetching
+	 * the metadata from SAP. The function is created again once the template
+	 * is refreshed, so a handler kept for the requests picks the change up.
+	 */
+	public JCoFunction getFunction(String handler) throws JCoException {
+		if (this.repository != null) {
+			if (this.function == null) {
+				this.function = repository.getFunction(handler);
+			}
+			return function;
 		}
-		return repository;
-	}
 
-	public JCoFunction getFunction(String handler) throws JCoException {
-		if (this.function == null) {
-			this.function = getRepository().getFunction(handler);
+		if (this.function != null && this.template == null) {
+			return function;
+		}
+
+		JCoFunctionTemplate current = getMetadataCache().getFunctionTemplate(serverPrefix, handler);
+
+		if (current != null && current != this.template) {
+			this.function = current.getFunction();
+			this.template = current;
+			getDestination();
 		}
 		return function;
 	}
 
+	@Override
+	public boolean warmUp(String handler) {
+		if (!getMetadataCache().warmUp(serverPrefix, handler)) {
+			return false;
+		}
+
+		try {
+			return getFunction(handler) != null;
+		} catch (JCoException e) {
+			LOG.error(e.getMessage());
+			return false;
+		}
+	}
+
+	private JCoMetadataCache getMetadataCache() {
+		if (this.metadataCache == null) {
+			this.metadataCache = JCoMetadataCache.getInstance();
+		}
+		return metadataCache;
+	}
+
 	private AttributeExtractor getAttributeExtractor(Map<String, Object> map) {
 		if (this.attributeExtractor == null) {
 			this.attributeExtractor = new AttributeExtractor(map);
@@ -85,12 +125,17 @@ public class JCoFunctionHandler implements IJCoFunctionHandler {
 		this.destination = destination;
 	}
 
+	public void setMetadataCache(JCoMetadataCache metadataCache) {
+		this.metadataCache = metadataCache;
+	}
+
 	public void setRepository(JCoRepository repository) {
 		this.repository = repository;
 	}
 
 	public void setFunction(JCoFunction function) {
 		this.function = function;
+		this.template = null;
 	}
 
 	public void setAttributeExtractor(AttributeExtractor attributeExtractor) {
@@ -136,12 +181,14 @@ public class JCoFunctionHandler implements IJCoFunctionHandler {
 		rfcImport = parameters;
 		rfcExport = new HashMap<String, Object>();
 
+		Object event = BackendEvents.getInstance().beginRfcCall();
+		boolean succeeded = false;
+
 		try {
 			// Load Function
 			JCoFunction function = getFunction(handler);
 			if (function == null) {
-				this.repository = null;
-				this.destination = null;
+				// nothing is kept for an unknown function, the next call resolves it again
 				LOG.error(NO_FUNCTION);
 				return rfcExport;
 			}
@@ -156,14 +203,39 @@ public class JCoFunctionHandler implements IJCoFunctionHandler {
 			rfcExport = extractExports(function);
 			rfcChanging = extractChanging(function);
 			rfcTable = extractTable(function);
+			succeeded = true;
 
 		} catch (JCoException e) {
 			throw new IOException(e.getMessage());
+		} finally {
+			if (event != null) {
+				BackendEvents.getInstance().endRfcCall(event, serverPrefix, handler, countRows(parameters),
+						countRows(rfcExport) + countRows(rfcTable), succeeded);
+			}
 		}
 
 		return rfcExport;
 	}
 
+	/**
+	 * Returns the number of rows of the tables of imported or exported
+	 * parameters, JCo tables or exported lists.
+	 */
+	public static int countRows(Map<String, Object> parameters) {
+		int rows = 0;
+
+		if (parameters != null) {
+			for (Object value : parameters.values()) {
+				if (value instanceof JCoTable) {
+					rows += ((JCoTable) value).getNumRows();
+				} else if (value instanceof Collection) {
+					rows += ((Collection<?>) value).size();
+				}
+			}
+		}
+		return rows;
+	}
+
 	@Override
 	public Object callFunctionForAttribute(String handler, Map<String, Object> parameters, String attribute)
 			throws IOException, IllegalArgumentException {
@@ -0,0 +1,187 @@
+package com.nextlabs.nxljco.sap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.sap.conn.jco.JCoDestination;
+import com.sap.conn.jco.JCoDestinationManager;
+import com.sap.conn.jco.JCoException;
+import com.sap.conn.jco.JCoFunctionTemplate;
+import com.sap.conn.jco.JCoRepository;
+
+/**
+ * Destinations and function templates resolved ahead of the requests and
+ * shared by all function handlers, so a call only creates a function from
+ * its template instead of fetching the RFC metadata from SAP.
+ *
+ * Resolved templates are kept when a call or a metadata refresh fails, a
+ * transient failure never makes the next request pay for the metadata again.
+ * Templates are refreshed in the background so changes of the function
+ * interface are picked up.
+ */
+public class JCoMetadataCache {
+
+	private static final Log LOG = LogFactory.getLog(JCoMetadataCache.class);
+
+	private static final JCoMetadataCache INSTANCE = new JCoMetadataCache();
+
+	private final Map<String, JCoDestination> destinations;
+	private final Map<String, JCoFunctionTemplate> templates;
+	private ScheduledExecutorService refresher;
+
+	public JCoMetadataCache() {
+		destinations = new ConcurrentHashMap<String, JCoDestination>();
+		templates = new ConcurrentHashMap<String, JCoFunctionTemplate>();
+	}
+
+	public static JCoMetadataCache getInstance() {
+		return INSTANCE;
+	}
+
+	public JCoDestination getDestination(String serverPrefix) throws JCoException {
+		JCoDestination destination = destinations.get(serverPrefix);
+
+		if (destination == null) {
+			destination = JCoDestinationManager.getDestination(serverPrefix);
+			if (destination != null) {
+				destinations.put(serverPrefix, destination);
+			}
+		}
+		return destination;
+	}
+
+	/**
+	 * Returns the template of the function, fetching its metadata from SAP if
+	 * it has not been resolved yet.
+	 *
+	 * @return the template, or null if the function does not exist
+	 */
+	public JCoFunctionTemplate getFunctionTemplate(String serverPrefix, String functionName) throws JCoException {
+		JCoFunctionTemplate template = templates.get(key(serverPrefix, functionName));
+
+		if (template == null) {
+			template = resolve(serverPrefix, functionName, false);
+		}
+		return template;
+	}
+
+	/**
+	 * Resolves the destination, the repository and the function template
+	 * ahead of the first call.
+	 *
+	 * @return true if the function template is available
+	 */
+	public boolean warmUp(String serverPrefix, String functionName) {
+		try {
+			return getFunctionTemplate(serverPrefix, functionName) != null;
+		} catch (JCoException e) {
+			LOG.error(String.format("Unable to warm up the metadata of function [%s] with server prefix [%s]: %s",
+					functionName, serverPrefix, e.getMessage()));
+			return false;
+		}
+	}
+
+	/**
+	 * Fetches the metadata of every resolved function again, keeping the
+	 * current template if the fetch fails.
+	 */
+	public void refresh() {
+		for (String key : templates.keySet()) {
+			String[] parts = key.split("/", 2);
+
+			try {
+				resolve(parts[0], parts[1], true);
+			} catch (JCoException e) {
+				LOG.warn(String.format("Unable to refresh the metadata of function [%s], keeping the current one: %s",
+						parts[1], e.getMessage()));
+			}
+		}
+	}
+
+	/**
+	 * Schedules {@link #refresh()} in a background thread.
+	 */
+	public synchronized void startRefresh(long period, TimeUnit unit) {
+		if (refresher != null) {
+			return;
+		}
+
+		refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "UAP-JCoMetadataRefresh");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		refresher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				refresh();
+			}
+		}, period, period, unit);
+
+		LOG.info(String.format("JCo metadata will be refreshed every [%d] %s", period, unit));
+	}
+
+	public synchronized void stopRefresh() {
+		if (refresher != null) {
+			refresher.shutdownNow();
+			refresher = null;
+		}
+	}
+
+	public void clear() {
+		destinations.clear();
+		templates.clear();
+	}
+
+	public int size() {
+		return templates.size();
+	}
+
+	private JCoFunctionTemplate resolve(String serverPrefix, String functionName, boolean reload)
+			throws JCoException {
+		long startTime = System.nanoTime();
+
+		JCoDestination destination = getDestination(serverPrefix);
+
+		if (destination == null) {
+			LOG.error(String.format("Destination [%s] is unrecognized", serverPrefix));
+			return null;
+		}
+
+		JCoRepository repository = destination.getRepository();
+
+		if (reload) {
+			// the repository keeps its own copy, drop it so the metadata is fetched from SAP
+			repository.removeFunctionTemplateFromCache(functionName);
+		}
+
+		JCoFunctionTemplate template = repository.getFunctionTemplate(functionName);
+
+		if (template == null) {
+			LOG.error(String.format("Function name [%s] is unrecognized", functionName));
+			return null;
+		}
+
+		templates.put(key(serverPrefix, functionName), template);
+
+		LOG.info(String.format("Metadata of function [%s] with server prefix [%s] resolved in %dms", functionName,
+				serverPrefix, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+
+		return template;
+	}
+
+	private static String key(String serverPrefix, String functionName) {
+		return serverPrefix + "/" + functionName;
+	}
+}
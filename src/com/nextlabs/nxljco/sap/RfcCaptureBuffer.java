@@ -0,0 +1,400 @@
+package com.nextlabs.nxljco.sap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.nextlabs.common.Constants;
+import com.sap.conn.jco.JCoTable;
+
+/**
+ * Summaries of the last RFC calls, kept in memory for diagnostics: time,
+ * duration, row counts, the ET_RETURN messages and excerpts of the request
+ * and of the response capped to a number of characters, so a GET_ALL
+ * response is never rendered in full.
+ *
+ * The buffer is dumped with the dumpRfcCaptures operation of the Statistics
+ * MBean, or by creating the trigger file, in which case the dump is written
+ * next to it and the trigger removed. Without rfc_capture_size the buffer is
+ * not created and the calls are not summarized.
+ */
+public class RfcCaptureBuffer {
+
+	private static final Log LOG = LogFactory.getLog(RfcCaptureBuffer.class);
+
+	public static final int DEFAULT_EXCERPT_CHARS = 2000;
+	public static final int MAX_RETURN_MESSAGES = 20;
+	public static final long TRIGGER_CHECK_SECONDS = 5;
+
+	private final int capacity;
+	private final int excerptChars;
+	private final AtomicReferenceArray<Capture> captures;
+	private final AtomicLong recorded;
+	private ScheduledExecutorService triggerWatcher;
+
+	public RfcCaptureBuffer(int capacity, int excerptChars) {
+		this.capacity = capacity;
+		this.excerptChars = excerptChars;
+		captures = new AtomicReferenceArray<Capture>(capacity);
+		recorded = new AtomicLong();
+	}
+
+	/**
+	 * Creates the buffer configured by rfc_capture_size,
+	 * rfc_capture_excerpt_chars and rfc_capture_dump_trigger.
+	 *
+	 * @return the buffer, null if rfc_capture_size is 0 or not set
+	 */
+	public static RfcCaptureBuffer fromProperties(Properties props) {
+		int capacity = 0;
+		int excerptChars = DEFAULT_EXCERPT_CHARS;
+
+		try {
+			capacity = Integer.parseInt(props.getProperty("rfc_capture_size", "0").trim());
+		} catch (NumberFormatException e) {
+			LOG.error("Not able to read rfc_capture_size, hard set to 0");
+		}
+
+		try {
+			excerptChars = Integer.parseInt(
+					props.getProperty("rfc_capture_excerpt_chars", String.valueOf(DEFAULT_EXCERPT_CHARS)).trim());
+		} catch (NumberFormatException e) {
+			LOG.error(String.format("Not able to read rfc_capture_excerpt_chars, hard set to %d",
+					DEFAULT_EXCERPT_CHARS));
+		}
+
+		if (capacity <= 0) {
+			return null;
+		}
+
+		RfcCaptureBuffer buffer = new RfcCaptureBuffer(capacity, Math.max(0, excerptChars));
+
+		String trigger = props.getProperty("rfc_capture_dump_trigger", "").trim();
+		if (!trigger.isEmpty()) {
+			buffer.watchTrigger(new File(trigger), TRIGGER_CHECK_SECONDS, TimeUnit.SECONDS);
+		}
+
+		LOG.info(String.format("The last [%d] RFC calls are captured, excerpts of [%d] characters", capacity,
+				excerptChars));
+		return buffer;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getRecordedCount() {
+		return recorded.get();
+	}
+
+	/**
+	 * Records a call.
+	 *
+	 * @param aors
+	 *            AORs requested, null for a GET_ALL call
+	 * @param exports
+	 *            exported parameters, null if the call failed
+	 * @param error
+	 *            message of the failure, null if the call succeeded
+	 */
+	public void record(String serverPrefix, String function, long startMillis, long durationNanos,
+			Map<String, Object> imports, List<String> aors, Map<String, Object> exports, String error) {
+		// the AORs are rendered from the list, the import table would only be counted
+		Map<String, Object> requested = imports;
+		if (aors != null && imports != null) {
+			requested = new LinkedHashMap<String, Object>(imports);
+			requested.put(Constants.IMPORT_AOR_ID, aors);
+		}
+
+		StringBuilder request = new StringBuilder();
+		appendCapped(request, requested);
+
+		StringBuilder response = new StringBuilder();
+		appendCapped(response, exports);
+
+		Capture capture = new Capture(startMillis, serverPrefix, function, durationNanos,
+				(aors == null) ? 0 : aors.size(), countRows(exports), error, request.toString(),
+				response.toString(), returnMessages(exports));
+
+		long sequence = recorded.getAndIncrement();
+		captures.set((int) (sequence % capacity), capture);
+	}
+
+	/**
+	 * Returns the captured calls, the oldest first.
+	 */
+	public List<Capture> snapshot() {
+		long end = recorded.get();
+		long start = Math.max(0, end - capacity);
+		List<Capture> snapshot = new ArrayList<Capture>((int) (end - start));
+
+		for (long i = start; i < end; i++) {
+			// a slot not written yet by a concurrent call holds the capture it replaces, or none
+			Capture capture = captures.get((int) (i % capacity));
+			if (capture != null) {
+				snapshot.add(capture);
+			}
+		}
+		return snapshot;
+	}
+
+	public String dump() {
+		StringBuilder sb = new StringBuilder();
+		List<Capture> snapshot = snapshot();
+
+		sb.append(String.format("[%d] RFC calls captured, last [%d] kept", recorded.get(), snapshot.size()));
+		sb.append(System.lineSeparator());
+
+		for (Capture capture : snapshot) {
+			sb.append(System.lineSeparator());
+			capture.appendTo(sb);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the dump to a file named after the trigger each time the trigger
+	 * file is created, then removes the trigger.
+	 */
+	public synchronized void watchTrigger(final File trigger, long period, TimeUnit unit) {
+		if (triggerWatcher != null) {
+			return;
+		}
+
+		triggerWatcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "UAP-RfcCaptureTrigger");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		triggerWatcher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				if (trigger.exists()) {
+					dumpOnTrigger(trigger);
+				}
+			}
+		}, period, period, unit);
+
+		LOG.info(String.format("RFC captures are dumped when [%s] is created", trigger));
+	}
+
+	public synchronized void close() {
+		if (triggerWatcher != null) {
+			triggerWatcher.shutdownNow();
+			triggerWatcher = null;
+		}
+	}
+
+	/**
+	 * Writes the dump to [trigger]-[yyyyMMdd-HHmmss].txt and removes the
+	 * trigger.
+	 *
+	 * @return the file written, null if it could not be written
+	 */
+	public File dumpOnTrigger(File trigger) {
+		File file = new File(trigger.getPath() + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date())
+				+ ".txt");
+
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			writer.write(dump());
+			LOG.info(String.format("RFC captures dumped to [%s]", file));
+			return file;
+		} catch (IOException e) {
+			LOG.error(String.format("Not able to dump the RFC captures to [%s]", file), e);
+			return null;
+		} finally {
+			if (!trigger.delete()) {
+				LOG.warn(String.format("Not able to remove the RFC capture trigger [%s]", trigger));
+			}
+		}
+	}
+
+	/**
+	 * Appends the value until the excerpt reaches its size, the rows of the
+	 * tables past it are only counted.
+	 */
+	private void appendCapped(StringBuilder sb, Object value) {
+		if (sb.length() >= excerptChars) {
+			return;
+		}
+
+		if (value instanceof Map) {
+			sb.append('{');
+			Iterator<? extends Map.Entry<?, ?>> it = ((Map<?, ?>) value).entrySet().iterator();
+			while (it.hasNext() && sb.length() < excerptChars) {
+				Map.Entry<?, ?> entry = it.next();
+				sb.append(entry.getKey()).append('=');
+				appendCapped(sb, entry.getValue());
+				if (it.hasNext()) {
+					sb.append(", ");
+				}
+			}
+			sb.append('}');
+		} else if (value instanceof Collection) {
+			Collection<?> rows = (Collection<?>) value;
+			int appended = 0;
+			sb.append('[');
+			for (Object row : rows) {
+				if (sb.length() >= excerptChars) {
+					break;
+				}
+				if (appended > 0) {
+					sb.append(", ");
+				}
+				appendCapped(sb, row);
+				appended++;
+			}
+			if (appended < rows.size()) {
+				sb.append(String.format(" ... %d of %d rows", appended, rows.size()));
+			}
+			sb.append(']');
+		} else if (value instanceof JCoTable) {
+			sb.append(String.format("<table of %d rows>", ((JCoTable) value).getNumRows()));
+		} else {
+			String text = String.valueOf(value);
+			int room = excerptChars - sb.length();
+			if (text.length() > room) {
+				sb.append(text, 0, room).append("...");
+			} else {
+				sb.append(text);
+			}
+		}
+	}
+
+	private static int countRows(Map<String, Object> exports) {
+		return (exports == null) ? 0 : JCoFunctionHandler.countRows(exports);
+	}
+
+	private static List<String> returnMessages(Map<String, Object> exports) {
+		Object returned = (exports == null) ? null : exports.get(Constants.EXPORT_BAPI_RETURN);
+
+		if (!(returned instanceof List) || ((List<?>) returned).isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		List<String> messages = new ArrayList<String>();
+		for (Object row : (List<?>) returned) {
+			if (messages.size() == MAX_RETURN_MESSAGES) {
+				messages.add(String.format("... %d messages", ((List<?>) returned).size()));
+				break;
+			}
+			if (row instanceof Map) {
+				Map<?, ?> message = (Map<?, ?>) row;
+				messages.add(String.format("%s %s %s: %s", message.get(Constants.EXPORT_RESPONSE_TYPE),
+						message.get(Constants.EXPORT_RESPONSE_ID), message.get(Constants.EXPORT_RESPONSE_NUMBER),
+						message.get(Constants.EXPORT_RESPONSE_MESSAGE)));
+			}
+		}
+		return messages;
+	}
+
+	/**
+	 * Summary of a RFC call.
+	 */
+	public static class Capture {
+		private final long startMillis;
+		private final String serverPrefix;
+		private final String function;
+		private final long durationNanos;
+		private final int requestedAORs;
+		private final int exportRows;
+		private final String error;
+		private final String request;
+		private final String response;
+		private final List<String> returnMessages;
+
+		public Capture(long startMillis, String serverPrefix, String function, long durationNanos,
+				int requestedAORs, int exportRows, String error, String request, String response,
+				List<String> returnMessages) {
+			this.startMillis = startMillis;
+			this.serverPrefix = serverPrefix;
+			this.function = function;
+			this.durationNanos = durationNanos;
+			this.requestedAORs = requestedAORs;
+			this.exportRows = exportRows;
+			this.error = error;
+			this.request = request;
+			this.response = response;
+			this.returnMessages = returnMessages;
+		}
+
+		public long getStartMillis() {
+			return startMillis;
+		}
+
+		public String getServerPrefix() {
+			return serverPrefix;
+		}
+
+		public String getFunction() {
+			return function;
+		}
+
+		public long getDurationNanos() {
+			return durationNanos;
+		}
+
+		public int getRequestedAORs() {
+			return requestedAORs;
+		}
+
+		public int getExportRows() {
+			return exportRows;
+		}
+
+		public String getError() {
+			return error;
+		}
+
+		public String getRequest() {
+			return request;
+		}
+
+		public String getResponse() {
+			return response;
+		}
+
+		public List<String> getReturnMessages() {
+			return returnMessages;
+		}
+
+		void appendTo(StringBuilder sb) {
+			String nl = System.lineSeparator();
+
+			sb.append(String.format("%tF %<tT.%<tL [%s] [%s] took [%.3f]ms, [%d] AORs requested, [%d] rows returned%s",
+					new Date(startMillis), serverPrefix, function, durationNanos / 1000000.0, requestedAORs,
+					exportRows, (error == null) ? "" : ", failed: " + error)).append(nl);
+			sb.append("  request:  ").append(request).append(nl);
+			sb.append("  response: ").append(response).append(nl);
+			for (String message : returnMessages) {
+				sb.append("  ET_RETURN: ").append(message).append(nl);
+			}
+		}
+	}
+}
@@ -10,25 +10,40 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.naming.NamingException;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 
 import com.nextlabs.cache.CacheEngine;
+import com.nextlabs.cache.RefreshSummary;
+import com.nextlabs.cache.ReferencedAORTracker;
+import com.nextlabs.common.CircuitBreaker;
 import com.nextlabs.common.Constants;
 import com.nextlabs.common.Profile;
 import com.nextlabs.common.Provider;
+import com.nextlabs.common.ProviderLog;
 import com.nextlabs.common.SAPObject;
+import com.nextlabs.common.ValueCodeTable;
 import com.nextlabs.common.UserObject;
 import com.nextlabs.exception.InvalidProfileException;
+import com.nextlabs.jfr.BackendEvents;
+import com.nextlabs.nxljco.sap.simulator.SimulatedJCoFunctionHandler;
+import com.nextlabs.task.RefreshRetry;
 import com.sap.conn.jco.JCoException;
 import com.sap.conn.jco.JCoTable;	
 
 public class SAPProvider implements Provider {
-	private static final Log LOG = LogFactory.getLog(SAPProvider.class);
+	private static final ProviderLog LOG = ProviderLog.getLog(SAPProvider.class);
 	private static SAPProvider provider;
 	private SAPProfile singleProfile;
 	private boolean isSingleProfile;
@@ -36,13 +51,27 @@ public class SAPProvider implements Provider {
 	private int numberOfRetries;		
 	private int intervalBetweenRetries;
 	private Boolean isRefreshing;
+	private volatile boolean loaded;
+	// AORs loaded by the refresh in progress, or by the last one
+	private final AtomicInteger refreshedAORs;
 	private static Properties commonProp;
+	private CircuitBreaker circuitBreaker;
+	private final RefreshRetry refreshRetry;
+	// size from which the AOR code table is replaced once it holds twice the values in use
+	private static final int CODE_TABLE_MIN_SIZE = 4096;
 	
 	private IJCoFunctionHandler functionHandler;
+	// calls go to a simulated SAP system instead of JCo, for load tests
+	private boolean simulated;
+	// summaries of the last calls, null when rfc_capture_size is not set
+	private RfcCaptureBuffer rfcCapture;
 
 	public SAPProvider() {
 		idToObjectTypeMap = new ConcurrentHashMap<String, String>();
 		isRefreshing = false;
+		refreshedAORs = new AtomicInteger();
+		circuitBreaker = CircuitBreaker.fromProperties("SAP", new Properties());
+		refreshRetry = new RefreshRetry("AOR");
 	}
 
 	public static SAPProvider getInstance() {
@@ -75,8 +104,42 @@ public class SAPProvider implements Provider {
 	@Override
 	public void setCommonProperties(Properties props) {
 		commonProp = props;
+		circuitBreaker = CircuitBreaker.fromProperties("SAP", props);
+
+		try {
+			numberOfRetries = Integer.parseInt(props.getProperty("number_of_retries", "3"));
+			intervalBetweenRetries = Integer.parseInt(props.getProperty("interval_between_retries", "30"));
+		} catch (NumberFormatException nfe) {
+			numberOfRetries = 3;
+			intervalBetweenRetries = 30;
+		}
+		refreshRetry.configure(props, numberOfRetries, intervalBetweenRetries);
+
+		simulated = props.getProperty("sap_backend", "jco").trim().equalsIgnoreCase("simulator");
+		if (simulated) {
+			LOG.warn("sap_backend is simulator, SAP calls are answered by a simulated SAP system");
+		}
+
+		if (rfcCapture != null) {
+			rfcCapture.close();
+		}
+		rfcCapture = RfcCaptureBuffer.fromProperties(props);
+	}
+
+	/**
+	 * Returns the summaries of the last RFC calls, null if they are not
+	 * captured.
+	 */
+	public RfcCaptureBuffer getRfcCapture() {
+		return rfcCapture;
 	}
 	
+	/**
+	 * Queries AORs from SAP and caches them, the AORs unknown to SAP are
+	 * cached without values.
+	 * 
+	 * @return the AORs returned by SAP, or null if SAP could not be called
+	 */
 	@Override
 	public List<SAPObject> getSAPObject(List<String> aorId, String attributeToSearch) {
 
@@ -102,10 +165,15 @@ public class SAPProvider implements Provider {
 		Map<String, Object> outputValues = callFunction(importsMap, sapProfile);
 		
 		
-		LOG.info(String.format("Query for AOR [%s] took [%s]ms", aor, computeTimeTaken(startTime,System.nanoTime())));
+		LOG.requestInfo("Query for AOR [%s] took [%s]ms", aor, (System.nanoTime() - startTime) / 1000000.00);
+
+		// the call failed or SAP is known to be unavailable, nothing to cache
+		if (outputValues.isEmpty()) {
+			return null;
+		}
 		
 		// Extract values
-		List<SAPObject> sapObjectList = extractData(outputValues, aor);		
+		List<SAPObject> sapObjectList = extractData(outputValues, aor, null);		
 
 		if (sapObjectList == null || sapObjectList.size() == 0) {
 			LOG.error(String.format("Unable to get result from SAP [%s]", sapProfile.getName()));
@@ -121,16 +189,33 @@ public class SAPProvider implements Provider {
 
 	
 	private Map<String, Object> callFunction(Map<String, Object> importsMap, SAPProfile sapProfile) {
+		return callFunction(importsMap, sapProfile, createFunctionHandler(sapProfile.getServerPrefix()));
+	}
+
+	private Map<String, Object> callFunction(Map<String, Object> importsMap, SAPProfile sapProfile, IJCoFunctionHandler handler) {
 		Map<String, Object> outputValues = new HashMap<>();
 
+		// fail fast while SAP is known to be unavailable, instead of waiting for the JCo timeout
+		if (!circuitBreaker.allowRequest()) {
+			LOG.warn(String.format("SAP with server prefix [%s] is unavailable, returning empty data",
+					sapProfile.getServerPrefix()));
+			return outputValues;
+		}
+
+		boolean succeeded = false;
+		RfcCaptureBuffer capture = rfcCapture;
+		List<String> capturedAORs = null;
+		long captureMillis = 0;
+		long captureStart = 0;
+		boolean captured = false;
+		String error = null;
+
 		try {
 			String serverPrefix = sapProfile.getServerPrefix();
 			String functionName = sapProfile.getSAPHandler();
 			
-			LOG.info(String.format("Calling SAP function with server prefix [%s] and handler [%s]", serverPrefix, functionName));
+			LOG.requestInfo("Calling SAP function with server prefix [%s] and handler [%s]", serverPrefix, functionName);
 
-			IJCoFunctionHandler handler = createFunctionHandler(serverPrefix);
-			
 			if(handler==null) {
 				LOG.error(String.format("Server handler [%s] is unrecognized, returning empty data",serverPrefix));
 				return new HashMap<String, Object>();
@@ -150,7 +235,7 @@ public class SAPProvider implements Provider {
 				aorTable.clear();
 				
 				for (String sAOR : sAORList){
-					LOG.debug(String.format("Adding AOR [%s] to JCOTable input", sAOR));
+					LOG.debug("Adding AOR [%s] to JCOTable input", sAOR);
 					aorTable.appendRow();
 					aorTable.setValue(0, sAOR);
 		        }
@@ -166,16 +251,40 @@ public class SAPProvider implements Provider {
 			}
 			
 			
+			if (capture != null) {
+				capturedAORs = (sAORList == null) ? null : new ArrayList<String>(sAORList);
+				captureMillis = System.currentTimeMillis();
+				captureStart = System.nanoTime();
+				captured = true;
+			}
+
 			handler.callFunction(functionName, importsMap);
 			
 			outputValues = handler.getRfcExport();
+			succeeded = true;
 			
 		} catch (IllegalArgumentException e) {
 			LOG.error(e.getMessage());
+			error = e.toString();
 		} catch (IOException e) {
 			LOG.error(e.getMessage());
+			error = e.toString();
 		} catch (JCoException e) {
 			LOG.error(e.getMessage());
+			error = e.toString();
+		} finally {
+			if (succeeded) {
+				circuitBreaker.recordSuccess();
+			} else {
+				circuitBreaker.recordFailure();
+			}
+
+			// only the calls which reached the function handler are captured
+			if (captured) {
+				capture.record(sapProfile.getServerPrefix(), sapProfile.getSAPHandler(), captureMillis,
+						System.nanoTime() - captureStart, importsMap, capturedAORs, succeeded ? outputValues : null,
+						error);
+			}
 		}
 		return outputValues;
 	}
@@ -183,14 +292,39 @@ public class SAPProvider implements Provider {
 	
 	private IJCoFunctionHandler createFunctionHandler(String serverPrefix) {
 		if (this.functionHandler == null) {
-			this.functionHandler = new JCoFunctionHandler(serverPrefix);
+			this.functionHandler = newFunctionHandler(serverPrefix);
 		}
 
 		return this.functionHandler;
 	}
+
+	/**
+	 * Creates a handler for the backend selected by sap_backend, jco (SAP)
+	 * or simulator.
+	 */
+	private IJCoFunctionHandler newFunctionHandler(String serverPrefix) {
+		if (simulated) {
+			return SimulatedJCoFunctionHandler.fromProperties(commonProp);
+		}
+		return new JCoFunctionHandler(serverPrefix);
+	}
+
+	/**
+	 * Sets the handler of the on-demand lookups, instead of a handler created
+	 * for the server prefix of the profile.
+	 */
+	public void setFunctionHandler(IJCoFunctionHandler functionHandler) {
+		this.functionHandler = functionHandler;
+	}
 	
  
-	private List<SAPObject> extractData(Map<String, Object> outputValues, List<String> queryList) {
+	/**
+	 * @param summary
+	 *            summary of the refresh the data is loaded for, null when the
+	 *            data is loaded on request
+	 */
+	private List<SAPObject> extractData(Map<String, Object> outputValues, List<String> queryList,
+			RefreshSummary summary) {
 
 		// Check response existence
 		if (outputValues.containsKey(Constants.EXPORT_BAPI_RETURN)) {
@@ -210,6 +344,8 @@ public class SAPProvider implements Provider {
 				}
 				
 				//Adding empty value SAPObject to cache for performance purpose
+				List<SAPObject> emptyObjects = new ArrayList<SAPObject>(queryList.size());
+
 				for (String sAORID : queryList) {
 					
 		        		SAPObject sapObject = new SAPObject(sAORID);
@@ -224,10 +360,16 @@ public class SAPProvider implements Provider {
 		            	
 		            	sapObject.setAttributes(attributes);
 		            			            	
-		            	//Store the information into cache
-		            	CacheEngine.getInstance().writeObjectToAORCache(sapObject);
+		            	emptyObjects.add(sapObject);
 		        }
 
+				//Store the information into cache
+				writeAllToAORCache(emptyObjects, summary);
+
+				if (summary != null) {
+					summary.setIncomplete();
+				}
+
 			} else {
 				
 				Hashtable<String, Set<String>> sLocTable = new Hashtable<String, Set<String>>();
@@ -267,7 +409,7 @@ public class SAPProvider implements Provider {
 								sData.add(sValue);
 							}
 							sLocTable.put(sAorID, sData);
-							LOG.debug(String.format("SAP have value %s for %s",sData, Constants.EXPORT_AOR_COLUMN_STORAGE_LOCATION));
+							LOG.debug("SAP have value %s for %s", sData, Constants.EXPORT_AOR_COLUMN_STORAGE_LOCATION);
 							sAorIDList.add(sAorID);
 
 						} else if (sKey.equals(Constants.EXPORT_AOR_COLUMN_WAREHOUSE_NUMBER)) {
@@ -284,7 +426,7 @@ public class SAPProvider implements Provider {
 								sData.add(sValue);
 							}
 							sWhNumTable.put(sAorID, sData);
-							LOG.debug(String.format("SAP have value %s for %s",sData, Constants.EXPORT_AOR_COLUMN_WAREHOUSE_NUMBER));
+							LOG.debug("SAP have value %s for %s", sData, Constants.EXPORT_AOR_COLUMN_WAREHOUSE_NUMBER);
 							sAorIDList.add(sAorID);
 
 						} else if (sKey.equals(Constants.EXPORT_AOR_COLUMN_BUSINESS_PARTNER)) {
@@ -301,7 +443,7 @@ public class SAPProvider implements Provider {
 								sData.add(sValue);
 							}
 							sBizPartnerTable.put(sAorID, sData);
-							LOG.debug(String.format("SAP have value %s for %s",sData, Constants.EXPORT_AOR_COLUMN_BUSINESS_PARTNER));
+							LOG.debug("SAP have value %s for %s", sData, Constants.EXPORT_AOR_COLUMN_BUSINESS_PARTNER);
 							sAorIDList.add(sAorID);
 
 						} else if (sKey.equals(Constants.EXPORT_AOR_COLUMN_SHIPPING_POINT)) {
@@ -318,7 +460,7 @@ public class SAPProvider implements Provider {
 								sData.add(sValue);
 							}
 							sShippingPointTable.put(sAorID, sData);
-							LOG.debug(String.format("SAP have value %s for %s",sData, Constants.EXPORT_AOR_COLUMN_SHIPPING_POINT));
+							LOG.debug("SAP have value %s for %s", sData, Constants.EXPORT_AOR_COLUMN_SHIPPING_POINT);
 							sAorIDList.add(sAorID);
 
 						} else if (sKey.equals(Constants.EXPORT_AOR_COLUMN_FORCE_ELEMENT)) {
@@ -335,7 +477,7 @@ public class SAPProvider implements Provider {
 								sData.add(sValue);
 							}
 							sFeTable.put(sAorID, sData);
-							LOG.debug(String.format("SAP have value %s for %s",sData, Constants.EXPORT_AOR_COLUMN_FORCE_ELEMENT));
+							LOG.debug("SAP have value %s for %s", sData, Constants.EXPORT_AOR_COLUMN_FORCE_ELEMENT);
 							sAorIDList.add(sAorID);
 
 						}
@@ -343,22 +485,32 @@ public class SAPProvider implements Provider {
 					}
 
 					return processData2Cache(sLocTable, sWhNumTable, sBizPartnerTable, sShippingPointTable, sFeTable,
-							sAorIDList, queryList);
+							sAorIDList, queryList, summary);
 
 				} else {
 					LOG.warn("SAP response contain empty data");
+
+					// nothing was returned, the cached AORs cannot be compared
+					if (summary != null) {
+						summary.setIncomplete();
+					}
 				}
 			}
 		}
 		else {
 			LOG.error("SAP function return empty response, will return empty list");
+
+			if (summary != null) {
+				summary.setIncomplete();
+			}
 		}
 
 		return new ArrayList<SAPObject>();
 	}
 	
 	private List<SAPObject> processData2Cache(Hashtable<String, Set<String>> sLocTable, Hashtable<String, Set<String>> sWhNumTable,
-			Hashtable<String, Set<String>> sBizPartnerTable, Hashtable<String, Set<String>> sShippingPointTable, Hashtable<String, Set<String>> sFeTable, Set<String> sAorIDList, List<String> queryList) {
+			Hashtable<String, Set<String>> sBizPartnerTable, Hashtable<String, Set<String>> sShippingPointTable, Hashtable<String, Set<String>> sFeTable, Set<String> sAorIDList, List<String> queryList,
+			RefreshSummary summary) {
 			
 		Iterator<String> setIterator = sAorIDList.iterator();
 		List<SAPObject> sapObjectList = new ArrayList<SAPObject>();
@@ -381,11 +533,9 @@ public class SAPProvider implements Provider {
         	
         	sapObjectList.add(sapObject);
         	
-        	//Store the information into cache
-        	CacheEngine.getInstance().writeObjectToAORCache(sapObject);
-        	
         }
         
+        List<SAPObject> cacheList = new ArrayList<SAPObject>(sapObjectList);
         
       //Adding empty value SAPObject to cache for performance purpose
         for (String sAORID : queryList) {
@@ -404,13 +554,25 @@ public class SAPProvider implements Provider {
             	
             	sapObject.setAttributes(attributes);
             	            	
-            	//Store the information into cache
-            	CacheEngine.getInstance().writeObjectToAORCache(sapObject);
+            	cacheList.add(sapObject);
         	}
         }
+        
+        //Store the information into cache
+        writeAllToAORCache(cacheList, summary);
+        
 		return sapObjectList;
 		
 	}
+
+	private void writeAllToAORCache(List<SAPObject> objects, RefreshSummary summary) {
+		if (summary != null) {
+			// only the AORs which have changed are propagated
+			CacheEngine.getInstance().refreshAllInAORCache(objects, summary);
+		} else {
+			CacheEngine.getInstance().writeAllToAORCache(objects);
+		}
+	}
 	
 	
 	private List<String> convert2List(Set<String> attributeValueSet) {
@@ -423,63 +585,152 @@ public class SAPProvider implements Provider {
 	
 
 	@Override
-	public synchronized void refreshCache() {
+	public boolean refreshCache() {
+		return refresh(0);
+	}
+
+	/**
+	 * Returns true once a refresh of the AOR cache has succeeded, possibly
+	 * after retries.
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Runs one attempt of the refresh. A failed attempt schedules the next
+	 * one with a backoff instead of sleeping, so the lock is released between
+	 * attempts.
+	 *
+	 * @return true if the attempt succeeded
+	 */
+	private synchronized boolean refresh(final int retry) {
+
+		// a new refresh supersedes a pending retry
+		refreshRetry.cancel();
 	
-		//Clear all data in AOR Cache
-		CacheEngine.getInstance().purgeAORCache();
+		boolean aorRefresh = commonProp.getProperty("aor_refresh","true").equalsIgnoreCase("true");
+		// with change detection the cached AORs stay available during the refresh
+		boolean changeDetection = aorRefresh && CacheEngine.getInstance().isChangeDetection();
+
+		if (retry == 0 && !changeDetection) {
+			//Clear all data in AOR Cache
+			CacheEngine.getInstance().purgeAORCache();
+		}
 		
-		if (commonProp.getProperty("aor_refresh","true").equalsIgnoreCase("true")) {
+		if (aorRefresh) {
 
 			isRefreshing = true;
 
-			long startTime = System.nanoTime();
+			if (retry == 0) {
+				refreshedAORs.set(0);
 
-			int count = 0;
+				if (changeDetection) {
+					compactCodeTable();
+				}
+			}
 
-			while (true) {
-				try {
-					if (isSingleProfile) {
-						refreshProfile(singleProfile);
-					} 
-					break;
+			if (!changeDetection) {
+				// rebuild the materialized AOR view once the whole AOR master is loaded
+				CacheEngine.getInstance().getAorAttributeView().suspend();
+			}
+
+			long startTime = System.nanoTime();
+			Object event = BackendEvents.getInstance().beginRefresh();
 
-				} catch (Exception e) {
+			RefreshSummary summary = changeDetection ? new RefreshSummary("AOR") : null;
+			boolean succeeded = false;
 
-					LOG.error("AOR Cache refresh encountered an exception.", e);
+			try {
+				// the AORs not seen are only removed when the refresh covered the AORs in use
+				boolean covered = true;
 
-					if (count++ == numberOfRetries) {
-						LOG.error(String.format("Attempted [%d] retries without success.", numberOfRetries));
-						break;
+				if (isSingleProfile) {
+					if (isReferencedMode()) {
+						covered = refreshReferencedAORs(singleProfile, summary);
 					} else {
-						LOG.debug(String.format("Retrying refreshing cache in [%d] seconds..", intervalBetweenRetries));
-						try {
-							Thread.sleep(intervalBetweenRetries * 1000);
-						} catch (InterruptedException ie) {
-							// IGNORE
-						}
+						refreshProfile(singleProfile, summary);
+					}
+				} 
+
+				if (summary != null) {
+					if (covered) {
+						CacheEngine.getInstance().removeUnseenFromAORCache(summary);
 					}
+					summary.log();
 				}
+
+				// an incomplete refresh is retried as well
+				succeeded = (summary == null || summary.isComplete());
+
+			} catch (Exception e) {
+				LOG.error("AOR Cache refresh encountered an exception.", e);
+			} finally {
+				if (!changeDetection) {
+					CacheEngine.getInstance().getAorAttributeView().resume();
+				}
+
+				isRefreshing = false;
 			}
 
 			long endTime = System.nanoTime();
 
-			isRefreshing = false;
+			BackendEvents.getInstance().endRefresh(event, "AOR", retry, 0, refreshedAORs.get(), summary, succeeded);
 
-			LOG.info("AOR Cache refresh completed");
+			if (succeeded) {
+				loaded = true;
+				LOG.info("AOR Cache refresh completed");
+			} else {
+				refreshRetry.schedule(retry + 1, new Runnable() {
+					@Override
+					public void run() {
+						refresh(retry + 1);
+					}
+				});
+			}
 			LOG.info("Time Taken: " + computeTimeTaken(startTime, endTime) + "ms");
 
+			return succeeded;
 		}
 		else{
 			LOG.info("Skip reload cache since the aor_refresh is NOT true");
+			return true;
 		}
 	}
 
-	private void refreshProfile(SAPProfile sapProfile) throws NamingException {
+	/**
+	 * Starts a new AOR code table when the current one holds well over the
+	 * values of the cached AORs, the values no longer at SAP then leave the
+	 * table with the AORs encoded against it. The refresh replaces every AOR
+	 * encoded against the previous table, so the table is not replaced on
+	 * every refresh.
+	 */
+	private void compactCodeTable() {
+		ValueCodeTable table = SAPObject.getCodeTable();
+
+		if (table.size() < CODE_TABLE_MIN_SIZE) {
+			return;
+		}
+
+		int inUse = CacheEngine.getInstance().countAORValues(table);
+
+		if (table.size() > 2 * inUse) {
+			LOG.info(String.format("AOR code table holds [%d] values, [%d] of which are in use, starting a new one",
+					table.size(), inUse));
+			SAPObject.startCodeTable();
+		}
+	}
+
+	private void refreshProfile(SAPProfile sapProfile, RefreshSummary summary) throws NamingException {
 		
 		LOG.info(String.format("Started refreshing server [%s]", sapProfile.getName()));
 
 		if (!sapProfile.getIsValid()) {
 			LOG.error(String.format("Profile [%s] is invalid. Skip refreshing.", sapProfile.getName()));
+			// nothing was loaded, the cached AORs must not be removed as unseen
+			if (summary != null) {
+				summary.setIncomplete();
+			}
 			return;
 		}
 				
@@ -488,23 +739,211 @@ public class SAPProvider implements Provider {
 				
 		long startTime = System.nanoTime();
 				
-		// Call function
-		Map<String, Object> outputValues = callFunction(importsMap, sapProfile);
+		// Call function, with a handler of its own so requests can query SAP while the refresh runs
+		Map<String, Object> outputValues = callFunction(importsMap, sapProfile,
+				newFunctionHandler(sapProfile.getServerPrefix()));
 				
 		long endTime = System.nanoTime();
 				
 		LOG.info(String.format("Query for ALL AOR took [%s]ms", computeTimeTaken(startTime, endTime)));
 				
 		// Extract values
-		List<SAPObject> sapObjectList = extractData(outputValues, new ArrayList<String>());		
+		List<SAPObject> sapObjectList = extractData(outputValues, new ArrayList<String>(), summary);		
 
 		if (sapObjectList == null || sapObjectList.size() == 0) {
 			LOG.error(String.format("Unable to get result from SAP [%s]", sapProfile.getName()));
+		} else {
+			refreshedAORs.addAndGet(sapObjectList.size());
 		}
 
 	}
 	
 
+	/**
+	 * Fetches only the AORs referenced by the cached users, in batches called
+	 * in parallel.
+	 * 
+	 * @return false if no AOR is referenced yet, typically before the users
+	 *         are cached, in which case the cached AORs are kept
+	 */
+	private boolean refreshReferencedAORs(SAPProfile sapProfile, RefreshSummary summary)
+			throws InterruptedException {
+
+		LOG.info(String.format("Started refreshing referenced AORs of server [%s]", sapProfile.getName()));
+
+		if (!sapProfile.getIsValid()) {
+			LOG.error(String.format("Profile [%s] is invalid. Skip refreshing.", sapProfile.getName()));
+			return false;
+		}
+
+		ReferencedAORTracker tracker = CacheEngine.getInstance().getReferencedAORTracker();
+		int newlyReferenced = tracker.getNewlyReferenced();
+		List<String> aorIds = tracker.snapshot();
+
+		LOG.info(String.format("[%d] AORs are referenced by cached users, [%d] newly referenced since last refresh",
+				aorIds.size(), newlyReferenced));
+
+		if (aorIds.isEmpty()) {
+			LOG.info("No AOR is referenced by cached users, the cached AORs are kept");
+			return false;
+		}
+
+		refreshedAORs.addAndGet(fetchAORs(sapProfile, aorIds, summary));
+		return true;
+	}
+
+	/**
+	 * Fetches the AORs which became referenced by cached users since the last
+	 * refresh and are not cached yet, so that requests find them without
+	 * waiting for the next refresh.
+	 * 
+	 * @return the number of AORs returned by SAP
+	 */
+	public synchronized int fetchNewlyReferencedAORs() throws InterruptedException {
+		if (!isSingleProfile || !singleProfile.getIsValid()) {
+			return 0;
+		}
+
+		List<String> aorIds = CacheEngine.getInstance().getReferencedAORTracker().takeNewlyReferenced();
+		Map<String, SAPObject> cached = CacheEngine.getInstance().getAllAorObjectsFromCache(aorIds);
+		List<String> missing = new ArrayList<String>();
+
+		for (String aorId : aorIds) {
+			if (!cached.containsKey(aorId)) {
+				missing.add(aorId);
+			}
+		}
+
+		if (missing.isEmpty()) {
+			return 0;
+		}
+
+		LOG.info(String.format("Fetching [%d] newly referenced AORs, [%d] were already cached", missing.size(),
+				aorIds.size() - missing.size()));
+
+		return fetchAORs(singleProfile, missing, null);
+	}
+
+	/**
+	 * Returns true if only the AORs referenced by the cached users are pulled
+	 * from SAP.
+	 */
+	public boolean isReferencedMode() {
+		return commonProp != null
+				&& commonProp.getProperty("aor_refresh_mode", "all").equalsIgnoreCase("referenced");
+	}
+
+	/**
+	 * Fetches AORs in batches called in parallel. Every worker uses its own
+	 * function handler since a handler holds the state of a single call. A
+	 * failed batch marks the summary as incomplete.
+	 * 
+	 * @return the number of AORs returned by SAP
+	 */
+	private int fetchAORs(final SAPProfile sapProfile, List<String> aorIds, final RefreshSummary summary)
+			throws InterruptedException {
+
+		int batchSize = getIntProperty("aor_refresh_batch_size", 200);
+		int threads = getIntProperty("aor_refresh_threads", 4);
+
+		List<List<String>> batches = new ArrayList<List<String>>();
+		for (int i = 0; i < aorIds.size(); i += batchSize) {
+			batches.add(new ArrayList<String>(aorIds.subList(i, Math.min(i + batchSize, aorIds.size()))));
+		}
+
+		threads = Math.min(threads, batches.size());
+
+		final BlockingQueue<IJCoFunctionHandler> handlers = new ArrayBlockingQueue<IJCoFunctionHandler>(threads);
+		for (int i = 0; i < threads; i++) {
+			handlers.add(newFunctionHandler(sapProfile.getServerPrefix()));
+		}
+
+		long startTime = System.nanoTime();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+
+		try {
+			for (final List<String> batch : batches) {
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						IJCoFunctionHandler handler = handlers.take();
+						try {
+							Map<String, Object> outputValues = callFunction(setupInput(batch), sapProfile, handler);
+							return extractData(outputValues, batch, summary).size();
+						} finally {
+							handlers.put(handler);
+						}
+					}
+				}));
+			}
+
+			int fetched = 0;
+			int failedBatches = 0;
+
+			for (Future<Integer> result : results) {
+				try {
+					fetched += result.get();
+				} catch (ExecutionException e) {
+					failedBatches++;
+					if (summary != null) {
+						summary.setIncomplete();
+					}
+					LOG.error("AOR batch refresh encountered an exception.", e.getCause());
+				}
+			}
+
+			LOG.info(String.format("Query for [%d] referenced AORs in [%d] batches of [%d] using [%d] threads took [%s]ms, [%d] AORs returned, [%d] batches failed",
+					aorIds.size(), batches.size(), batchSize, threads, computeTimeTaken(startTime, System.nanoTime()),
+					fetched, failedBatches));
+
+			return fetched;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Resolves the SAP destination and the function metadata ahead of the
+	 * requests, then keeps the metadata refreshed in the background.
+	 */
+	public void warmUp() {
+		if (singleProfile == null || !singleProfile.getIsValid()) {
+			LOG.error("SAP profile is invalid. Skip warming up.");
+			return;
+		}
+
+		long startTime = System.nanoTime();
+
+		if (createFunctionHandler(singleProfile.getServerPrefix()).warmUp(singleProfile.getSAPHandler())) {
+			LOG.info(String.format("SAP function [%s] warmed up in [%s]ms", singleProfile.getSAPHandler(),
+					computeTimeTaken(startTime, System.nanoTime())));
+		} else {
+			LOG.warn(String.format("SAP function [%s] could not be warmed up, it will be resolved on the first call",
+					singleProfile.getSAPHandler()));
+		}
+
+		if (!simulated) {
+			JCoMetadataCache.getInstance().startRefresh(getIntProperty("jco_metadata_refresh_minutes", 60),
+					TimeUnit.MINUTES);
+		}
+	}
+
+	private int getIntProperty(String name, int defaultValue) {
+		String value = commonProp.getProperty(name, String.valueOf(defaultValue));
+		try {
+			int result = Integer.parseInt(value.trim());
+			if (result > 0) {
+				return result;
+			}
+		} catch (NumberFormatException e) {
+			// fall through to the default value
+		}
+		LOG.error(String.format("Not able to read %s, hard set to %d", name, defaultValue));
+		return defaultValue;
+	}
+
 	@Override
 	public void loadSingleProfile(Properties props) {
 		
@@ -541,6 +980,23 @@ public class SAPProvider implements Provider {
 		return isRefreshing;
 	}
 
+	@Override
+	public long getNextRetryTime() {
+		return refreshRetry.getNextAttemptTime();
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Returns the number of AORs loaded so far by the refresh in progress, or
+	 * by the last refresh.
+	 */
+	public int getRefreshedAORCount() {
+		return refreshedAORs.get();
+	}
+
 	@Override
 	public void loadProfiles(Properties props) {
 		//Skip implementation
@@ -3,10 +3,7 @@ package com.nextlabs.nxljco.sap.exporter;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-
-import com.nextlabs.nxljco.sap.AttributeExtractor;
+import com.nextlabs.common.ProviderLog;
 import com.sap.conn.jco.JCoField;
 import com.sap.conn.jco.JCoFieldIterator;
 import com.sap.conn.jco.JCoParameterList;
@@ -15,7 +12,6 @@ public class ParameterExporter implements IParameterExporter {
 
 	private IFieldExporter fieldExporter;
 	private IExportIterator exportIterator;
-	private static final Log LOG = LogFactory.getLog(AttributeExtractor.class);
 
 	@Override
 	public Map<String, Object> exportParameter(JCoParameterList jCoParameters) {
@@ -24,9 +20,11 @@ public class ParameterExporter implements IParameterExporter {
 			return new HashMap<>();
 		}
 
-		// Debug log
-		LOG.debug(jCoParameters.toXML());
-		
+		// the XML of every RFC is only rendered when a payload capture is requested
+		if (ProviderLog.isPayloadCaptured()) {
+			ProviderLog.payload("RFC parameters", jCoParameters.toXML());
+		}
+
 		// Export
 		JCoFieldIterator iterator = jCoParameters.getFieldIterator();
 		Map<String, Object> exportMap = iterateStructureSubFields(iterator);
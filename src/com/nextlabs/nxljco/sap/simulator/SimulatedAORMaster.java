@@ -0,0 +1,118 @@
+package com.nextlabs.nxljco.sap.simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.nextlabs.common.Constants;
+
+/**
+ * Generated AOR master: AOR<i>n</i> identifiers (AOR000000 to the number of
+ * AORs) with a number of values per AOR attribute, drawn among a number of
+ * distinct values per attribute. The same identifier always produces the same
+ * values, so nothing is kept in memory.
+ */
+public class SimulatedAORMaster {
+
+	public static final List<String> ATTRIBUTES = Collections.unmodifiableList(Arrays.asList(
+			Constants.EXPORT_AOR_COLUMN_STORAGE_LOCATION, Constants.EXPORT_AOR_COLUMN_WAREHOUSE_NUMBER,
+			Constants.EXPORT_AOR_COLUMN_BUSINESS_PARTNER, Constants.EXPORT_AOR_COLUMN_SHIPPING_POINT,
+			Constants.EXPORT_AOR_COLUMN_FORCE_ELEMENT));
+
+	private static final String PREFIX = "AOR";
+
+	private final int aors;
+	private final int valuesPerAOR;
+	private final int distinctValues;
+
+	/**
+	 * @param aors
+	 *            number of AORs
+	 * @param valuesPerAOR
+	 *            number of values of every AOR attribute
+	 * @param distinctValues
+	 *            number of distinct values of an AOR attribute across all
+	 *            AORs, drives the duplicate ratio
+	 */
+	public SimulatedAORMaster(int aors, int valuesPerAOR, int distinctValues) {
+		this.aors = aors;
+		this.valuesPerAOR = valuesPerAOR;
+		this.distinctValues = Math.max(1, distinctValues);
+	}
+
+	public int getAORCount() {
+		return aors;
+	}
+
+	public String aorId(int index) {
+		return String.format("%s%06d", PREFIX, index);
+	}
+
+	/**
+	 * Returns the index of the AOR, or -1 if it is not part of the master.
+	 */
+	public int indexOf(String id) {
+		if (id == null || !id.startsWith(PREFIX)) {
+			return -1;
+		}
+
+		try {
+			int index = Integer.parseInt(id.substring(PREFIX.length()));
+			return (index >= 0 && index < aors) ? index : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the values of every attribute of the AOR, or null if it is not
+	 * part of the master.
+	 */
+	public Map<String, List<String>> attributes(String id) {
+		int index = indexOf(id);
+
+		if (index < 0) {
+			return null;
+		}
+
+		Random random = new Random(-index - 1);
+		Map<String, List<String>> attributes = new LinkedHashMap<String, List<String>>();
+
+		for (String attribute : ATTRIBUTES) {
+			List<String> values = new ArrayList<String>(valuesPerAOR);
+			for (int i = 0; i < valuesPerAOR; i++) {
+				values.add(attribute.toUpperCase() + random.nextInt(distinctValues));
+			}
+			attributes.put(attribute, values);
+		}
+		return attributes;
+	}
+
+	/**
+	 * Adds the ET_AOR_DETAILS rows of the AOR (AOR_ID, KEY, VALUE), one row
+	 * per attribute value, nothing if it is not part of the master.
+	 *
+	 * @return the number of rows added
+	 */
+	public int addRows(String id, List<Object[]> rows) {
+		Map<String, List<String>> attributes = attributes(id);
+
+		if (attributes == null) {
+			return 0;
+		}
+
+		int added = 0;
+		for (Map.Entry<String, List<String>> attribute : attributes.entrySet()) {
+			String key = attribute.getKey().toUpperCase();
+			for (String value : attribute.getValue()) {
+				rows.add(new Object[] { id, key, value });
+				added++;
+			}
+		}
+		return added;
+	}
+}
@@ -0,0 +1,285 @@
+package com.nextlabs.nxljco.sap.simulator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.nextlabs.common.Constants;
+import com.nextlabs.jfr.BackendEvents;
+import com.nextlabs.nxljco.sap.AttributeExtractor;
+import com.nextlabs.nxljco.sap.IJCoFunctionHandler;
+import com.nextlabs.nxljco.sap.JCoFunctionHandler;
+import com.nextlabs.nxljco.sap.exporter.IParameterExporter;
+import com.nextlabs.nxljco.sap.exporter.ParameterExporter;
+import com.nextlabs.nxljco.sap.importer.IParameterImporter;
+import com.nextlabs.nxljco.sap.importer.ParameterImporter;
+import com.sap.conn.jco.JCoFunction;
+import com.sap.conn.jco.JCoParameterList;
+import com.sap.conn.jco.JCoTable;
+
+/**
+ * Function handler emulating ZFM_NXL_GET_AOR_ATTRS without SAP, to load test
+ * the plugin locally. It answers IT_AOR_ID lookups and IV_GET_ALL from a
+ * generated AOR master, through the same importer and exporter as
+ * JCoFunctionHandler, after an injected latency. Calls can fail with a
+ * communication error or with an error in ET_RETURN, AORs can be missing and
+ * ET_AOR_DETAILS can be truncated, at configured rates.
+ *
+ * Selected by sap_backend=simulator, configured by the sap_simulator_*
+ * properties.
+ */
+public class SimulatedJCoFunctionHandler implements IJCoFunctionHandler {
+
+	private static final Log LOG = LogFactory.getLog(SimulatedJCoFunctionHandler.class);
+
+	private final SimulatedAORMaster aorMaster;
+	private final Settings settings;
+
+	private final List<Object[]> detailRows;
+	private final List<Object[]> returnRows;
+	private JCoFunction function;
+
+	private Map<String, Object> rfcImport;
+	private Map<String, Object> rfcExport;
+
+	private IParameterImporter importer;
+	private IParameterExporter exporter;
+
+	public SimulatedJCoFunctionHandler(SimulatedAORMaster aorMaster, Settings settings) {
+		this.aorMaster = aorMaster;
+		this.settings = settings;
+		detailRows = new ArrayList<Object[]>();
+		returnRows = new ArrayList<Object[]>();
+		rfcImport = new HashMap<String, Object>();
+		rfcExport = new HashMap<String, Object>();
+		importer = new ParameterImporter();
+		exporter = new ParameterExporter();
+	}
+
+	/**
+	 * Creates a handler configured by the sap_simulator_* properties.
+	 */
+	public static SimulatedJCoFunctionHandler fromProperties(Properties props) {
+		SimulatedAORMaster aorMaster = new SimulatedAORMaster(getInt(props, "sap_simulator_aors", 10000),
+				getInt(props, "sap_simulator_values_per_aor", 5), getInt(props, "sap_simulator_distinct_values", 200));
+
+		Settings settings = new Settings();
+		settings.latencyMillis = getDouble(props, "sap_simulator_latency_ms", 20);
+		settings.latencyP99Millis = getDouble(props, "sap_simulator_latency_p99_ms", 100);
+		settings.latencyPerRowMicros = getDouble(props, "sap_simulator_latency_per_row_us", 1);
+		settings.warmUpMillis = getDouble(props, "sap_simulator_warm_up_ms", 500);
+		settings.errorRate = getDouble(props, "sap_simulator_error_rate", 0);
+		settings.returnErrorRate = getDouble(props, "sap_simulator_return_error_rate", 0);
+		settings.missingRate = getDouble(props, "sap_simulator_missing_rate", 0);
+		settings.maxRows = getInt(props, "sap_simulator_max_rows", 0);
+
+		return new SimulatedJCoFunctionHandler(aorMaster, settings);
+	}
+
+	/**
+	 * Behavior of the simulated SAP system.
+	 */
+	public static class Settings {
+		/** median latency of a call */
+		public double latencyMillis;
+		/** 99th percentile of the latency, the latency is log-normal */
+		public double latencyP99Millis;
+		/** latency added per row of ET_AOR_DETAILS */
+		public double latencyPerRowMicros;
+		/** time taken by the metadata lookup of the warm-up */
+		public double warmUpMillis;
+		/** rate of calls failing with a communication error */
+		public double errorRate;
+		/** rate of calls answering an error in ET_RETURN */
+		public double returnErrorRate;
+		/** rate of the requested AORs not found */
+		public double missingRate;
+		/** maximum number of rows of ET_AOR_DETAILS, 0 for no limit */
+		public int maxRows;
+
+		@Override
+		public String toString() {
+			return String.format("latency p50 [%.1fms] p99 [%.1fms] + [%.1fus]/row, error rate [%.3f], "
+					+ "return error rate [%.3f], missing rate [%.3f], max rows [%d]", latencyMillis, latencyP99Millis,
+					latencyPerRowMicros, errorRate, returnErrorRate, missingRate, maxRows);
+		}
+	}
+
+	@Override
+	public JCoFunction getFunction(String handler) {
+		if (function == null) {
+			function = SyntheticJCo.aorFunction(handler, detailRows, returnRows);
+		}
+		return function;
+	}
+
+	@Override
+	public boolean warmUp(String handler) {
+		pause(TimeUnit.MICROSECONDS.toNanos((long) (settings.warmUpMillis * 1000)));
+		LOG.info(String.format("Simulated SAP function [%s] with [%d] AORs, %s", handler,
+				aorMaster.getAORCount(), settings));
+		return getFunction(handler) != null;
+	}
+
+	@Override
+	public Map<String, Object> callFunction(String handler, Map<String, Object> parameters)
+			throws IOException, IllegalArgumentException {
+		if (handler == null || handler.isEmpty() || parameters == null) {
+			throw new IllegalArgumentException();
+		}
+
+		rfcImport = parameters;
+		rfcExport = new HashMap<String, Object>();
+
+		Object event = BackendEvents.getInstance().beginRfcCall();
+		boolean succeeded = false;
+
+		try {
+			execute(handler, parameters);
+			succeeded = true;
+		} finally {
+			if (event != null) {
+				BackendEvents.getInstance().endRfcCall(event, "SIMULATOR", handler,
+						JCoFunctionHandler.countRows(parameters), JCoFunctionHandler.countRows(rfcExport), succeeded);
+			}
+		}
+		return rfcExport;
+	}
+
+	private void execute(String handler, Map<String, Object> parameters) throws IOException {
+		JCoFunction function = getFunction(handler);
+		JCoParameterList imports = function.getImportParameterList();
+		importer.importParameter(parameters, imports);
+
+		Random random = ThreadLocalRandom.current();
+		detailRows.clear();
+		returnRows.clear();
+
+		if (random.nextDouble() < settings.errorRate) {
+			pause(sampleLatencyNanos(random, 0));
+			throw new IOException(String.format("Simulated communication failure calling [%s]", handler));
+		}
+
+		if (random.nextDouble() < settings.returnErrorRate) {
+			returnRows.add(new Object[] { "E", "ZNXL", "001", "Simulated error" });
+		} else if (Constants.IMPORT_AOR_GET_ALL_YES.equals(imports.getValue(Constants.IMPORT_AOR_GET_ALL))) {
+			for (int i = 0; i < aorMaster.getAORCount() && !isFull(); i++) {
+				addRows(random, aorMaster.aorId(i));
+			}
+		} else {
+			JCoTable aorTable = imports.getTable(Constants.IMPORT_AOR_ID);
+			for (int i = 0; i < aorTable.getNumRows() && !isFull(); i++) {
+				aorTable.setRow(i);
+				addRows(random, aorTable.getString(0));
+			}
+		}
+
+		pause(sampleLatencyNanos(random, detailRows.size()));
+
+		rfcExport = exporter.exportParameter(function.getExportParameterList());
+	}
+
+	@Override
+	public Object callFunctionForAttribute(String handler, Map<String, Object> parameters, String attribute)
+			throws IOException, IllegalArgumentException {
+		if (attribute == null || attribute.isEmpty()) {
+			throw new IllegalArgumentException();
+		}
+
+		return new AttributeExtractor(callFunction(handler, parameters)).extract(attribute);
+	}
+
+	@Override
+	public Map<String, Object> getRfcImport() {
+		return rfcImport;
+	}
+
+	@Override
+	public Map<String, Object> getRfcExport() {
+		return rfcExport;
+	}
+
+	@Override
+	public Map<String, Object> getRfcChanging() {
+		return new HashMap<String, Object>();
+	}
+
+	@Override
+	public Map<String, Object> getRfcTable() {
+		return new HashMap<String, Object>();
+	}
+
+	public Settings getSettings() {
+		return settings;
+	}
+
+	private void addRows(Random random, String aorId) {
+		if (settings.missingRate > 0 && random.nextDouble() < settings.missingRate) {
+			return;
+		}
+
+		aorMaster.addRows(aorId, detailRows);
+
+		// a truncated response ends in the middle of an AOR, as a capped SAP answer would
+		if (isFull()) {
+			detailRows.subList(settings.maxRows, detailRows.size()).clear();
+		}
+	}
+
+	private boolean isFull() {
+		return settings.maxRows > 0 && detailRows.size() >= settings.maxRows;
+	}
+
+	private long sampleLatencyNanos(Random random, int rows) {
+		double millis = settings.latencyMillis;
+
+		if (millis > 0 && settings.latencyP99Millis > millis) {
+			// log-normal with the median and the 99th percentile, 2.326 being the 99th percentile of N(0, 1)
+			double sigma = Math.log(settings.latencyP99Millis / millis) / 2.326;
+			millis *= Math.exp(sigma * random.nextGaussian());
+		}
+
+		return (long) (millis * 1000000 + rows * settings.latencyPerRowMicros * 1000);
+	}
+
+	private static void pause(long nanos) {
+		long deadline = System.nanoTime() + nanos;
+		long remaining = nanos;
+
+		while (remaining > 0) {
+			LockSupport.parkNanos(remaining);
+			if (Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			remaining = deadline - System.nanoTime();
+		}
+	}
+
+	private static int getInt(Properties props, String name, int defaultValue) {
+		try {
+			return Integer.parseInt(props.getProperty(name, String.valueOf(defaultValue)).trim());
+		} catch (NumberFormatException e) {
+			LOG.error(String.format("Not able to read %s, hard set to %d", name, defaultValue));
+			return defaultValue;
+		}
+	}
+
+	private static double getDouble(Properties props, String name, double defaultValue) {
+		try {
+			return Double.parseDouble(props.getProperty(name, String.valueOf(defaultValue)).trim());
+		} catch (NumberFormatException e) {
+			LOG.error(String.format("Not able to read %s, hard set to %s", name, defaultValue));
+			return defaultValue;
+		}
+	}
+}
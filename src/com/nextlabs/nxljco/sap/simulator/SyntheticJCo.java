@@ -0,0 +1,354 @@
+package com.nextlabs.nxljco.sap.simulator;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.nextlabs.common.Constants;
+import com.sap.conn.jco.JCoField;
+import com.sap.conn.jco.JCoFieldIterator;
+import com.sap.conn.jco.JCoFunction;
+import com.sap.conn.jco.JCoParameterList;
+import com.sap.conn.jco.JCoTable;
+
+/**
+ * Lightweight in-memory stand-ins for the JCo tables, parameter lists and
+ * functions, answering the calls made by the importer, the exporters and
+ * SAPProvider. They are dynamic proxies so they do not depend on the JCo
+ * version, the methods which are not answered return null, false or 0.
+ *
+ * A table keeps its rows as value arrays and hands out a field per column
+ * reading the current row, so going through the rows allocates nothing but
+ * the field iterators, as with JCo.
+ *
+ * Used by the simulated SAP backend and the benchmarks, neither needs SAP nor
+ * the JCo native library.
+ */
+public final class SyntheticJCo {
+
+	private SyntheticJCo() {
+	}
+
+	/**
+	 * Creates a table with the columns and rows. The rows are used as they
+	 * are, a row holds a value per column.
+	 */
+	public static JCoTable table(String name, String[] columns, List<Object[]> rows) {
+		return (JCoTable) proxy(JCoTable.class, new TableHandler(name, columns, rows));
+	}
+
+	/**
+	 * Creates a parameter list with the fields, a field value can be a table.
+	 */
+	public static JCoParameterList parameterList(Map<String, Object> fields) {
+		return (JCoParameterList) proxy(JCoParameterList.class, new ParameterListHandler(fields));
+	}
+
+	/**
+	 * Creates a ZFM_NXL_GET_AOR_ATTRS function returning the rows as
+	 * ET_AOR_DETAILS, whatever the imports. Its ET_RETURN is empty.
+	 */
+	public static JCoFunction aorFunction(List<Object[]> aorDetailRows) {
+		return aorFunction(Constants.DEFAULT_HANDLER, aorDetailRows, new ArrayList<Object[]>());
+	}
+
+	/**
+	 * Creates a function with the imports and exports of
+	 * ZFM_NXL_GET_AOR_ATTRS. The export tables read the lists of rows, which
+	 * can be changed between calls: ET_AOR_DETAILS rows are (AOR_ID, KEY,
+	 * VALUE), ET_RETURN rows are (TYPE, ID, NUMBER, MESSAGE).
+	 */
+	public static JCoFunction aorFunction(String name, List<Object[]> aorDetailRows, List<Object[]> returnRows) {
+		Map<String, Object> imports = new LinkedHashMap<String, Object>();
+		imports.put(Constants.IMPORT_AOR_ID,
+				table(Constants.IMPORT_AOR_ID, new String[] { Constants.EXPORT_AOR_ID }, new ArrayList<Object[]>()));
+		imports.put(Constants.IMPORT_AOR_GET_ALL, Constants.IMPORT_AOR_GET_ALL_NO);
+
+		Map<String, Object> exports = new LinkedHashMap<String, Object>();
+		exports.put(Constants.EXPORT_AOR_DETAILS, aorDetailsTable(aorDetailRows));
+		exports.put(Constants.EXPORT_BAPI_RETURN, table(Constants.EXPORT_BAPI_RETURN,
+				new String[] { Constants.EXPORT_RESPONSE_TYPE, Constants.EXPORT_RESPONSE_ID,
+						Constants.EXPORT_RESPONSE_NUMBER, Constants.EXPORT_RESPONSE_MESSAGE },
+				returnRows));
+
+		return function(name, parameterList(imports), parameterList(exports));
+	}
+
+	public static JCoTable aorDetailsTable(List<Object[]> rows) {
+		return table(Constants.EXPORT_AOR_DETAILS,
+				new String[] { Constants.EXPORT_AOR_ID, Constants.EXPORT_AOR_KEY, Constants.EXPORT_AOR_VALUE }, rows);
+	}
+
+	/**
+	 * Creates a function with the import and export parameter lists, its
+	 * execution does nothing.
+	 */
+	public static JCoFunction function(final String name, final JCoParameterList imports,
+			final JCoParameterList exports) {
+		return (JCoFunction) proxy(JCoFunction.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "getName":
+					return name;
+				case "getImportParameterList":
+					return imports;
+				case "getExportParameterList":
+					return exports;
+				default:
+					return defaultValue(proxy, method, args);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the value of a method which is not answered.
+	 */
+	static Object defaultValue(Object proxy, Method method, Object[] args) {
+		switch (method.getName()) {
+		case "hashCode":
+			return System.identityHashCode(proxy);
+		case "equals":
+			return proxy == args[0];
+		case "toString":
+			return "Synthetic " + method.getDeclaringClass().getSimpleName();
+		default:
+			Class<?> type = method.getReturnType();
+			if (type == boolean.class) {
+				return false;
+			} else if (type == int.class) {
+				return 0;
+			} else if (type == long.class) {
+				return 0L;
+			}
+			return null;
+		}
+	}
+
+	private static Object proxy(Class<?> type, InvocationHandler handler) {
+		return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler);
+	}
+
+	private static JCoFieldIterator iterator(final JCoField[] fields) {
+		return (JCoFieldIterator) proxy(JCoFieldIterator.class, new InvocationHandler() {
+			private int next;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch (method.getName()) {
+				case "hasNextField":
+					return next < fields.length;
+				case "nextField":
+					return fields[next++];
+				default:
+					return defaultValue(proxy, method, args);
+				}
+			}
+		});
+	}
+
+	private static void appendXML(StringBuilder xml, String name, Object value) {
+		xml.append('<').append(name).append('>');
+		if (value != null) {
+			xml.append(value);
+		}
+		xml.append("</").append(name).append('>');
+	}
+
+	private static final class TableHandler implements InvocationHandler {
+		private final String name;
+		private final String[] columns;
+		private final List<Object[]> rows;
+		private final JCoField[] fields;
+		private int row;
+
+		private TableHandler(String name, String[] columns, List<Object[]> rows) {
+			this.name = name;
+			this.columns = columns;
+			this.rows = rows;
+
+			fields = new JCoField[columns.length];
+			for (int i = 0; i < columns.length; i++) {
+				fields[i] = (JCoField) proxy(JCoField.class, new ColumnHandler(this, i));
+			}
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			switch (method.getName()) {
+			case "getNumRows":
+				return rows.size();
+			case "isEmpty":
+				return rows.isEmpty();
+			case "firstRow":
+				row = 0;
+				return null;
+			case "nextRow":
+				return ++row < rows.size();
+			case "isLastRow":
+				return row >= rows.size() - 1;
+			case "setRow":
+				row = (Integer) args[0];
+				return null;
+			case "getRow":
+				return row;
+			case "clear":
+				rows.clear();
+				row = 0;
+				return null;
+			case "appendRow":
+				rows.add(new Object[columns.length]);
+				row = rows.size() - 1;
+				return null;
+			case "getFieldCount":
+				return columns.length;
+			case "getFieldIterator":
+				return iterator(fields);
+			case "setValue":
+				rows.get(row)[column(args[0])] = args[1];
+				return null;
+			case "getValue":
+				return value(column(args[0]));
+			case "getString":
+				Object value = value(column(args[0]));
+				return (value == null) ? null : value.toString();
+			case "toXML":
+				StringBuilder xml = new StringBuilder();
+				appendXML(xml);
+				return xml.toString();
+			default:
+				return defaultValue(proxy, method, args);
+			}
+		}
+
+		private Object value(int column) {
+			return rows.get(row)[column];
+		}
+
+		private int column(Object nameOrIndex) {
+			if (nameOrIndex instanceof Integer) {
+				return (Integer) nameOrIndex;
+			}
+			for (int i = 0; i < columns.length; i++) {
+				if (columns[i].equals(nameOrIndex)) {
+					return i;
+				}
+			}
+			throw new IllegalArgumentException(String.format("Field [%s] does not exist in table [%s]", nameOrIndex,
+					name));
+		}
+
+		private void appendXML(StringBuilder xml) {
+			xml.append('<').append(name).append('>');
+			for (Object[] values : rows) {
+				xml.append("<item>");
+				for (int i = 0; i < columns.length; i++) {
+					SyntheticJCo.appendXML(xml, columns[i], values[i]);
+				}
+				xml.append("</item>");
+			}
+			xml.append("</").append(name).append('>');
+		}
+	}
+
+	private static final class ColumnHandler implements InvocationHandler {
+		private final TableHandler table;
+		private final int column;
+
+		private ColumnHandler(TableHandler table, int column) {
+			this.table = table;
+			this.column = column;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			switch (method.getName()) {
+			case "getName":
+				return table.columns[column];
+			case "getValue":
+				return table.value(column);
+			case "getString":
+				Object value = table.value(column);
+				return (value == null) ? null : value.toString();
+			case "isTable":
+			case "isStructure":
+				return false;
+			default:
+				return defaultValue(proxy, method, args);
+			}
+		}
+	}
+
+	private static final class ParameterListHandler implements InvocationHandler {
+		private final Map<String, Object> values;
+
+		private ParameterListHandler(Map<String, Object> values) {
+			this.values = values;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			switch (method.getName()) {
+			case "getFieldCount":
+				return values.size();
+			case "getFieldIterator":
+				List<JCoField> fields = new ArrayList<JCoField>(values.size());
+				for (String name : values.keySet()) {
+					fields.add(field(name));
+				}
+				return iterator(fields.toArray(new JCoField[0]));
+			case "getTable":
+				return values.get(args[0]);
+			case "getValue":
+				return values.get(args[0]);
+			case "setValue":
+				// a table is filled through getTable, as JCo does not replace it
+				if (!(values.get(args[0]) instanceof JCoTable)) {
+					values.put((String) args[0], args[1]);
+				}
+				return null;
+			case "toXML":
+				StringBuilder xml = new StringBuilder("<PARAMETERS>");
+				for (Map.Entry<String, Object> entry : values.entrySet()) {
+					if (entry.getValue() instanceof JCoTable) {
+						xml.append(((JCoTable) entry.getValue()).toXML());
+					} else {
+						appendXML(xml, entry.getKey(), entry.getValue());
+					}
+				}
+				return xml.append("</PARAMETERS>").toString();
+			default:
+				return defaultValue(proxy, method, args);
+			}
+		}
+
+		private JCoField field(final String name) {
+			final Object value = values.get(name);
+
+			return (JCoField) proxy(JCoField.class, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					switch (method.getName()) {
+					case "getName":
+						return name;
+					case "getValue":
+						return value;
+					case "getTable":
+						return (value instanceof JCoTable) ? value : null;
+					case "isTable":
+						return value instanceof JCoTable;
+					case "isStructure":
+						return false;
+					default:
+						return defaultValue(proxy, method, args);
+					}
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,397 @@
+package com.nextlabs.provider;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.nextlabs.cache.CacheCounters;
+import com.nextlabs.cache.CacheEngine;
+import com.nextlabs.common.CircuitBreaker;
+import com.nextlabs.common.LatencyHistogram;
+import com.nextlabs.common.ProviderLog;
+import com.nextlabs.common.RequestMetrics;
+import com.nextlabs.ldap.LdapProvider;
+import com.nextlabs.nxljco.sap.RfcCaptureBuffer;
+import com.nextlabs.nxljco.sap.SAPProvider;
+import com.nextlabs.task.RefreshScheduler;
+import com.nextlabs.task.WarmUpTask;
+
+/**
+ * JMX view of the request latencies and of the cache counters, registered as
+ * com.nextlabs:type=ServerUserAttributeProvider,name=Statistics. Attributes:
+ * <ul>
+ * <li>&lt;Stage&gt;LatencyCount: number of times the stage ran since the
+ * start or the last reset</li>
+ * <li>&lt;Stage&gt;Latency{Mean,P50,P99,P999,Max}Micros: latencies of the
+ * stage over the last one to two windows</li>
+ * <li>{UserCache,AorCache}{Hits,Misses,HitRatio,Evictions,Expirations}:
+ * counters of the cache regions</li>
+ * <li>WarmUpState: state of the cache warm-up, Ready: true once the caches
+ * are warmed up</li>
+ * <li>Breaker[&lt;backend&gt;]{State,OpenedCount,RejectedCount,FailureCount}:
+ * circuit breaker of the backend, SAP or LDAP &lt;domain&gt;, listed once the
+ * backend is called</li>
+ * </ul>
+ * where Stage is one of UserCache, LdapQuery, AorCache, RfcCall, Assembly and
+ * Total. The reset operation resets the latencies and the counters, the
+ * capturePayloads operation writes the next RFC payloads to the
+ * com.nextlabs.payload logger and the dumpRfcCaptures operation returns the
+ * summaries of the last RFC calls. The triggerRefresh operation runs a refresh
+ * job (aor-full, aor-referenced, ldap-full or ldap-delta) now and the
+ * refreshHistory operation returns the last runs of a job.
+ */
+public class ProviderStatistics implements DynamicMBean {
+
+	private static final Log LOG = LogFactory.getLog(ProviderStatistics.class);
+
+	public static final String OBJECT_NAME = "com.nextlabs:type=ServerUserAttributeProvider,name=Statistics";
+
+	private static final String LATENCY = "Latency";
+	private static final String[] LATENCY_SUFFIXES = { "Count", "MeanMicros", "P50Micros", "P99Micros",
+			"P999Micros", "MaxMicros" };
+	private static final String[] COUNTER_SUFFIXES = { "Hits", "Misses", "HitRatio", "Evictions", "Expirations" };
+	private static final String USER_CACHE = "UserCache";
+	private static final String AOR_CACHE = "AorCache";
+	private static final String WARM_UP_STATE = "WarmUpState";
+	private static final String READY = "Ready";
+	private static final String BREAKER = "Breaker[";
+	private static final String[] BREAKER_SUFFIXES = { "State", "OpenedCount", "RejectedCount", "FailureCount" };
+
+	private final RequestMetrics metrics;
+	private final CacheEngine engine;
+	private volatile WarmUpTask warmUpTask;
+	private volatile RefreshScheduler refreshScheduler;
+
+	public ProviderStatistics(RequestMetrics metrics, CacheEngine engine) {
+		this.metrics = metrics;
+		this.engine = engine;
+	}
+
+	/**
+	 * Registers the statistics with the platform MBean server, replacing the
+	 * statistics of a previous instance of the plugin.
+	 */
+	public static void register(ProviderStatistics statistics) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(statistics, name);
+			LOG.info(String.format("Statistics registered as [%s]", OBJECT_NAME));
+		} catch (JMException e) {
+			LOG.error("Not able to register the statistics, they are not available through JMX", e);
+		}
+	}
+
+	public void setWarmUpTask(WarmUpTask warmUpTask) {
+		this.warmUpTask = warmUpTask;
+	}
+
+	public void setRefreshScheduler(RefreshScheduler refreshScheduler) {
+		this.refreshScheduler = refreshScheduler;
+	}
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		if (attribute.equals(WARM_UP_STATE)) {
+			WarmUpTask task = warmUpTask;
+			return (task == null) ? WarmUpTask.State.PENDING.name() : task.getState().name();
+		} else if (attribute.equals(READY)) {
+			WarmUpTask task = warmUpTask;
+			return task != null && task.isReady();
+		}
+
+		for (RequestMetrics.Stage stage : RequestMetrics.Stage.values()) {
+			String prefix = stage.getLabel() + LATENCY;
+
+			if (attribute.startsWith(prefix)) {
+				String suffix = attribute.substring(prefix.length());
+
+				if (suffix.equals("Count")) {
+					return metrics.getCumulative(stage).getCount();
+				}
+
+				LatencyHistogram recent = metrics.getRecent(stage);
+
+				if (suffix.equals("MeanMicros")) {
+					return recent.getMeanNanos() / 1000;
+				} else if (suffix.equals("P50Micros")) {
+					return recent.getValueAtPercentile(50) / 1000.0;
+				} else if (suffix.equals("P99Micros")) {
+					return recent.getValueAtPercentile(99) / 1000.0;
+				} else if (suffix.equals("P999Micros")) {
+					return recent.getValueAtPercentile(99.9) / 1000.0;
+				} else if (suffix.equals("MaxMicros")) {
+					return recent.getMaxNanos() / 1000.0;
+				}
+			}
+		}
+
+		if (attribute.startsWith(BREAKER)) {
+			int end = attribute.indexOf(']');
+			CircuitBreaker breaker = (end < 0) ? null
+					: getCircuitBreakers().get(attribute.substring(BREAKER.length(), end));
+
+			if (breaker != null) {
+				return getBreakerValue(breaker, attribute.substring(end + 1), attribute);
+			}
+		}
+
+		if (attribute.startsWith(USER_CACHE)) {
+			return getCounter(engine.getUserCounters(), attribute.substring(USER_CACHE.length()), attribute);
+		} else if (attribute.startsWith(AOR_CACHE)) {
+			return getCounter(engine.getAorCounters(), attribute.substring(AOR_CACHE.length()), attribute);
+		}
+
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	private static Object getCounter(CacheCounters counters, String suffix, String attribute)
+			throws AttributeNotFoundException {
+		if (suffix.equals("Hits")) {
+			return counters.getHits();
+		} else if (suffix.equals("Misses")) {
+			return counters.getMisses();
+		} else if (suffix.equals("HitRatio")) {
+			return counters.getHitRatio();
+		} else if (suffix.equals("Evictions")) {
+			return counters.getEvictions();
+		} else if (suffix.equals("Expirations")) {
+			return counters.getExpirations();
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	private static Object getBreakerValue(CircuitBreaker breaker, String suffix, String attribute)
+			throws AttributeNotFoundException {
+		if (suffix.equals("State")) {
+			return breaker.getState().name();
+		} else if (suffix.equals("OpenedCount")) {
+			return breaker.getOpenedCount();
+		} else if (suffix.equals("RejectedCount")) {
+			return breaker.getRejectedCount();
+		} else if (suffix.equals("FailureCount")) {
+			return breaker.getFailureCount();
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	/**
+	 * Returns the circuit breakers of the backends by name, the breaker of an
+	 * LDAP domain is only created once the domain is called.
+	 */
+	private static Map<String, CircuitBreaker> getCircuitBreakers() {
+		Map<String, CircuitBreaker> breakers = new TreeMap<String, CircuitBreaker>();
+
+		CircuitBreaker sap = SAPProvider.getInstance().getCircuitBreaker();
+		breakers.put(sap.getName(), sap);
+
+		for (CircuitBreaker breaker : LdapProvider.getInstance().getCircuitBreakers()) {
+			breakers.put(breaker.getName(), breaker);
+		}
+		return breakers;
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException e) {
+				// attributes not found are left out of the list
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException(String.format("[%s] is read only", attribute.getName()));
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature)
+			throws MBeanException, ReflectionException {
+		if (actionName.equals("reset")) {
+			reset();
+			return null;
+		} else if (actionName.equals("capturePayloads") && params != null && params.length == 1
+				&& params[0] instanceof Integer) {
+			ProviderLog.capturePayloads((Integer) params[0]);
+			LOG.info(String.format("Capturing the next [%d] RFC payloads", params[0]));
+			return null;
+		} else if (actionName.equals("dumpRfcCaptures")) {
+			return dumpRfcCaptures();
+		} else if (actionName.equals("triggerRefresh") && params != null && params.length == 1
+				&& params[0] instanceof String) {
+			return triggerRefresh((String) params[0]);
+		} else if (actionName.equals("refreshHistory") && params != null && params.length == 1
+				&& params[0] instanceof String) {
+			return refreshHistory((String) params[0]);
+		}
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	/**
+	 * Resets the latencies and the cache counters.
+	 */
+	public void reset() {
+		metrics.reset();
+		engine.getUserCounters().reset();
+		engine.getAorCounters().reset();
+		LOG.info("Statistics reset");
+	}
+
+	/**
+	 * Returns the summaries of the last RFC calls.
+	 */
+	public String dumpRfcCaptures() {
+		RfcCaptureBuffer capture = SAPProvider.getInstance().getRfcCapture();
+
+		if (capture == null) {
+			return "RFC calls are not captured, set rfc_capture_size to capture them";
+		}
+		return capture.dump();
+	}
+
+	/**
+	 * Runs a refresh job now, in the background.
+	 *
+	 * @return false if the job does not exist, the jobs are not scheduled yet
+	 *         or the provider of the job is refreshing
+	 */
+	public boolean triggerRefresh(String job) {
+		RefreshScheduler scheduler = refreshScheduler;
+		return scheduler != null && scheduler.trigger(job);
+	}
+
+	/**
+	 * Returns the last runs of a refresh job, oldest first, one per line.
+	 */
+	public String refreshHistory(String job) {
+		RefreshScheduler scheduler = refreshScheduler;
+
+		if (scheduler == null) {
+			return "The refresh jobs are not created yet";
+		}
+
+		if (!scheduler.getJobNames().contains(job)) {
+			return String.format("Refresh job [%s] does not exist, the jobs are %s", job, scheduler.getJobNames());
+		}
+
+		StringBuilder history = new StringBuilder();
+		for (RefreshScheduler.RunRecord record : scheduler.getHistory(job)) {
+			history.append(record).append('\n');
+		}
+
+		long nextRunTime = scheduler.getNextRunTime(job);
+		history.append((nextRunTime == 0) ? String.format("Refresh job [%s] only runs on demand", job)
+				: String.format("Next run of refresh job [%s] at [%s]", job, new Date(nextRunTime)));
+		return history.toString();
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		// built on every call, the breaker of an LDAP domain is only listed once the domain is called
+		return createInfo();
+	}
+
+	private MBeanInfo createInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+
+		for (RequestMetrics.Stage stage : RequestMetrics.Stage.values()) {
+			for (String suffix : LATENCY_SUFFIXES) {
+				boolean count = suffix.equals("Count");
+				attributes.add(new MBeanAttributeInfo(stage.getLabel() + LATENCY + suffix,
+						count ? Long.class.getName() : Double.class.getName(),
+						count ? String.format("Number of %s stages since the start or the last reset", stage.getLabel())
+								: String.format("%s of the %s stage over the last %d seconds, in microseconds", suffix,
+										stage.getLabel(), metrics.getWindowNanos() / 1000000000L),
+						true, false, false));
+			}
+		}
+
+		for (String region : new String[] { USER_CACHE, AOR_CACHE }) {
+			for (String suffix : COUNTER_SUFFIXES) {
+				boolean ratio = suffix.equals("HitRatio");
+				attributes.add(new MBeanAttributeInfo(region + suffix,
+						ratio ? Double.class.getName() : Long.class.getName(),
+						String.format("%s of the %s region", suffix, region), true, false, false));
+			}
+		}
+
+		attributes.add(new MBeanAttributeInfo(WARM_UP_STATE, String.class.getName(),
+				"State of the cache warm-up, PENDING, WARMING_UP, RETRYING, READY or FAILED", true, false, false));
+		attributes.add(new MBeanAttributeInfo(READY, Boolean.class.getName(),
+				"True once the caches are warmed up, requests are served by on-demand lookups until then", true, false,
+				true));
+
+		for (String backend : getCircuitBreakers().keySet()) {
+			for (String suffix : BREAKER_SUFFIXES) {
+				boolean state = suffix.equals("State");
+				attributes.add(new MBeanAttributeInfo(BREAKER + backend + "]" + suffix,
+						state ? String.class.getName() : Long.class.getName(),
+						state ? String.format("State of the circuit breaker of %s, CLOSED, OPEN or HALF_OPEN", backend)
+								: String.format("%s of the circuit breaker of %s", suffix, backend),
+						true, false, false));
+			}
+		}
+
+		MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Resets the latencies and the cache counters",
+				null, "void", MBeanOperationInfo.ACTION);
+
+		MBeanOperationInfo capturePayloads = new MBeanOperationInfo("capturePayloads",
+				"Writes the next RFC payloads to the com.nextlabs.payload logger",
+				new MBeanParameterInfo[] {
+						new MBeanParameterInfo("count", "int", "Number of parameter lists to capture") },
+				"void", MBeanOperationInfo.ACTION);
+
+		MBeanOperationInfo dumpRfcCaptures = new MBeanOperationInfo("dumpRfcCaptures",
+				"Returns the summaries of the last RFC calls", null, String.class.getName(), MBeanOperationInfo.INFO);
+
+		MBeanParameterInfo[] job = new MBeanParameterInfo[] { new MBeanParameterInfo("job", String.class.getName(),
+				"Refresh job, aor-full, aor-referenced, ldap-full or ldap-delta") };
+
+		MBeanOperationInfo triggerRefresh = new MBeanOperationInfo("triggerRefresh",
+				"Runs a refresh job now, false if it cannot run now", job, Boolean.class.getName(),
+				MBeanOperationInfo.ACTION);
+
+		MBeanOperationInfo refreshHistory = new MBeanOperationInfo("refreshHistory",
+				"Returns the last runs of a refresh job", job, String.class.getName(), MBeanOperationInfo.INFO);
+
+		return new MBeanInfo(getClass().getName(), "Request latencies and cache counters of the plugin",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+				new MBeanOperationInfo[] { reset, capturePayloads, dumpRfcCaptures, triggerRefresh, refreshHistory },
+				null);
+	}
+}
@@ -1,21 +1,18 @@
 package com.nextlabs.provider;
 
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 
 import com.bluejungle.framework.expressions.EvalValue;
 import com.bluejungle.framework.expressions.IEvalValue;
@@ -28,27 +25,40 @@ import com.bluejungle.pf.domain.destiny.subject.IDSubject;
 import com.bluejungle.pf.domain.destiny.subject.Subject;
 import com.bluejungle.pf.domain.destiny.subject.SubjectType;
 import com.nextlabs.cache.CacheEngine;
+import com.nextlabs.cache.SubjectAttributeCache;
 import com.nextlabs.common.Constants;
 import com.nextlabs.common.PropertyLoader;
 import com.nextlabs.common.Provider;
+import com.nextlabs.common.ProviderLog;
+import com.nextlabs.common.RequestCapture;
+import com.nextlabs.common.RequestMetrics;
 import com.nextlabs.common.SAPObject;
 import com.nextlabs.common.UserObject;
-import com.nextlabs.common.Util;
 import com.nextlabs.ldap.LdapProvider;
 import com.nextlabs.nxljco.sap.SAPProvider;
-import com.nextlabs.task.RefreshTask;
+import com.nextlabs.task.RefreshSchedule;
+import com.nextlabs.task.RefreshScheduler;
+import com.nextlabs.task.WarmUpTask;
 
 public class UserAttributeProvider implements IHeartbeatServiceProvider,
 		ISubjectAttributeProvider {
-	private static final Log LOG = LogFactory.getLog(UserAttributeProvider.class);
+	private static final ProviderLog LOG = ProviderLog.getLog(UserAttributeProvider.class);
 	private Properties PLUGIN_PROPS;
 	private final String CLIENT_PROPS_FILE = "jservice/config/ServerUserAttributeProvider.properties";
 	private IEvalValue nullReturn;
 	CacheEngine engine;
 	Provider ldapProvider;
 	Provider sapProvider;
+	private WarmUpTask warmUpTask;
+	private RefreshScheduler scheduler;
+	private RequestCapture requestCapture;
+	private RequestMetrics metrics;
+	public static final String JOB_AOR_FULL = "aor-full";
+	public static final String JOB_LDAP_FULL = "ldap-full";
+	public static final String JOB_LDAP_DELTA = "ldap-delta";
+	public static final String JOB_AOR_REFERENCED = "aor-referenced";
 	private static String LOG_EMPTY_EMPLOYEE_NUMBER = "Incoming request for [%s] without employee ID, ignore and return null";
-	private static String LOG_INCOMING_REUQEST = "Incoming request from SAP with sapID [%s] and employeeNumber [%s]";
+	private static String LOG_INCOMING_REUQEST = "Incoming request from SAP with sapID [%s] and employeeNumber [%s] for attribute [%s]";
 	private static String LOG_USER_CACHE_MISSED = "Cache missed for USER [%s]. Attempt to query...";
 	private static String LOG_USER_ATTRIBUTE_NEEDED = "Attribute [%s] is needed from IAM-LDAP";
 	private static String LOG_SAP_ATTRIBUTE_NEEDED = "Attribute [%s] is needed from SAP AOR master";
@@ -58,11 +68,21 @@ public class UserAttributeProvider implements IHeartbeatServiceProvider,
 	private static String LOG_TIME_TAKEN = "Time Taken: %sms";
 
 
-	/*
-	 * public UserAttributeProvider(Properties props, CacheEngine engine,
-	 * Provider provider, int refreshPeriod) { PLUGIN_PROPS = props; this.engine
-	 * = engine; this.provider = provider; this.refreshPeriod = 3; }
+	public UserAttributeProvider() {
+		metrics = new RequestMetrics(true, RequestMetrics.DEFAULT_WINDOW_NANOS);
+	}
+
+	/**
+	 * Creates a provider on the given cache and backends, without reading the
+	 * plugin properties or starting the refresh. Used by the benchmarks.
 	 */
+	public UserAttributeProvider(CacheEngine engine, Provider ldapProvider, Provider sapProvider) {
+		this.engine = engine;
+		this.ldapProvider = ldapProvider;
+		this.sapProvider = sapProvider;
+		nullReturn = EvalValue.NULL;
+		metrics = new RequestMetrics(true, RequestMetrics.DEFAULT_WINDOW_NANOS);
+	}
 
 	public void init() {
 		long startTime = System.nanoTime();
@@ -96,13 +116,40 @@ public class UserAttributeProvider implements IHeartbeatServiceProvider,
 		sapProvider.setCommonProperties(PLUGIN_PROPS);
 		sapProvider.setIsSingleProfile(true);
 		sapProvider.loadSingleProfile(PLUGIN_PROPS);
+
+		if (sapProvider.getProfile() != null) {
+			engine.getAorAttributeView().setAttributes(sapProvider.getProfile().getAORAttributesToPull());
+		}
+
+		requestCapture = openRequestCapture();
+
+		ProviderLog.configure(PLUGIN_PROPS);
+
+		metrics = createMetrics();
+		ProviderStatistics statistics = new ProviderStatistics(metrics, engine);
+		ProviderStatistics.register(statistics);
 				
 		try {
-			
-			if(PLUGIN_PROPS.getProperty("aor_expired_mode","purge").equals("purge")) {
-				LOG.info("Schedule timer for purging AOR cache");
-				sapProvider.refreshCache();
-				scheduleTimer();
+			scheduler = createScheduler();
+
+			// the refresh jobs are scheduled once the cache is loaded
+			Runnable followUp = new Runnable() {
+				@Override
+				public void run() {
+					scheduler.start();
+				}
+			};
+
+			// the JCo metadata is always warmed up, the AOR cache only in purge mode
+			warmUpTask = new WarmUpTask(SAPProvider.getInstance(),
+					PLUGIN_PROPS.getProperty("aor_expired_mode", "purge").equals("purge"), followUp);
+			statistics.setWarmUpTask(warmUpTask);
+			statistics.setRefreshScheduler(scheduler);
+
+			if (PLUGIN_PROPS.getProperty("async_init", "true").equalsIgnoreCase("true")) {
+				warmUpTask.start();
+			} else {
+				warmUpTask.run();
 			}
 		} catch (Exception e) {
 			LOG.error(e.getMessage(), e);
@@ -112,81 +159,180 @@ public class UserAttributeProvider implements IHeartbeatServiceProvider,
 		LOG.info(String.format(LOG_TIME_TAKEN,computeTimeTaken(startTime, System.nanoTime())));
 	}
 
-	private void scheduleTimer() {
-
-		String pattern = "HH:mm";
-
-		String formattedDate = PLUGIN_PROPS.getProperty("aor_purge_time");
+	/**
+	 * Opens the capture of the requests set by request_capture_file, replayed
+	 * by the RequestReplay tool. The capture is closed when the JVM stops.
+	 *
+	 * @return the capture, or null if the requests are not captured
+	 */
+	private RequestCapture openRequestCapture() {
+		String file = PLUGIN_PROPS.getProperty("request_capture_file", "").trim();
 
-		Date scheduleTime = null;
-		
-		Calendar scheduleCal = Calendar.getInstance();
+		if (file.isEmpty()) {
+			return null;
+		}
 
-		if (formattedDate == null) {
-			LOG.warn("aor_purge_time is not set. Cache refresh process will be started immediately");
-		} else {	
-			try {
-				scheduleTime = new SimpleDateFormat(pattern).parse(formattedDate);
-				scheduleCal.setTime(scheduleTime);
-			} catch (Exception e) {
-				LOG.error("Cannot parse aor_purge_time. Cache refresh process will be started immediately", e);
-			}
+		long maxMB = 100;
+		try {
+			maxMB = Long.parseLong(PLUGIN_PROPS.getProperty("request_capture_max_mb", "100").trim());
+		} catch (NumberFormatException e) {
+			LOG.error("Not able to read request_capture_max_mb, hard set to 100");
 		}
 
-		String refreshPeriodString = "1_DAYS";
+		try {
+			final RequestCapture capture = new RequestCapture(new FileOutputStream(file), maxMB * 1024 * 1024);
+
+			Runtime.getRuntime().addShutdownHook(new Thread("request-capture-close") {
+				@Override
+				public void run() {
+					try {
+						capture.close();
+					} catch (IOException e) {
+						LOG.error(e.getMessage(), e);
+					}
+				}
+			});
 
-		TimeUnit unit = TimeUnit.MILLISECONDS;
-		int refreshPeriod;
+			LOG.warn(String.format("Requests are captured to [%s], up to [%d] MB", file, maxMB));
+			return capture;
+		} catch (IOException e) {
+			LOG.error(String.format("Not able to open the request capture [%s], requests are not captured", file), e);
+			return null;
+		}
+	}
 
-		String[] temp = refreshPeriodString.split("_");
+	private RequestMetrics createMetrics() {
+		boolean enabled = PLUGIN_PROPS.getProperty("request_metrics_enabled", "true").trim().equalsIgnoreCase("true");
+		int windowSeconds = 60;
 
 		try {
-			refreshPeriod = Integer.parseInt(temp[0]);
-		} catch (IllegalArgumentException e) {
-			LOG.error("Invalid cache_refresh_period value(s), resetting to 1_DAYS", e);
-			refreshPeriod = 1000 * 60 * 60 * 24;
+			windowSeconds = Integer.parseInt(PLUGIN_PROPS.getProperty("request_metrics_window_seconds", "60").trim());
+		} catch (NumberFormatException e) {
+			LOG.error("Not able to read request_metrics_window_seconds, hard set to 60");
 		}
 
+		return new RequestMetrics(enabled, TimeUnit.SECONDS.toNanos(Math.max(1, windowSeconds)));
+	}
+
+	/**
+	 * Returns the latencies of the stages of the requests.
+	 */
+	public RequestMetrics getMetrics() {
+		return metrics;
+	}
+
+	private RefreshScheduler createScheduler() {
+		int historySize = RefreshScheduler.DEFAULT_HISTORY_SIZE;
+
 		try {
-			switch (temp[1]) {
-			case "SECS":
-				refreshPeriod = refreshPeriod * 1000;	
-				break;
-			case "MINS":
-				refreshPeriod = refreshPeriod * 1000 * 60;
-				break;
-			case "HRS":
-				refreshPeriod = refreshPeriod * 1000 * 60 * 60;
-				break;
-			case "DAYS":
-				refreshPeriod = refreshPeriod * 1000 * 60 * 60 * 24;
-				break;
-			default:
-			}
-		} catch (Exception ex) {
-			LOG.error("Invalid cache_refresh_period unit, resetting to DAYS", ex);
-			refreshPeriod = refreshPeriod * 1000 * 60 * 60 * 24;
+			historySize = Integer.parseInt(PLUGIN_PROPS.getProperty("refresh_history_size",
+					String.valueOf(RefreshScheduler.DEFAULT_HISTORY_SIZE)).trim());
+		} catch (NumberFormatException e) {
+			LOG.error(String.format("Not able to read refresh_history_size, hard set to %d",
+					RefreshScheduler.DEFAULT_HISTORY_SIZE));
 		}
 
-		if (scheduleTime != null) {
-			LOG.info(String.format("Cache refresh period is set as [%s]", Util.getDurationBreakdown(refreshPeriod)));
+		RefreshScheduler refreshScheduler = new RefreshScheduler(historySize);
+
+		final SAPProvider sap = SAPProvider.getInstance();
+		final LdapProvider ldap = LdapProvider.getInstance();
+
+		// in purge mode the AOR cache is reloaded daily at aor_purge_time unless scheduled otherwise
+		boolean purge = PLUGIN_PROPS.getProperty("aor_expired_mode", "purge").equals("purge");
+		String purgeTime = PLUGIN_PROPS.getProperty("aor_purge_time", "").trim();
+		RefreshSchedule aorSchedule = readSchedule("aor_refresh",
+				purge ? (purgeTime.isEmpty() ? "1_DAYS" : purgeTime) : "off");
+
+		if (aorSchedule != null && purge && purgeTime.isEmpty()
+				&& PLUGIN_PROPS.getProperty("aor_refresh_schedule") == null) {
+			LOG.warn("aor_purge_time is not set. Cache refresh process will be started immediately");
+			aorSchedule = aorSchedule.startingNow();
 		}
-		
-		Long startTime = 0L;
-		
-		if (LocalDateTime.now().getHour() <= scheduleCal.get(Calendar.HOUR_OF_DAY)) {
-			startTime=LocalDateTime.now().until(LocalDate.now().plusDays(0).atTime(scheduleCal.get(Calendar.HOUR_OF_DAY), scheduleCal.get(Calendar.MINUTE)), ChronoUnit.MILLIS) + System.currentTimeMillis();
+
+		refreshScheduler.addJob(JOB_AOR_FULL, "SAP", aorSchedule, new RefreshScheduler.Action() {
+			@Override
+			public long run() {
+				if (!sap.refreshCache()) {
+					throw refreshFailed(sap);
+				}
+				return sap.getRefreshedAORCount();
+			}
+		});
+
+		// in referenced mode the AORs newly referenced by cached users are fetched ahead of the next reload
+		String referencedSchedule = PLUGIN_PROPS.getProperty("aor_expired_mode", "purge").equals("purge")
+				&& sap.isReferencedMode() ? "5_MINS" : "off";
+
+		refreshScheduler.addJob(JOB_AOR_REFERENCED, "SAP", readSchedule("aor_referenced_fetch", referencedSchedule),
+				new RefreshScheduler.Action() {
+					@Override
+					public long run() throws Exception {
+						return sap.fetchNewlyReferencedAORs();
+					}
+				});
+
+		refreshScheduler.addJob(JOB_LDAP_FULL, "LDAP", readSchedule("ldap_refresh", "off"),
+				new RefreshScheduler.Action() {
+					@Override
+					public long run() {
+						if (!ldap.refreshCache()) {
+							throw refreshFailed(ldap);
+						}
+						return ldap.getRefreshedCount();
+					}
+				});
+
+		refreshScheduler.addJob(JOB_LDAP_DELTA, "LDAP", readSchedule("ldap_delta_refresh", "off"),
+				new RefreshScheduler.Action() {
+					@Override
+					public long run() {
+						if (!ldap.refreshChangedCache()) {
+							throw refreshFailed(ldap);
+						}
+						return ldap.getRefreshedCount();
+					}
+				});
+
+		return refreshScheduler;
+	}
+
+	/**
+	 * Reads the schedule of a job from &lt;prefix&gt;_schedule and
+	 * &lt;prefix&gt;_jitter.
+	 *
+	 * @return the schedule, or null if the job only runs on demand
+	 */
+	private RefreshSchedule readSchedule(String prefix, String defaultSchedule) {
+		try {
+			return RefreshSchedule.parse(PLUGIN_PROPS.getProperty(prefix + "_schedule", defaultSchedule),
+					PLUGIN_PROPS.getProperty(prefix + "_jitter"));
+		} catch (IllegalArgumentException e) {
+			LOG.error(String.format("Not able to read %s_schedule or %s_jitter, the job only runs on demand", prefix,
+					prefix), e);
+			return null;
 		}
-		else {
-			startTime=LocalDateTime.now().until(LocalDate.now().plusDays(1).atTime(scheduleCal.get(Calendar.HOUR_OF_DAY), scheduleCal.get(Calendar.MINUTE)), ChronoUnit.MILLIS) + System.currentTimeMillis();;
+	}
+
+	// a failed refresh schedules a retry unless the retries are exhausted, the run is recorded as failed
+	private static IllegalStateException refreshFailed(Provider provider) {
+		long nextRetry = provider.getNextRetryTime();
+
+		if (nextRetry == 0) {
+			return new IllegalStateException("Refresh failed, no retry left");
 		}
-		
-		LOG.info(String.format("Cache refresh process should start after [%s]",(startTime == null || startTime - System.currentTimeMillis() < 0) ? (0 + " minute")
-						: Util.getDurationBreakdown(startTime - System.currentTimeMillis())));
+		return new IllegalStateException(String.format("Refresh failed, next attempt at [%s]", new Date(nextRetry)));
+	}
+
+	/**
+	 * Returns true once the caches are warmed up. Requests received before are
+	 * served by on-demand lookups.
+	 */
+	public boolean isReady() {
+		return warmUpTask != null && warmUpTask.isReady();
+	}
 
-		ScheduledExecutorService service = Executors.newScheduledThreadPool(1);
-		service.scheduleAtFixedRate(RefreshTask.getInstance(),(startTime == null) ? 0 : (startTime - System.currentTimeMillis()), refreshPeriod, unit);
-		LOG.info("Cache refresh process has been scheduled");
+	public String getWarmUpProgress() {
+		return (warmUpTask == null) ? "Cache warm-up [PENDING]" : warmUpTask.getProgress();
 	}
 
 	@Override
@@ -203,80 +349,88 @@ public class UserAttributeProvider implements IHeartbeatServiceProvider,
 
 	public synchronized IEvalValue getAttribute(IDSubject subj, String attribute) throws ServiceProviderException {
 		
+		long startTime = System.nanoTime();
+
+		ProviderLog.startRequest();
+
 		try {
 		
-			long startTime = System.nanoTime();
 			String sapID = subj.getUid();
 			
 			if (subj.getAttribute(Constants.REQUEST_KEY_EMPLOYEE_NO)==null) {
-				LOG.error(String.format(LOG_EMPTY_EMPLOYEE_NUMBER, sapID));
+				LOG.error(LOG_EMPTY_EMPLOYEE_NUMBER, sapID);
 				return EvalValue.NULL;
 			}
 					
 			String employeeNumber = (String) subj.getAttribute(Constants.REQUEST_KEY_EMPLOYEE_NO).getValue();
 	
-			LOG.info(String.format(LOG_INCOMING_REUQEST, sapID, employeeNumber));
+			LOG.requestInfo(LOG_INCOMING_REUQEST, sapID, employeeNumber, attribute);
+
+			if (requestCapture != null) {
+				requestCapture.record(sapID, employeeNumber, attribute);
+			}
 				
-			LOG.debug(String.format("Getting attribute [%s] for [%s]", attribute.toLowerCase(), employeeNumber));
+			LOG.requestDebug("Getting attribute [%s] for [%s]", attribute, employeeNumber);
 	
-			UserObject userObj = engine.getUserObjectFromCache(employeeNumber);
-	
-			// try again with case insensitive
-			if (userObj == null) {
-				userObj = engine.getUserObjectFromCache(employeeNumber.toLowerCase());
-			}
+			long stageStart = metrics.start();
+			UserObject userObj = engine.lookupUserObject(employeeNumber);
+			metrics.stage(RequestMetrics.Stage.USER_CACHE, stageStart);
 	
 			// cache doesn't contain the user, query from AD
 			if (userObj == null) {
-				LOG.info(String.format(LOG_USER_CACHE_MISSED, employeeNumber));
+				LOG.requestInfo(LOG_USER_CACHE_MISSED, employeeNumber);
 	
+				stageStart = metrics.start();
 				try {
 					userObj = ldapProvider.getUserObject(employeeNumber, attribute.toLowerCase());
 				} catch (Exception e) {
-					LOG.error(String.format("Unable to query for USER [%s]", employeeNumber));
+					LOG.error("Unable to query for USER [%s]", employeeNumber);
 					LOG.error(e.getMessage(), e);
 					return nullReturn;
+				} finally {
+					metrics.stage(RequestMetrics.Stage.LDAP_QUERY, stageStart);
 				}
 			}
 	
 			if (userObj == null) {
-				LOG.warn(String.format("Cannot resolve attribute [%s] for [%s] after query IAM-LDAP", attribute, employeeNumber));
-				LOG.info(String.format(LOG_TIME_TAKEN, computeTimeTaken(startTime, System.nanoTime())));
+				LOG.warn("Cannot resolve attribute [%s] for [%s] after query IAM-LDAP", attribute, employeeNumber);
 				return nullReturn;
 			}
 	
 			//  Determine attribute from where
 			if (ldapProvider.getProfile().getUserAttributesToPull().contains(attribute)) {
 	
-				LOG.info(String.format(LOG_USER_ATTRIBUTE_NEEDED, attribute));
+				LOG.requestInfo(LOG_USER_ATTRIBUTE_NEEDED, attribute);
 	
 				IEvalValue val = userObj.getAttribute(attribute.toLowerCase());
 	
 				if (val == null || val.getValue() == null) {
-					LOG.info(String.format("Attribute [%s] is null for user [%s]", attribute, employeeNumber));
+					LOG.requestInfo("Attribute [%s] is null for user [%s]", attribute, employeeNumber);
 					val = nullReturn;
 				}
 	
-				if (val.getValue() instanceof IMultivalue) {
-					StringBuilder sb = new StringBuilder("[").append(employeeNumber).append("] has attribute [").append(attribute).append("] with value = ");
+				// values are only rendered for the requests logged at DEBUG
+				if (LOG.isRequestDebugEnabled()) {
+					if (val.getValue() instanceof IMultivalue) {
+						StringBuilder sb = new StringBuilder("[").append(employeeNumber).append("] has attribute [").append(attribute).append("] with value = ");
 	
-					boolean first = true;
-					for (IEvalValue v : (IMultivalue) val.getValue()) {
-						if (!first) {
-							sb.append(", ");
-						}
-						first = false;
-						if (v == null) {
-							sb.append("null");
-						} else {
-							sb.append(v.getValue());
+						boolean first = true;
+						for (IEvalValue v : (IMultivalue) val.getValue()) {
+							if (!first) {
+								sb.append(", ");
+							}
+							first = false;
+							if (v == null) {
+								sb.append("null");
+							} else {
+								sb.append(v.getValue());
+							}
 						}
+						LOG.debug(sb.toString());
+					} else {
+						LOG.debug("user [%s] has attribute [%s] with value = [%s]", employeeNumber, attribute, val.getValue());
 					}
-					LOG.debug(sb.toString());
-				} else {
-					LOG.debug(String.format("user [%s] has attribute [%s] with value = [%s]", employeeNumber, attribute, val.getValue()));
 				}
-				LOG.info(String.format(LOG_TIME_TAKEN, computeTimeTaken(startTime, System.nanoTime())));
 				
 				return val;
 	
@@ -284,10 +438,10 @@ public class UserAttributeProvider implements IHeartbeatServiceProvider,
 	
 				if (sapProvider.getProfile().getAORAttributesToPull().contains(attribute)) {
 	
-					LOG.info(String.format(LOG_SAP_ATTRIBUTE_NEEDED, attribute));
+					LOG.requestInfo(LOG_SAP_ATTRIBUTE_NEEDED, attribute);
 					
-					//Handling for Provider refreshing cache.
-					while (sapProvider.isRefreshing()) {
+					//Handling for Provider refreshing cache, unless the cache is being warmed up or stays available during the refresh
+					while (sapProvider.isRefreshing() && isReady() && !engine.isChangeDetection()) {
 						
 						LOG.info("SAP Provider is flusing AOR cache, sleep for 20ms then re-try");
 						try {
@@ -298,10 +452,30 @@ public class UserAttributeProvider implements IHeartbeatServiceProvider,
 						
 					}
 	
+					// AOR attributes are keyed in lower case, as in the AORs
+					String attributeKey = attribute.toLowerCase();
+
+					// Materialized AOR attributes of the user, if available
+					Map<String, IEvalValue> aorView = engine.getAorAttributeView().getView(userObj.getId());
+
+					if (aorView != null) {
+						IEvalValue viewVal = aorView.get(attributeKey);
+						LOG.requestDebug("Resolved attribute [%s] for user [%s] from AOR view", attribute, employeeNumber);
+						return (viewVal == null) ? nullReturn : viewVal;
+					}
+
+					// AOR attributes resolved by a previous request of the same evaluation
+					Map<String, IEvalValue> resolved = engine.getSubjectAttributeCache().get(userObj.getId());
+
+					if (resolved != null && resolved.containsKey(attributeKey)) {
+						LOG.requestDebug("Resolved attribute [%s] for user [%s] from subject cache", attribute, employeeNumber);
+						return resolved.get(attributeKey);
+					}
+
 					IEvalValue val = userObj.getAttribute(Constants.LDAP_ATTRIBUTE_AOR_KEY);
 	
 					if (val == null || val.getValue() == null) {
-						LOG.warn(String.format("Attribute AmmoArea is null for user [%s]",employeeNumber));
+						LOG.warn("Attribute AmmoArea is null for user [%s]", employeeNumber);
 						val = nullReturn;
 					}
 					
@@ -309,33 +483,21 @@ public class UserAttributeProvider implements IHeartbeatServiceProvider,
 					List<String> sAORList = new ArrayList<String>();
 	
 					if (val.getValue() instanceof IMultivalue) {
-						StringBuilder sb = new StringBuilder("[" + employeeNumber + "] has attribute [" + Constants.LDAP_ATTRIBUTE_AOR_KEY + "] with value = ");
-	
-						boolean first = true;
 						for (IEvalValue v : (IMultivalue) val.getValue()) {
-							if (!first) {
-								sb.append(", ");
-							}
-							first = false;
-							if (v == null) {
-								sb.append("null");
-							} else {
-								sb.append(v.getValue());
+							if (v != null) {
 								sAORList.add((String)v.getValue());
 							}
-	
 						}
 						
-						LOG.debug(sb.toString());
+						LOG.requestDebug("[%s] has attribute [%s] with value = %s", employeeNumber,
+								Constants.LDAP_ATTRIBUTE_AOR_KEY, sAORList);
 						
-						return getSAPData(sAORList, employeeNumber, attribute, startTime);
+						return getSAPData(sAORList, userObj.getId(), employeeNumber, attributeKey);
 	
 					}
-					LOG.info(String.format(LOG_TIME_TAKEN, computeTimeTaken(startTime, System.nanoTime())));
 					return nullReturn;
 				} else {
-					LOG.info(String.format("Unknow attribute [%s] request from PEP, will return an empty value", attribute));
-					LOG.info(String.format(LOG_TIME_TAKEN, computeTimeTaken(startTime, System.nanoTime())));
+					LOG.requestInfo("Unknow attribute [%s] request from PEP, will return an empty value", attribute);
 					return nullReturn;
 				}
 	
@@ -345,78 +507,132 @@ public class UserAttributeProvider implements IHeartbeatServiceProvider,
 			LOG.error("Fatal exception occured, returning null value");
 			LOG.error(e.getMessage(), e);
 			return nullReturn;
+		} finally {
+			long endTime = System.nanoTime();
+			metrics.record(RequestMetrics.Stage.TOTAL, endTime - startTime);
+
+			if (LOG.isRequestDebugEnabled()) {
+				LOG.debug(LOG_TIME_TAKEN, computeTimeTaken(startTime, endTime));
+			}
 		}
 
 	}
 	
-	private synchronized IEvalValue getSAPData(List<String> sAORList, String employeeNumber, String attribute2Search, long startTime) {
+	private synchronized IEvalValue getSAPData(List<String> sAORList, String userId, String employeeNumber, String attribute2Search) {
+
+		SubjectAttributeCache subjectCache = engine.getSubjectAttributeCache();
+
+		// Resolve every AOR attribute at once so the next requests of the evaluation hit the subject cache
+		Collection<String> attributes = subjectCache.isEnabled() ? sapProvider.getProfile().getAORAttributesToPull()
+				: Collections.singleton(attribute2Search);
+
+		List<SAPObject> sapObjects = new ArrayList<SAPObject>(sAORList.size());
+		boolean complete = lookupSAPObjects(sAORList, employeeNumber, sapObjects);
+
+		Map<String, IEvalValue> resolved = resolveSAPData(sapObjects, employeeNumber, attributes);
+
+		// a result missing AORs because SAP failed or is unavailable is not kept, the next request tries again
+		if (subjectCache.isEnabled() && complete) {
+			subjectCache.put(userId, resolved);
+		}
+
+		return resolved.get(attribute2Search.toLowerCase());
+	}
+
+	/**
+	 * Looks the AORs up in the cache, then queries the missing ones from SAP.
+	 * 
+	 * @return false if SAP could not be called for the missing AORs
+	 */
+	private boolean lookupSAPObjects(List<String> sAORList, String employeeNumber, List<SAPObject> sapObjects) {
 
-		List<String> returnList = new ArrayList<String>();
 		List<String> queryList = new ArrayList<String>();
 
-		for (String sAOR : sAORList) {
+		// all AORs of the user in one bulk lookup, the missing ones again in lower case
+		long stageStart = metrics.start();
+		Map<String, SAPObject> cached = engine.lookupAorObjects(sAORList);
+		metrics.stage(RequestMetrics.Stage.AOR_CACHE, stageStart);
 
-			LOG.debug(String.format(LOG_GET_AOR_ATTRIBUTE, sAOR, employeeNumber));
+		for (String sAOR : sAORList) {
 
-			SAPObject sapObj = engine.getAorObjectFromCache(sAOR);
+			LOG.requestDebug(LOG_GET_AOR_ATTRIBUTE, sAOR, employeeNumber);
 
-			// try again with case insensitive
-			if (sapObj == null) {
-				sapObj = engine.getAorObjectFromCache(sAOR.toLowerCase());
-			}
+			SAPObject sapObj = cached.get(sAOR);
 
 			// cache doesn't contain the AOR, query from SAP
 			if (sapObj == null) {
 				
-				LOG.info(String.format(LOG_AOR_CACHE_MISSED, employeeNumber, sAOR));
+				LOG.requestInfo(LOG_AOR_CACHE_MISSED, employeeNumber, sAOR);
 
 				queryList.add(sAOR);
 			} else {
 				
-				LOG.info(String.format(LOG_AOR_CACHE_HIT, employeeNumber, sAOR));
-				
-				List<String> result = sapObj.getAttributeAsList(attribute2Search);
+				LOG.requestInfo(LOG_AOR_CACHE_HIT, employeeNumber, sAOR);
 				
-				if (result == null || result.size() <1) {
-					LOG.info(String.format("Attribute [%s] for user [%s] from cache for AOR [%s] is empty value", attribute2Search, employeeNumber, sAOR));
-				}
-				else {
-					returnList.addAll(result);
-				}
+				sapObjects.add(sapObj);
 			}
 		}//end for
 		
 		//Calling to SAP to get data
 		if (queryList.size() > 0) {
 			
-			LOG.info(String.format("Calling SAP to get the AOR Data with AOR list [%s]",queryList.toString()));
-			
-			List<SAPObject> sapObjList = sapProvider.getSAPObject(queryList, attribute2Search);
+			LOG.requestInfo("Calling SAP to get the AOR Data with AOR list %s", queryList);
 			
-			for (SAPObject sapObj1: sapObjList) {
-				
-				List<String> result = sapObj1.getAttributeAsList(attribute2Search);
-				
-				if (result == null || result.size() <1) {
-					LOG.info(String.format("Cannot resolve attribute [%s] for [%s] from cache for AOR [%s]", attribute2Search, employeeNumber, sapObj1.getId()));
-				}
-				
-				if (result != null)
-					returnList.addAll(result);
+			stageStart = metrics.start();
+			List<SAPObject> sapObjList = sapProvider.getSAPObject(queryList, null);
+			metrics.stage(RequestMetrics.Stage.RFC_CALL, stageStart);
+
+			if (sapObjList == null) {
+				return false;
 			}
+			sapObjects.addAll(sapObjList);
 		}
-		
-		LOG.debug("SAP function return values: " + returnList.toString());
-		LOG.info(String.format(LOG_TIME_TAKEN, computeTimeTaken(startTime, System.nanoTime())));
-		
-		if (returnList.isEmpty()) {
-			return nullReturn;
+
+		return true;
+	}
+
+	private Map<String, IEvalValue> resolveSAPData(List<SAPObject> sapObjects, String employeeNumber, Collection<String> attributes) {
+
+		long stageStart = metrics.start();
+
+		// by attribute in lower case
+		Map<String, IEvalValue> resolved = new HashMap<String, IEvalValue>();
+
+		// Encoded value sets of every AOR, merged per attribute
+		List<int[]> resultSets = new ArrayList<int[]>(sapObjects.size());
+
+		for (String attribute : attributes) {
+
+			String attribute2Search = attribute.toLowerCase();
+
+			if (LOG.isRequestInfoEnabled()) {
+				for (SAPObject sapObj : sapObjects) {
+
+					int[] result = sapObj.getAttributeCodes(attribute2Search);
+
+					if (result == null || result.length < 1) {
+						LOG.requestInfo("Attribute [%s] for user [%s] for AOR [%s] is empty value", attribute2Search, employeeNumber, sapObj.getId());
+					}
+				}
+			}
+
+			// Deduplicated union of all AORs, decoded once
+			List<String> returnList = SAPObject.union(sapObjects, attribute2Search, resultSets);
+
+			LOG.requestDebug("SAP function return values for [%s]: %s", attribute2Search, returnList);
+
+			if (returnList.isEmpty()) {
+				resolved.put(attribute2Search, nullReturn);
+			} else {
+				// Compose to multivalue IEvalValue
+				IMultivalue multiValue = Multivalue.create(returnList);
+				resolved.put(attribute2Search, EvalValue.build(multiValue));
+			}
 		}
-		// Compose to multivalue IEvalValue
-		IEvalValue value = EvalValue.EMPTY;
-		IMultivalue multiValue = Multivalue.create(returnList);
-		value = EvalValue.build(multiValue);
-		return value;
+
+		metrics.stage(RequestMetrics.Stage.ASSEMBLY, stageStart);
+
+		return resolved;
 	}
 
 	private String computeTimeTaken(long start, long end){
@@ -0,0 +1,45 @@
+package com.nextlabs.task;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter between the attempts of a failed refresh.
+ * The delay doubles with every attempt up to a maximum, then a random part
+ * of it is taken off so the PDP nodes do not retry in step.
+ */
+public class Backoff {
+
+	private final long initialMillis;
+	private final long maxMillis;
+	private final double jitter;
+	private final Random random;
+
+	/**
+	 * @param initialMillis
+	 *            delay before the first retry
+	 * @param maxMillis
+	 *            upper bound of the delay
+	 * @param jitter
+	 *            fraction of the delay which is randomized, between 0 and 1
+	 */
+	public Backoff(long initialMillis, long maxMillis, double jitter) {
+		this.initialMillis = Math.max(initialMillis, 1);
+		this.maxMillis = Math.max(maxMillis, this.initialMillis);
+		this.jitter = Math.min(Math.max(jitter, 0), 1);
+		random = new Random();
+	}
+
+	/**
+	 * Returns the delay before the given retry, starting at 1.
+	 */
+	public long delayMillis(int retry) {
+		long delay = initialMillis;
+
+		for (int i = 1; i < retry && delay < maxMillis; i++) {
+			delay <<= 1;
+		}
+		delay = Math.min(delay, maxMillis);
+
+		return delay - (long) (delay * jitter * random.nextDouble());
+	}
+}
@@ -0,0 +1,134 @@
+package com.nextlabs.task;
+
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Retries of the failed refreshes of a provider. Instead of sleeping between
+ * attempts while holding the refresh lock, a failed attempt schedules the
+ * next one with an exponential backoff and returns, the lock is only held
+ * while an attempt runs.
+ */
+public class RefreshRetry {
+
+	private static final Log LOG = LogFactory.getLog(RefreshRetry.class);
+
+	private final String name;
+	private final ScheduledExecutorService executor;
+	private int maxRetries;
+	private Backoff backoff;
+	private ScheduledFuture<?> pending;
+	private volatile long nextAttemptTime;
+
+	public RefreshRetry(String name) {
+		this(name, newExecutor(name));
+	}
+
+	/**
+	 * @param executor
+	 *            executor running the attempts, an attempt is a whole refresh
+	 *            so the providers do not share it
+	 */
+	public RefreshRetry(String name, ScheduledExecutorService executor) {
+		this.name = name;
+		this.executor = executor;
+		configure(3, new Backoff(TimeUnit.SECONDS.toMillis(30), TimeUnit.MINUTES.toMillis(10), 0.2));
+	}
+
+	public synchronized void configure(int maxRetries, Backoff backoff) {
+		this.maxRetries = maxRetries;
+		this.backoff = backoff;
+	}
+
+	/**
+	 * Configures the retries from number_of_retries, interval_between_retries
+	 * (delay of the first retry, in seconds), retry_max_interval (upper bound
+	 * of the delay, in seconds) and retry_jitter.
+	 */
+	public void configure(Properties props, int maxRetries, int intervalBetweenRetries) {
+		int maxInterval = 600;
+		double jitter = 0.2;
+
+		try {
+			maxInterval = Integer.parseInt(props.getProperty("retry_max_interval", "600").trim());
+		} catch (NumberFormatException e) {
+			LOG.error("Not able to read retry_max_interval, hard set to 600");
+		}
+
+		try {
+			jitter = Double.parseDouble(props.getProperty("retry_jitter", "0.2").trim());
+		} catch (NumberFormatException e) {
+			LOG.error("Not able to read retry_jitter, hard set to 0.2");
+		}
+
+		configure(maxRetries, new Backoff(TimeUnit.SECONDS.toMillis(intervalBetweenRetries),
+				TimeUnit.SECONDS.toMillis(maxInterval), jitter));
+	}
+
+	/**
+	 * Schedules the given retry of the refresh.
+	 *
+	 * @param retry
+	 *            number of the retry, starting at 1
+	 * @return false if the retries are exhausted
+	 */
+	public synchronized boolean schedule(int retry, Runnable attempt) {
+		cancel();
+
+		if (retry > maxRetries) {
+			LOG.error(String.format("%s refresh attempted [%d] retries without success", name, maxRetries));
+			return false;
+		}
+
+		long delay = backoff.delayMillis(retry);
+		nextAttemptTime = System.currentTimeMillis() + delay;
+		pending = executor.schedule(attempt, delay, TimeUnit.MILLISECONDS);
+
+		LOG.info(String.format("%s refresh retry [%d] of [%d] scheduled at [%s]", name, retry, maxRetries,
+				new Date(nextAttemptTime)));
+		return true;
+	}
+
+	/**
+	 * Cancels the pending retry, if any. Called when an attempt starts, a new
+	 * refresh supersedes a pending retry.
+	 */
+	public synchronized void cancel() {
+		if (pending != null) {
+			pending.cancel(false);
+			pending = null;
+		}
+		nextAttemptTime = 0;
+	}
+
+	/**
+	 * Creates the executor running the attempts of a provider. Its thread is
+	 * only started by the first retry.
+	 */
+	public static ScheduledExecutorService newExecutor(final String name) {
+		return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "UAP-RefreshRetry-" + name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Returns the time of the next attempt in milliseconds since the epoch,
+	 * or 0 if no retry is pending.
+	 */
+	public long getNextAttemptTime() {
+		return nextAttemptTime;
+	}
+}
@@ -0,0 +1,180 @@
+package com.nextlabs.task;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When a refresh job runs. A schedule is one of:
+ * <ul>
+ * <li><code>HH:mm</code>, every day at the given time</li>
+ * <li><code>HH:mm-HH:mm</code>, every day at a random time of the window,
+ * so the PDP nodes do not all refresh at the same time</li>
+ * <li><code>&lt;period&gt;_&lt;unit&gt;</code>, at a fixed interval, where
+ * unit can be SECS, MINS, HRS and DAYS</li>
+ * </ul>
+ * A random jitter can be added to every run on top of the schedule, and the
+ * first run can be made to start at once.
+ */
+public class RefreshSchedule {
+
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	private final String spec;
+	private final LocalTime windowStart;
+	private final long windowMillis;
+	private final long intervalMillis;
+	private final long jitterMillis;
+	private final boolean startingNow;
+	private final Random random;
+
+	private RefreshSchedule(String spec, LocalTime windowStart, long windowMillis, long intervalMillis,
+			long jitterMillis, boolean startingNow) {
+		this.spec = spec;
+		this.windowStart = windowStart;
+		this.windowMillis = windowMillis;
+		this.intervalMillis = intervalMillis;
+		this.jitterMillis = jitterMillis;
+		this.startingNow = startingNow;
+		random = new Random();
+	}
+
+	/**
+	 * Parses a schedule.
+	 *
+	 * @param spec
+	 *            the schedule, null, empty or <code>off</code> for none
+	 * @param jitter
+	 *            random delay added to every run, as a period, may be null
+	 * @return the schedule, or null if the job is not scheduled
+	 * @throws IllegalArgumentException
+	 *             if the schedule or the jitter cannot be parsed
+	 */
+	public static RefreshSchedule parse(String spec, String jitter) {
+		if (spec == null || spec.trim().isEmpty() || spec.trim().equalsIgnoreCase("off")) {
+			return null;
+		}
+
+		String value = spec.trim();
+		long jitterMillis = (jitter == null || jitter.trim().isEmpty()) ? 0 : parsePeriod(jitter.trim());
+
+		if (value.contains(":")) {
+			String[] bounds = value.split("-");
+
+			try {
+				LocalTime start = LocalTime.parse(bounds[0].trim());
+				long windowMillis = 0;
+
+				if (bounds.length > 1) {
+					LocalTime end = LocalTime.parse(bounds[1].trim());
+					windowMillis = TimeUnit.NANOSECONDS.toMillis(end.toNanoOfDay() - start.toNanoOfDay());
+					// a window can span midnight
+					if (windowMillis < 0) {
+						windowMillis += DAY_MILLIS;
+					}
+				}
+				return new RefreshSchedule(value, start, windowMillis, 0, jitterMillis, false);
+			} catch (DateTimeParseException e) {
+				throw new IllegalArgumentException(String.format("Invalid schedule [%s]", spec), e);
+			}
+		}
+
+		return new RefreshSchedule(value, null, 0, parsePeriod(value), jitterMillis, false);
+	}
+
+	/**
+	 * Parses a period in the format <code>&lt;period&gt;_&lt;unit&gt;</code>.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the period cannot be parsed or is not positive
+	 */
+	public static long parsePeriod(String period) {
+		String[] temp = period.split("_");
+
+		if (temp.length != 2) {
+			throw new IllegalArgumentException(String.format("Invalid period [%s]", period));
+		}
+
+		long length;
+		try {
+			length = Long.parseLong(temp[0]);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(String.format("Invalid period [%s]", period), e);
+		}
+
+		if (length <= 0) {
+			throw new IllegalArgumentException(String.format("Period must be positive [%s]", period));
+		}
+
+		switch (temp[1]) {
+		case "SECS":
+			return TimeUnit.SECONDS.toMillis(length);
+		case "MINS":
+			return TimeUnit.MINUTES.toMillis(length);
+		case "HRS":
+			return TimeUnit.HOURS.toMillis(length);
+		case "DAYS":
+			return TimeUnit.DAYS.toMillis(length);
+		default:
+			throw new IllegalArgumentException(String.format("Invalid period unit [%s]", period));
+		}
+	}
+
+	/**
+	 * Returns the same schedule, with a first run starting at once.
+	 */
+	public RefreshSchedule startingNow() {
+		return new RefreshSchedule(spec, windowStart, windowMillis, intervalMillis, jitterMillis, true);
+	}
+
+	/**
+	 * Returns the delay until the first run.
+	 *
+	 * @param now
+	 *            current time in milliseconds since the epoch
+	 */
+	public long firstDelayMillis(long now) {
+		return startingNow ? 0 : nextDelayMillis(now);
+	}
+
+	/**
+	 * Returns the delay until the next run.
+	 *
+	 * @param now
+	 *            current time in milliseconds since the epoch
+	 */
+	public long nextDelayMillis(long now) {
+		long delay;
+
+		if (windowStart == null) {
+			delay = intervalMillis;
+		} else {
+			LocalDateTime current = LocalDateTime.ofInstant(java.time.Instant.ofEpochMilli(now),
+					ZoneId.systemDefault());
+			LocalDateTime next = current.toLocalDate().atTime(windowStart);
+
+			if (!next.isAfter(current)) {
+				next = next.plusDays(1);
+			}
+
+			delay = next.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() - now;
+			delay += randomMillis(windowMillis);
+		}
+
+		return delay + randomMillis(jitterMillis);
+	}
+
+	@Override
+	public String toString() {
+		String value = (jitterMillis == 0) ? spec : String.format("%s with jitter of %ds", spec,
+				TimeUnit.MILLISECONDS.toSeconds(jitterMillis));
+		return startingNow ? value + ", starting now" : value;
+	}
+
+	private long randomMillis(long bound) {
+		return (bound <= 0) ? 0 : (long) (random.nextDouble() * bound);
+	}
+}
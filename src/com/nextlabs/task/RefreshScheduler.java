@@ -0,0 +1,353 @@
+package com.nextlabs.task;
+
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs the refresh jobs of the providers (full refresh of the AOR cache,
+ * full and delta refresh of the user cache) on their schedules, and on
+ * demand.
+ *
+ * Jobs of the same group (a provider) never overlap: a run which is due
+ * while another job of its group is running is skipped. The last runs of
+ * every job are kept with their duration and throughput.
+ */
+public class RefreshScheduler {
+
+	private static final Log LOG = LogFactory.getLog(RefreshScheduler.class);
+
+	public static final int DEFAULT_HISTORY_SIZE = 20;
+
+	/**
+	 * Work of a job.
+	 */
+	public interface Action {
+		/**
+		 * Runs the refresh.
+		 *
+		 * @return the number of objects refreshed
+		 * @throws Exception
+		 *             if the refresh failed
+		 */
+		long run() throws Exception;
+	}
+
+	public enum Trigger {
+		SCHEDULED, MANUAL
+	}
+
+	private final Map<String, Job> jobs;
+	private final Map<String, AtomicBoolean> runningGroups;
+	private final int historySize;
+	private final ScheduledExecutorService providedExecutor;
+	private final Clock clock;
+	private ScheduledExecutorService executor;
+
+	public RefreshScheduler(int historySize) {
+		this(historySize, null, Clock.systemDefaultZone());
+	}
+
+	/**
+	 * @param executor
+	 *            executor running the jobs, null for a thread per job created
+	 *            when the scheduler is started
+	 * @param clock
+	 *            clock the jobs are scheduled and recorded against
+	 */
+	public RefreshScheduler(int historySize, ScheduledExecutorService executor, Clock clock) {
+		this.historySize = historySize;
+		this.providedExecutor = executor;
+		this.clock = clock;
+		jobs = new LinkedHashMap<String, Job>();
+		runningGroups = new ConcurrentHashMap<String, AtomicBoolean>();
+	}
+
+	/**
+	 * Adds a job, before the scheduler is started.
+	 *
+	 * @param group
+	 *            jobs of the same group never run at the same time
+	 * @param schedule
+	 *            when the job runs, null if it only runs on demand
+	 */
+	public synchronized void addJob(String name, String group, RefreshSchedule schedule, Action action) {
+		if (executor != null) {
+			throw new IllegalStateException("Jobs cannot be added once the scheduler is started");
+		}
+
+		jobs.put(name, new Job(name, group, schedule, action));
+
+		if (!runningGroups.containsKey(group)) {
+			runningGroups.put(group, new AtomicBoolean());
+		}
+	}
+
+	/**
+	 * Schedules the first run of every scheduled job.
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+
+		if (providedExecutor != null) {
+			executor = providedExecutor;
+		} else {
+			// a thread per job, a long run never delays the jobs of the other groups
+			executor = Executors.newScheduledThreadPool(Math.max(1, jobs.size()), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "UAP-RefreshScheduler");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		for (Job job : jobs.values()) {
+			if (job.schedule == null) {
+				LOG.info(String.format("Refresh job [%s] is not scheduled, it only runs on demand", job.name));
+			} else {
+				scheduleNext(job, true);
+			}
+		}
+	}
+
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Runs a job now, in the background.
+	 *
+	 * @return false if the job does not exist, the scheduler is not started
+	 *         or a job of the same group is running
+	 */
+	public synchronized boolean trigger(String name) {
+		final Job job = jobs.get(name);
+
+		if (job == null) {
+			LOG.warn(String.format("Refresh job [%s] does not exist", name));
+			return false;
+		}
+
+		if (executor == null || runningGroups.get(job.group).get()) {
+			LOG.warn(String.format("Refresh job [%s] cannot be triggered now, the scheduler is stopped or [%s] is refreshing",
+					name, job.group));
+			return false;
+		}
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				runJob(job, Trigger.MANUAL);
+			}
+		});
+
+		LOG.info(String.format("Refresh job [%s] triggered on demand", name));
+		return true;
+	}
+
+	public synchronized List<String> getJobNames() {
+		return new ArrayList<String>(jobs.keySet());
+	}
+
+	/**
+	 * Returns the last runs of the job, oldest first.
+	 */
+	public List<RunRecord> getHistory(String name) {
+		Job job;
+
+		synchronized (this) {
+			job = jobs.get(name);
+		}
+
+		if (job == null) {
+			return new ArrayList<RunRecord>();
+		}
+
+		synchronized (job.history) {
+			return new ArrayList<RunRecord>(job.history);
+		}
+	}
+
+	/**
+	 * Returns the time of the next scheduled run of the job in milliseconds
+	 * since the epoch, or 0 if it is not scheduled.
+	 */
+	public synchronized long getNextRunTime(String name) {
+		Job job = jobs.get(name);
+		return (job == null) ? 0 : job.nextRunTime;
+	}
+
+	/**
+	 * Returns the number of runs of the job skipped because its group was
+	 * refreshing.
+	 */
+	public synchronized long getSkippedCount(String name) {
+		Job job = jobs.get(name);
+		return (job == null) ? 0 : job.skipped.get();
+	}
+
+	private synchronized void scheduleNext(final Job job, boolean first) {
+		if (executor == null) {
+			return;
+		}
+
+		long now = clock.millis();
+		long delay = first ? job.schedule.firstDelayMillis(now) : job.schedule.nextDelayMillis(now);
+		job.nextRunTime = now + delay;
+
+		executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					runJob(job, Trigger.SCHEDULED);
+				} finally {
+					scheduleNext(job, false);
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+
+		LOG.info(String.format("Refresh job [%s] scheduled [%s], next run at [%s]", job.name, job.schedule,
+				new Date(job.nextRunTime)));
+	}
+
+	private void runJob(Job job, Trigger trigger) {
+		AtomicBoolean running = runningGroups.get(job.group);
+
+		if (!running.compareAndSet(false, true)) {
+			job.skipped.incrementAndGet();
+			LOG.warn(String.format("Refresh job [%s] skipped, [%s] is still refreshing", job.name, job.group));
+			return;
+		}
+
+		long startTime = clock.millis();
+		long startNanos = System.nanoTime();
+		long items = 0;
+		String error = null;
+
+		try {
+			LOG.info(String.format("Refresh job [%s] started (%s)", job.name, trigger));
+			items = job.action.run();
+		} catch (Exception e) {
+			error = (e.getMessage() == null) ? e.getClass().getName() : e.getMessage();
+			LOG.error(String.format("Refresh job [%s] failed", job.name), e);
+		} finally {
+			running.set(false);
+		}
+
+		RunRecord record = new RunRecord(job.name, trigger, startTime,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), items, error);
+
+		synchronized (job.history) {
+			if (job.history.size() >= historySize) {
+				job.history.removeFirst();
+			}
+			job.history.addLast(record);
+		}
+
+		LOG.info(record.toString());
+	}
+
+	private static final class Job {
+		private final String name;
+		private final String group;
+		private final RefreshSchedule schedule;
+		private final Action action;
+		private final Deque<RunRecord> history;
+		private final AtomicLong skipped;
+		private volatile long nextRunTime;
+
+		private Job(String name, String group, RefreshSchedule schedule, Action action) {
+			this.name = name;
+			this.group = group;
+			this.schedule = schedule;
+			this.action = action;
+			history = new ArrayDeque<RunRecord>();
+			skipped = new AtomicLong();
+		}
+	}
+
+	/**
+	 * A run of a job.
+	 */
+	public static final class RunRecord {
+		private final String job;
+		private final Trigger trigger;
+		private final long startTime;
+		private final long durationMillis;
+		private final long items;
+		private final String error;
+
+		public RunRecord(String job, Trigger trigger, long startTime, long durationMillis, long items, String error) {
+			this.job = job;
+			this.trigger = trigger;
+			this.startTime = startTime;
+			this.durationMillis = durationMillis;
+			this.items = items;
+			this.error = error;
+		}
+
+		public String getJob() {
+			return job;
+		}
+
+		public Trigger getTrigger() {
+			return trigger;
+		}
+
+		public long getStartTime() {
+			return startTime;
+		}
+
+		public long getDurationMillis() {
+			return durationMillis;
+		}
+
+		public long getItems() {
+			return items;
+		}
+
+		/**
+		 * Returns the objects refreshed per second.
+		 */
+		public double getThroughput() {
+			return (durationMillis == 0) ? items : items * 1000.0 / durationMillis;
+		}
+
+		public boolean isSucceeded() {
+			return error == null;
+		}
+
+		public String getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Refresh job [%s] (%s) started at [%s] %s in %dms: [%d] objects (%.0f objects/s)%s",
+					job, trigger, new Date(startTime), isSucceeded() ? "completed" : "failed", durationMillis, items,
+					getThroughput(), isSucceeded() ? "" : String.format(", error [%s]", error));
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package com.nextlabs.task;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.nextlabs.nxljco.sap.SAPProvider;
+
+/**
+ * Warms up the plugin in the background after it is initialized, so the PDP
+ * does not wait for SAP: the JCo metadata is resolved first, then the AOR
+ * cache is loaded with its retries. Requests are served by on-demand lookups
+ * until the warm-up is completed, and every on-demand lookup warms the cache
+ * up as well.
+ *
+ * When the AOR cache cannot be loaded, the task stays in RETRYING and only
+ * becomes READY once one of the retries scheduled by the provider succeeds.
+ *
+ * Once the first attempt is over, the follow-up task (scheduling of the
+ * periodic refresh) is run.
+ */
+public class WarmUpTask implements Runnable {
+
+	private static final Log LOG = LogFactory.getLog(WarmUpTask.class);
+
+	public enum State {
+		PENDING, WARMING_UP, RETRYING, READY, FAILED
+	}
+
+	private final SAPProvider sapProvider;
+	private final boolean loadAORCache;
+	private final Runnable followUp;
+	private volatile State state;
+	private volatile long startTime;
+	private volatile long endTime;
+
+	/**
+	 * @param loadAORCache
+	 *            true to load the AOR cache after the JCo metadata
+	 * @param followUp
+	 *            task run once the warm-up is over, may be null
+	 */
+	public WarmUpTask(SAPProvider sapProvider, boolean loadAORCache, Runnable followUp) {
+		this.sapProvider = sapProvider;
+		this.loadAORCache = loadAORCache;
+		this.followUp = followUp;
+		state = State.PENDING;
+	}
+
+	/**
+	 * Runs the warm-up in a daemon thread and returns immediately.
+	 */
+	public void start() {
+		Thread thread = new Thread(this, "UAP-WarmUp");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void run() {
+		startTime = System.nanoTime();
+		state = State.WARMING_UP;
+		LOG.info("Cache warm-up started, requests are served by on-demand lookups until it is completed");
+
+		try {
+			sapProvider.warmUp();
+
+			if (loadAORCache && !sapProvider.refreshCache()) {
+				state = State.RETRYING;
+				LOG.warn("AOR cache could not be loaded, requests keep being served by on-demand lookups until a retry succeeds");
+			} else {
+				state = State.READY;
+			}
+		} catch (Exception e) {
+			state = State.FAILED;
+			LOG.error("Cache warm-up encountered an exception, requests keep being served by on-demand lookups", e);
+		} finally {
+			endTime = System.nanoTime();
+		}
+
+		LOG.info(getProgress());
+
+		if (followUp != null) {
+			followUp.run();
+		}
+	}
+
+	public State getState() {
+		// the retries are run by the provider, the warm-up is over once one succeeds
+		if (state == State.RETRYING && sapProvider.isLoaded()) {
+			endTime = System.nanoTime();
+			state = State.READY;
+			LOG.info(getProgress());
+		}
+		return state;
+	}
+
+	/**
+	 * Returns true once the warm-up is over, whether it succeeded or not.
+	 */
+	public boolean isCompleted() {
+		State current = getState();
+		return current == State.READY || current == State.FAILED;
+	}
+
+	/**
+	 * Returns true once the caches are warmed up.
+	 */
+	public boolean isReady() {
+		return getState() == State.READY;
+	}
+
+	public String getProgress() {
+		State current = state;
+
+		if (current == State.PENDING) {
+			return "Cache warm-up [PENDING]";
+		}
+
+		long end = (current == State.WARMING_UP || current == State.RETRYING) ? System.nanoTime() : endTime;
+		long nextRetry = sapProvider.getNextRetryTime();
+
+		return String.format("Cache warm-up [%s]: [%d] AORs loaded in %dms%s", current,
+				sapProvider.getRefreshedAORCount(), TimeUnit.NANOSECONDS.toMillis(end - startTime),
+				(nextRetry == 0) ? "" : String.format(", next attempt at [%s]", new Date(nextRetry)));
+	}
+}
@@ -0,0 +1,177 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bluejungle.framework.expressions.EvalValue;
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.bluejungle.framework.expressions.IMultivalue;
+import com.bluejungle.framework.expressions.Multivalue;
+import com.nextlabs.cache.AORAttributeView;
+import com.nextlabs.cache.CacheEngine;
+import com.nextlabs.common.Constants;
+import com.nextlabs.common.SAPObject;
+import com.nextlabs.common.UserObject;
+
+public class TestAORAttributeView {
+
+	private Map<String, SAPObject> aors;
+	private List<Runnable> tasks;
+	private AORAttributeView view;
+
+	@Before
+	public void setUp() {
+		aors = new HashMap<String, SAPObject>();
+		tasks = new ArrayList<Runnable>();
+
+		// materializations run when the test says so
+		view = new AORAttributeView(new CacheEngine(), new Executor() {
+			@Override
+			public void execute(Runnable task) {
+				tasks.add(task);
+			}
+		}) {
+			@Override
+			protected SAPObject lookupAor(String aorId) {
+				return aors.get(aorId);
+			}
+		};
+		view.setEnabled(true);
+		view.setAttributes(Collections.singleton("SLOC"));
+	}
+
+	@Test
+	public void userShouldBeMaterializedInTheBackground() {
+		putAor("AOR1", "S1", "S2");
+		putAor("AOR2", "S2", "S3");
+
+		view.userChanged(createUser("user1", "AOR1", "AOR2"));
+
+		assertNull(view.getView("user1"));
+		assertEquals(1, view.getPendingCount());
+
+		runTasks();
+
+		assertEquals(Arrays.asList("S1", "S2", "S3"), values(view.getView("user1").get("sloc")));
+	}
+
+	@Test
+	public void userWithAnAORNotCachedShouldNotBeMaterialized() {
+		putAor("AOR1", "S1");
+
+		view.userChanged(createUser("user1", "AOR1", "AOR2"));
+		runTasks();
+
+		assertNull(view.getView("user1"));
+	}
+
+	@Test
+	public void changedAORShouldInvalidateAndRebuildItsUsers() {
+		putAor("AOR1", "S1");
+		view.userChanged(createUser("user1", "AOR1"));
+		runTasks();
+
+		putAor("AOR1", "S4");
+		view.aorChanged("aor1");
+
+		assertNull(view.getView("user1"));
+		runTasks();
+		assertEquals(Arrays.asList("S4"), values(view.getView("user1").get("sloc")));
+
+		// expired or evicted from the AOR cache
+		aors.remove("AOR1");
+		view.aorChanged("AOR1");
+		runTasks();
+
+		assertNull(view.getView("user1"));
+	}
+
+	@Test
+	public void viewShouldNotOutliveItsAORs() {
+		view.setTimeToLive(TimeUnit.MINUTES.toNanos(1));
+
+		putAor("AOR1", "S1");
+		putAor("AOR2", "S2").setCachedAt(System.nanoTime() - TimeUnit.MINUTES.toNanos(2));
+		view.userChanged(createUser("user1", "AOR1"));
+		view.userChanged(createUser("user2", "AOR1", "AOR2"));
+		runTasks();
+
+		assertNotNull(view.getView("user1"));
+		assertNull(view.getView("user2"));
+		assertEquals(1, view.getPendingCount());
+	}
+
+	@Test
+	public void removedUserShouldNotBeMaterialized() {
+		putAor("AOR1", "S1");
+
+		view.userChanged(createUser("user1", "AOR1"));
+		view.userRemoved("user1");
+		runTasks();
+
+		assertNull(view.getView("user1"));
+		assertEquals(0, view.size());
+	}
+
+	@Test
+	public void resumeShouldRebuildInTheBackground() {
+		putAor("AOR1", "S1");
+		view.userChanged(createUser("user1", "AOR1"));
+		runTasks();
+
+		view.suspend();
+		putAor("AOR1", "S5");
+		view.userChanged(createUser("user2", "AOR1"));
+		view.resume();
+
+		// nothing is materialized on the thread resuming the view
+		assertNull(view.getView("user1"));
+		assertEquals(2, view.getPendingCount());
+
+		runTasks();
+
+		assertEquals(Arrays.asList("S5"), values(view.getView("user1").get("sloc")));
+		assertEquals(Arrays.asList("S5"), values(view.getView("user2").get("sloc")));
+	}
+
+	private void runTasks() {
+		while (!tasks.isEmpty()) {
+			tasks.remove(0).run();
+		}
+	}
+
+	private SAPObject putAor(String id, String... slocs) {
+		SAPObject aor = new SAPObject(id);
+		aor.addAttribute(Constants.EXPORT_AOR_COLUMN_STORAGE_LOCATION, Arrays.asList(slocs));
+		aors.put(id, aor);
+		return aor;
+	}
+
+	private UserObject createUser(String id, String... aorIds) {
+		UserObject user = new UserObject("domain", id, "user");
+		user.addAttribute(Constants.LDAP_ATTRIBUTE_AOR_KEY, EvalValue.build(Multivalue.create(Arrays.asList(aorIds))));
+		return user;
+	}
+
+	private List<String> values(IEvalValue value) {
+		List<String> values = new ArrayList<String>();
+		for (IEvalValue v : (IMultivalue) value.getValue()) {
+			values.add((String) v.getValue());
+		}
+		Collections.sort(values);
+		return values;
+	}
+}
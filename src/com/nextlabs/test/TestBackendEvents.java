@@ -0,0 +1,106 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.nextlabs.cache.RefreshSummary;
+import com.nextlabs.jfr.BackendEvents;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class TestBackendEvents {
+
+	@Test
+	public void eventsShouldNotBeStartedWithoutRecording() {
+		BackendEvents events = BackendEvents.getInstance();
+
+		assertNull(events.beginLdapSearch());
+		assertNull(events.beginRfcCall());
+
+		// ending an event which was not started does nothing
+		events.endLdapSearch(null, "domain", "user", "E0000001", true);
+	}
+
+	@Test
+	public void enabledEventsShouldBeRecorded() throws IOException {
+		BackendEvents events = BackendEvents.getInstance();
+		List<RecordedEvent> recorded;
+
+		try (Recording recording = new Recording()) {
+			recording.enable("com.nextlabs.LdapSearch");
+			recording.enable("com.nextlabs.RfcCall");
+			recording.enable("com.nextlabs.Refresh");
+			recording.disable("com.nextlabs.LdapPage");
+			recording.start();
+
+			events.endLdapSearch(events.beginLdapSearch(), "corp", "user", "E0000001", true);
+			events.endRfcCall(events.beginRfcCall(), "SIMULATOR", "Z_AOR", 3, 12, false);
+
+			RefreshSummary summary = new RefreshSummary("AOR");
+			summary.added();
+			summary.removed(2);
+			events.endRefresh(events.beginRefresh(), "AOR", 1, 0, 5, summary, true);
+
+			// disabled in the recording
+			events.endLdapPage(events.beginLdapPage(), "corp", "user", "dc=corp", 0, 100);
+
+			recording.stop();
+			recorded = read(recording);
+		}
+
+		assertEquals(3, recorded.size());
+
+		RecordedEvent search = find(recorded, "com.nextlabs.LdapSearch");
+		assertEquals("corp", search.getString("domain"));
+		assertEquals("E0000001", search.getString("id"));
+		assertTrue(search.getBoolean("found"));
+
+		RecordedEvent call = find(recorded, "com.nextlabs.RfcCall");
+		assertEquals(3, call.getInt("importRows"));
+		assertEquals(12, call.getInt("exportRows"));
+		assertFalse(call.getBoolean("succeeded"));
+
+		RecordedEvent refresh = find(recorded, "com.nextlabs.Refresh");
+		assertEquals(1, refresh.getInt("attempt"));
+		assertEquals(5, refresh.getInt("objects"));
+		assertEquals(1, refresh.getInt("added"));
+		assertEquals(2, refresh.getInt("removed"));
+	}
+
+	private static List<RecordedEvent> read(Recording recording) throws IOException {
+		File file = File.createTempFile("backend-events", ".jfr");
+		try {
+			recording.dump(file.toPath());
+
+			List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+			for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+				if (event.getEventType().getName().startsWith("com.nextlabs.")) {
+					events.add(event);
+				}
+			}
+			return events;
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static RecordedEvent find(List<RecordedEvent> events, String name) {
+		for (RecordedEvent event : events) {
+			if (event.getEventType().getName().equals(name)) {
+				return event;
+			}
+		}
+		throw new AssertionError(name + " not recorded");
+	}
+}
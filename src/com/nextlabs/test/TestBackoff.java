@@ -0,0 +1,32 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.nextlabs.task.Backoff;
+
+public class TestBackoff {
+
+	@Test
+	public void delayShouldDoubleUpToMaximum() {
+		Backoff backoff = new Backoff(1000, 5000, 0);
+
+		assertEquals(1000, backoff.delayMillis(1));
+		assertEquals(2000, backoff.delayMillis(2));
+		assertEquals(4000, backoff.delayMillis(3));
+		assertEquals(5000, backoff.delayMillis(4));
+		assertEquals(5000, backoff.delayMillis(40));
+	}
+
+	@Test
+	public void jitterShouldOnlyShortenDelay() {
+		Backoff backoff = new Backoff(1000, 60000, 0.5);
+
+		for (int i = 0; i < 1000; i++) {
+			long delay = backoff.delayMillis(3);
+			assertTrue(delay > 2000 && delay <= 4000);
+		}
+	}
+}
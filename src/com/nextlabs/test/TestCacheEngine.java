@@ -0,0 +1,196 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bluejungle.framework.expressions.EvalValue;
+import com.nextlabs.cache.CacheEngine;
+import com.nextlabs.cache.RefreshSummary;
+import com.nextlabs.common.Constants;
+import com.nextlabs.common.SAPObject;
+import com.nextlabs.common.UserObject;
+
+public class TestCacheEngine {
+
+	private CacheEngine engine;
+
+	@Before
+	public void setUp() {
+		Properties props = new Properties();
+		props.setProperty("cache_max_entries", "3");
+		props.setProperty("aor_expired_mode", "purge");
+
+		engine = new CacheEngine();
+		engine.initializeCache(props);
+	}
+
+	@Test
+	public void usersShouldBeWrittenInOneBatch() {
+		engine.writeAllToUserCache(Arrays.asList(createUser("d1", "user1", "A"), createUser("d1", "user2", "B")),
+				false);
+		engine.addIdentifiers(identifiers("user1", "user2"));
+
+		assertNotNull(engine.getUserObjectFromCache("user1"));
+		assertNotNull(engine.getUserObjectFromCache("user2"));
+		assertEquals(2, engine.getUserCachePolicy().size());
+	}
+
+	@Test
+	public void batchShouldNotExceedTheEntryLimit() {
+		List<UserObject> users = new ArrayList<UserObject>();
+		for (int i = 0; i < 5; i++) {
+			users.add(createUser("d1", "user" + i, "A"));
+		}
+
+		engine.writeAllToUserCache(users, true);
+		engine.addIdentifiers(identifiers("user0", "user1", "user2", "user3", "user4"));
+
+		int cached = 0;
+		for (int i = 0; i < 5; i++) {
+			if (engine.getUserObjectFromCache("user" + i) != null) {
+				cached++;
+			}
+		}
+		assertEquals(3, cached);
+		assertEquals(3, engine.getUserCachePolicy().size());
+	}
+
+	@Test
+	public void unchangedUsersShouldBeKeptAsTheSameInstance() {
+		UserObject unchanged = createUser("d1", "user1", "A");
+		UserObject changed = createUser("d1", "user2", "B");
+		engine.writeAllToUserCache(Arrays.asList(unchanged, changed), false);
+		engine.addIdentifiers(identifiers("user1", "user2", "user3"));
+
+		RefreshSummary summary = new RefreshSummary("test");
+		engine.refreshAllInUserCache(Arrays.asList(createUser("d1", "user1", "A"), createUser("d1", "user2", "C"),
+				createUser("d1", "user3", "D")), summary);
+
+		assertSame(unchanged, engine.getUserObjectFromCache("user1"));
+		assertNotSame(changed, engine.getUserObjectFromCache("user2"));
+		assertNotNull(engine.getUserObjectFromCache("user3"));
+		assertEquals(1, summary.getUnchanged());
+		assertEquals(1, summary.getChanged());
+		assertEquals(1, summary.getAdded());
+	}
+
+	@Test
+	public void unseenUsersOfRefreshedDomainsShouldBeRemoved() {
+		engine.writeAllToUserCache(Arrays.asList(createUser("d1", "user1", "A"), createUser("d1", "user2", "B"),
+				createUser("d2", "user3", "C")), false);
+		engine.addIdentifiers(identifiers("user1", "user2", "user3"));
+
+		RefreshSummary summary = new RefreshSummary("test");
+		summary.addSource("d1");
+		engine.refreshAllInUserCache(Arrays.asList(createUser("d1", "user1", "A")), summary);
+		engine.removeUnseenFromUserCache(summary);
+
+		assertNotNull(engine.getUserObjectFromCache("user1"));
+		assertNull(engine.getUserObjectFromCache("user2"));
+		// the domain was not refreshed
+		assertNotNull(engine.getUserObjectFromCache("user3"));
+		assertEquals(1, summary.getRemoved());
+		assertEquals(2, engine.getUserCachePolicy().size());
+	}
+
+	@Test
+	public void incompleteRefreshShouldNotRemoveUsers() {
+		engine.writeAllToUserCache(Arrays.asList(createUser("d1", "user1", "A"), createUser("d1", "user2", "B")),
+				false);
+		engine.addIdentifiers(identifiers("user1", "user2"));
+
+		RefreshSummary summary = new RefreshSummary("test");
+		summary.addSource("d1");
+		engine.refreshAllInUserCache(Arrays.asList(createUser("d1", "user1", "A")), summary);
+		summary.setIncomplete();
+		engine.removeUnseenFromUserCache(summary);
+
+		assertNotNull(engine.getUserObjectFromCache("user2"));
+		assertEquals(0, summary.getRemoved());
+	}
+
+	@Test
+	public void aorsShouldBeRefreshedAndUnseenOnesRemoved() {
+		SAPObject unchanged = createAor("AOR1", "S1");
+		SAPObject changed = createAor("AOR2", "S2");
+		engine.writeAllToAORCache(Arrays.asList(unchanged, changed, createAor("AOR3", "S3")));
+
+		RefreshSummary summary = new RefreshSummary("test");
+		engine.refreshAllInAORCache(Arrays.asList(createAor("AOR1", "S1"), createAor("AOR2", "S4")), summary);
+		engine.removeUnseenFromAORCache(summary);
+
+		assertSame(unchanged, engine.getAorObjectFromCache("AOR1"));
+		assertEquals(Arrays.asList("S4"), engine.getAorObjectFromCache("AOR2")
+				.getAttributeAsList(Constants.EXPORT_AOR_COLUMN_STORAGE_LOCATION));
+		assertNull(engine.getAorObjectFromCache("AOR3"));
+		assertEquals(1, summary.getUnchanged());
+		assertEquals(1, summary.getChanged());
+		assertEquals(1, summary.getRemoved());
+	}
+
+	@Test
+	public void usersShouldBeRemovedInOneBatch() {
+		engine.writeAllToUserCache(Arrays.asList(createUser("d1", "user1", "A"), createUser("d1", "user2", "B")),
+				false);
+		engine.addIdentifiers(identifiers("user1", "user2"));
+
+		engine.removeAllFromUserCache(Arrays.asList("user1", "user2", "unknown"));
+
+		assertNull(engine.getUserObjectFromCache("user1"));
+		assertNull(engine.getUserObjectFromCache("user2"));
+		assertEquals(0, engine.getUserCachePolicy().size());
+	}
+
+	@Test
+	public void aorShouldFitASizeBoundedCache() {
+		Properties props = new Properties();
+		props.setProperty("cache_heap_in_mb", "1");
+		props.setProperty("cache_max_object", "100");
+		props.setProperty("aor_expired_mode", "purge");
+		CacheEngine bounded = new CacheEngine();
+		bounded.initializeCache(props);
+
+		// the code table shared by the AORs is far larger than the object graph limit
+		for (int i = 0; i < 20000; i++) {
+			SAPObject.getCodeTable().encode("VALUE" + i);
+		}
+
+		bounded.writeAllToAORCache(Arrays.asList(createAor("AOR1", "S1", "S2")));
+
+		assertEquals(Arrays.asList("S1", "S2"), bounded.getAorObjectFromCache("AOR1")
+				.getAttributeAsList(Constants.EXPORT_AOR_COLUMN_STORAGE_LOCATION));
+	}
+
+	private UserObject createUser(String domain, String id, String title) {
+		UserObject user = new UserObject(domain, id, "user");
+		user.addAttribute("title", EvalValue.build(title));
+		return user;
+	}
+
+	private SAPObject createAor(String id, String... slocs) {
+		SAPObject aor = new SAPObject(id);
+		aor.addAttribute(Constants.EXPORT_AOR_COLUMN_STORAGE_LOCATION, Arrays.asList(slocs));
+		return aor;
+	}
+
+	private Map<String, String> identifiers(String... ids) {
+		Map<String, String> identifiers = new HashMap<String, String>();
+		for (String id : ids) {
+			identifiers.put(id, id);
+		}
+		return identifiers;
+	}
+}
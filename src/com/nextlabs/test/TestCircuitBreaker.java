@@ -0,0 +1,104 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.nextlabs.common.CircuitBreaker;
+
+public class TestCircuitBreaker {
+
+	private static class ManualClockBreaker extends CircuitBreaker {
+		private long now;
+
+		ManualClockBreaker(int failureThreshold) {
+			super("test", failureThreshold, 10, TimeUnit.SECONDS);
+		}
+
+		void advance(long seconds) {
+			now += TimeUnit.SECONDS.toNanos(seconds);
+		}
+
+		@Override
+		protected long nanoTime() {
+			return now;
+		}
+	}
+
+	@Test
+	public void breakerShouldOpenAfterConsecutiveFailures() {
+		ManualClockBreaker breaker = new ManualClockBreaker(3);
+
+		breaker.recordFailure();
+		breaker.recordFailure();
+		breaker.recordSuccess();
+		breaker.recordFailure();
+		breaker.recordFailure();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+		breaker.recordFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+		assertEquals(1, breaker.getRejectedCount());
+		assertEquals(1, breaker.getOpenedCount());
+	}
+
+	@Test
+	public void successfulProbeShouldCloseBreaker() {
+		ManualClockBreaker breaker = new ManualClockBreaker(1);
+		breaker.recordFailure();
+
+		breaker.advance(10);
+		assertTrue(breaker.allowRequest());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		// only the probe goes through
+		assertFalse(breaker.allowRequest());
+
+		breaker.recordSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void failedProbeShouldReopenBreaker() {
+		ManualClockBreaker breaker = new ManualClockBreaker(1);
+		breaker.recordFailure();
+
+		breaker.advance(10);
+		assertTrue(breaker.allowRequest());
+		breaker.recordFailure();
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+		assertEquals(2, breaker.getOpenedCount());
+	}
+
+	@Test
+	public void probeWithoutOutcomeShouldBeReplaced() {
+		ManualClockBreaker breaker = new ManualClockBreaker(1);
+		breaker.recordFailure();
+
+		breaker.advance(10);
+		assertTrue(breaker.allowRequest());
+		assertFalse(breaker.allowRequest());
+
+		breaker.advance(10);
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void zeroThresholdShouldDisableBreaker() {
+		ManualClockBreaker breaker = new ManualClockBreaker(0);
+
+		for (int i = 0; i < 100; i++) {
+			breaker.recordFailure();
+		}
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+	}
+}
@@ -0,0 +1,91 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.nextlabs.common.SAPObject;
+
+public class TestContentHash {
+
+	@Test
+	public void equalContentShouldHaveEqualHash() {
+		SAPObject first = new SAPObject("AOR1");
+		first.addAttribute("StorageLocation", Arrays.asList("A", "B"));
+		first.addAttribute("WarehouseNumber", Arrays.asList("W1"));
+
+		// attributes and values added in a different order
+		SAPObject second = new SAPObject("AOR1");
+		second.addAttribute("WarehouseNumber", Arrays.asList("W1"));
+		second.addAttribute("StorageLocation", Arrays.asList("B", "A"));
+
+		assertEquals(first.getContentHash(), second.getContentHash());
+	}
+
+	@Test
+	public void changedValueShouldChangeHash() {
+		SAPObject first = new SAPObject("AOR1");
+		first.addAttribute("StorageLocation", Arrays.asList("A", "B"));
+
+		SAPObject second = new SAPObject("AOR1");
+		second.addAttribute("StorageLocation", Arrays.asList("A", "C"));
+
+		assertTrue(first.getContentHash() != second.getContentHash());
+	}
+
+	@Test
+	public void valueMovedToOtherAttributeShouldChangeHash() {
+		SAPObject first = new SAPObject("AOR1");
+		first.addAttribute("StorageLocation", Arrays.asList("A"));
+		first.addAttribute("WarehouseNumber", Arrays.asList("B"));
+
+		SAPObject second = new SAPObject("AOR1");
+		second.addAttribute("StorageLocation", Arrays.asList("A", "B"));
+		second.addAttribute("WarehouseNumber", Arrays.<String>asList());
+
+		assertTrue(first.getContentHash() != second.getContentHash());
+	}
+
+	@Test
+	public void missingValuesShouldDifferFromEmptyValues() {
+		Map<String, List<String>> missing = new LinkedHashMap<String, List<String>>();
+		missing.put("StorageLocation", null);
+
+		SAPObject first = new SAPObject("AOR1");
+		first.setAttributes(missing);
+
+		SAPObject second = new SAPObject("AOR1");
+		second.addAttribute("StorageLocation", Arrays.<String>asList());
+
+		assertTrue(first.getContentHash() != second.getContentHash());
+	}
+
+	@Test
+	public void differentIdShouldChangeHash() {
+		SAPObject first = new SAPObject("AOR1");
+		first.addAttribute("StorageLocation", Arrays.asList("A"));
+
+		SAPObject second = new SAPObject("AOR2");
+		second.addAttribute("StorageLocation", Arrays.asList("A"));
+
+		assertTrue(first.getContentHash() != second.getContentHash());
+	}
+
+	@Test
+	public void hashShouldFollowChangedContent() {
+		SAPObject aor = new SAPObject("AOR1");
+		aor.addAttribute("StorageLocation", Arrays.asList("A"));
+		long before = aor.getContentHash();
+
+		assertEquals(before, aor.getContentHash());
+
+		aor.addAttribute("StorageLocation", Arrays.asList("B"));
+		assertTrue(before != aor.getContentHash());
+	}
+}
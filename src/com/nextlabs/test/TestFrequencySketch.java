@@ -0,0 +1,51 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.nextlabs.cache.FrequencySketch;
+
+public class TestFrequencySketch {
+
+	@Test
+	public void frequencyShouldFollowIncrements() {
+		FrequencySketch sketch = new FrequencySketch(1000);
+
+		for (int i = 0; i < 5; i++) {
+			sketch.increment("hot");
+		}
+		sketch.increment("warm");
+
+		assertEquals(5, sketch.frequency("hot"));
+		assertEquals(1, sketch.frequency("warm"));
+		assertEquals(0, sketch.frequency("cold"));
+	}
+
+	@Test
+	public void frequencyShouldBeCapped() {
+		FrequencySketch sketch = new FrequencySketch(1000);
+
+		for (int i = 0; i < 100; i++) {
+			sketch.increment("hot");
+		}
+
+		assertEquals(FrequencySketch.MAX_FREQUENCY, sketch.frequency("hot"));
+	}
+
+	@Test
+	public void frequenciesShouldBeHalvedAfterSample() {
+		FrequencySketch sketch = new FrequencySketch(16);
+
+		for (int i = 0; i < 8; i++) {
+			sketch.increment("hot");
+		}
+		// 10 x 16 accesses trigger a reset
+		for (int i = 0; i < 160; i++) {
+			sketch.increment("user" + i);
+		}
+
+		assertTrue(sketch.frequency("hot") <= 4);
+	}
+}
@@ -1,6 +1,7 @@
 package com.nextlabs.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -18,9 +19,13 @@ import org.junit.rules.ExpectedException;
 import com.nextlabs.nxljco.sap.AttributeExtractor;
 import com.nextlabs.nxljco.sap.IJCoFunctionHandler;
 import com.nextlabs.nxljco.sap.JCoFunctionHandler;
+import com.nextlabs.nxljco.sap.JCoMetadataCache;
 import com.nextlabs.nxljco.sap.exporter.IParameterExporter;
 import com.nextlabs.nxljco.sap.importer.IParameterImporter;
+import com.sap.conn.jco.JCoDestination;
+import com.sap.conn.jco.JCoException;
 import com.sap.conn.jco.JCoFunction;
+import com.sap.conn.jco.JCoFunctionTemplate;
 import com.sap.conn.jco.JCoParameterList;
 
 public class TestJCoFunctionHandler {
@@ -276,4 +281,56 @@ public class TestJCoFunctionHandler {
 		assertTrue(functionHandler.getRfcTable().isEmpty());
 	}
 
+	@Test
+	public void testWarmUpFromMetadataCache() throws JCoException {
+		JCoFunction function = mock(JCoFunction.class);
+		JCoFunctionTemplate template = mock(JCoFunctionTemplate.class);
+		JCoDestination destination = mock(JCoDestination.class);
+		JCoMetadataCache metadataCache = mock(JCoMetadataCache.class);
+		when(template.getFunction()).thenReturn(function);
+		when(metadataCache.warmUp("test", "handler")).thenReturn(true);
+		when(metadataCache.getFunctionTemplate("test", "handler")).thenReturn(template);
+		when(metadataCache.getDestination("test")).thenReturn(destination);
+
+		JCoFunctionHandler functionHandler = new JCoFunctionHandler("test");
+		functionHandler.setMetadataCache(metadataCache);
+
+		assertTrue(functionHandler.warmUp("handler"));
+		assertEquals(function, functionHandler.getFunction("handler"));
+	}
+
+	@Test
+	public void testRefreshedTemplateReplacesFunction() throws JCoException {
+		JCoFunction function = mock(JCoFunction.class);
+		JCoFunction refreshedFunction = mock(JCoFunction.class);
+		JCoFunctionTemplate template = mock(JCoFunctionTemplate.class);
+		JCoFunctionTemplate refreshedTemplate = mock(JCoFunctionTemplate.class);
+		JCoMetadataCache metadataCache = mock(JCoMetadataCache.class);
+		when(template.getFunction()).thenReturn(function);
+		when(refreshedTemplate.getFunction()).thenReturn(refreshedFunction);
+		when(metadataCache.getFunctionTemplate("test", "handler")).thenReturn(template);
+		when(metadataCache.getDestination("test")).thenReturn(mock(JCoDestination.class));
+
+		JCoFunctionHandler functionHandler = new JCoFunctionHandler("test");
+		functionHandler.setMetadataCache(metadataCache);
+
+		assertEquals(function, functionHandler.getFunction("handler"));
+		assertEquals(function, functionHandler.getFunction("handler"));
+
+		when(metadataCache.getFunctionTemplate("test", "handler")).thenReturn(refreshedTemplate);
+
+		assertEquals(refreshedFunction, functionHandler.getFunction("handler"));
+	}
+
+	@Test
+	public void testWarmUpUnknownFunction() throws JCoException {
+		JCoMetadataCache metadataCache = mock(JCoMetadataCache.class);
+		when(metadataCache.warmUp("test", "handler")).thenReturn(false);
+
+		JCoFunctionHandler functionHandler = new JCoFunctionHandler("test");
+		functionHandler.setMetadataCache(metadataCache);
+
+		assertFalse(functionHandler.warmUp("handler"));
+	}
+
 }
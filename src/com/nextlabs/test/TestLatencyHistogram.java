@@ -0,0 +1,82 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.nextlabs.common.LatencyHistogram;
+
+public class TestLatencyHistogram {
+
+	@Test
+	public void emptyHistogramShouldReturnZero() {
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getValueAtPercentile(99));
+		assertEquals(0, histogram.getMeanNanos(), 0);
+	}
+
+	@Test
+	public void smallValuesShouldBeExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i);
+		}
+
+		assertEquals(100, histogram.getCount());
+		assertEquals(50, histogram.getValueAtPercentile(50));
+		assertEquals(99, histogram.getValueAtPercentile(99));
+		assertEquals(100, histogram.getValueAtPercentile(100));
+		assertEquals(50.5, histogram.getMeanNanos(), 0.001);
+	}
+
+	@Test
+	public void percentilesShouldBeWithinPrecision() {
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		// 1ms to 10s
+		for (long micros = 1000; micros <= 10000000; micros += 1000) {
+			histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+		}
+
+		assertWithin(TimeUnit.SECONDS.toNanos(5), histogram.getValueAtPercentile(50));
+		assertWithin(TimeUnit.MILLISECONDS.toNanos(9900), histogram.getValueAtPercentile(99));
+		assertWithin(TimeUnit.MILLISECONDS.toNanos(9990), histogram.getValueAtPercentile(99.9));
+		assertEquals(TimeUnit.SECONDS.toNanos(10), histogram.getMaxNanos());
+		assertEquals(TimeUnit.SECONDS.toNanos(10), histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void addShouldMergeHistograms() {
+		LatencyHistogram fast = new LatencyHistogram();
+		LatencyHistogram slow = new LatencyHistogram();
+
+		for (int i = 0; i < 990; i++) {
+			fast.record(TimeUnit.MICROSECONDS.toNanos(100));
+		}
+		for (int i = 0; i < 10; i++) {
+			slow.record(TimeUnit.MILLISECONDS.toNanos(50));
+		}
+
+		fast.add(slow);
+
+		assertEquals(1000, fast.getCount());
+		assertWithin(TimeUnit.MICROSECONDS.toNanos(100), fast.getValueAtPercentile(99));
+		assertWithin(TimeUnit.MILLISECONDS.toNanos(50), fast.getValueAtPercentile(99.9));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(50), fast.getMaxNanos());
+
+		fast.reset();
+		assertEquals(0, fast.getCount());
+		assertEquals(0, fast.getMaxNanos());
+	}
+
+	private static void assertWithin(long expected, long actual) {
+		assertTrue(String.format("expected [%d] but was [%d]", expected, actual),
+				Math.abs(actual - expected) <= expected / 50);
+	}
+}
@@ -0,0 +1,74 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.nextlabs.common.LogSampler;
+import com.nextlabs.common.ProviderLog;
+
+public class TestProviderLog {
+
+	@Test
+	public void placeholdersShouldBeReplacedInOrder() {
+		assertEquals("Cache missed for user [E1] with AOR [A1]",
+				ProviderLog.format("Cache missed for user [%s] with AOR [%s]", 2, "E1", "A1", null, null));
+		assertEquals("[3] of [4] objects, 50%",
+				ProviderLog.format("[%d] of [%d] objects, 50%%", 2, 3, 4, null, null));
+		assertEquals("value = [null]", ProviderLog.format("value = [%s]", 1, null, null, null, null));
+	}
+
+	@Test
+	public void placeholdersWithoutArgumentShouldBeKept() {
+		assertEquals("[a] and [%s]", ProviderLog.format("[%s] and [%s]", 1, "a", null, null, null));
+		assertEquals("100%", ProviderLog.format("100%", 0, null, null, null, null));
+	}
+
+	@Test
+	public void oneInSampleRateRequestsShouldBeLogged() {
+		LogSampler sampler = new LogSampler(4, 0);
+		int logged = 0;
+
+		for (int i = 0; i < 100; i++) {
+			if (sampler.sample(0)) {
+				logged++;
+			}
+		}
+		assertEquals(25, logged);
+	}
+
+	@Test
+	public void requestsOverTheLimitShouldBeSuppressed() {
+		LogSampler sampler = new LogSampler(1, 2);
+		long now = System.nanoTime();
+
+		assertTrue(sampler.sample(now));
+		assertTrue(sampler.sample(now + 1));
+		assertFalse(sampler.sample(now + 2));
+		assertFalse(sampler.sample(now + 3));
+		assertEquals(2, sampler.takeSuppressed());
+		assertEquals(0, sampler.takeSuppressed());
+
+		// a new second starts over
+		assertTrue(sampler.sample(now + 1000000000L));
+	}
+
+	@Test
+	public void noRequestShouldBeLoggedWithZeroSampleRate() {
+		LogSampler sampler = new LogSampler(0, 0);
+
+		assertFalse(sampler.sample(0));
+		assertEquals(0, sampler.takeSuppressed());
+	}
+
+	@Test
+	public void requestedPayloadsShouldBeCapturedOnce() {
+		ProviderLog.capturePayloads(2);
+
+		assertTrue(ProviderLog.isPayloadCaptured());
+		assertTrue(ProviderLog.isPayloadCaptured());
+		assertEquals(0, ProviderLog.getPayloadsToCapture());
+	}
+}
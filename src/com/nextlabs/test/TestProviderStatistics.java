@@ -0,0 +1,87 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.management.MBeanAttributeInfo;
+
+import org.junit.Test;
+
+import com.nextlabs.cache.CacheEngine;
+import com.nextlabs.common.CircuitBreaker;
+import com.nextlabs.common.RequestMetrics;
+import com.nextlabs.ldap.LdapProvider;
+import com.nextlabs.nxljco.sap.SAPProvider;
+import com.nextlabs.provider.ProviderStatistics;
+import com.nextlabs.task.RefreshScheduler;
+
+public class TestProviderStatistics {
+
+	@Test
+	public void breakersShouldBeExposedPerBackend() throws Exception {
+		Properties props = new Properties();
+		props.setProperty("circuit_breaker_failure_threshold", "1");
+		SAPProvider.getInstance().setCommonProperties(props);
+
+		try {
+			CircuitBreaker sap = SAPProvider.getInstance().getCircuitBreaker();
+			sap.recordFailure();
+			sap.allowRequest();
+			CircuitBreaker ldap = LdapProvider.getInstance().getCircuitBreaker("statistics.test");
+
+			ProviderStatistics statistics = new ProviderStatistics(
+					new RequestMetrics(true, RequestMetrics.DEFAULT_WINDOW_NANOS), new CacheEngine());
+
+			assertEquals("OPEN", statistics.getAttribute("Breaker[SAP]State"));
+			assertEquals(1L, statistics.getAttribute("Breaker[SAP]OpenedCount"));
+			assertEquals(1L, statistics.getAttribute("Breaker[SAP]RejectedCount"));
+			assertEquals(1L, statistics.getAttribute("Breaker[SAP]FailureCount"));
+			assertEquals("CLOSED", statistics.getAttribute("Breaker[" + ldap.getName() + "]State"));
+
+			Set<String> names = new HashSet<String>();
+			for (MBeanAttributeInfo attribute : statistics.getMBeanInfo().getAttributes()) {
+				names.add(attribute.getName());
+			}
+			assertTrue(names.contains("Breaker[SAP]FailureCount"));
+			assertTrue(names.contains("Breaker[" + ldap.getName() + "]RejectedCount"));
+		} finally {
+			// a closed breaker for the other tests
+			SAPProvider.getInstance().setCommonProperties(new Properties());
+		}
+	}
+
+	@Test
+	public void refreshJobsShouldBeTriggeredAndTheirRunsListed() throws Exception {
+		TestingScheduledExecutor executor = new TestingScheduledExecutor(System.currentTimeMillis());
+		RefreshScheduler scheduler = new RefreshScheduler(5, executor, executor.getClock());
+		scheduler.addJob("ldap-full", "LDAP", null, new RefreshScheduler.Action() {
+			@Override
+			public long run() {
+				return 42;
+			}
+		});
+		scheduler.start();
+
+		ProviderStatistics statistics = new ProviderStatistics(
+				new RequestMetrics(true, RequestMetrics.DEFAULT_WINDOW_NANOS), new CacheEngine());
+		assertFalse(statistics.triggerRefresh("ldap-full"));
+
+		statistics.setRefreshScheduler(scheduler);
+
+		assertEquals(Boolean.TRUE, statistics.invoke("triggerRefresh", new Object[] { "ldap-full" },
+				new String[] { String.class.getName() }));
+		executor.runDue();
+
+		String history = (String) statistics.invoke("refreshHistory", new Object[] { "ldap-full" },
+				new String[] { String.class.getName() });
+		assertTrue(history.contains("[42] objects"));
+		assertTrue(history.contains("only runs on demand"));
+		assertTrue(statistics.refreshHistory("unknown").contains("does not exist"));
+		scheduler.stop();
+	}
+}
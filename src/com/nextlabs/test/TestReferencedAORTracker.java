@@ -0,0 +1,81 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.bluejungle.framework.expressions.EvalValue;
+import com.bluejungle.framework.expressions.Multivalue;
+import com.nextlabs.cache.ReferencedAORTracker;
+import com.nextlabs.common.Constants;
+import com.nextlabs.common.UserObject;
+
+public class TestReferencedAORTracker {
+
+	@Test
+	public void sharedAORShouldBeTrackedUntilLastUserIsRemoved() {
+		ReferencedAORTracker tracker = new ReferencedAORTracker();
+
+		tracker.userChanged(createUser("user1", "AOR1", "AOR2"));
+		tracker.userChanged(createUser("user2", "AOR2"));
+
+		assertEquals(Arrays.asList("AOR1", "AOR2"), sorted(tracker.snapshot()));
+
+		tracker.userRemoved("user1");
+		assertEquals(Arrays.asList("AOR2"), sorted(tracker.snapshot()));
+
+		tracker.userRemoved("user2");
+		assertEquals(0, tracker.size());
+	}
+
+	@Test
+	public void changedUserShouldReplaceItsAORs() {
+		ReferencedAORTracker tracker = new ReferencedAORTracker();
+
+		tracker.userChanged(createUser("user1", "AOR1"));
+		tracker.userChanged(createUser("user1", "AOR3"));
+
+		assertEquals(Arrays.asList("AOR3"), sorted(tracker.snapshot()));
+	}
+
+	@Test
+	public void newlyReferencedShouldBeCountedSinceLastSnapshot() {
+		ReferencedAORTracker tracker = new ReferencedAORTracker();
+
+		tracker.userChanged(createUser("user1", "AOR1", "AOR1"));
+		assertEquals(1, tracker.getNewlyReferenced());
+
+		tracker.snapshot();
+		tracker.userChanged(createUser("user2", "AOR1", "AOR2"));
+
+		assertEquals(1, tracker.getNewlyReferenced());
+	}
+
+	@Test
+	public void newlyReferencedShouldBeTakenOnce() {
+		ReferencedAORTracker tracker = new ReferencedAORTracker();
+
+		tracker.userChanged(createUser("user1", "AOR1", "AOR2"));
+		tracker.userChanged(createUser("user2", "AOR3"));
+		tracker.userRemoved("user2");
+
+		assertEquals(Arrays.asList("AOR1", "AOR2"), tracker.takeNewlyReferenced());
+		assertEquals(0, tracker.getNewlyReferenced());
+		assertEquals(Collections.<String> emptyList(), tracker.takeNewlyReferenced());
+	}
+
+	private UserObject createUser(String id, String... aorIds) {
+		UserObject user = new UserObject("domain", id, "user");
+		user.addAttribute(Constants.LDAP_ATTRIBUTE_AOR_KEY, EvalValue.build(Multivalue.create(Arrays.asList(aorIds))));
+		return user;
+	}
+
+	private List<String> sorted(List<String> values) {
+		Collections.sort(values);
+		return values;
+	}
+}
@@ -0,0 +1,65 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.nextlabs.ldap.RefreshPipeline;
+
+public class TestRefreshPipeline {
+
+	@Test
+	public void everySubmittedItemShouldBeWritten() throws Exception {
+		final Set<String> written = Collections.synchronizedSet(new HashSet<String>());
+
+		RefreshPipeline<Integer, String> pipeline = new RefreshPipeline<Integer, String>("test", new Decoder(),
+				new RefreshPipeline.Writer<String>() {
+					@Override
+					public void write(List<String> batch) {
+						assertTrue(batch.size() <= 10);
+						written.addAll(batch);
+					}
+				}, 3, 5, 10);
+
+		for (int i = 0; i < 1000; i++) {
+			pipeline.submit(i);
+		}
+		pipeline.finish(0);
+
+		assertEquals(1000, written.size());
+		assertEquals(1000, pipeline.getWritten());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void writerFailureShouldBeRethrown() throws Exception {
+		RefreshPipeline<Integer, String> pipeline = new RefreshPipeline<Integer, String>("test", new Decoder(),
+				new RefreshPipeline.Writer<String>() {
+					@Override
+					public void write(List<String> batch) {
+						throw new IllegalArgumentException("write failed");
+					}
+				}, 2, 5, 10);
+
+		try {
+			for (int i = 0; i < 1000; i++) {
+				pipeline.submit(i);
+			}
+		} catch (IllegalStateException e) {
+			// the pipeline stops accepting items once a stage has failed
+		}
+		pipeline.finish(0);
+	}
+
+	private static class Decoder implements RefreshPipeline.Decoder<Integer, String> {
+		@Override
+		public String decode(Integer input) {
+			return "user" + input;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.nextlabs.task.Backoff;
+import com.nextlabs.task.RefreshRetry;
+
+public class TestRefreshRetry {
+
+	private static final Runnable NOTHING = new Runnable() {
+		@Override
+		public void run() {
+		}
+	};
+
+	@Test
+	public void retriesShouldBeExhausted() {
+		RefreshRetry retry = new RefreshRetry("LDAP");
+		retry.configure(2, new Backoff(60000, 60000, 0));
+
+		assertTrue(retry.schedule(1, NOTHING));
+		assertTrue(retry.schedule(2, NOTHING));
+		assertTrue(retry.getNextAttemptTime() > System.currentTimeMillis());
+
+		assertFalse(retry.schedule(3, NOTHING));
+		assertEquals(0, retry.getNextAttemptTime());
+	}
+
+	@Test
+	public void cancelShouldDropPendingRetry() throws Exception {
+		final CountDownLatch attempted = new CountDownLatch(1);
+
+		RefreshRetry retry = new RefreshRetry("LDAP");
+		retry.configure(1, new Backoff(200, 200, 0));
+
+		assertTrue(retry.schedule(1, new Runnable() {
+			@Override
+			public void run() {
+				attempted.countDown();
+			}
+		}));
+		retry.cancel();
+
+		assertEquals(0, retry.getNextAttemptTime());
+		assertFalse(attempted.await(500, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void attemptShouldNotDelayTheOtherProvider() throws Exception {
+		final CountDownLatch ldapStarted = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch aorAttempted = new CountDownLatch(1);
+		final AtomicReference<String> ldapThread = new AtomicReference<String>();
+		final AtomicReference<String> aorThread = new AtomicReference<String>();
+
+		RefreshRetry ldap = new RefreshRetry("LDAP");
+		ldap.configure(1, new Backoff(1, 1, 0));
+		RefreshRetry aor = new RefreshRetry("AOR");
+		aor.configure(1, new Backoff(1, 1, 0));
+
+		try {
+			// a whole refresh runs in the attempt
+			ldap.schedule(1, new Runnable() {
+				@Override
+				public void run() {
+					ldapThread.set(Thread.currentThread().getName());
+					ldapStarted.countDown();
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			assertTrue(ldapStarted.await(5, TimeUnit.SECONDS));
+
+			aor.schedule(1, new Runnable() {
+				@Override
+				public void run() {
+					aorThread.set(Thread.currentThread().getName());
+					aorAttempted.countDown();
+				}
+			});
+
+			assertTrue(aorAttempted.await(5, TimeUnit.SECONDS));
+			assertEquals("UAP-RefreshRetry-LDAP", ldapThread.get());
+			assertEquals("UAP-RefreshRetry-AOR", aorThread.get());
+		} finally {
+			release.countDown();
+		}
+	}
+}
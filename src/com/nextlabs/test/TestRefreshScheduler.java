@@ -0,0 +1,193 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.nextlabs.task.RefreshSchedule;
+import com.nextlabs.task.RefreshScheduler;
+
+public class TestRefreshScheduler {
+
+	private static long at(int hour, int minute) {
+		return LocalDate.of(2019, 1, 1).atTime(hour, minute).atZone(ZoneId.systemDefault()).toInstant()
+				.toEpochMilli();
+	}
+
+	@Test
+	public void offShouldNotSchedule() {
+		assertNull(RefreshSchedule.parse("off", null));
+		assertNull(RefreshSchedule.parse("", "5_MINS"));
+		assertNull(RefreshSchedule.parse(null, null));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidScheduleShouldBeRejected() {
+		RefreshSchedule.parse("25:99", null);
+	}
+
+	@Test
+	public void intervalShouldIncludeJitter() {
+		RefreshSchedule schedule = RefreshSchedule.parse("15_MINS", "1_MINS");
+
+		for (int i = 0; i < 1000; i++) {
+			long delay = schedule.nextDelayMillis(at(10, 0));
+			assertTrue(delay >= TimeUnit.MINUTES.toMillis(15) && delay < TimeUnit.MINUTES.toMillis(16));
+		}
+	}
+
+	@Test
+	public void dailyTimeShouldRunTodayOrTomorrow() {
+		RefreshSchedule schedule = RefreshSchedule.parse("23:59", null);
+
+		assertEquals(TimeUnit.MINUTES.toMillis(1), schedule.nextDelayMillis(at(23, 58)));
+		assertEquals(TimeUnit.HOURS.toMillis(24), schedule.nextDelayMillis(at(23, 59)));
+	}
+
+	@Test
+	public void windowShouldSpreadRunsAcrossMidnight() {
+		RefreshSchedule schedule = RefreshSchedule.parse("23:30-00:30", null);
+
+		for (int i = 0; i < 1000; i++) {
+			long delay = schedule.nextDelayMillis(at(23, 0));
+			assertTrue(delay >= TimeUnit.MINUTES.toMillis(30) && delay < TimeUnit.MINUTES.toMillis(90));
+		}
+	}
+
+	@Test
+	public void nonPositivePeriodShouldBeRejected() {
+		for (String spec : new String[] { "0_MINS", "-5_MINS" }) {
+			try {
+				RefreshSchedule.parse(spec, null);
+				fail(spec);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void jobsOfSameGroupShouldNotOverlap() {
+		final TestingScheduledExecutor executor = new TestingScheduledExecutor(at(10, 0));
+		final RefreshScheduler scheduler = new RefreshScheduler(2, executor, executor.getClock());
+		final List<Boolean> triggered = new ArrayList<Boolean>();
+
+		scheduler.addJob("full", "LDAP", null, new RefreshScheduler.Action() {
+			@Override
+			public long run() {
+				triggered.add(scheduler.trigger("delta"));
+				// the delta run falls due while the full one is running
+				executor.advance(TimeUnit.MINUTES.toMillis(15));
+				return 100;
+			}
+		});
+		scheduler.addJob("delta", "LDAP", RefreshSchedule.parse("15_MINS", null), new RefreshScheduler.Action() {
+			@Override
+			public long run() {
+				return 1;
+			}
+		});
+		scheduler.start();
+
+		assertTrue(scheduler.trigger("full"));
+		assertFalse(scheduler.trigger("unknown"));
+		executor.runDue();
+
+		assertEquals(Arrays.asList(false), triggered);
+		assertEquals(1, scheduler.getSkippedCount("delta"));
+		assertTrue(scheduler.getHistory("delta").isEmpty());
+
+		List<RefreshScheduler.RunRecord> history = scheduler.getHistory("full");
+		assertEquals(1, history.size());
+		assertEquals(100, history.get(0).getItems());
+		assertEquals(RefreshScheduler.Trigger.MANUAL, history.get(0).getTrigger());
+		assertTrue(history.get(0).isSucceeded());
+
+		// the skipped run does not stop the schedule
+		executor.advance(TimeUnit.MINUTES.toMillis(15));
+		assertEquals(1, scheduler.getHistory("delta").size());
+		scheduler.stop();
+	}
+
+	@Test
+	public void historyShouldKeepLastRuns() {
+		TestingScheduledExecutor executor = new TestingScheduledExecutor(at(10, 0));
+		RefreshScheduler scheduler = new RefreshScheduler(2, executor, executor.getClock());
+		scheduler.addJob("aor", "SAP", null, new RefreshScheduler.Action() {
+			@Override
+			public long run() {
+				throw new IllegalStateException("SAP unavailable");
+			}
+		});
+		scheduler.start();
+
+		for (int i = 0; i < 3; i++) {
+			assertTrue(scheduler.trigger("aor"));
+			executor.runDue();
+		}
+
+		List<RefreshScheduler.RunRecord> history = scheduler.getHistory("aor");
+		assertEquals(2, history.size());
+		assertFalse(history.get(1).isSucceeded());
+		assertEquals("SAP unavailable", history.get(1).getError());
+		scheduler.stop();
+	}
+
+	@Test
+	public void jobShouldRunOnItsSchedule() {
+		TestingScheduledExecutor executor = new TestingScheduledExecutor(at(10, 0));
+		RefreshScheduler scheduler = new RefreshScheduler(5, executor, executor.getClock());
+		scheduler.addJob("delta", "LDAP", RefreshSchedule.parse("15_MINS", null), new RefreshScheduler.Action() {
+			@Override
+			public long run() {
+				return 1;
+			}
+		});
+		scheduler.start();
+
+		assertEquals(at(10, 15), scheduler.getNextRunTime("delta"));
+		executor.advance(TimeUnit.MINUTES.toMillis(15) - 1);
+		assertTrue(scheduler.getHistory("delta").isEmpty());
+
+		executor.advance(1);
+		List<RefreshScheduler.RunRecord> history = scheduler.getHistory("delta");
+		assertEquals(1, history.size());
+		assertEquals(RefreshScheduler.Trigger.SCHEDULED, history.get(0).getTrigger());
+		assertEquals(at(10, 15), history.get(0).getStartTime());
+		assertEquals(at(10, 30), scheduler.getNextRunTime("delta"));
+
+		scheduler.stop();
+		assertEquals(0, executor.getQueuedCount());
+	}
+
+	@Test
+	public void scheduleStartingNowShouldRunAtOnce() {
+		TestingScheduledExecutor executor = new TestingScheduledExecutor(at(10, 0));
+		RefreshScheduler scheduler = new RefreshScheduler(5, executor, executor.getClock());
+		scheduler.addJob("aor", "SAP", RefreshSchedule.parse("1_DAYS", null).startingNow(),
+				new RefreshScheduler.Action() {
+					@Override
+					public long run() {
+						return 10;
+					}
+				});
+		scheduler.start();
+
+		executor.runDue();
+		assertEquals(1, scheduler.getHistory("aor").size());
+		// then on the schedule
+		assertEquals(at(10, 0) + TimeUnit.DAYS.toMillis(1), scheduler.getNextRunTime("aor"));
+		scheduler.stop();
+	}
+}
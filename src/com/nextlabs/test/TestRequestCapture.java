@@ -0,0 +1,90 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.nextlabs.common.RequestCapture;
+
+public class TestRequestCapture {
+
+	@Test
+	public void capturedRequestsShouldBeReadBack() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		RequestCapture capture = new RequestCapture(bytes, 0);
+
+		capture.record(1000000000L, "SAP1", "E0000001", "sloc");
+		capture.record(1002500000L, "SAP2", "E0000002", "department");
+		capture.record(1010000000L, null, "E0000001", "sloc");
+		capture.close();
+
+		RequestCapture.Reader reader = new RequestCapture.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+
+		RequestCapture.Request first = reader.next();
+		assertEquals(0, first.getOffsetNanos());
+		assertEquals("SAP1", first.getSapId());
+		assertEquals("E0000001", first.getEmployeeNumber());
+		assertEquals("sloc", first.getAttribute());
+
+		RequestCapture.Request second = reader.next();
+		assertEquals(2500000, second.getOffsetNanos());
+		assertEquals("department", second.getAttribute());
+
+		RequestCapture.Request third = reader.next();
+		assertEquals(10000000, third.getOffsetNanos());
+		assertNull(third.getSapId());
+		assertEquals("sloc", third.getAttribute());
+
+		assertNull(reader.next());
+		reader.close();
+	}
+
+	@Test
+	public void requestsShouldBeDroppedOnceFull() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		RequestCapture capture = new RequestCapture(bytes, 200);
+
+		for (int i = 0; i < 100; i++) {
+			capture.record("SAP" + i, "E" + i, "sloc");
+		}
+		long recorded = capture.getRecordedCount();
+		capture.close();
+
+		assertTrue(recorded > 0 && recorded < 100);
+		assertTrue(bytes.size() < 250);
+
+		RequestCapture.Reader reader = new RequestCapture.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+		int read = 0;
+		while (reader.next() != null) {
+			read++;
+		}
+		assertEquals(recorded, read);
+	}
+
+	@Test
+	public void truncatedCaptureShouldEndAtLastCompleteRequest() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		RequestCapture capture = new RequestCapture(bytes, 0);
+		capture.record("SAP1", "E1", "sloc");
+		capture.record("SAP2", "E2", "whnum");
+		capture.close();
+
+		byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 3);
+		RequestCapture.Reader reader = new RequestCapture.Reader(new ByteArrayInputStream(truncated));
+
+		assertEquals("E1", reader.next().getEmployeeNumber());
+		assertNull(reader.next());
+	}
+
+	@Test(expected = IOException.class)
+	public void otherFileShouldBeRejected() throws IOException {
+		new RequestCapture.Reader(new ByteArrayInputStream("2020-01-01 Incoming request".getBytes()));
+	}
+}
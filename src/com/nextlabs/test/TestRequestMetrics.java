@@ -0,0 +1,90 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.nextlabs.cache.CacheCounters;
+import com.nextlabs.common.RequestMetrics;
+import com.nextlabs.common.RequestMetrics.Stage;
+
+public class TestRequestMetrics {
+
+	@Test
+	public void recordedStagesShouldBeCountedSeparately() {
+		RequestMetrics metrics = new RequestMetrics(true, RequestMetrics.DEFAULT_WINDOW_NANOS);
+
+		metrics.record(Stage.USER_CACHE, 2000);
+		metrics.record(Stage.USER_CACHE, 4000);
+		metrics.record(Stage.RFC_CALL, 5000000);
+
+		assertEquals(2, metrics.getCumulative(Stage.USER_CACHE).getCount());
+		assertEquals(1, metrics.getCumulative(Stage.RFC_CALL).getCount());
+		assertEquals(0, metrics.getCumulative(Stage.LDAP_QUERY).getCount());
+		assertEquals(2, metrics.getRecent(Stage.USER_CACHE).getCount());
+	}
+
+	@Test
+	public void stageShouldReturnTheStartOfTheNextStage() throws InterruptedException {
+		RequestMetrics metrics = new RequestMetrics(true, RequestMetrics.DEFAULT_WINDOW_NANOS);
+
+		long start = metrics.start();
+		Thread.sleep(2);
+		long next = metrics.stage(Stage.ASSEMBLY, start);
+
+		assertTrue(next - start >= 2000000);
+		assertTrue(metrics.getCumulative(Stage.ASSEMBLY).getMaxNanos() >= 2000000);
+	}
+
+	@Test
+	public void disabledMetricsShouldNotRecord() {
+		RequestMetrics metrics = new RequestMetrics(false, RequestMetrics.DEFAULT_WINDOW_NANOS);
+
+		assertEquals(0, metrics.start());
+		metrics.stage(Stage.TOTAL, metrics.start());
+		metrics.record(Stage.TOTAL, 1000);
+
+		assertEquals(0, metrics.getCumulative(Stage.TOTAL).getCount());
+	}
+
+	@Test
+	public void recentLatenciesShouldExpireAfterTwoWindows() throws InterruptedException {
+		RequestMetrics metrics = new RequestMetrics(true, 20000000L);
+
+		metrics.record(Stage.TOTAL, 1000);
+		Thread.sleep(60);
+
+		assertEquals(0, metrics.getRecent(Stage.TOTAL).getCount());
+		assertEquals(1, metrics.getCumulative(Stage.TOTAL).getCount());
+	}
+
+	@Test
+	public void resetShouldClearAllLatencies() {
+		RequestMetrics metrics = new RequestMetrics(true, RequestMetrics.DEFAULT_WINDOW_NANOS);
+
+		metrics.record(Stage.TOTAL, 1000);
+		metrics.reset();
+
+		assertEquals(0, metrics.getCumulative(Stage.TOTAL).getCount());
+		assertEquals(0, metrics.getRecent(Stage.TOTAL).getCount());
+	}
+
+	@Test
+	public void cacheCountersShouldComputeTheHitRatio() {
+		CacheCounters counters = new CacheCounters("test");
+
+		assertEquals(0, counters.getHitRatio(), 0);
+
+		counters.hit();
+		counters.miss();
+		counters.lookedUp(2, 4);
+
+		assertEquals(3, counters.getHits());
+		assertEquals(3, counters.getMisses());
+		assertEquals(0.5, counters.getHitRatio(), 0.0001);
+
+		counters.reset();
+		assertEquals(0, counters.getHits());
+	}
+}
@@ -0,0 +1,105 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.nextlabs.common.Constants;
+import com.nextlabs.nxljco.sap.RfcCaptureBuffer;
+
+public class TestRfcCaptureBuffer {
+
+	@Test
+	public void bufferShouldNotBeCreatedByDefault() {
+		assertNull(RfcCaptureBuffer.fromProperties(new Properties()));
+	}
+
+	@Test
+	public void onlyTheLastCallsShouldBeKept() {
+		RfcCaptureBuffer buffer = new RfcCaptureBuffer(3, 100);
+
+		for (int i = 0; i < 5; i++) {
+			buffer.record("PREFIX", "Z_AOR", i, 1000000, new HashMap<String, Object>(), Arrays.asList("A" + i),
+					new HashMap<String, Object>(), null);
+		}
+
+		List<RfcCaptureBuffer.Capture> captures = buffer.snapshot();
+		assertEquals(5, buffer.getRecordedCount());
+		assertEquals(3, captures.size());
+		assertEquals(2, captures.get(0).getStartMillis());
+		assertEquals(4, captures.get(2).getStartMillis());
+		assertTrue(captures.get(2).getRequest().contains("A4"));
+	}
+
+	@Test
+	public void excerptsShouldBeCappedAndRowsCounted() {
+		RfcCaptureBuffer buffer = new RfcCaptureBuffer(1, 200);
+
+		List<Object> rows = new ArrayList<Object>();
+		for (int i = 0; i < 1000; i++) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put(Constants.EXPORT_AOR_ID, "AOR" + i);
+			rows.add(row);
+		}
+		Map<String, Object> exports = new HashMap<String, Object>();
+		exports.put(Constants.EXPORT_AOR_DETAILS, rows);
+
+		buffer.record("PREFIX", "Z_AOR", 0, 1000000, new HashMap<String, Object>(), null, exports, null);
+
+		RfcCaptureBuffer.Capture capture = buffer.snapshot().get(0);
+		assertEquals(1000, capture.getExportRows());
+		assertTrue(capture.getResponse().length() < 300);
+		assertTrue(capture.getResponse().contains("of 1000 rows"));
+	}
+
+	@Test
+	public void returnMessagesShouldBeCaptured() {
+		RfcCaptureBuffer buffer = new RfcCaptureBuffer(1, 100);
+
+		Map<String, Object> message = new HashMap<String, Object>();
+		message.put(Constants.EXPORT_RESPONSE_TYPE, "E");
+		message.put(Constants.EXPORT_RESPONSE_ID, "ZNXL");
+		message.put(Constants.EXPORT_RESPONSE_NUMBER, "001");
+		message.put(Constants.EXPORT_RESPONSE_MESSAGE, "AOR not found");
+		Map<String, Object> exports = new HashMap<String, Object>();
+		exports.put(Constants.EXPORT_BAPI_RETURN, Arrays.<Object> asList(message));
+
+		buffer.record("PREFIX", "Z_AOR", 0, 1000000, new HashMap<String, Object>(), null, exports, null);
+
+		RfcCaptureBuffer.Capture capture = buffer.snapshot().get(0);
+		assertEquals(Arrays.asList("E ZNXL 001: AOR not found"), capture.getReturnMessages());
+		assertTrue(buffer.dump().contains("ET_RETURN: E ZNXL 001: AOR not found"));
+	}
+
+	@Test
+	public void triggerShouldBeRemovedOnceDumped() throws IOException {
+		RfcCaptureBuffer buffer = new RfcCaptureBuffer(2, 100);
+		buffer.record("PREFIX", "Z_AOR", 0, 1000000, new HashMap<String, Object>(), null, null,
+				"java.io.IOException: timeout");
+
+		File trigger = File.createTempFile("rfc-dump", "");
+		File dump = buffer.dumpOnTrigger(trigger);
+
+		try {
+			assertNotNull(dump);
+			assertFalse(trigger.exists());
+			assertTrue(new String(Files.readAllBytes(dump.toPath()), "UTF-8").contains("failed: java.io.IOException"));
+		} finally {
+			dump.delete();
+		}
+	}
+}
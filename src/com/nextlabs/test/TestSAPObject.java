@@ -0,0 +1,64 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.nextlabs.common.SAPObject;
+
+public class TestSAPObject {
+
+	@Test
+	public void valuesShouldKeepTheirOrder() {
+		SAPObject aor = new SAPObject("AOR1");
+		aor.addAttribute("sloc", Arrays.asList("S9", "S1", "S5"));
+
+		assertEquals(Arrays.asList("S9", "S1", "S5"), aor.getAttributeAsList("sloc"));
+		assertSame(aor.getAttributeAsList("sloc"), aor.getAttributeAsList("sloc"));
+	}
+
+	@Test
+	public void unionShouldRemoveDuplicates() {
+		List<SAPObject> aors = Arrays.asList(createAor("AOR1", "S1", "S2"), createAor("AOR2", "S2", "S3"));
+
+		assertEquals(Arrays.asList("S1", "S2", "S3"), sorted(SAPObject.union(aors, "sloc", new ArrayList<int[]>())));
+	}
+
+	@Test
+	public void unionShouldMergeAORsOfDifferentCodeTables() {
+		SAPObject before = createAor("AOR1", "S1", "S2");
+		SAPObject.startCodeTable();
+		SAPObject after = createAor("AOR2", "S3", "S2");
+
+		assertNotSame(before.getEncodingTable(), after.getEncodingTable());
+		assertEquals(Arrays.asList("S1", "S2", "S3"),
+				sorted(SAPObject.union(Arrays.asList(before, after), "sloc", new ArrayList<int[]>())));
+		assertEquals(before.getContentHash(), createAor("AOR1", "S2", "S1").getContentHash());
+	}
+
+	@Test
+	public void unionOfMissingAttributeShouldBeEmpty() {
+		List<SAPObject> aors = Arrays.asList(createAor("AOR1", "S1"));
+
+		assertEquals(0, SAPObject.union(aors, "whnum", new ArrayList<int[]>()).size());
+	}
+
+	private SAPObject createAor(String id, String... slocs) {
+		SAPObject aor = new SAPObject(id);
+		aor.addAttribute("sloc", Arrays.asList(slocs));
+		return aor;
+	}
+
+	private List<String> sorted(List<String> values) {
+		List<String> sorted = new ArrayList<String>(values);
+		Collections.sort(sorted);
+		return sorted;
+	}
+}
@@ -0,0 +1,88 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nextlabs.cache.CacheEngine;
+import com.nextlabs.common.Constants;
+import com.nextlabs.common.SAPObject;
+import com.nextlabs.common.ValueCodeTable;
+import com.nextlabs.nxljco.sap.SAPProvider;
+
+public class TestSAPProvider {
+
+	private SAPProvider provider;
+
+	@Before
+	public void setUp() {
+		Properties props = new Properties();
+		props.setProperty("aor_expired_mode", "purge");
+		props.setProperty("aor_refresh", "true");
+		props.setProperty("refresh_change_detection", "true");
+		props.setProperty("number_of_retries", "0");
+		props.setProperty("sap_server_prefix", "PREFIX");
+		props.setProperty("sap_handler", Constants.DEFAULT_HANDLER);
+		props.setProperty("aor_attributes_to_pull", "multi:sloc,multi:whnum,multi:bizpn,multi:shippt,multi:fe");
+		// a small master answered at once
+		props.setProperty("sap_backend", "simulator");
+		props.setProperty("sap_simulator_aors", "20");
+		props.setProperty("sap_simulator_values_per_aor", "2");
+		props.setProperty("sap_simulator_distinct_values", "10");
+		props.setProperty("sap_simulator_latency_ms", "0");
+		props.setProperty("sap_simulator_latency_p99_ms", "0");
+		props.setProperty("sap_simulator_latency_per_row_us", "0");
+		props.setProperty("sap_simulator_warm_up_ms", "0");
+
+		CacheEngine.getInstance().initializeCache(props);
+
+		provider = new SAPProvider();
+		provider.setCommonProperties(props);
+		provider.loadSingleProfile(props);
+		provider.setIsSingleProfile(true);
+	}
+
+	@Test
+	public void unchangedAORsShouldBeKeptAcrossRefreshes() {
+		assertTrue(provider.refreshCache());
+		SAPObject loaded = CacheEngine.getInstance().getAorObjectFromCache("AOR000001");
+		ValueCodeTable table = SAPObject.getCodeTable();
+		assertNotNull(loaded);
+
+		assertTrue(provider.refreshCache());
+
+		assertSame(table, SAPObject.getCodeTable());
+		assertSame(loaded, CacheEngine.getInstance().getAorObjectFromCache("AOR000001"));
+	}
+
+	@Test
+	public void grownCodeTableShouldBeReplacedOnce() {
+		assertTrue(provider.refreshCache());
+		SAPObject loaded = CacheEngine.getInstance().getAorObjectFromCache("AOR000001");
+		ValueCodeTable table = SAPObject.getCodeTable();
+
+		// values no longer used by any AOR
+		for (int i = 0; i < 5000; i++) {
+			table.encode("GONE" + i);
+		}
+
+		assertTrue(provider.refreshCache());
+
+		SAPObject reloaded = CacheEngine.getInstance().getAorObjectFromCache("AOR000001");
+		assertNotSame(table, SAPObject.getCodeTable());
+		assertNotSame(loaded, reloaded);
+		assertEquals(loaded.getContentHash(), reloaded.getContentHash());
+		assertSame(SAPObject.getCodeTable(), reloaded.getEncodingTable());
+
+		assertTrue(provider.refreshCache());
+
+		assertSame(reloaded, CacheEngine.getInstance().getAorObjectFromCache("AOR000001"));
+	}
+}
@@ -0,0 +1,144 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.nextlabs.common.Constants;
+import com.nextlabs.nxljco.sap.simulator.SimulatedAORMaster;
+import com.nextlabs.nxljco.sap.simulator.SimulatedJCoFunctionHandler;
+import com.sap.conn.jco.JCoTable;
+
+public class TestSimulatedJCoFunctionHandler {
+
+	private static final String HANDLER = Constants.DEFAULT_HANDLER;
+
+	private static SimulatedJCoFunctionHandler handler(SimulatedJCoFunctionHandler.Settings settings) {
+		return new SimulatedJCoFunctionHandler(new SimulatedAORMaster(100, 2, 10), settings);
+	}
+
+	/**
+	 * Calls the handler the way SAPProvider does: the AORs are added to the
+	 * IT_AOR_ID table of the function, which is passed as import.
+	 */
+	private static Map<String, Object> lookup(SimulatedJCoFunctionHandler handler, String... aorIds)
+			throws IOException {
+		JCoTable aorTable = handler.getFunction(HANDLER).getImportParameterList().getTable(Constants.IMPORT_AOR_ID);
+		aorTable.clear();
+		for (String aorId : aorIds) {
+			aorTable.appendRow();
+			aorTable.setValue(0, aorId);
+		}
+
+		Map<String, Object> imports = new HashMap<String, Object>();
+		imports.put(Constants.IMPORT_AOR_ID, aorTable);
+		imports.put(Constants.IMPORT_AOR_GET_ALL, Constants.IMPORT_AOR_GET_ALL_NO);
+
+		return handler.callFunction(HANDLER, imports);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Map<String, Object>> rows(Map<String, Object> exports, String table) {
+		return (List<Map<String, Object>>) exports.get(table);
+	}
+
+	@Test
+	public void lookupShouldReturnRequestedAORs() throws IOException {
+		SimulatedJCoFunctionHandler handler = handler(new SimulatedJCoFunctionHandler.Settings());
+
+		Map<String, Object> exports = lookup(handler, "AOR000001", "AOR000042", "UNKNOWN");
+
+		List<Map<String, Object>> details = rows(exports, Constants.EXPORT_AOR_DETAILS);
+		// 5 attributes of 2 values per AOR
+		assertEquals(20, details.size());
+		assertTrue(rows(exports, Constants.EXPORT_BAPI_RETURN).isEmpty());
+
+		Set<Object> aorIds = new HashSet<Object>();
+		for (Map<String, Object> row : details) {
+			aorIds.add(row.get(Constants.EXPORT_AOR_ID));
+		}
+		assertEquals(new HashSet<Object>(Arrays.asList("AOR000001", "AOR000042")), aorIds);
+
+		// the same AOR always has the same values
+		assertEquals(details.subList(0, 10).toString(),
+				rows(lookup(handler, "AOR000001"), Constants.EXPORT_AOR_DETAILS).toString());
+	}
+
+	@Test
+	public void getAllShouldReturnWholeMaster() throws IOException {
+		SimulatedJCoFunctionHandler handler = handler(new SimulatedJCoFunctionHandler.Settings());
+		handler.getFunction(HANDLER).getImportParameterList().getTable(Constants.IMPORT_AOR_ID).clear();
+
+		Map<String, Object> imports = new HashMap<String, Object>();
+		imports.put(Constants.IMPORT_AOR_GET_ALL, Constants.IMPORT_AOR_GET_ALL_YES);
+
+		assertEquals(1000, rows(handler.callFunction(HANDLER, imports), Constants.EXPORT_AOR_DETAILS).size());
+	}
+
+	@Test
+	public void maxRowsShouldTruncateResponse() throws IOException {
+		SimulatedJCoFunctionHandler.Settings settings = new SimulatedJCoFunctionHandler.Settings();
+		settings.maxRows = 15;
+
+		assertEquals(15,
+				rows(lookup(handler(settings), "AOR000001", "AOR000002"), Constants.EXPORT_AOR_DETAILS).size());
+	}
+
+	@Test
+	public void missingAORsShouldNotBeReturned() throws IOException {
+		SimulatedJCoFunctionHandler.Settings settings = new SimulatedJCoFunctionHandler.Settings();
+		settings.missingRate = 1;
+
+		assertTrue(rows(lookup(handler(settings), "AOR000001"), Constants.EXPORT_AOR_DETAILS).isEmpty());
+	}
+
+	@Test
+	public void returnErrorShouldBeInReturnTable() throws IOException {
+		SimulatedJCoFunctionHandler.Settings settings = new SimulatedJCoFunctionHandler.Settings();
+		settings.returnErrorRate = 1;
+
+		Map<String, Object> exports = lookup(handler(settings), "AOR000001");
+
+		assertTrue(rows(exports, Constants.EXPORT_AOR_DETAILS).isEmpty());
+		assertEquals("E", rows(exports, Constants.EXPORT_BAPI_RETURN).get(0).get(Constants.EXPORT_RESPONSE_TYPE));
+	}
+
+	@Test(expected = IOException.class)
+	public void communicationErrorShouldFailCall() throws IOException {
+		SimulatedJCoFunctionHandler.Settings settings = new SimulatedJCoFunctionHandler.Settings();
+		settings.errorRate = 1;
+
+		lookup(handler(settings), "AOR000001");
+	}
+
+	@Test
+	public void latencyShouldBeInjected() throws IOException {
+		SimulatedJCoFunctionHandler.Settings settings = new SimulatedJCoFunctionHandler.Settings();
+		settings.latencyMillis = 20;
+		settings.latencyP99Millis = 20;
+
+		long start = System.nanoTime();
+		lookup(handler(settings), "AOR000001");
+
+		assertTrue(System.nanoTime() - start >= 20000000);
+	}
+
+	@Test
+	public void unknownAORShouldNotExistInMaster() {
+		SimulatedAORMaster master = new SimulatedAORMaster(100, 2, 10);
+
+		assertEquals(42, master.indexOf("AOR000042"));
+		assertEquals(-1, master.indexOf("AOR000100"));
+		assertNull(master.attributes("SOMETHING"));
+	}
+}
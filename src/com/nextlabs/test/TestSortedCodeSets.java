@@ -0,0 +1,76 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.nextlabs.common.SortedCodeSets;
+import com.nextlabs.common.ValueCodeTable;
+
+public class TestSortedCodeSets {
+
+	@Test
+	public void encodingShouldSortAndRemoveDuplicates() {
+		ValueCodeTable table = new ValueCodeTable();
+		table.encode("B");
+		table.encode("A");
+
+		int[] codes = SortedCodeSets.encode(Arrays.asList("A", "B", "A"), table);
+
+		assertArrayEquals(new int[] { 1, 2 }, codes);
+		assertEquals(Arrays.asList("B", "A"), SortedCodeSets.decode(codes, table));
+	}
+
+	@Test
+	public void nullValueShouldBeEncoded() {
+		ValueCodeTable table = new ValueCodeTable();
+
+		int[] codes = SortedCodeSets.encode(Arrays.asList("A", null), table);
+
+		assertArrayEquals(new int[] { ValueCodeTable.NULL_CODE, 1 }, codes);
+	}
+
+	@Test
+	public void denseUnionShouldRemoveDuplicates() {
+		List<int[]> sets = new ArrayList<int[]>();
+		sets.add(new int[] { 1, 3, 5 });
+		sets.add(new int[] { 2, 3, 6 });
+		sets.add(new int[0]);
+
+		assertArrayEquals(new int[] { 1, 2, 3, 5, 6 }, SortedCodeSets.union(sets));
+	}
+
+	@Test
+	public void sparseUnionShouldRemoveDuplicates() {
+		List<int[]> sets = new ArrayList<int[]>();
+		sets.add(new int[] { 1, 100000 });
+		sets.add(new int[] { 2, 100000, 900000 });
+		sets.add(new int[] { 1, 500000 });
+
+		assertArrayEquals(new int[] { 1, 2, 100000, 500000, 900000 }, SortedCodeSets.union(sets));
+	}
+
+	@Test
+	public void unionOfSingleSetShouldReturnIt() {
+		List<int[]> sets = new ArrayList<int[]>();
+		sets.add(new int[0]);
+		sets.add(new int[] { 4, 7 });
+
+		assertArrayEquals(new int[] { 4, 7 }, SortedCodeSets.union(sets));
+		assertEquals(0, SortedCodeSets.union(new ArrayList<int[]>()).length);
+	}
+
+	@Test
+	public void setShouldBeReturnedAsIs() {
+		int[] codes = new int[] { 1, 4, 7 };
+
+		assertSame(codes, SortedCodeSets.toSet(codes));
+		assertArrayEquals(new int[] { 1, 4, 7 }, SortedCodeSets.toSet(new int[] { 7, 1, 4, 1 }));
+	}
+}
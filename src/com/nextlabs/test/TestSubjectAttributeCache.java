@@ -0,0 +1,64 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.bluejungle.framework.expressions.EvalValue;
+import com.bluejungle.framework.expressions.IEvalValue;
+import com.nextlabs.cache.SubjectAttributeCache;
+
+public class TestSubjectAttributeCache {
+
+	@Test
+	public void leastRecentlyUsedSubjectShouldBeEvicted() {
+		SubjectAttributeCache cache = new SubjectAttributeCache();
+		cache.configure(2, TimeUnit.MINUTES.toNanos(1));
+
+		cache.put("user1", createAttributes());
+		cache.put("user2", createAttributes());
+		cache.get("user1");
+		cache.put("user3", createAttributes());
+
+		assertEquals(2, cache.size());
+		assertNotNull(cache.get("user1"));
+		assertNull(cache.get("user2"));
+		assertNotNull(cache.get("user3"));
+	}
+
+	@Test
+	public void expiredSubjectShouldNotBeReturned() throws InterruptedException {
+		SubjectAttributeCache cache = new SubjectAttributeCache();
+		cache.configure(10, TimeUnit.MILLISECONDS.toNanos(1));
+
+		cache.put("user1", createAttributes());
+		Thread.sleep(5);
+
+		assertNull(cache.get("user1"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void disabledCacheShouldNotKeepSubjects() {
+		SubjectAttributeCache cache = new SubjectAttributeCache();
+		cache.configure(0, TimeUnit.MINUTES.toNanos(1));
+
+		cache.put("user1", createAttributes());
+
+		assertFalse(cache.isEnabled());
+		assertNull(cache.get("user1"));
+	}
+
+	private Map<String, IEvalValue> createAttributes() {
+		Map<String, IEvalValue> attributes = new HashMap<String, IEvalValue>();
+		attributes.put("sloc", EvalValue.build("SLOC1"));
+		return attributes;
+	}
+}
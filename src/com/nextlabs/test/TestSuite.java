@@ -14,6 +14,32 @@ import org.junit.runners.Suite;
 	TestValueExporter.class,
 	TestParameterExporter.class,
 	TestParameterImporter.class,
+	TestValueDictionary.class,
+	TestSortedCodeSets.class,
+	TestSAPObject.class,
+	TestReferencedAORTracker.class,
+	TestAORAttributeView.class,
+	TestSubjectAttributeCache.class,
+	TestUserNearCache.class,
+	TestFrequencySketch.class,
+	TestUserCachePolicy.class,
+	TestCacheEngine.class,
+	TestSAPProvider.class,
+	TestRefreshPipeline.class,
+	TestContentHash.class,
+	TestWarmUpTask.class,
+	TestCircuitBreaker.class,
+	TestBackoff.class,
+	TestRefreshRetry.class,
+	TestRefreshScheduler.class,
+	TestLatencyHistogram.class,
+	TestSimulatedJCoFunctionHandler.class,
+	TestRequestCapture.class,
+	TestRequestMetrics.class,
+	TestBackendEvents.class,
+	TestProviderLog.class,
+	TestProviderStatistics.class,
+	TestRfcCaptureBuffer.class,
 })
 
 public class TestSuite {
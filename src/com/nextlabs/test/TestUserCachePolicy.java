@@ -0,0 +1,102 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.nextlabs.cache.UserCachePolicy;
+
+public class TestUserCachePolicy {
+
+	@Test
+	public void usersShouldBeAdmittedUntilLimit() {
+		UserCachePolicy policy = new UserCachePolicy(2, 100);
+
+		assertNull(policy.admit("user1", false));
+		assertNull(policy.admit("user2", false));
+		assertNull(policy.admit("user1", false));
+
+		assertEquals(2, policy.size());
+	}
+
+	@Test
+	public void refreshShouldNotReplaceHotUsers() {
+		UserCachePolicy policy = new UserCachePolicy(2, 100);
+		request(policy, "hot1", 5);
+		request(policy, "hot2", 5);
+		policy.admit("hot1", true);
+		policy.admit("hot2", true);
+
+		assertEquals("scanned", policy.admit("scanned", false));
+		assertEquals(1, policy.getRejected());
+		assertEquals(2, policy.size());
+	}
+
+	@Test
+	public void requestedUserShouldReplaceLeastFrequentUser() {
+		UserCachePolicy policy = new UserCachePolicy(2, 100);
+		request(policy, "hot", 5);
+		policy.admit("hot", true);
+		policy.admit("cold", false);
+
+		assertEquals("cold", policy.admit("new", true));
+
+		policy.removed("hot");
+		assertEquals(1, policy.size());
+	}
+
+	@Test
+	public void onlyFrequentUsersShouldBeProtectedFromEviction() {
+		UserCachePolicy policy = new UserCachePolicy(0, 100);
+		request(policy, "hot", UserCachePolicy.HOT_FREQUENCY);
+		request(policy, "warm", 1);
+
+		assertTrue(policy.adviseAgainstEviction("hot", null));
+		assertFalse(policy.adviseAgainstEviction("warm", null));
+	}
+
+	@Test
+	public void userGoneFromCacheShouldMakeRoomWithoutEviction() {
+		UserCachePolicy policy = new UserCachePolicy(1, 100);
+		final Set<String> cached = new HashSet<String>();
+		policy.setResidency(new UserCachePolicy.Residency() {
+			@Override
+			public boolean isCached(String key) {
+				return cached.contains(key);
+			}
+		});
+
+		request(policy, "expired", 5);
+		policy.admit("expired", true);
+
+		// expired without its removal event, the refresh replaces it even though it was hot
+		assertEquals("expired", policy.admit("scanned", false));
+		assertEquals(0, policy.getRejected());
+		assertEquals(1, policy.size());
+	}
+
+	@Test
+	public void bufferedAccessesShouldBeCounted() {
+		UserCachePolicy policy = new UserCachePolicy(0, 1000);
+
+		for (int i = 0; i < 1000; i++) {
+			policy.recordAccess("user" + (i % 100));
+		}
+		policy.recordAccess("last");
+
+		assertEquals(1, policy.frequency("last"));
+		assertTrue(policy.frequency("user1") > 0);
+	}
+
+	private void request(UserCachePolicy policy, String key, int times) {
+		for (int i = 0; i < times; i++) {
+			policy.recordAccess(key);
+		}
+	}
+}
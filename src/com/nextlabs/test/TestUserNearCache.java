@@ -0,0 +1,109 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.nextlabs.cache.UserNearCache;
+import com.nextlabs.common.UserObject;
+
+public class TestUserNearCache {
+
+	@Test
+	public void userShouldBeReturnedUntilInvalidated() {
+		UserNearCache cache = new UserNearCache();
+		cache.configure(16, TimeUnit.MINUTES.toNanos(1));
+		UserObject user = new UserObject("domain", "domain:12345", "user");
+
+		cache.put("12345", user);
+		assertSame(user, cache.get("12345"));
+
+		cache.invalidateUser("domain:12345");
+		assertNull(cache.get("12345"));
+	}
+
+	@Test
+	public void keyShouldBeInvalidatedInAnyCase() {
+		UserNearCache cache = new UserNearCache();
+		cache.configure(16, TimeUnit.MINUTES.toNanos(1));
+		UserObject user = new UserObject("domain", "domain:abc123", "user");
+
+		cache.put("ABC123", user);
+		assertNull(cache.get("abc123"));
+		assertSame(user, cache.get("ABC123"));
+
+		cache.invalidateKey("abc123");
+		assertNull(cache.get("ABC123"));
+	}
+
+	@Test
+	public void userShouldBeInvalidatedUnderAllItsKeys() {
+		UserNearCache cache = new UserNearCache();
+		cache.configure(64, TimeUnit.MINUTES.toNanos(1));
+		UserObject user = new UserObject("domain", "domain:abc123", "user");
+		UserObject other = new UserObject("domain", "domain:xyz789", "user");
+
+		cache.put("abc123", user);
+		cache.put("ABC123", user);
+		cache.put("xyz789", other);
+		assertEquals(2, cache.getIndexedUserCount());
+
+		cache.invalidateUser("domain:abc123");
+
+		assertNull(cache.get("abc123"));
+		assertNull(cache.get("ABC123"));
+		assertSame(other, cache.get("xyz789"));
+		assertEquals(1, cache.getIndexedUserCount());
+	}
+
+	@Test
+	public void replacedEntriesShouldLeaveTheIndex() {
+		UserNearCache cache = new UserNearCache();
+		// a single set
+		cache.configure(UserNearCache.WAYS, TimeUnit.MINUTES.toNanos(1));
+
+		for (int i = 0; i < 100; i++) {
+			cache.put("user" + i, new UserObject("domain", "user" + i, "user"));
+		}
+
+		assertEquals(UserNearCache.WAYS, cache.getIndexedUserCount());
+	}
+
+	@Test
+	public void leastFrequentlyUsedUserShouldBeReplaced() {
+		UserNearCache cache = new UserNearCache();
+		// a single set
+		cache.configure(UserNearCache.WAYS, TimeUnit.MINUTES.toNanos(1));
+
+		for (int i = 0; i < UserNearCache.WAYS; i++) {
+			cache.put("user" + i, new UserObject("domain", "user" + i, "user"));
+		}
+		for (int i = 1; i < UserNearCache.WAYS; i++) {
+			cache.get("user" + i);
+		}
+
+		cache.put("newUser", new UserObject("domain", "newUser", "user"));
+
+		assertNull(cache.get("user0"));
+		assertNotNull(cache.get("newUser"));
+		for (int i = 1; i < UserNearCache.WAYS; i++) {
+			assertNotNull(cache.get("user" + i));
+		}
+	}
+
+	@Test
+	public void expiredUserShouldNotBeReturned() throws InterruptedException {
+		UserNearCache cache = new UserNearCache();
+		cache.configure(16, TimeUnit.MILLISECONDS.toNanos(1));
+
+		cache.put("12345", new UserObject("domain", "12345", "user"));
+		Thread.sleep(5);
+
+		assertNull(cache.get("12345"));
+	}
+}
@@ -0,0 +1,91 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.nextlabs.cache.ValueDictionary;
+
+public class TestValueDictionary {
+
+	@Test
+	public void equalStringsShouldBeShared() {
+		ValueDictionary dictionary = new ValueDictionary("test");
+
+		String first = dictionary.intern(new String("SLOC1"));
+		String second = dictionary.intern(new String("SLOC1"));
+
+		assertSame(first, second);
+	}
+
+	@Test
+	public void equalListsShouldBeShared() {
+		ValueDictionary dictionary = new ValueDictionary("test");
+
+		List<String> first = dictionary.internList(new ArrayList<String>(Arrays.asList("A", "B")));
+		List<String> second = dictionary.internList(new ArrayList<String>(Arrays.asList("A", "B")));
+
+		assertSame(first, second);
+		assertEquals(Arrays.asList("A", "B"), first);
+	}
+
+	@Test
+	public void disabledDictionaryShouldNotShare() {
+		ValueDictionary dictionary = new ValueDictionary("test");
+		dictionary.setEnabled(false);
+
+		List<String> first = dictionary.internList(Arrays.asList("A"));
+		List<String> second = dictionary.internList(Arrays.asList("A"));
+
+		assertNotSame(first, second);
+		assertEquals(0, dictionary.size());
+	}
+
+	@Test
+	public void purgeShouldRemoveEntriesUnusedInGeneration() {
+		ValueDictionary dictionary = new ValueDictionary("test");
+
+		dictionary.intern("OLD");
+		int generation = dictionary.startGeneration();
+		String kept = dictionary.intern("KEPT");
+		dictionary.purge(generation);
+
+		assertEquals(1, dictionary.size());
+		assertSame(kept, dictionary.intern(new String("KEPT")));
+	}
+
+	@Test
+	public void entriesShouldBeCapped() {
+		ValueDictionary dictionary = new ValueDictionary("test");
+		dictionary.setMaxEntries(10);
+
+		for (int i = 0; i < 1000; i++) {
+			dictionary.intern("USER" + i);
+		}
+
+		assertTrue(dictionary.size() <= 10);
+	}
+
+	@Test
+	public void entriesInUseShouldSurviveTheCap() {
+		ValueDictionary dictionary = new ValueDictionary("test");
+		dictionary.setMaxEntries(10);
+
+		String kept = dictionary.intern("KEPT");
+		for (int i = 0; i < 9; i++) {
+			dictionary.intern("ONCE" + i);
+		}
+		dictionary.intern(new String("KEPT"));
+		dictionary.intern("NEW");
+
+		assertEquals(2, dictionary.size());
+		assertSame(kept, dictionary.intern(new String("KEPT")));
+	}
+}
@@ -0,0 +1,92 @@
+package com.nextlabs.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.nextlabs.nxljco.sap.SAPProvider;
+import com.nextlabs.task.WarmUpTask;
+
+public class TestWarmUpTask {
+
+	@Test
+	public void completedWarmUpShouldBeReady() {
+		SAPProvider provider = mock(SAPProvider.class);
+		when(provider.refreshCache()).thenReturn(true);
+		when(provider.getRefreshedAORCount()).thenReturn(42);
+		final AtomicBoolean followedUp = new AtomicBoolean();
+
+		WarmUpTask task = new WarmUpTask(provider, true, new Runnable() {
+			@Override
+			public void run() {
+				followedUp.set(true);
+			}
+		});
+
+		assertEquals(WarmUpTask.State.PENDING, task.getState());
+		assertFalse(task.isCompleted());
+
+		task.run();
+
+		verify(provider).warmUp();
+		verify(provider).refreshCache();
+		assertEquals(WarmUpTask.State.READY, task.getState());
+		assertTrue(task.isCompleted());
+		assertTrue(task.isReady());
+		assertTrue(followedUp.get());
+		assertTrue(task.getProgress().contains("[42] AORs loaded"));
+	}
+
+	@Test
+	public void failedWarmUpShouldStillRunFollowUp() {
+		SAPProvider provider = mock(SAPProvider.class);
+		doThrow(new IllegalStateException("SAP unavailable")).when(provider).refreshCache();
+		final AtomicBoolean followedUp = new AtomicBoolean();
+
+		WarmUpTask task = new WarmUpTask(provider, true, new Runnable() {
+			@Override
+			public void run() {
+				followedUp.set(true);
+			}
+		});
+
+		task.run();
+
+		assertEquals(WarmUpTask.State.FAILED, task.getState());
+		assertTrue(task.isCompleted());
+		assertTrue(followedUp.get());
+	}
+
+	@Test
+	public void failedLoadShouldOnlyBeReadyOnceARetrySucceeds() {
+		SAPProvider provider = mock(SAPProvider.class);
+		when(provider.refreshCache()).thenReturn(false);
+		final AtomicBoolean followedUp = new AtomicBoolean();
+
+		WarmUpTask task = new WarmUpTask(provider, true, new Runnable() {
+			@Override
+			public void run() {
+				followedUp.set(true);
+			}
+		});
+
+		task.run();
+
+		assertEquals(WarmUpTask.State.RETRYING, task.getState());
+		assertFalse(task.isReady());
+		assertTrue(followedUp.get());
+
+		when(provider.isLoaded()).thenReturn(true);
+
+		assertEquals(WarmUpTask.State.READY, task.getState());
+		assertTrue(task.isReady());
+	}
+}
@@ -0,0 +1,187 @@
+package com.nextlabs.test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduled executor running its tasks on the calling thread when the test
+ * moves its time forward, with a clock reading that time.
+ */
+public class TestingScheduledExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+
+	private final List<Task<?>> tasks;
+	private long now;
+	private long sequence;
+	private boolean shutdown;
+
+	public TestingScheduledExecutor(long now) {
+		this.now = now;
+		tasks = new ArrayList<Task<?>>();
+	}
+
+	public Clock getClock() {
+		return new Clock() {
+			@Override
+			public ZoneId getZone() {
+				return ZoneId.systemDefault();
+			}
+
+			@Override
+			public Clock withZone(ZoneId zone) {
+				return this;
+			}
+
+			@Override
+			public Instant instant() {
+				return Instant.ofEpochMilli(now);
+			}
+		};
+	}
+
+	public long now() {
+		return now;
+	}
+
+	/**
+	 * Runs the tasks which are due.
+	 */
+	public void runDue() {
+		advance(0);
+	}
+
+	/**
+	 * Moves the time forward, running the tasks in the order they are due.
+	 */
+	public void advance(long millis) {
+		long target = now + millis;
+
+		while (true) {
+			Task<?> next = null;
+			for (Task<?> task : tasks) {
+				if (task.time <= target && (next == null || task.compareTo(next) < 0)) {
+					next = task;
+				}
+			}
+
+			if (next == null) {
+				break;
+			}
+
+			tasks.remove(next);
+			now = Math.max(now, next.time);
+			next.run();
+		}
+
+		// a task may have moved the time further itself
+		now = Math.max(now, target);
+	}
+
+	/**
+	 * Returns the number of tasks waiting to run, cancelled ones excluded.
+	 */
+	public int getQueuedCount() {
+		int count = 0;
+		for (Task<?> task : tasks) {
+			if (!task.isCancelled()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		schedule(command, 0, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		return schedule(Executors.callable(command), delay, unit);
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		if (shutdown) {
+			throw new RejectedExecutionException("Executor is shut down");
+		}
+
+		Task<V> task = new Task<V>(callable, now + unit.toMillis(delay), sequence++);
+		tasks.add(task);
+		return task;
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		tasks.clear();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown();
+		return Collections.emptyList();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) {
+		return shutdown;
+	}
+
+	private final class Task<V> extends FutureTask<V> implements ScheduledFuture<V> {
+		private final long time;
+		private final long order;
+
+		private Task(Callable<V> callable, long time, long order) {
+			super(callable);
+			this.time = time;
+			this.order = order;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(time - now, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			if (other instanceof Task) {
+				Task<?> task = (Task<?>) other;
+				return (time != task.time) ? Long.compare(time, task.time) : Long.compare(order, task.order);
+			}
+			return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+		}
+	}
+}